@@ -0,0 +1,136 @@
+package pan.alexander.tordnscrypt.utils.dns;
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rules are generated with the proportions of the usual blacklists:
+ * mostly domains, some wildcard prefixes and substrings and a few globs.
+ * Half of the looked up domains match a rule of any type.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DomainRulesMatcherBenchmark {
+
+    private static final String[] TLDS = {"com", "net", "org", "io", "ru", "de"};
+    private static final int DOMAINS_COUNT = 1024;
+
+    @Param({"1000", "100000", "1000000"})
+    public int rulesCount;
+
+    private List<String> rules;
+    private DomainRulesMatcher matcher;
+    private String[] domains;
+    private int domainIndex;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+
+        rules = new ArrayList<>(rulesCount);
+        //A domain matched by each rule, in the same order as rules
+        List<String> matchingDomains = new ArrayList<>(rulesCount);
+        for (int i = 0; i < rulesCount; i++) {
+            int type = random.nextInt(100);
+            String name = randomLabel(random) + "." + TLDS[random.nextInt(TLDS.length)];
+            if (type < 90) {
+                rules.add(name);
+                matchingDomains.add("www." + name);
+            } else if (type < 94) {
+                rules.add("=" + name);
+                matchingDomains.add(name);
+            } else if (type < 97) {
+                String prefix = randomLabel(random) + ".";
+                rules.add(prefix + "*");
+                matchingDomains.add(prefix + "example.com");
+            } else if (type < 99) {
+                String substring = randomLabel(random);
+                rules.add("*" + substring + "*");
+                matchingDomains.add("x" + substring + ".com");
+            } else {
+                String label = randomLabel(random);
+                rules.add(label + "[0-9]*." + name);
+                matchingDomains.add(label + "5x." + name);
+            }
+        }
+
+        matcher = buildMatcher();
+
+        domains = new String[DOMAINS_COUNT];
+        for (int i = 0; i < DOMAINS_COUNT; i++) {
+            if (i % 2 == 0) {
+                domains[i] = matchingDomains.get(random.nextInt(matchingDomains.size()));
+            } else {
+                domains[i] = randomLabel(random) + "." + randomLabel(random) + "."
+                        + TLDS[random.nextInt(TLDS.length)];
+            }
+        }
+    }
+
+    @Benchmark
+    public String match() {
+        String domain = domains[domainIndex++ & (DOMAINS_COUNT - 1)];
+        return matcher.match(domain);
+    }
+
+    @Benchmark
+    public void matchAll(Blackhole blackhole) {
+        for (String domain : domains) {
+            blackhole.consume(matcher.match(domain));
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public DomainRulesMatcher build() {
+        return buildMatcher();
+    }
+
+    private DomainRulesMatcher buildMatcher() {
+        DomainRulesMatcher.Builder builder = new DomainRulesMatcher.Builder();
+        for (String rule : rules) {
+            builder.add(rule);
+        }
+        return builder.build();
+    }
+
+    private static String randomLabel(Random random) {
+        int length = 4 + random.nextInt(10);
+        StringBuilder label = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            label.append((char) ('a' + random.nextInt(26)));
+        }
+        return label.toString();
+    }
+}
@@ -617,7 +617,7 @@ public class MainActivity extends LangAppCompatActivity
                 newIdentityMenuItem.setActionView(animatingImage);
             }
 
-            ModulesRestarter.restartTor(this);
+            ModulesRestarter.newTorIdentity(this, null);
 
             if (isFinishing() || handler == null) {
                 return;
@@ -43,9 +43,11 @@ import androidx.preference.PreferenceManager;
 
 import java.lang.ref.WeakReference;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -73,8 +75,10 @@ import pan.alexander.tordnscrypt.settings.PathVars;
 import pan.alexander.tordnscrypt.update.UpdateCheck;
 import pan.alexander.tordnscrypt.update.UpdateService;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.dialogs.Registration;
 import pan.alexander.tordnscrypt.utils.root.RootExecService;
+import pan.alexander.tordnscrypt.utils.root.StartupProbesCache;
 import pan.alexander.tordnscrypt.utils.Utils;
 import pan.alexander.tordnscrypt.utils.integrity.Verifier;
 import pan.alexander.tordnscrypt.utils.enums.ModuleState;
@@ -133,6 +137,10 @@ public class TopFragment extends Fragment {
     public CachedExecutor cachedExecutor;
     @Inject
     public Lazy<ModulesVersions> modulesVersions;
+    @Inject
+    public TaskScheduler taskScheduler;
+    @Inject
+    public Lazy<StartupProbesCache> startupProbesCache;
 
     private OperationMode mode = UNDEFINED;
     private boolean runModulesWithRoot = false;
@@ -325,7 +333,7 @@ public class TopFragment extends Fragment {
     private static class RootChecker extends AsyncTask<Void, Void, Void> {
 
         private WeakReference<TopFragment> topFragmentWeakReference;
-        private boolean suAvailable = false;
+        private StartupProbesCache.SuProbe cachedSuProbe;
 
         RootChecker(TopFragment topFragment) {
             this.topFragmentWeakReference = new WeakReference<>(topFragment);
@@ -345,25 +353,8 @@ public class TopFragment extends Fragment {
         }
 
         @Override
-        @SuppressWarnings("deprecation")
         protected Void doInBackground(Void... params) {
 
-            try {
-                suAvailable = Shell.SU.available();
-            } catch (Exception e) {
-                Log.e(LOG_TAG, "Top Fragment doInBackground suAvailable Exception " + e.getMessage() + " " + e.getCause());
-            }
-
-            if (suAvailable && suVersion.isEmpty()) {
-                try {
-                    suVersion = Shell.SU.version(false);
-                    suResult = Shell.SU.run("id");
-                    bbResult = Shell.SU.run("busybox | head -1");
-                } catch (Exception e) {
-                    Log.e(LOG_TAG, "Top Fragment doInBackground suParam Exception " + e.getMessage() + " " + e.getCause());
-                }
-            }
-
             if (topFragmentWeakReference == null || topFragmentWeakReference.get() == null) {
                 return null;
             }
@@ -376,6 +367,26 @@ public class TopFragment extends Fragment {
                 return null;
             }
 
+            StartupProbesCache probesCache = topFragment.startupProbesCache.get();
+
+            //APK signatures are verified in parallel with the su probe
+            Verifier verifier = new Verifier(activity);
+            FutureTask<StartupProbesCache.ApkSignatures> signaturesTask =
+                    new FutureTask<>(() -> getApkSignatures(verifier, probesCache));
+            if (topFragment.taskScheduler.submit(TaskScheduler.Pool.CPU, signaturesTask) == null) {
+                signaturesTask.run();
+            }
+
+            //Cached su results are applied at once and revalidated after the first screen is shown
+            StartupProbesCache.SuProbe suProbe = probesCache.getSuProbe();
+            if (suProbe != null) {
+                cachedSuProbe = suProbe;
+            } else {
+                suProbe = probeSu();
+                saveSuProbe(probesCache, suProbe);
+            }
+            applySuProbe(suProbe);
+
             Context context = activity.getApplicationContext();
             Utils.startAppExitDetectService(context);
 
@@ -400,9 +411,9 @@ public class TopFragment extends Fragment {
             }
 
             try {
-                Verifier verifier = new Verifier(activity);
-                appSign = verifier.getApkSignatureZip();
-                String appSignAlt = verifier.getApkSignature();
+                StartupProbesCache.ApkSignatures signatures = signaturesTask.get();
+                appSign = signatures.getSignZip();
+                String appSignAlt = signatures.getSignAlt();
                 verifier.encryptStr(TOP_BROADCAST, appSign, appSignAlt);
                 wrongSign = topFragment.getString(R.string.encoded).trim();
                 if (!verifier.decryptStr(wrongSign, appSign, appSignAlt).equals(TOP_BROADCAST)) {
@@ -458,6 +469,10 @@ public class TopFragment extends Fragment {
                     activity.invalidateMenu();
                 }
 
+                if (cachedSuProbe != null) {
+                    topFragment.revalidateSuProbe(cachedSuProbe.getAvailable());
+                }
+
                 if (!PathVars.isModulesInstalled(topFragment.preferenceRepository.get())) {
                     topFragment.actionModulesNotInstalled(activity);
                 } else {
@@ -489,6 +504,112 @@ public class TopFragment extends Fragment {
                 Log.e(LOG_TAG, "RootChecker onPostExecute " + e.getMessage() + " " + e.getCause());
             }
         }
+
+        @SuppressWarnings("deprecation")
+        private static StartupProbesCache.SuProbe probeSu() {
+            boolean available = false;
+            String version = "";
+            List<String> id = null;
+            List<String> busybox = null;
+
+            try {
+                available = Shell.SU.available();
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Top Fragment doInBackground suAvailable Exception " + e.getMessage() + " " + e.getCause());
+            }
+
+            if (available) {
+                try {
+                    version = Shell.SU.version(false);
+                    id = Shell.SU.run("id");
+                    busybox = Shell.SU.run("busybox | head -1");
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "Top Fragment doInBackground suParam Exception " + e.getMessage() + " " + e.getCause());
+                }
+            }
+
+            return new StartupProbesCache.SuProbe(
+                    available,
+                    version == null ? "" : version,
+                    id == null ? Collections.emptyList() : id,
+                    busybox == null ? Collections.emptyList() : busybox
+            );
+        }
+
+        //Incomplete results of the available su are not cached, so the next start probes it again
+        private static void saveSuProbe(StartupProbesCache probesCache, StartupProbesCache.SuProbe suProbe) {
+            if (!suProbe.getAvailable() || !suProbe.getId().isEmpty()) {
+                probesCache.saveSuProbe(suProbe);
+            } else {
+                probesCache.clearSuProbe();
+            }
+        }
+
+        private static void applySuProbe(StartupProbesCache.SuProbe suProbe) {
+            suVersion = suProbe.getVersion();
+            suResult = suProbe.getId();
+            bbResult = suProbe.getBusybox();
+        }
+
+        private static StartupProbesCache.ApkSignatures getApkSignatures(
+                Verifier verifier,
+                StartupProbesCache probesCache
+        ) throws Exception {
+            StartupProbesCache.ApkSignatures signatures = probesCache.getApkSignatures();
+            if (signatures == null) {
+                signatures = new StartupProbesCache.ApkSignatures(
+                        verifier.getApkSignatureZip(),
+                        verifier.getApkSignature()
+                );
+                probesCache.saveApkSignatures(signatures);
+            }
+            return signatures;
+        }
+    }
+
+    private void revalidateSuProbe(boolean cachedSuAvailable) {
+        taskScheduler.submit(TaskScheduler.Pool.BLOCKING, () -> {
+            boolean suAvailable = false;
+            try {
+                suAvailable = Shell.SU.available();
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "TopFragment revalidateSuProbe exception " + e.getMessage() + " " + e.getCause());
+            }
+
+            if (suAvailable == cachedSuAvailable) {
+                return;
+            }
+
+            Log.i(LOG_TAG, "TopFragment su availability changed, probe again");
+
+            StartupProbesCache.SuProbe suProbe = RootChecker.probeSu();
+            RootChecker.saveSuProbe(startupProbesCache.get(), suProbe);
+
+            Handler currentHandler = handler;
+            if (currentHandler != null) {
+                currentHandler.post(() -> applyRevalidatedSuProbe(suProbe));
+            }
+        });
+    }
+
+    private void applyRevalidatedSuProbe(StartupProbesCache.SuProbe suProbe) {
+        MainActivity activity = (MainActivity) getActivity();
+        if (activity == null || activity.isFinishing()) {
+            return;
+        }
+
+        RootChecker.applySuProbe(suProbe);
+
+        boolean rootWasAvailable = rootIsAvailable;
+
+        setSUInfo(suResult, suVersion);
+        setBBinfo(bbResult);
+
+        if (rootIsAvailable != rootWasAvailable) {
+            ModulesAux.switchModes(rootIsAvailable, runModulesWithRoot, mode);
+
+            activity.invalidateMenu();
+        }
     }
 
     private void showDonDialog(Activity activity) {
@@ -18,12 +18,14 @@ package pan.alexander.tordnscrypt.arp
     Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
 */
 
+import android.annotation.TargetApi
 import android.app.Notification
 import android.app.NotificationManager
 import android.app.PendingIntent
 import android.content.Context
 import android.content.Intent
 import android.graphics.BitmapFactory
+import android.net.LinkProperties
 import android.net.wifi.WifiManager
 import android.os.Build
 import android.os.Handler
@@ -39,16 +41,15 @@ import pan.alexander.tordnscrypt.R
 import pan.alexander.tordnscrypt.modules.ModulesStatus
 import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
 import pan.alexander.tordnscrypt.utils.enums.OperationMode
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler
 import pan.alexander.tordnscrypt.vpn.NetworkUtils
-import java.io.BufferedReader
 import java.io.File
-import java.io.InputStreamReader
 import java.lang.ref.WeakReference
 import java.math.BigInteger
+import java.net.Inet4Address
 import java.net.InetAddress
 import java.nio.ByteOrder
-import java.util.concurrent.Executors
-import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.locks.ReentrantLock
 import java.util.regex.Pattern
@@ -58,10 +59,12 @@ private const val ARP_FILE_PATH = "/proc/net/arp"
 private const val COMMAND_ARP = "ip neigh" //"ip neighbour show"
 private const val COMMAND_RULE_SHOW = "ip rule"
 private const val COMMAND_ROUTE_SHOW = "ip route show table %s"
+private const val SCAN_PERIOD_SEC = 10L
 private const val ARP_NOTIFICATION_ID = 110
 private const val DHCP_NOTIFICATION_ID = 111
 private val macPattern by lazy { Pattern.compile("([0-9a-fA-F]{2}[:]){5}([0-9a-fA-F]{2})") }
 private val ethTablePattern by lazy { Pattern.compile("eth\\d lookup (\\w+)") }
+private val ethInterfacePattern by lazy { Pattern.compile("eth\\d+") }
 private val defaultGatewayPattern by lazy { Pattern.compile("default via (([0-9*]{1,3}\\.){3}[0-9*]{1,3})") }
 
 class ArpScanner private constructor(
@@ -78,9 +81,12 @@ class ArpScanner private constructor(
     }
 
     private var arpTableAccessible: Boolean? = null
+    private val arpTableReader = ArpTableReader(ARP_FILE_PATH)
+
+    private val taskScheduler = App.instance.daggerComponent.getTaskScheduler()
 
     @Volatile
-    private var scheduledExecutorService: ScheduledExecutorService? = null
+    private var scanFuture: ScheduledFuture<*>? = null
     private val wifiManager =
         context.applicationContext.getSystemService(Context.WIFI_SERVICE) as WifiManager
     private val notificationManager =
@@ -108,6 +114,10 @@ class ArpScanner private constructor(
     @Volatile
     private var defaultGateway = ""
 
+    //Default gateway of the current network from LinkProperties
+    @Volatile
+    private var linkGateway = ""
+
     @Volatile
     private var savedDefaultGateway = ""
 
@@ -161,9 +171,7 @@ class ArpScanner private constructor(
             return
         }
 
-        if (scheduledExecutorService == null || scheduledExecutorService?.isShutdown == true) {
-            scheduledExecutorService = Executors.newSingleThreadScheduledExecutor()
-        } else {
+        if (scanFuture != null && scanFuture?.isCancelled == false) {
             return
         }
 
@@ -171,147 +179,183 @@ class ArpScanner private constructor(
 
         Log.i(LOG_TAG, "Start ArpScanner")
 
-        scheduledExecutorService?.scheduleWithFixedDelay({
+        //The shared scheduler only triggers scans, scans themselves run in the IO pool
+        scanFuture = taskScheduler.scheduleWithFixedDelay(
+            { submitScan(context) }, 1, SCAN_PERIOD_SEC, TimeUnit.SECONDS
+        )
 
-            if (!reentrantLock.tryLock(5, TimeUnit.SECONDS)) {
-                TimeUnit.SECONDS.sleep(1)
-                return@scheduleWithFixedDelay
-            }
+        if (!NetworkUtils.isConnected(context) && !connectionAvailable) {
+            pause(context, true, resetInternalValues = true)
+        }
+    }
 
-            run label@{
-                try {
+    private fun scan(context: Context) {
 
-                    if (stopping) {
+        if (!reentrantLock.tryLock(5, TimeUnit.SECONDS)) {
+            TimeUnit.SECONDS.sleep(1)
+            return
+        }
 
-                        if (defaultGateway.isNotEmpty()) {
-                            resetInternalValues()
-                        }
+        run label@{
+            try {
 
-                        scheduledExecutorService?.let {
-                            if (!it.isShutdown) {
-                                Log.i(LOG_TAG, "ArpScanner Stopped")
-                                it.shutdownNow()
-                            }
-                        }
+                if (stopping) {
 
-                        return@label
+                    if (defaultGateway.isNotEmpty()) {
+                        resetInternalValues()
                     }
 
-                    if (paused) {
-                        return@label
+                    scanFuture?.let {
+                        if (!it.isCancelled) {
+                            Log.i(LOG_TAG, "ArpScanner Stopped")
+                            it.cancel(false)
+                        }
                     }
 
-                    if (arpTableAccessible == null) {
-                        arpTableAccessible = isArpTableAccessible()
-                    }
+                    return@label
+                }
 
-                    if (wifiActive) {
-                        setDefaultWiFiGateway(context)
-                    } else if (ethernetActive) {
-                        requestRuleTable()
-                    } else if (!cellularActive && connectionAvailable) {
-                        setDefaultWiFiGateway(context)
-                    }
+                if (paused) {
+                    return@label
+                }
 
-                    if (savedDefaultGateway.isNotEmpty() && defaultGateway.isNotEmpty()) {
+                if (arpTableAccessible == null) {
+                    arpTableAccessible = isArpTableAccessible()
+                }
 
-                        if (savedDefaultGateway != defaultGateway) {
-                            Log.e(LOG_TAG, "DHCPAttackDetected defaultGateway changed")
-                            Log.i(
-                                LOG_TAG,
-                                "Upstream Network Saved default Gateway:$savedDefaultGateway"
-                            )
-                            Log.i(
-                                LOG_TAG,
-                                "Upstream Network Current default Gateway:$defaultGateway"
-                            )
+                if (wifiActive) {
+                    setDefaultWiFiGateway(context)
+                } else if (ethernetActive && linkGateway.isNotEmpty()) {
+                    setDefaultGateway(linkGateway)
+                } else if (ethernetActive) {
+                    requestRuleTable()
+                } else if (!cellularActive && connectionAvailable) {
+                    setDefaultWiFiGateway(context)
+                }
 
-                            if (!dhcpGatewayAttackDetected) {
-                                sendNotification(
-                                    context,
-                                    context.getString(R.string.ask_force_close_title),
-                                    context.getString(R.string.notification_rogue_dhcp),
-                                    DHCP_NOTIFICATION_ID
-                                )
-                                makeToast(context, R.string.notification_rogue_dhcp)
-                                updateMainActivityIcons(context)
-                                reloadIptablesWithRootMode(context)
-                            }
+                if (savedDefaultGateway.isNotEmpty() && defaultGateway.isNotEmpty()) {
 
-                            dhcpGatewayAttackDetected = true
+                    if (savedDefaultGateway != defaultGateway) {
+                        Log.e(LOG_TAG, "DHCPAttackDetected defaultGateway changed")
+                        Log.i(
+                            LOG_TAG,
+                            "Upstream Network Saved default Gateway:$savedDefaultGateway"
+                        )
+                        Log.i(
+                            LOG_TAG,
+                            "Upstream Network Current default Gateway:$defaultGateway"
+                        )
 
-                            return@label
-                        } else if (dhcpGatewayAttackDetected) {
-                            dhcpGatewayAttackDetected = false
+                        if (!dhcpGatewayAttackDetected) {
+                            sendNotification(
+                                context,
+                                context.getString(R.string.ask_force_close_title),
+                                context.getString(R.string.notification_rogue_dhcp),
+                                DHCP_NOTIFICATION_ID
+                            )
+                            makeToast(context, R.string.notification_rogue_dhcp)
                             updateMainActivityIcons(context)
                             reloadIptablesWithRootMode(context)
                         }
-                    }
 
-                    setGatewayMac()
+                        dhcpGatewayAttackDetected = true
 
-                    if (savedGatewayMac.isNotEmpty() && gatewayMac.isNotEmpty()) {
+                        return@label
+                    } else if (dhcpGatewayAttackDetected) {
+                        dhcpGatewayAttackDetected = false
+                        updateMainActivityIcons(context)
+                        reloadIptablesWithRootMode(context)
+                    }
+                }
 
-                        if (gatewayMac != savedGatewayMac) {
-                            Log.e(LOG_TAG, "ArpAttackDetected")
-                            Log.i(
-                                LOG_TAG,
-                                "Upstream Network Saved default Gateway:$savedDefaultGateway MAC:${savedGatewayMac}"
-                            )
-                            Log.i(
-                                LOG_TAG,
-                                "Upstream Network Current default Gateway:$defaultGateway MAC:${gatewayMac}"
-                            )
+                setGatewayMac()
 
+                if (savedGatewayMac.isNotEmpty() && gatewayMac.isNotEmpty()) {
 
-                            if (!arpAttackDetected) {
-                                sendNotification(
-                                    context,
-                                    context.getString(R.string.ask_force_close_title),
-                                    context.getString(R.string.notification_arp_spoofing),
-                                    ARP_NOTIFICATION_ID
-                                )
-                                makeToast(context, R.string.notification_arp_spoofing)
-                                updateMainActivityIcons(context)
-                                reloadIptablesWithRootMode(context)
-                            }
+                    if (gatewayMac != savedGatewayMac) {
+                        Log.e(LOG_TAG, "ArpAttackDetected")
+                        Log.i(
+                            LOG_TAG,
+                            "Upstream Network Saved default Gateway:$savedDefaultGateway MAC:${savedGatewayMac}"
+                        )
+                        Log.i(
+                            LOG_TAG,
+                            "Upstream Network Current default Gateway:$defaultGateway MAC:${gatewayMac}"
+                        )
 
-                            arpAttackDetected = true
 
-                        } else if (arpAttackDetected) {
-                            arpAttackDetected = false
+                        if (!arpAttackDetected) {
+                            sendNotification(
+                                context,
+                                context.getString(R.string.ask_force_close_title),
+                                context.getString(R.string.notification_arp_spoofing),
+                                ARP_NOTIFICATION_ID
+                            )
+                            makeToast(context, R.string.notification_arp_spoofing)
                             updateMainActivityIcons(context)
                             reloadIptablesWithRootMode(context)
                         }
-                    }
 
-                    if (notSupportedCounter == 0) {
-                        makeToast(context, R.string.toast_arp_detection_not_supported)
-                        stop(context)
-                    }
+                        arpAttackDetected = true
 
-                } catch (e: Exception) {
-                    if (defaultGateway.isNotEmpty()) {
-                        resetInternalValues()
+                    } else if (arpAttackDetected) {
+                        arpAttackDetected = false
+                        updateMainActivityIcons(context)
+                        reloadIptablesWithRootMode(context)
                     }
-                    Log.w(
-                        LOG_TAG,
-                        "ArpScanner executor exception! ${e.message}\n${e.cause}\n${e.stackTrace}"
-                    )
                 }
-            }
 
-            if (reentrantLock.isHeldByCurrentThread && reentrantLock.isLocked) {
-                reentrantLock.unlock()
+                if (notSupportedCounter == 0) {
+                    makeToast(context, R.string.toast_arp_detection_not_supported)
+                    stop(context)
+                }
+
+            } catch (e: Exception) {
+                if (defaultGateway.isNotEmpty()) {
+                    resetInternalValues()
+                }
+                Log.w(
+                    LOG_TAG,
+                    "ArpScanner executor exception! ${e.message}\n${e.cause}\n${e.stackTrace}"
+                )
             }
+        }
 
-        }, 1, 10, TimeUnit.SECONDS)
+        if (reentrantLock.isHeldByCurrentThread && reentrantLock.isLocked) {
+            reentrantLock.unlock()
+        }
+    }
 
-        if (!NetworkUtils.isConnected(context) && !connectionAvailable) {
-            pause(context, true, resetInternalValues = true)
+    /**
+     * Default route of the Ethernet network comes from the kernel through connectivity callbacks,
+     * so a gateway change is checked at once and no ip rule and ip route commands are required.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    fun onLinkPropertiesChanged(context: Context, linkProperties: LinkProperties) {
+        if (linkProperties.interfaceName?.let { ethInterfacePattern.matcher(it).matches() } != true) {
+            return
+        }
+
+        val gateway = linkProperties.routes
+            .firstOrNull { it.isDefaultRoute && it.gateway is Inet4Address }
+            ?.gateway?.hostAddress?.trim() ?: ""
+
+        if (gateway != linkGateway) {
+            linkGateway = gateway
+            requestScan(context)
         }
     }
 
+    private fun requestScan(context: Context) {
+        if (scanFuture?.isCancelled == false) {
+            submitScan(context)
+        }
+    }
+
+    private fun submitScan(context: Context) {
+        taskScheduler.submit(TaskScheduler.Pool.IO, Runnable { scan(context) })
+    }
+
     fun reset(context: Context, connectionAvailable: Boolean) {
 
         val attackDetected = arpAttackDetected || dhcpGatewayAttackDetected
@@ -331,7 +375,7 @@ class ArpScanner private constructor(
         ethernetActive = NetworkUtils.isEthernetActive(context)
 
         if (connectionAvailable && (wifiActive || ethernetActive || !cellularActive)) {
-            if (scheduledExecutorService?.isShutdown == false) {
+            if (scanFuture?.isCancelled == false) {
                 pause(context, false, resetInternalValues = false)
 
                 if (!attackDetected) {
@@ -349,7 +393,7 @@ class ArpScanner private constructor(
 
     private fun resetInternalValues() {
 
-        App.instance.daggerComponent.getCachedExecutor().submit {
+        App.instance.daggerComponent.getCachedExecutor().submit(TaskScheduler.Pool.IO) {
 
             try {
 
@@ -366,6 +410,8 @@ class ArpScanner private constructor(
 
                 ethernetTable = ""
 
+                arpTableReader.clear()
+
             } catch (e: Exception) {
                 Log.w(
                     LOG_TAG,
@@ -419,6 +465,7 @@ class ArpScanner private constructor(
             cellularActive = false
             wifiActive = false
             ethernetActive = false
+            linkGateway = ""
 
             val updateIcons = arpAttackDetected || dhcpGatewayAttackDetected
 
@@ -489,24 +536,16 @@ class ArpScanner private constructor(
         }
 
         try {
-            BufferedReader(InputStreamReader(File(ARP_FILE_PATH).inputStream())).use { bufferedReader ->
-                var line = bufferedReader.readLine()
-                while (line != null) {
-                    if (line.contains("$defaultGateway ")) {
-
-                        gatewayMac = getMacFromLine(line)
-
-                        if (savedGatewayMac.isEmpty() && gatewayMac.isNotBlank()) {
-                            val macStared = gatewayMac.substring(0..gatewayMac.length - 7)
-                                .replace(Regex("\\w+?"), "*")
-                                .plus(gatewayMac.substring(gatewayMac.length - 6))
-                            Log.i(LOG_TAG, "ArpScanner gatewayMac is $macStared")
-                            savedGatewayMac = gatewayMac
-                        }
-                        break
-                    } else {
-                        line = bufferedReader.readLine()
-                    }
+            arpTableReader.read()[defaultGateway]?.let { mac ->
+
+                gatewayMac = mac
+
+                if (savedGatewayMac.isEmpty() && gatewayMac.isNotBlank()) {
+                    val macStared = gatewayMac.substring(0..gatewayMac.length - 7)
+                        .replace(Regex("\\w+?"), "*")
+                        .plus(gatewayMac.substring(gatewayMac.length - 6))
+                    Log.i(LOG_TAG, "ArpScanner gatewayMac is $macStared")
+                    savedGatewayMac = gatewayMac
                 }
             }
         } catch (e: Exception) {
@@ -662,12 +701,7 @@ class ArpScanner private constructor(
 
                 if (matcher.find()) {
 
-                    matcher.group(1)?.let { defaultGateway = it }
-
-                    if (savedDefaultGateway.isEmpty()) {
-                        Log.i(LOG_TAG, "ArpScanner defaultGateway is $defaultGateway")
-                        savedDefaultGateway = defaultGateway
-                    }
+                    matcher.group(1)?.let { setDefaultGateway(it) }
 
                     break
                 }
@@ -682,6 +716,15 @@ class ArpScanner private constructor(
         }
     }
 
+    private fun setDefaultGateway(gateway: String) {
+        defaultGateway = gateway
+
+        if (savedDefaultGateway.isEmpty()) {
+            Log.i(LOG_TAG, "ArpScanner defaultGateway is $defaultGateway")
+            savedDefaultGateway = defaultGateway
+        }
+    }
+
     private fun getMacFromLine(line: String): String {
         val matcher = macPattern.matcher(line)
 
@@ -0,0 +1,112 @@
+package pan.alexander.tordnscrypt.arp
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import java.io.FileInputStream
+
+private const val INITIAL_BUFFER_SIZE = 4096
+private const val EMPTY_MAC = "00:00:00:00:00:00"
+private val whitespaceRegex = Regex("\\s+")
+
+/**
+ * Reads /proc/net/arp into a reused buffer and parses it only when the content differs
+ * from the previous read, so periodic checks of an unchanged table cost a single read.
+ */
+internal class ArpTableReader(private val path: String) {
+
+    private var buffer = ByteArray(INITIAL_BUFFER_SIZE)
+    private var snapshot = ByteArray(0)
+    private var snapshotLength = 0
+    private var neighbors: Map<String, String> = emptyMap()
+
+    /**
+     * @return map of IP to MAC address of complete neighbor entries
+     */
+    @Synchronized
+    fun read(): Map<String, String> {
+        val length = readToBuffer()
+
+        if (length == snapshotLength && isSameAsSnapshot(length)) {
+            return neighbors
+        }
+
+        if (snapshot.size < length) {
+            snapshot = ByteArray(buffer.size)
+        }
+        System.arraycopy(buffer, 0, snapshot, 0, length)
+        snapshotLength = length
+
+        neighbors = parse(String(buffer, 0, length, Charsets.US_ASCII))
+
+        return neighbors
+    }
+
+    @Synchronized
+    fun clear() {
+        snapshotLength = 0
+        neighbors = emptyMap()
+    }
+
+    //Proc files report zero size, so read until the end and grow the buffer if required
+    private fun readToBuffer(): Int {
+        var length = 0
+        FileInputStream(path).use { inputStream ->
+            while (true) {
+                if (length == buffer.size) {
+                    buffer = buffer.copyOf(buffer.size * 2)
+                }
+
+                val count = inputStream.read(buffer, length, buffer.size - length)
+                if (count < 0) {
+                    break
+                }
+                length += count
+            }
+        }
+        return length
+    }
+
+    private fun isSameAsSnapshot(length: Int): Boolean {
+        for (i in 0 until length) {
+            if (buffer[i] != snapshot[i]) {
+                return false
+            }
+        }
+        return true
+    }
+
+    //IP address, HW type, Flags, HW address, Mask, Device
+    private fun parse(table: String): Map<String, String> {
+        val result = hashMapOf<String, String>()
+
+        table.lineSequence().drop(1).forEach { line ->
+            val columns = line.trim().split(whitespaceRegex)
+            if (columns.size >= 4) {
+                val flags = columns[2].removePrefix("0x").toIntOrNull(16) ?: 0
+                val mac = columns[3]
+                //ATF_COM, entry is complete
+                if (flags and 0x02 != 0 && mac != EMPTY_MAC) {
+                    result[columns[0]] = mac
+                }
+            }
+        }
+
+        return result
+    }
+}
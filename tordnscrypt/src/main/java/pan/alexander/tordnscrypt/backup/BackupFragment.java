@@ -62,6 +62,7 @@ import pan.alexander.tordnscrypt.settings.PathVars;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
 import pan.alexander.tordnscrypt.utils.Utils;
 import pan.alexander.tordnscrypt.utils.enums.FileOperationsVariants;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.filemanager.ExternalStoragePermissions;
 import pan.alexander.tordnscrypt.utils.filemanager.FileManager;
 import pan.alexander.tordnscrypt.utils.filemanager.OnBinaryFileOperationsCompleteListener;
@@ -77,7 +78,6 @@ import static pan.alexander.tordnscrypt.settings.tor_apps.UnlockTorAppsFragment.
 import static pan.alexander.tordnscrypt.settings.tor_apps.UnlockTorAppsFragment.UNLOCK_APPS;
 import static pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG;
 import static pan.alexander.tordnscrypt.utils.enums.FileOperationsVariants.deleteFile;
-import static pan.alexander.tordnscrypt.utils.enums.FileOperationsVariants.moveBinaryFile;
 
 import javax.inject.Inject;
 
@@ -226,7 +226,7 @@ public class BackupFragment extends Fragment implements View.OnClickListener,
     private void restoreBackup(Activity activity) {
 
         restoreHelper = new RestoreHelper(
-                activity, appDataDir, cacheDir, pathBackup
+                activity, appDataDir, pathBackup
         );
 
         ExternalStoragePermissions permissions = new ExternalStoragePermissions(activity);
@@ -314,7 +314,7 @@ public class BackupFragment extends Fragment implements View.OnClickListener,
             return;
         }
 
-        cachedExecutor.submit(() -> {
+        cachedExecutor.submit(TaskScheduler.Pool.BLOCKING, () -> {
             try {
                 while (progress != null) {
                     if (progress.isStateSaved()) {
@@ -356,15 +356,7 @@ public class BackupFragment extends Fragment implements View.OnClickListener,
 
     @Override
     public void OnFileOperationComplete(FileOperationsVariants currentFileOperation, boolean fileOperationResult, String path, String tag) {
-        if (currentFileOperation == moveBinaryFile && tag.equals("InvizibleBackup.zip")) {
-            closePleaseWaitDialog();
-            if (fileOperationResult) {
-                showToast(getString(R.string.backupSaved));
-            } else {
-                showToast(getString(R.string.wrong));
-            }
-
-        } else if (currentFileOperation == deleteFile && tag.equals("sharedPreferences")) {
+        if (currentFileOperation == deleteFile && tag.equals("sharedPreferences")) {
             closePleaseWaitDialog();
             if (fileOperationResult) {
                 showToast(getString(R.string.backupRestored));
@@ -398,9 +390,6 @@ public class BackupFragment extends Fragment implements View.OnClickListener,
             } else if (requestCode == CODE_WRITE) {
                 contentResolver.takePersistableUriPermission(uri, Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
                 backupHelper.copyData(contentResolver.openOutputStream(uri));
-
-                closePleaseWaitDialog();
-                showToast(getString(R.string.backupSaved));
             }
         } catch (Exception e) {
             closePleaseWaitDialog();
@@ -419,7 +408,7 @@ public class BackupFragment extends Fragment implements View.OnClickListener,
     }
 
     private void hideSelectionEditTextIfRequired(Activity activity) {
-        cachedExecutor.submit(() -> {
+        cachedExecutor.submit(TaskScheduler.Pool.IO, () -> {
 
             if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
                 logsDirAccessible = Utils.INSTANCE.isLogsDirAccessible();
@@ -31,7 +31,6 @@ import android.content.pm.PackageManager;
 import android.util.Log;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
@@ -40,9 +39,11 @@ import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListSet;
 
@@ -51,11 +52,14 @@ import pan.alexander.tordnscrypt.App;
 import pan.alexander.tordnscrypt.R;
 import pan.alexander.tordnscrypt.di.SharedPreferencesModule;
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceRepository;
+import pan.alexander.tordnscrypt.settings.firewall.FirewallPolicyStore;
 import pan.alexander.tordnscrypt.settings.tor_apps.ApplicationData;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.apps.InstalledApplicationsManager;
-import pan.alexander.tordnscrypt.utils.zipUtil.ZipFileManager;
+import pan.alexander.tordnscrypt.utils.zipUtil.ParallelZipWriter;
 import pan.alexander.tordnscrypt.utils.filemanager.FileManager;
+import pan.alexander.tordnscrypt.utils.preferences.PreferenceSetStore;
 
 import static pan.alexander.tordnscrypt.backup.BackupFragment.CODE_WRITE;
 import static pan.alexander.tordnscrypt.backup.BackupFragment.TAGS_TO_CONVERT;
@@ -69,6 +73,12 @@ public class BackupHelper {
     public Lazy<PreferenceRepository> preferenceRepository;
     @Inject
     public CachedExecutor cachedExecutor;
+    @Inject
+    public Lazy<PreferenceSetStore> preferenceSetStore;
+    @Inject
+    public Lazy<FirewallPolicyStore> firewallPolicyStore;
+    @Inject
+    public TaskScheduler taskScheduler;
 
     private Activity activity;
     private String pathBackup;
@@ -85,62 +95,87 @@ public class BackupHelper {
 
     void saveAll(boolean logsDirAccessible) {
 
-        cachedExecutor.submit(() -> {
-            try {
-                convertSharedPreferencesUIDsToPackageNames(activity);
-
-                SharedPreferences defaultSharedPref = PreferenceManager.getDefaultSharedPreferences(activity);
-                saveSharedPreferencesToFile(defaultSharedPref, cacheDir + "/defaultSharedPref");
-
-                SharedPreferences sharedPreferences = activity.getSharedPreferences(SharedPreferencesModule.APP_PREFERENCES_NAME, Context.MODE_PRIVATE);
-                saveSharedPreferencesToFile(sharedPreferences, cacheDir + "/sharedPreferences");
+        if (!logsDirAccessible) {
+            //The backup is written when the destination is selected
+            saveFileWithSAF();
+            return;
+        }
 
-                clearSharedPreferencesBackupData();
+        cachedExecutor.submit(TaskScheduler.Pool.IO, () -> {
+            File backup = new File(pathBackup + "/InvizibleBackup.zip");
+            File tempBackup = new File(pathBackup + "/InvizibleBackup.zip.tmp");
 
-                compressAllToZip(cacheDir + "/InvizibleBackup.zip",
-                        appDataDir + "/app_bin", appDataDir + "/app_data",
-                        cacheDir + "/defaultSharedPref", cacheDir + "/sharedPreferences");
+            try {
+                File backupDir = new File(pathBackup);
+                if (!backupDir.isDirectory() && !backupDir.mkdirs()) {
+                    throw new IllegalStateException("Unable to create dir " + pathBackup);
+                }
 
-                File backup = new File(cacheDir + "/InvizibleBackup.zip");
-                if (!backup.isFile() || backup.length() == 0) {
-                    throw new IllegalStateException("Backup file not exist " + backup.getAbsolutePath());
+                try (OutputStream outputStream = new FileOutputStream(tempBackup)) {
+                    writeBackup(outputStream);
                 }
 
-                if (logsDirAccessible) {
-                    saveFile();
-                } else {
-                    saveFileWithSAF();
+                if (tempBackup.length() == 0
+                        || (backup.exists() && !backup.delete())
+                        || !tempBackup.renameTo(backup)) {
+                    throw new IllegalStateException("Backup file not saved " + backup.getAbsolutePath());
                 }
 
-                FileManager.deleteFile(activity, cacheDir, "/defaultSharedPref", "ignored");
-                FileManager.deleteFile(activity, cacheDir, "/sharedPreferences", "ignored");
+                showResult(R.string.backupSaved);
             } catch (Exception e) {
-                Log.e(LOG_TAG, "BackupHelper saveAllToInternalDir fault " + e.getMessage() + " " + e.getCause());
+                Log.e(LOG_TAG, "BackupHelper saveAll fault " + e.getMessage() + " " + e.getCause());
 
-                showError();
-
-                FileManager.deleteFile(activity, cacheDir, "/InvizibleBackup.zip", "ignored");
+                showResult(R.string.wrong);
+            } finally {
+                if (tempBackup.exists() && !tempBackup.delete()) {
+                    Log.w(LOG_TAG, "BackupHelper unable to delete " + tempBackup.getAbsolutePath());
+                }
             }
         });
     }
 
-    private void compressAllToZip(String outputFilePath, String... inputSources) throws Exception {
-        ZipFileManager zipFileManager = new ZipFileManager(outputFilePath);
-        zipFileManager.createZip(activity, inputSources);
+    /**
+     * Streams the archive straight into the destination, so no intermediate copy is created.
+     * Compressed chunks of large files are cached, so the next backup only hashes unchanged rules lists.
+     */
+    private void writeBackup(OutputStream outputStream) throws Exception {
+        try {
+            firewallPolicyStore.get().exportToPreferences();
+            convertSharedPreferencesUIDsToPackageNames(activity);
+
+            SharedPreferences defaultSharedPref = PreferenceManager.getDefaultSharedPreferences(activity);
+            saveSharedPreferencesToFile(defaultSharedPref.getAll(), cacheDir + "/defaultSharedPref");
+
+            //Large sets are stored separately, they are saved in the same file to keep backups compatible
+            SharedPreferences sharedPreferences = activity.getSharedPreferences(SharedPreferencesModule.APP_PREFERENCES_NAME, Context.MODE_PRIVATE);
+            Map<String, Object> appPreferences = new HashMap<>(sharedPreferences.getAll());
+            appPreferences.putAll(preferenceSetStore.get().getAll());
+            saveSharedPreferencesToFile(appPreferences, cacheDir + "/sharedPreferences");
+
+            clearSharedPreferencesBackupData();
+
+            ParallelZipWriter zipWriter = new ParallelZipWriter(
+                    activity,
+                    taskScheduler.getPool(TaskScheduler.Pool.CPU),
+                    new File(cacheDir + "/backup_chunks")
+            );
+            zipWriter.write(outputStream,
+                    appDataDir + "/app_bin", appDataDir + "/app_data",
+                    cacheDir + "/defaultSharedPref", cacheDir + "/sharedPreferences");
+        } finally {
+            FileManager.deleteFile(activity, cacheDir, "/defaultSharedPref", "ignored");
+            FileManager.deleteFile(activity, cacheDir, "/sharedPreferences", "ignored");
+        }
     }
 
-    private void saveSharedPreferencesToFile(SharedPreferences pref, String dst) {
+    private void saveSharedPreferencesToFile(Map<String, ?> preferences, String dst) {
         try (ObjectOutputStream output = new ObjectOutputStream(new FileOutputStream(dst))) {
-            output.writeObject(pref.getAll());
+            output.writeObject(preferences);
         } catch (Exception e) {
             Log.e(LOG_TAG, "saveSharedPreferencesToFile fault " + e.getMessage() + " " + e.getCause());
         }
     }
 
-    void saveFile() {
-        FileManager.moveBinaryFile(activity, cacheDir, "InvizibleBackup.zip", pathBackup, "InvizibleBackup.zip");
-    }
-
     void saveFileWithSAF() {
 
         if (activity == null || activity.isFinishing()) {
@@ -163,20 +198,14 @@ public class BackupHelper {
 
     void copyData(OutputStream outputStream) {
 
-        cachedExecutor.submit(() -> {
-            try (FileInputStream fileInputStream = new FileInputStream(cacheDir + "/InvizibleBackup.zip")) {
-                byte[] buffer = new byte[8 * 1024];
-
-                for (int len; (len = fileInputStream.read(buffer)) > 0; ) {
-                    outputStream.write(buffer, 0, len);
-                }
-                outputStream.flush();
+        cachedExecutor.submit(TaskScheduler.Pool.IO, () -> {
+            try {
+                writeBackup(outputStream);
+                showResult(R.string.backupSaved);
             } catch (Exception e) {
                 Log.e(LOG_TAG, "BackupHelper copyData fault " + e.getMessage() + " " + e.getCause());
 
-                showError();
-
-                FileManager.deleteFile(activity, cacheDir, "/InvizibleBackup.zip", "ignored");
+                showResult(R.string.wrong);
             } finally {
                 try {
                     outputStream.close();
@@ -187,7 +216,7 @@ public class BackupHelper {
         });
     }
 
-    private void showError() {
+    private void showResult(int messageId) {
         if (activity instanceof BackupActivity) {
             try {
                 BackupActivity backupActivity = (BackupActivity) activity;
@@ -195,7 +224,7 @@ public class BackupHelper {
                 BackupFragment fragment = (BackupFragment) manager.findFragmentById(R.id.backupFragment);
                 if (fragment != null) {
                     fragment.closePleaseWaitDialog();
-                    fragment.showToast(activity.getString(R.string.wrong));
+                    fragment.showToast(activity.getString(messageId));
                 }
             } catch (Exception ex) {
                 Log.e(LOG_TAG, "BackupHelper close progress fault " + ex.getMessage()
@@ -28,6 +28,7 @@ import pan.alexander.tordnscrypt.R
 import pan.alexander.tordnscrypt.di.SharedPreferencesModule
 import pan.alexander.tordnscrypt.installer.Installer
 import pan.alexander.tordnscrypt.modules.ModulesStatus
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler
 import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
 import java.lang.ref.WeakReference
 
@@ -41,7 +42,7 @@ class ResetHelper(
     private val backupFragmentWeakReference: WeakReference<BackupFragment> = WeakReference(backupFragment)
 
     fun resetSettings() {
-        cachedExecutor.submit {
+        cachedExecutor.submit(TaskScheduler.Pool.BLOCKING) {
             try {
 
                 registerReceiver(activityWeakReference.get())
@@ -58,12 +59,9 @@ class ResetHelper(
 
                 unRegisterReceiver(activityWeakReference.get())
 
-                removeInstallationDirsIfExists()
                 createLogsDir()
 
-                extractDNSCrypt()
-                extractTor()
-                extractITPD()
+                extractModules()
 
                 chmodExtractedDirs()
 
@@ -77,6 +75,8 @@ class ResetHelper(
                 val sharedPreferences = activityWeakReference.get()?.getSharedPreferences(
                     SharedPreferencesModule.APP_PREFERENCES_NAME, Context.MODE_PRIVATE)
                 resetSharedPreferences(sharedPreferences)
+                firewallPolicyStore.get().importFromPreferences()
+                preferenceSetStore.get().importFromPreferences()
                 restoreOldInfo(activityWeakReference.get(), code)
 
                 savePreferencesModulesInstalled(true)
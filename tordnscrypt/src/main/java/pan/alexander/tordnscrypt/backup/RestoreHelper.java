@@ -30,11 +30,13 @@ import androidx.preference.PreferenceManager;
 import android.content.pm.PackageManager;
 import android.util.Log;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -53,7 +55,7 @@ import pan.alexander.tordnscrypt.patches.Patch;
 import pan.alexander.tordnscrypt.settings.tor_apps.ApplicationData;
 import pan.alexander.tordnscrypt.utils.apps.InstalledApplicationsManager;
 import pan.alexander.tordnscrypt.modules.ModulesStatus;
-import pan.alexander.tordnscrypt.utils.zipUtil.ZipFileManager;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.filemanager.FileManager;
 import pan.alexander.tordnscrypt.installer.Installer;
 
@@ -63,6 +65,8 @@ import static pan.alexander.tordnscrypt.settings.firewall.FirewallFragmentKt.APP
 import static pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG;
 
 class RestoreHelper extends Installer {
+    private static final String RESTORE_DIR = "backup_restore";
+
     private final List<String> requiredFiles = Arrays.asList(
             "app_bin/busybox", "app_bin/iptables", "app_bin/ip6tables",
 
@@ -80,33 +84,32 @@ class RestoreHelper extends Installer {
 
     private Activity activity;
     private final String appDataDir;
-    private final String cacheDir;
     private String pathBackup;
 
     RestoreHelper(
             Activity activity,
             String appDataDir,
-            String cacheDir,
             String pathBackup
     ) {
         super(activity);
         this.activity = activity;
         this.appDataDir = appDataDir;
-        this.cacheDir = cacheDir;
         this.pathBackup = pathBackup;
     }
 
     void restoreAll(InputStream inputStream, boolean logsDirAccessible) {
 
-        cachedExecutor.submit(() -> {
+        cachedExecutor.submit(TaskScheduler.Pool.BLOCKING, () -> {
             try {
 
-                if (!logsDirAccessible) {
-                    copyData(inputStream);
-                }
-
-                if (!isBackupExist()) {
-                    throw new IllegalStateException("No file or file is corrupted " + pathBackup + "/InvizibleBackup.zip");
+                if (logsDirAccessible) {
+                    File backup = new File(pathBackup + "/InvizibleBackup.zip");
+                    if (!backup.isFile()) {
+                        throw new IllegalStateException("No file or file is corrupted " + backup.getAbsolutePath());
+                    }
+                    extractBackup(new FileInputStream(backup));
+                } else {
+                    extractBackup(inputStream);
                 }
 
                 registerReceiver(activity);
@@ -128,9 +131,9 @@ class RestoreHelper extends Installer {
                 unRegisterReceiver(activity);
 
                 removeInstallationDirsIfExists();
+                moveExtractedBackup();
                 createLogsDir();
 
-                extractBackup();
                 chmodExtractedDirs();
 
                 correctAppDir();
@@ -143,6 +146,8 @@ class RestoreHelper extends Installer {
                 restoreSharedPreferencesFromFile(sharedPreferences, appDataDir + "/sharedPreferences");
 
                 convertSharedPreferencesPackageNamesToUIDs(activity);
+                firewallPolicyStore.get().importFromPreferences();
+                preferenceSetStore.get().importFromPreferences();
 
                 FileManager.deleteFile(activity, appDataDir, "defaultSharedPref", "defaultSharedPref");
                 FileManager.deleteFile(activity, appDataDir, "sharedPreferences", "sharedPreferences");
@@ -159,6 +164,8 @@ class RestoreHelper extends Installer {
             } catch (Exception e) {
                 Log.e(LOG_TAG, "Restore fault " + e.getMessage() + " " + e.getCause());
 
+                removeRestoreDir();
+
                 if (activity instanceof BackupActivity) {
                     try {
                         BackupActivity backupActivity = (BackupActivity) activity;
@@ -177,41 +184,6 @@ class RestoreHelper extends Installer {
         });
     }
 
-    private boolean isBackupExist() {
-
-        String path = pathBackup + "/InvizibleBackup.zip";
-
-        File file = new File(path);
-        if (!file.isFile()) {
-            return false;
-        }
-
-        List<String> zipEntries = new ArrayList<>();
-
-        try (FileInputStream fileInputStream = new FileInputStream(pathBackup + "/InvizibleBackup.zip");
-             ZipInputStream zipInputStream = new ZipInputStream(fileInputStream)) {
-
-            ZipEntry zipEntry = zipInputStream.getNextEntry();
-
-            while (zipEntry != null) {
-                zipEntries.add(zipEntry.getName());
-                zipEntry = zipInputStream.getNextEntry();
-            }
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "RestoreHelper isBackupExist exception " + e.getMessage() + " " + e.getCause());
-        }
-
-        if (zipEntries.containsAll(requiredFiles)) {
-            return true;
-        } else {
-            ArrayList<String> copy = new ArrayList<>(requiredFiles);
-            copy.removeAll(zipEntries);
-            Log.e(LOG_TAG, "RestoreHelper isBackupExist backup file corrupted " + copy.toString());
-        }
-
-        return zipEntries.containsAll(requiredFiles);
-    }
-
     void openFileWithSAF() {
         if (activity == null || activity.isFinishing()) {
             return;
@@ -228,24 +200,6 @@ class RestoreHelper extends Installer {
 
     }
 
-    private void copyData(InputStream inputStream) throws Exception {
-
-        if (inputStream == null) {
-            return;
-        }
-
-        try (FileOutputStream fileOutputStream = new FileOutputStream(cacheDir + "/InvizibleBackup.zip")) {
-            byte[] buffer = new byte[8 * 1024];
-
-            for (int len; (len = inputStream.read(buffer)) > 0; ) {
-                fileOutputStream.write(buffer, 0, len);
-            }
-            fileOutputStream.flush();
-        } finally {
-            inputStream.close();
-        }
-    }
-
     private String saveSomeOldInfo() {
         String code = "";
         if (activity.getString(R.string.appVersion).endsWith("o")) {
@@ -268,13 +222,110 @@ class RestoreHelper extends Installer {
         preferenceRepository.get().setStringSetPreference(APPS_NEWLY_INSTALLED, Collections.emptySet());
     }
 
-    private void extractBackup() throws Exception {
-        ZipFileManager zipFileManager = new ZipFileManager(pathBackup + "/InvizibleBackup.zip");
-        zipFileManager.extractZip(appDataDir);
+    /**
+     * Extracts the backup into the temporary dir in a single pass and checks that it is complete.
+     * The current installation is not touched until the backup is verified.
+     */
+    private void extractBackup(InputStream inputStream) throws Exception {
+
+        if (inputStream == null) {
+            throw new IllegalStateException("No file or file is corrupted");
+        }
+
+        removeRestoreDir();
+
+        File restoreDir = new File(appDataDir + "/" + RESTORE_DIR);
+        if (!restoreDir.mkdirs()) {
+            throw new IllegalStateException("Unable to create dir " + restoreDir.getAbsolutePath());
+        }
+        String restoreDirPath = restoreDir.getCanonicalPath() + "/";
+
+        Set<String> zipEntries = new HashSet<>();
+        byte[] buffer = new byte[64 * 1024];
+
+        try (ZipInputStream zipInputStream = new ZipInputStream(new BufferedInputStream(inputStream, 64 * 1024))) {
+
+            ZipEntry zipEntry = zipInputStream.getNextEntry();
+
+            while (zipEntry != null) {
+                String name = zipEntry.getName();
+                File file = new File(restoreDir, name);
+
+                if (!file.getCanonicalPath().startsWith(restoreDirPath)) {
+                    throw new IllegalStateException("RestoreHelper wrong zip entry " + name);
+                }
+
+                if (zipEntry.isDirectory()) {
+                    if (!file.isDirectory() && !file.mkdirs()) {
+                        throw new IllegalStateException("Unable to create dir " + file.getAbsolutePath());
+                    }
+                } else {
+                    File parent = file.getParentFile();
+                    if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                        throw new IllegalStateException("Unable to create dir " + parent.getAbsolutePath());
+                    }
+
+                    try (OutputStream outputStream = new FileOutputStream(file)) {
+                        for (int len; (len = zipInputStream.read(buffer)) > 0; ) {
+                            outputStream.write(buffer, 0, len);
+                        }
+                    }
+
+                    zipEntries.add(name);
+                }
+
+                zipEntry = zipInputStream.getNextEntry();
+            }
+        }
+
+        if (!zipEntries.containsAll(requiredFiles)) {
+            ArrayList<String> copy = new ArrayList<>(requiredFiles);
+            copy.removeAll(zipEntries);
+            Log.e(LOG_TAG, "RestoreHelper backup file corrupted " + copy);
+            throw new IllegalStateException("No file or file is corrupted " + pathBackup + "/InvizibleBackup.zip");
+        }
 
         Log.i(LOG_TAG, "RestoreHelper: extractBackup OK");
     }
 
+    private void moveExtractedBackup() {
+        File restoreDir = new File(appDataDir + "/" + RESTORE_DIR);
+        File[] files = restoreDir.listFiles();
+
+        if (files == null) {
+            throw new IllegalStateException("RestoreHelper no extracted backup");
+        }
+
+        for (File file : files) {
+            File target = new File(appDataDir, file.getName());
+
+            if (target.isDirectory()) {
+                if (!FileManager.deleteDirSynchronous(activity, target.getAbsolutePath())) {
+                    throw new IllegalStateException(target.getAbsolutePath() + " delete failed");
+                }
+            } else if (target.isFile()) {
+                if (FileManager.deleteFileSynchronous(activity, appDataDir, target.getName())) {
+                    throw new IllegalStateException(target.getAbsolutePath() + " delete failed");
+                }
+            }
+
+            if (!file.renameTo(target)) {
+                throw new IllegalStateException("Unable to move " + file.getAbsolutePath());
+            }
+        }
+
+        removeRestoreDir();
+
+        Log.i(LOG_TAG, "RestoreHelper: moveExtractedBackup OK");
+    }
+
+    private void removeRestoreDir() {
+        File restoreDir = new File(appDataDir + "/" + RESTORE_DIR);
+        if (restoreDir.exists() && !FileManager.deleteDirSynchronous(activity, restoreDir.getAbsolutePath())) {
+            Log.w(LOG_TAG, "RestoreHelper unable to delete " + restoreDir.getAbsolutePath());
+        }
+    }
+
     private void restoreSharedPreferencesFromFile(SharedPreferences sharedPref, String src) throws Exception {
         SharedPreferences.Editor editor = sharedPref.edit();
         editor.clear();
@@ -21,32 +21,41 @@ package pan.alexander.tordnscrypt.data.dns_resolver
 
 import pan.alexander.tordnscrypt.utils.dns.Record
 import pan.alexander.tordnscrypt.domain.dns_resolver.DnsRepository
+import pan.alexander.tordnscrypt.domain.dns_resolver.MAX_CNAME_CHAIN_DEPTH
 import javax.inject.Inject
 
 class DnsRepositoryImpl @Inject constructor(
     private val dnsDataSource: DnsDataSource
 ) : DnsRepository {
 
-    override fun resolveDomainUDP(domain: String, port: Int, timeout: Int): Set<String> {
+    override fun resolveDomainUDP(domain: String, port: Int, timeout: Int): Set<String> =
+        resolveDomainUDP(domain, port, timeout, 0)
+
+    override fun resolveDomainDOH(domain: String, timeout: Int): Set<String> =
+        resolveDomainDOH(domain, timeout, 0)
+
+    private fun resolveDomainUDP(domain: String, port: Int, timeout: Int, depth: Int): Set<String> {
         return dnsDataSource.resolveDomainUDP(domain, port, timeout)
             ?.filter { isRecordValid(it) }
             ?.flatMap {
                 when {
                     it.isA || it.isAAAA -> listOf(it.value.trim())
-                    it.isCname -> resolveDomainUDP("https://${it.value}", port, timeout)
+                    it.isCname && depth < MAX_CNAME_CHAIN_DEPTH ->
+                        resolveDomainUDP("https://${it.value}", port, timeout, depth + 1)
                     else -> emptyList()
                 }
             }
             ?.toHashSet() ?: emptySet()
     }
 
-    override fun resolveDomainDOH(domain: String, timeout: Int): Set<String> {
+    private fun resolveDomainDOH(domain: String, timeout: Int, depth: Int): Set<String> {
         return dnsDataSource.resolveDomainDOH(domain, timeout)
             ?.filter { isRecordValid(it) }
             ?.flatMap {
                 when {
                     it.isA || it.isAAAA -> listOf(it.value.trim())
-                    it.isCname -> resolveDomainDOH("https://${it.value}", timeout)
+                    it.isCname && depth < MAX_CNAME_CHAIN_DEPTH ->
+                        resolveDomainDOH("https://${it.value}", timeout, depth + 1)
                     else -> emptyList()
                 }
             }
@@ -22,25 +22,52 @@ package pan.alexander.tordnscrypt.data.log_reader
 import android.util.Log
 import pan.alexander.tordnscrypt.utils.Constants.TOR_BROWSER_USER_AGENT
 import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
+import java.io.BufferedReader
 import java.lang.Exception
+import java.net.ConnectException
 import java.net.HttpURLConnection
 import java.net.URL
 
 private const val CONNECT_TIMEOUT = 1
-
-class HtmlReader(val port: Int) {
+private const val READ_TIMEOUT = 3
+private const val BACKOFF_INITIAL_MSEC = 1000L
+private const val BACKOFF_MAX_MSEC = 30000L
+private const val SKIP_BUFFER_SIZE = 2048L
+
+/**
+ * Reads the web console page keeping only lines that contain one of the markers.
+ * Reading stops as soon as all markers are found and the rest of the response is skipped
+ * without being decoded into lines, so the keep-alive connection can be reused.
+ * When nobody listens on the port, requests are delayed with exponential backoff.
+ */
+class HtmlReader(val port: Int, private val markers: List<String> = emptyList()) {
 
     private var con: HttpURLConnection? = null
+    private var eTag: String? = null
+    private var cachedLines = emptyList<String>()
+    private var backoff = 0L
+    private var nextAttemptTime = 0L
 
     fun readLines(): List<String> {
 
+        if (System.currentTimeMillis() < nextAttemptTime) {
+            return emptyList()
+        }
+
         var lines = emptyList<String>()
 
         try {
             lines = tryReadLines()
+            backoff = 0L
+        } catch (e: ConnectException) {
+            backoff = (backoff * 2).coerceIn(BACKOFF_INITIAL_MSEC, BACKOFF_MAX_MSEC)
+            nextAttemptTime = System.currentTimeMillis() + backoff
+            resetCache()
+            //Connection is refused while the module is starting or stopped
+            con?.disconnect()
         } catch (e: Exception) {
             Log.e(LOG_TAG, "HtmlReader exception ${e.message} ${e.cause}")
-        } finally {
+            resetCache()
             con?.disconnect()
         }
 
@@ -48,8 +75,6 @@ class HtmlReader(val port: Int) {
     }
 
     private fun tryReadLines(): List<String> {
-        val lines = mutableListOf<String>()
-
         val url = URL("http://127.0.0.1:$port/")
         con = url.openConnection() as HttpURLConnection
 
@@ -58,23 +83,64 @@ class HtmlReader(val port: Int) {
         connection.apply {
             requestMethod = "GET"
             setRequestProperty("User-Agent", TOR_BROWSER_USER_AGENT)
+            setRequestProperty("Connection", "keep-alive")
+            eTag?.let { setRequestProperty("If-None-Match", it) }
             connectTimeout = CONNECT_TIMEOUT * 1000
+            readTimeout = READ_TIMEOUT * 1000
             connect()
         }
 
         val code = connection.responseCode
-        if (code != HttpURLConnection.HTTP_OK) {
-            return lines
+        if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            connection.inputStream.close()
+            return cachedLines
+        } else if (code != HttpURLConnection.HTTP_OK) {
+            connection.errorStream?.close()
+            resetCache()
+            return emptyList()
+        }
+
+        val lines = connection.inputStream.bufferedReader().use { reader ->
+            readMarkedLines(reader)
         }
 
-        connection.inputStream.bufferedReader().use { reader ->
-            var line = reader.readLine()
-            while (line != null) {
-                lines.add(line)
-                line = reader.readLine()
+        eTag = connection.getHeaderField("ETag")
+        cachedLines = lines
+
+        return lines
+    }
+
+    private fun readMarkedLines(reader: BufferedReader): List<String> {
+        if (markers.isEmpty()) {
+            return reader.readLines()
+        }
+
+        val lines = mutableListOf<String>()
+        val notFoundMarkers = markers.toMutableSet()
+
+        var line = reader.readLine()
+        while (line != null) {
+            val currentLine: String = line
+            if (markers.any { currentLine.contains(it) }) {
+                lines.add(currentLine)
+                notFoundMarkers.removeAll { currentLine.contains(it) }
             }
+
+            if (notFoundMarkers.isEmpty()) {
+                while (reader.skip(SKIP_BUFFER_SIZE) > 0) {
+                    continue
+                }
+                break
+            }
+
+            line = reader.readLine()
         }
 
         return lines
     }
+
+    private fun resetCache() {
+        eTag = null
+        cachedLines = emptyList()
+    }
 }
@@ -24,6 +24,18 @@ import pan.alexander.tordnscrypt.domain.log_reader.ModulesLogRepository
 import pan.alexander.tordnscrypt.settings.PathVars
 import javax.inject.Inject
 
+//Only these lines of the i2pd web console are parsed and shown
+private val itpdStatusMarkers = listOf(
+    "<b>Uptime:</b>",
+    "<b>Network status:</b>",
+    "<b>Tunnel creation success rate:</b>",
+    "<b>Received:</b>",
+    "<b>Sent:</b>",
+    "<b>Transit:</b>",
+    "<b>Routers:</b>",
+    "<b>Client Tunnels:</b>"
+)
+
 class ModulesLogRepositoryImpl @Inject constructor(
     val applicationContext: Context,
     pathVars: PathVars
@@ -60,7 +72,7 @@ class ModulesLogRepositoryImpl @Inject constructor(
     }
 
     override fun getITPDHtmlData(): List<String> {
-        itpdHtmlFileReader = itpdHtmlFileReader ?: HtmlReader(7070)
+        itpdHtmlFileReader = itpdHtmlFileReader ?: HtmlReader(7070, itpdStatusMarkers)
         return itpdHtmlFileReader?.readLines() ?: emptyList()
     }
 }
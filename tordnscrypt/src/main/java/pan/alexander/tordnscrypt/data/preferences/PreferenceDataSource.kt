@@ -18,10 +18,19 @@ package pan.alexander.tordnscrypt.data.preferences
     Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
 */
 
+import pan.alexander.tordnscrypt.domain.preferences.OnPreferenceChangedListener
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceType
 
 interface PreferenceDataSource {
     fun getPreference(@PreferenceType type: Int, key: String): Any
 
     fun setPreference(key: String, value: Any)
+
+    fun addToStringSet(key: String, value: String)
+
+    fun removeFromStringSet(key: String, value: String)
+
+    fun addOnPreferenceChangedListener(key: String, listener: OnPreferenceChangedListener)
+
+    fun removeOnPreferenceChangedListener(key: String, listener: OnPreferenceChangedListener)
 }
\ No newline at end of file
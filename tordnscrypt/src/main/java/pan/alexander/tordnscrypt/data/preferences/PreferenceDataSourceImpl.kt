@@ -20,6 +20,7 @@ package pan.alexander.tordnscrypt.data.preferences
 
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.ObsoleteCoroutinesApi
+import pan.alexander.tordnscrypt.domain.preferences.OnPreferenceChangedListener
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceType
 import pan.alexander.tordnscrypt.utils.preferences.AppPreferenceHelper
 import javax.inject.Inject
@@ -39,4 +40,26 @@ class PreferenceDataSourceImpl @Inject constructor(
         appPreferenceHelper.setPreference(key, value)
     }
 
+    override fun addToStringSet(key: String, value: String) {
+        appPreferenceHelper.addToStringSet(key, value)
+    }
+
+    override fun removeFromStringSet(key: String, value: String) {
+        appPreferenceHelper.removeFromStringSet(key, value)
+    }
+
+    override fun addOnPreferenceChangedListener(
+        key: String,
+        listener: OnPreferenceChangedListener
+    ) {
+        appPreferenceHelper.addOnPreferenceChangedListener(key, listener)
+    }
+
+    override fun removeOnPreferenceChangedListener(
+        key: String,
+        listener: OnPreferenceChangedListener
+    ) {
+        appPreferenceHelper.removeOnPreferenceChangedListener(key, listener)
+    }
+
 }
@@ -18,6 +18,7 @@ package pan.alexander.tordnscrypt.data.preferences
     Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
 */
 
+import pan.alexander.tordnscrypt.domain.preferences.OnPreferenceChangedListener
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceRepository
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceType.*
 import javax.inject.Inject
@@ -59,14 +60,38 @@ class PreferenceRepositoryImpl @Inject constructor(
         preferenceDataSource.setPreference(key, value)
     }
 
-    @Synchronized
     override fun getStringSetPreference(key: String): HashSet<String> {
-        return HashSet(
-            preferenceDataSource.getPreference(STRING_SET_PREFERENCE, key) as Set<String>
-        )
+        return HashSet(getStringSetPreferenceView(key))
     }
 
     override fun setStringSetPreference(key: String, value: Set<String>) {
         preferenceDataSource.setPreference(key, value)
     }
+
+    @Suppress("UNCHECKED_CAST")
+    override fun getStringSetPreferenceView(key: String): Set<String> {
+        return preferenceDataSource.getPreference(STRING_SET_PREFERENCE, key) as Set<String>
+    }
+
+    override fun addToStringSetPreference(key: String, value: String) {
+        preferenceDataSource.addToStringSet(key, value)
+    }
+
+    override fun removeFromStringSetPreference(key: String, value: String) {
+        preferenceDataSource.removeFromStringSet(key, value)
+    }
+
+    override fun addOnPreferenceChangedListener(
+        key: String,
+        listener: OnPreferenceChangedListener
+    ) {
+        preferenceDataSource.addOnPreferenceChangedListener(key, listener)
+    }
+
+    override fun removeOnPreferenceChangedListener(
+        key: String,
+        listener: OnPreferenceChangedListener
+    ) {
+        preferenceDataSource.removeOnPreferenceChangedListener(key, listener)
+    }
 }
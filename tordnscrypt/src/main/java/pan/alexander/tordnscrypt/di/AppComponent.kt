@@ -20,7 +20,6 @@ package pan.alexander.tordnscrypt.di
 
 import androidx.annotation.Keep
 import dagger.Component
-import kotlinx.coroutines.ObsoleteCoroutinesApi
 import pan.alexander.tordnscrypt.BootCompleteReceiver
 import pan.alexander.tordnscrypt.MainActivity
 import pan.alexander.tordnscrypt.TopFragment
@@ -48,6 +47,8 @@ import pan.alexander.tordnscrypt.settings.dnscrypt_relays.PreferencesDNSCryptRel
 import pan.alexander.tordnscrypt.settings.dnscrypt_servers.PreferencesDNSCryptServers
 import pan.alexander.tordnscrypt.settings.dnscrypt_settings.PreferencesDNSFragment
 import pan.alexander.tordnscrypt.settings.firewall.FirewallFragment
+import pan.alexander.tordnscrypt.settings.firewall.FirewallPolicyStore
+import pan.alexander.tordnscrypt.settings.show_rules.ShowRulesRecycleFrag
 import pan.alexander.tordnscrypt.settings.tor_apps.UnlockTorAppsFragment
 import pan.alexander.tordnscrypt.settings.tor_bridges.BridgeAdapter
 import pan.alexander.tordnscrypt.settings.tor_bridges.GetNewBridges
@@ -58,7 +59,10 @@ import pan.alexander.tordnscrypt.settings.tor_preferences.PreferencesTorFragment
 import pan.alexander.tordnscrypt.tor_fragment.TorFragmentReceiver
 import pan.alexander.tordnscrypt.update.DownloadTask
 import pan.alexander.tordnscrypt.update.UpdateService
+import pan.alexander.tordnscrypt.utils.apps.InstalledAppsUidIndex
+import pan.alexander.tordnscrypt.utils.configs.ModulesConfigCache
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler
 import pan.alexander.tordnscrypt.utils.filemanager.FileManager
 import pan.alexander.tordnscrypt.utils.integrity.Verifier
 import pan.alexander.tordnscrypt.utils.web.TorRefreshIPsWork
@@ -81,6 +85,12 @@ interface AppComponent {
     fun getPathVars(): dagger.Lazy<PathVars>
     fun getPreferenceRepository(): dagger.Lazy<PreferenceRepository>
     fun getCachedExecutor(): CachedExecutor
+    fun getTaskScheduler(): TaskScheduler
+    fun getModulesConfigCache(): dagger.Lazy<ModulesConfigCache>
+    fun getModulesRestartScheduler(): dagger.Lazy<ModulesRestartScheduler>
+    fun getInstalledAppsUidIndex(): dagger.Lazy<InstalledAppsUidIndex>
+    fun getFirewallPolicyStore(): dagger.Lazy<FirewallPolicyStore>
+    fun getTorControlPortClient(): dagger.Lazy<TorControlPortClient>
 
     fun inject(activity: MainActivity)
     fun inject(activity: SettingsActivity)
@@ -101,6 +111,7 @@ interface AppComponent {
     fun inject(fragment: PreferencesITPDFragment)
     fun inject(fragment: PreferencesDNSCryptRelays)
     fun inject(fragment: PreferencesDNSFragment)
+    fun inject(fragment: ShowRulesRecycleFrag)
     fun inject(fragment: UpdateModulesDialogFragment)
     fun inject(fragment: NotificationHelper)
     fun inject(fragment: ExtendedDialogFragment)
@@ -117,7 +128,6 @@ interface AppComponent {
     fun inject(dialogFragment: RequestIgnoreBatteryOptimizationDialog)
     fun inject(dialogFragment: AskForceClose)
     fun inject(dialogFragment: SendCrashReport)
-    @ObsoleteCoroutinesApi
     fun inject(viewModel: UnlockTorIpsViewModel)
     fun inject(usageStatistic: UsageStatistic)
     fun inject(modulesKiller: ModulesKiller)
@@ -22,7 +22,6 @@ import android.util.Log
 import dagger.Module
 import dagger.Provides
 import kotlinx.coroutines.*
-import pan.alexander.tordnscrypt.utils.executors.CachedExecutor
 import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
 import javax.inject.Named
 
@@ -48,10 +47,10 @@ class CoroutinesModule {
     @Provides
     fun provideDispatcherMain(): MainCoroutineDispatcher = Dispatchers.Main
 
+    //Coroutines do not share threads with the blocking pool, so long waits there cannot stall them
     @Provides
     @Named(DISPATCHER_IO)
-    fun provideDispatcherIo(cachedExecutor: CachedExecutor): CoroutineDispatcher =
-        cachedExecutor.executorService.asCoroutineDispatcher()
+    fun provideDispatcherIo(): CoroutineDispatcher = Dispatchers.IO
 
     @Provides
     @Named(DISPATCHER_COMPUTATION)
@@ -37,6 +37,7 @@ import pan.alexander.tordnscrypt.modules.ModulesKiller;
 import pan.alexander.tordnscrypt.modules.ModulesStatus;
 import pan.alexander.tordnscrypt.settings.PathVars;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.filemanager.FileManager;
 
 import static pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG;
@@ -138,7 +139,7 @@ public class AskForceClose extends ExtendedDialogFragment {
 
         String appDataDir = pathVars.get().getAppDataDir();
 
-        cachedExecutor.submit(() -> {
+        cachedExecutor.submit(TaskScheduler.Pool.IO, () -> {
             FileManager.deleteFileSynchronous(context, appDataDir
                     + "/app_data/dnscrypt-proxy", "public-resolvers.md");
             FileManager.deleteFileSynchronous(context, appDataDir
@@ -33,13 +33,18 @@ import androidx.preference.PreferenceManager;
 import java.util.Arrays;
 import java.util.List;
 
+import pan.alexander.tordnscrypt.App;
 import pan.alexander.tordnscrypt.R;
 import pan.alexander.tordnscrypt.settings.SettingsActivity;
 import pan.alexander.tordnscrypt.modules.ModulesAux;
-import pan.alexander.tordnscrypt.modules.ModulesRestarter;
+import pan.alexander.tordnscrypt.modules.ModulesRestartScheduler;
 import pan.alexander.tordnscrypt.modules.ModulesStatus;
 import pan.alexander.tordnscrypt.utils.filemanager.FileManager;
 
+import static pan.alexander.tordnscrypt.utils.enums.ModuleName.DNSCRYPT_MODULE;
+import static pan.alexander.tordnscrypt.utils.enums.ModuleName.ITPD_MODULE;
+import static pan.alexander.tordnscrypt.utils.enums.ModuleName.TOR_MODULE;
+
 public class DialogSaveConfigChanges extends ExtendedDialogFragment {
 
     private String fileText;
@@ -102,12 +107,15 @@ public class DialogSaveConfigChanges extends ExtendedDialogFragment {
         boolean torRunning = ModulesAux.isTorSavedStateRunning();
         boolean itpdRunning = ModulesAux.isITPDSavedStateRunning();
 
+        ModulesRestartScheduler restartScheduler = App.getInstance().getDaggerComponent()
+                .getModulesRestartScheduler().get();
+
         if (dnsCryptRunning && "DNSCrypt".equals(moduleName)) {
-            ModulesRestarter.restartDNSCrypt(context);
+            restartScheduler.scheduleRestart(DNSCRYPT_MODULE);
         } else if (torRunning && "Tor".equals(moduleName)) {
-            ModulesRestarter.restartTor(context);
+            restartScheduler.scheduleRestart(TOR_MODULE);
         } else if (itpdRunning && "ITPD".equals(moduleName)) {
-            ModulesRestarter.restartITPD(context);
+            restartScheduler.scheduleRestart(ITPD_MODULE);
 
             SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
             boolean torTethering = sharedPreferences.getBoolean("pref_common_tor_tethering", false) && torRunning;
@@ -31,6 +31,7 @@ import pan.alexander.tordnscrypt.domain.preferences.PreferenceRepository
 import pan.alexander.tordnscrypt.help.Utils
 import pan.alexander.tordnscrypt.settings.PathVars
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler
 import pan.alexander.tordnscrypt.utils.preferences.PreferenceKeys.ALWAYS_SHOW_HELP_MESSAGES
 import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
 import java.io.BufferedReader
@@ -63,7 +64,7 @@ class SendCrashReport : ExtendedDialogFragment() {
                 .setTitle(R.string.helper_dialog_title)
                 .setPositiveButton(R.string.ok) { _, _ ->
                     if (activity != null && activity?.isFinishing == false) {
-                        cachedExecutor.submit {
+                        cachedExecutor.submit(TaskScheduler.Pool.BLOCKING) {
 
                             val ctx = activity as Context
 
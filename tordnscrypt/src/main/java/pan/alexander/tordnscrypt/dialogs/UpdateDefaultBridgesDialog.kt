@@ -26,6 +26,7 @@ import androidx.appcompat.app.AlertDialog
 import pan.alexander.tordnscrypt.App
 import pan.alexander.tordnscrypt.R
 import pan.alexander.tordnscrypt.settings.SettingsActivity
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler
 import pan.alexander.tordnscrypt.utils.root.RootExecService
 import java.io.File
 import java.io.FileOutputStream
@@ -65,7 +66,7 @@ class UpdateDefaultBridgesDialog private constructor() {
         }
 
         private fun updateDefaultBridges(activity: Activity, useDefaultBridges: Boolean): Future<*>? {
-            return App.instance.daggerComponent.getCachedExecutor().submit {
+            return App.instance.daggerComponent.getCachedExecutor().submit(TaskScheduler.Pool.IO) {
                 val pathVars = App.instance.daggerComponent.getPathVars().get()
                 val outputFile = File(pathVars.appDataDir + "/app_data/tor/bridges_default.lst")
                 val installedBridgesSize = outputFile.length()
@@ -23,6 +23,7 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.text.Html;
+import android.text.SpannableStringBuilder;
 import android.text.Spanned;
 import android.util.Log;
 import android.view.ScaleGestureDetector;
@@ -87,7 +88,9 @@ public class DNSCryptFragmentPresenter implements DNSCryptFragmentPresenterInter
 
     private volatile LogDataModel savedLogData;
     private volatile int savedLinesLength;
-    private volatile String savedConnectionRecords = "";
+    private volatile Spanned savedConnectionRecords;
+    private String formattedLogLinesSource;
+    private Spanned formattedLogLines;
     private boolean fixedDNSCryptReady;
     private boolean fixedDNSCryptError;
 
@@ -163,7 +166,7 @@ public class DNSCryptFragmentPresenter implements DNSCryptFragmentPresenterInter
             fixedModuleState = STOPPED;
             savedLogData = null;
             savedLinesLength = 0;
-            savedConnectionRecords = "";
+            savedConnectionRecords = null;
             fixedDNSCryptReady = false;
             fixedDNSCryptError = false;
         }
@@ -269,6 +272,13 @@ public class DNSCryptFragmentPresenter implements DNSCryptFragmentPresenterInter
         }
     }
 
+    @Override
+    public void setDNSCryptProgressBarProgress(int progress) {
+        if (isActive()) {
+            view.setDNSCryptProgressBarProgress(progress);
+        }
+    }
+
     private void setDNSCryptInstalled(boolean installed) {
         if (!isActive()) {
             return;
@@ -304,12 +314,10 @@ public class DNSCryptFragmentPresenter implements DNSCryptFragmentPresenterInter
             return;
         }
 
-        Spanned htmlLines;
-        if (savedConnectionRecords.isEmpty()) {
-            htmlLines = Html.fromHtml(dnsCryptLogData.getLines());
-        } else {
-            htmlLines = Html.fromHtml(dnsCryptLogData.getLines() + "<br />" + savedConnectionRecords);
-        }
+        Spanned htmlLines = joinLogLinesAndConnectionRecords(
+                dnsCryptLogData.getLines(),
+                savedConnectionRecords
+        );
 
         if (!isActive() || htmlLines == null) {
             return;
@@ -390,7 +398,7 @@ public class DNSCryptFragmentPresenter implements DNSCryptFragmentPresenterInter
     }
 
     @Override
-    public void onConnectionRecordsUpdated(@NonNull String connectionRecords) {
+    public void onConnectionRecordsUpdated(@NonNull Spanned connectionRecords) {
         String logLines = "";
         if (savedLogData != null) {
             logLines = savedLogData.getLines();
@@ -398,13 +406,13 @@ public class DNSCryptFragmentPresenter implements DNSCryptFragmentPresenterInter
         displayDnsResponses(logLines, connectionRecords);
     }
 
-    private void displayDnsResponses(String savedLogLines, String connectionRecords) {
+    private void displayDnsResponses(String savedLogLines, Spanned connectionRecords) {
 
         if (modulesStatus.getMode() != VPN_MODE && !isFixTTL()) {
-            if (!savedConnectionRecords.isEmpty()) {
-                savedConnectionRecords = "";
+            if (savedConnectionRecords != null) {
+                savedConnectionRecords = null;
 
-                Spanned htmlLines = Html.fromHtml(savedLogLines);
+                Spanned htmlLines = joinLogLinesAndConnectionRecords(savedLogLines, null);
 
                 if (!isActive()) {
                     return;
@@ -430,11 +438,12 @@ public class DNSCryptFragmentPresenter implements DNSCryptFragmentPresenterInter
             return;
         }
 
-        if (connectionRecords.equals(savedConnectionRecords)) {
+        //The parser returns the same instance while no row was changed
+        if (connectionRecords == savedConnectionRecords) {
             return;
         }
 
-        Spanned htmlLines = Html.fromHtml(savedLogLines + "<br />" + connectionRecords);
+        Spanned htmlLines = joinLogLinesAndConnectionRecords(savedLogLines, connectionRecords);
 
         if (!isActive()) {
             return;
@@ -448,11 +457,27 @@ public class DNSCryptFragmentPresenter implements DNSCryptFragmentPresenterInter
                     savedConnectionRecords = connectionRecords;
                 }
             } else {
-                savedConnectionRecords = "";
+                savedConnectionRecords = null;
             }
         });
     }
 
+    //Log lines are parsed only when they are changed, connection records are already formatted
+    private synchronized Spanned joinLogLinesAndConnectionRecords(String logLines, Spanned connectionRecords) {
+        if (!logLines.equals(formattedLogLinesSource)) {
+            formattedLogLines = Html.fromHtml(logLines);
+            formattedLogLinesSource = logLines;
+        }
+
+        if (connectionRecords == null || connectionRecords.length() == 0) {
+            return formattedLogLines;
+        }
+
+        return new SpannableStringBuilder(formattedLogLines)
+                .append("\n")
+                .append(connectionRecords);
+    }
+
     @Override
     public void refreshDNSCryptState() {
 
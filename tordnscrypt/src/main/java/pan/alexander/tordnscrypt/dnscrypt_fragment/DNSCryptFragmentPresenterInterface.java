@@ -39,4 +39,6 @@ public interface DNSCryptFragmentPresenterInterface {
     void setDNSCryptStartButtonEnabled(boolean enabled);
 
     void setDNSCryptProgressBarIndeterminate(boolean indeterminate);
+
+    void setDNSCryptProgressBarProgress(int progress);
 }
@@ -40,6 +40,7 @@ import pan.alexander.tordnscrypt.modules.ModulesAux;
 import pan.alexander.tordnscrypt.modules.ModulesStatus;
 import pan.alexander.tordnscrypt.settings.PathVars;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.root.RootCommands;
 import pan.alexander.tordnscrypt.utils.root.RootExecService;
 import pan.alexander.tordnscrypt.utils.integrity.Verifier;
@@ -169,7 +170,7 @@ public class DNSCryptFragmentReceiver extends BroadcastReceiver {
                 FragmentManager fragmentManager = view.getFragmentFragmentManager();
                 Activity activity = view.getFragmentActivity();
 
-                cachedExecutor.submit(() -> {
+                cachedExecutor.submit(TaskScheduler.Pool.CPU, () -> {
                     try {
                         if (activity == null || activity.isFinishing()) {
                             return;
@@ -28,6 +28,7 @@ public interface DNSCryptFragmentView {
     void setDNSCryptStatus(int resourceText, int resourceColor);
     void setDNSCryptStartButtonEnabled(boolean enabled);
     void setDNSCryptProgressBarIndeterminate(boolean indeterminate);
+    void setDNSCryptProgressBarProgress(int progress);
     void setDNSCryptLogViewText();
     void setDNSCryptLogViewText(Spanned text);
     void setStartButtonText(int textId);
@@ -229,6 +229,11 @@ public class DNSCryptRunFragment extends Fragment implements DNSCryptFragmentVie
         }
     }
 
+    @Override
+    public void setDNSCryptProgressBarProgress(int progress) {
+        pbDNSCrypt.setProgress(progress);
+    }
+
     @Override
     @SuppressLint("SetTextI18n")
     public void setDNSCryptLogViewText() {
@@ -30,6 +30,7 @@ class ConnectionRecord(val qName: String = "",
     var reverseDNS = ""
     var blocked = false
     var blockedByIpv6 = false
+    var blockingRule = ""
     var unused = true
 
     override fun equals(other: Any?): Boolean {
@@ -28,13 +28,16 @@ import pan.alexander.tordnscrypt.App
 import pan.alexander.tordnscrypt.domain.dns_resolver.DnsInteractor
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceRepository
 import pan.alexander.tordnscrypt.modules.ModulesStatus
-import pan.alexander.tordnscrypt.settings.firewall.APPS_ALLOW_GSM_PREF
-import pan.alexander.tordnscrypt.settings.firewall.APPS_ALLOW_LAN_PREF
-import pan.alexander.tordnscrypt.settings.firewall.APPS_ALLOW_ROAMING
-import pan.alexander.tordnscrypt.settings.firewall.APPS_ALLOW_WIFI_PREF
+import pan.alexander.tordnscrypt.settings.dnscrypt_settings.DnsCryptRulesMatcher
+import pan.alexander.tordnscrypt.settings.firewall.FIREWALL_ALLOW_GSM
+import pan.alexander.tordnscrypt.settings.firewall.FIREWALL_ALLOW_LAN
+import pan.alexander.tordnscrypt.settings.firewall.FIREWALL_ALLOW_ROAMING
+import pan.alexander.tordnscrypt.settings.firewall.FIREWALL_ALLOW_WIFI
+import pan.alexander.tordnscrypt.settings.firewall.FirewallPolicyStore
 import pan.alexander.tordnscrypt.settings.tor_apps.ApplicationData
 import pan.alexander.tordnscrypt.utils.Constants.LOOPBACK_ADDRESS
 import pan.alexander.tordnscrypt.utils.Constants.META_ADDRESS
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler
 import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
 import pan.alexander.tordnscrypt.utils.enums.OperationMode
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor
@@ -55,6 +58,10 @@ class ConnectionRecordsConverter(context: Context) {
     lateinit var dnsInteractor: dagger.Lazy<DnsInteractor>
     @Inject
     lateinit var cachedExecutor: CachedExecutor
+    @Inject
+    lateinit var firewallPolicyStore: dagger.Lazy<FirewallPolicyStore>
+    @Inject
+    lateinit var dnsCryptRulesMatcher: dagger.Lazy<DnsCryptRulesMatcher>
 
     init {
         App.instance.daggerComponent.inject(this)
@@ -77,24 +84,18 @@ class ConnectionRecordsConverter(context: Context) {
     private var futureTask: Future<*>? = null
 
     private val firewallEnabled = preferenceRepository.get().getBoolPreference("FirewallEnabled")
-    private var appsAllowed = mutableSetOf<Int>()
-    private val appsLanAllowed = mutableListOf<Int>()
+    private val firewallPolicy = firewallPolicyStore.get().getPolicy()
+    private var allowedNetworkFlag = 0
 
     init {
         if (firewallEnabled) {
-            preferenceRepository.get().getStringSetPreference(APPS_ALLOW_LAN_PREF)
-                .forEach { appsLanAllowed.add(it.toInt()) }
-
-            var tempSet: MutableSet<String>? = null
             if (NetworkUtils.isWifiActive(context) || NetworkUtils.isEthernetActive(context)) {
-                tempSet = preferenceRepository.get().getStringSetPreference(APPS_ALLOW_WIFI_PREF)
+                allowedNetworkFlag = FIREWALL_ALLOW_WIFI
             } else if (NetworkUtils.isCellularActive(context)) {
-                tempSet = preferenceRepository.get().getStringSetPreference(APPS_ALLOW_GSM_PREF)
+                allowedNetworkFlag = FIREWALL_ALLOW_GSM
             } else if (NetworkUtils.isRoaming(context)) {
-                tempSet = preferenceRepository.get().getStringSetPreference(APPS_ALLOW_ROAMING)
+                allowedNetworkFlag = FIREWALL_ALLOW_ROAMING
             }
-
-            tempSet?.forEach { appsAllowed.add(it.toInt()) }
         }
 
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
@@ -172,9 +173,9 @@ class ConnectionRecordsConverter(context: Context) {
             ) {
                 false
             } else if (isIpInLanRange(dnsQueryRawRecord.daddr)) {
-                !appsLanAllowed.contains(dnsQueryRawRecord.uid)
+                !firewallPolicy.isAllowed(dnsQueryRawRecord.uid, FIREWALL_ALLOW_LAN)
             } else {
-                !appsAllowed.contains(dnsQueryRawRecord.uid)
+                !firewallPolicy.isAllowed(dnsQueryRawRecord.uid, allowedNetworkFlag)
             }
         } else {
             false
@@ -246,7 +247,7 @@ class ConnectionRecordsConverter(context: Context) {
             return
         }
 
-        futureTask = cachedExecutor.submit {
+        futureTask = cachedExecutor.submit(TaskScheduler.Pool.BLOCKING) {
             try {
 
                 while (!Thread.currentThread().isInterrupted) {
@@ -290,6 +291,12 @@ class ConnectionRecordsConverter(context: Context) {
             dnsQueryRawRecord.blocked = true
             dnsQueryRawRecord.unused = false
 
+            if (!dnsQueryRawRecord.blockedByIpv6) {
+                dnsQueryRawRecord.blockingRule = dnsCryptRulesMatcher.get().getBlockingRule(
+                    dnsQueryRawRecord.aName.ifBlank { dnsQueryRawRecord.qName }
+                ) ?: ""
+            }
+
         } else if (dnsQueryRawRecord.daddr.isBlank()
             && dnsQueryRawRecord.cName.isBlank()
             && !dnsQueryRawRecord.aName.contains(".in-addr.arpa")
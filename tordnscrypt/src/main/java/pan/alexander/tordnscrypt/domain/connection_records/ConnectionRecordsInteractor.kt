@@ -19,6 +19,7 @@
 
 package pan.alexander.tordnscrypt.domain.connection_records
 
+import android.text.Spanned
 import android.util.Log
 import pan.alexander.tordnscrypt.App
 import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
@@ -102,7 +103,7 @@ class ConnectionRecordsInteractor(private val connectionRecordsRepository: Conne
             return
         }
 
-        var records: String? = ""
+        var records: Spanned? = null
         try {
             records = parser?.formatLines(connectionRecords ?: emptyList())
         } catch (e: Exception) {
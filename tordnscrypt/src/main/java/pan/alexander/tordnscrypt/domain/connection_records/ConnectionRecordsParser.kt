@@ -20,6 +20,12 @@
 package pan.alexander.tordnscrypt.domain.connection_records
 
 import android.content.Context
+import android.os.Build
+import android.text.Html
+import android.text.SpannableStringBuilder
+import android.text.Spanned
+import android.text.SpannedString
+import android.text.TextUtils
 import androidx.preference.PreferenceManager
 import pan.alexander.tordnscrypt.App
 import pan.alexander.tordnscrypt.TopFragment
@@ -30,13 +36,49 @@ import pan.alexander.tordnscrypt.utils.Constants.LOOPBACK_ADDRESS
 import pan.alexander.tordnscrypt.utils.Constants.META_ADDRESS
 import pan.alexander.tordnscrypt.utils.preferences.PreferenceKeys
 import pan.alexander.tordnscrypt.utils.enums.OperationMode
+import pan.alexander.tordnscrypt.vpn.Rule
 import pan.alexander.tordnscrypt.vpn.service.ServiceVPNHandler
 import java.util.*
 
 private const val MAX_LINES_IN_LOG = 200
 
+/**
+ * Formats connection records as separate rows.
+ * Each row is formatted once and kept while its record stays in the log,
+ * so on every update only new or changed records are formatted.
+ * The joined result is reused if no row was changed.
+ */
 class ConnectionRecordsParser(private val applicationContext: Context) {
 
+    //Everything that is displayed in a row, records with the same row share the formatted text
+    private data class ConnectionRecordRow(
+        val qName: String,
+        val aName: String,
+        val cName: String,
+        val saddr: String,
+        val daddr: String,
+        val uid: Int,
+        val reverseDNS: String,
+        val blocked: Boolean,
+        val blockedByIpv6: Boolean,
+        val blockingRule: String,
+        val unused: Boolean
+    ) {
+        constructor(record: ConnectionRecord) : this(
+            record.qName,
+            record.aName,
+            record.cName,
+            record.saddr,
+            record.daddr,
+            record.uid,
+            record.reverseDNS,
+            record.blocked,
+            record.blockedByIpv6,
+            record.blockingRule,
+            record.unused
+        )
+    }
+
     private val modulesStatus = ModulesStatus.getInstance()
     private val sharedPreferences =
         PreferenceManager.getDefaultSharedPreferences(applicationContext)
@@ -46,7 +88,15 @@ class ConnectionRecordsParser(private val applicationContext: Context) {
         sharedPreferences.getString("pref_common_local_eth_device_addr", Constants.STANDARD_ADDRESS_LOCAL_PC)
             ?: Constants.STANDARD_ADDRESS_LOCAL_PC
 
-    fun formatLines(connectionRecords: List<ConnectionRecord>): String {
+    private var formattedRows = hashMapOf<ConnectionRecordRow, Spanned>()
+    private var displayedRows = emptyList<Spanned>()
+    private var displayedLines: Spanned = SpannedString("")
+    private var tetheringState = ""
+
+    private val appNames = hashMapOf<Int, String>()
+    private var appNamesSource: List<Rule>? = null
+
+    fun formatLines(connectionRecords: List<ConnectionRecord>): Spanned {
 
         val fixTTL =
             modulesStatus.isFixTTL && modulesStatus.mode == OperationMode.ROOT_MODE && !modulesStatus.isUseModulesWithRoot
@@ -63,9 +113,19 @@ class ConnectionRecordsParser(private val applicationContext: Context) {
             Constants.STANDARD_USB_MODEM_INTERFACE_RANGE
         }
 
-        val lines = StringBuilder()
+        //Tethering prefixes are part of the rows, so rows are formatted again when tethering changes
+        val currentTetheringState =
+            "$fixTTL $apAddresses $usbAddresses ${Tethering.usbTetherOn} ${Tethering.ethernetOn}"
+        if (currentTetheringState != tetheringState) {
+            tetheringState = currentTetheringState
+            formattedRows.clear()
+        }
 
-        lines.append("<br />")
+        val appList = ServiceVPNHandler.getAppsList()
+        if (appList !== appNamesSource) {
+            updateAppNames(appList)
+            formattedRows.clear()
+        }
 
         var start = 0
         val logSize: Int = connectionRecords.size
@@ -73,6 +133,9 @@ class ConnectionRecordsParser(private val applicationContext: Context) {
             start = logSize - MAX_LINES_IN_LOG
         }
 
+        val rows = ArrayList<Spanned>(logSize - start)
+        val newFormattedRows = HashMap<ConnectionRecordRow, Spanned>(formattedRows.size * 2)
+
         for (i in start until logSize) {
 
             val record = connectionRecords[i]
@@ -85,80 +148,143 @@ class ConnectionRecordsParser(private val applicationContext: Context) {
                 continue
             }
 
-            if (record.blocked) {
-                lines.append("<font color=#f08080>")
-            } else if (record.uid != -1000 && record.daddr.trim().isNotEmpty()) {
-                lines.append("<font color=#E7AD42>")
-            } else if (record.unused) {
-                lines.append("<font color=#9e9e9e>")
-            } else {
-                lines.append("<font color=#009688>")
-            }
+            val row = ConnectionRecordRow(record)
+            val formattedRow = newFormattedRows[row]
+                ?: formattedRows[row]
+                ?: formatRow(row, fixTTL, apAddresses, usbAddresses)
+            newFormattedRows[row] = formattedRow
+            rows.add(formattedRow)
+        }
+
+        formattedRows = newFormattedRows
 
-            if (record.uid != -1000) {
-                var appName = ""
-                val appList = ServiceVPNHandler.getAppsList()
-                if (appList != null) {
-                    for (rule in appList) {
-                        if (rule.uid == record.uid) {
-                            appName = rule.appName
-                            break
-                        }
-                    }
-                }
-                if (appName.isEmpty() || record.uid == 1000) {
-                    appName =
-                        applicationContext.packageManager.getNameForUid(record.uid) ?: "Undefined"
-                }
-                if (apIsOn && fixTTL && record.saddr.contains(apAddresses)) {
-                    lines.append("<b>").append("WiFi").append("</b>").append(" -> ")
-                } else if (Tethering.usbTetherOn && fixTTL && record.saddr.contains(usbAddresses)) {
-                    lines.append("<b>").append("USB").append("</b>").append(" -> ")
-                } else if (Tethering.ethernetOn && fixTTL && record.saddr.contains(
-                        localEthernetDeviceAddress
-                    )
-                ) {
-                    lines.append("<b>").append("LAN").append("</b>").append(" -> ")
-                } else if (appName.isNotEmpty()) {
-                    lines.append("<b>").append(appName).append("</b>").append(" -> ")
-                } else {
-                    lines.append("<b>").append("Unknown UID").append(record.uid).append("</b>")
-                        .append(" -> ")
-                }
+        if (isSameRows(rows)) {
+            return displayedLines
+        }
+
+        val lines = SpannableStringBuilder()
+        for (row in rows) {
+            lines.append("\n").append(row)
+        }
+
+        displayedRows = rows
+        displayedLines = SpannedString(lines)
+
+        return displayedLines
+    }
+
+    private fun isSameRows(rows: List<Spanned>): Boolean {
+        if (rows.size != displayedRows.size) {
+            return false
+        }
+
+        for (i in rows.indices) {
+            if (rows[i] !== displayedRows[i]) {
+                return false
             }
+        }
+
+        return true
+    }
+
+    private fun updateAppNames(appList: List<Rule>?) {
+        appNames.clear()
+        appNamesSource = appList
 
-            if (record.aName.trim().isNotEmpty()) {
-                lines.append(record.aName.lowercase(Locale.ROOT))
-                if (record.blocked && record.blockedByIpv6) {
-                    lines.append(" ipv6")
-                }
-            } else if (record.qName.trim().isNotEmpty()) {
-                lines.append(record.qName.lowercase(Locale.ROOT))
+        //System UID is shared by many packages, so its name is resolved by the package manager
+        appList?.forEach { rule ->
+            if (rule.uid != 1000 && !appNames.containsKey(rule.uid)) {
+                appNames[rule.uid] = rule.appName
             }
+        }
+    }
 
-            if (record.cName.trim().isNotEmpty() && record.uid == -1000) {
-                lines.append(" -> ").append(record.cName.lowercase(Locale.ROOT))
+    private fun getAppName(uid: Int): String {
+        appNames[uid]?.let {
+            if (it.isNotEmpty()) {
+                return it
             }
-            if (record.daddr.trim().isNotEmpty()
-                && (!record.daddr.contains(META_ADDRESS)
-                        && !record.daddr.contains(LOOPBACK_ADDRESS)
-                        || record.uid != -1000)
+        }
+
+        val appName = applicationContext.packageManager.getNameForUid(uid) ?: "Undefined"
+        appNames[uid] = appName
+        return appName
+    }
+
+    private fun formatRow(
+        record: ConnectionRecordRow,
+        fixTTL: Boolean,
+        apAddresses: String,
+        usbAddresses: String
+    ): Spanned {
+
+        val line = StringBuilder()
+
+        if (record.blocked) {
+            line.append("<font color=#f08080>")
+        } else if (record.uid != -1000 && record.daddr.trim().isNotEmpty()) {
+            line.append("<font color=#E7AD42>")
+        } else if (record.unused) {
+            line.append("<font color=#9e9e9e>")
+        } else {
+            line.append("<font color=#009688>")
+        }
+
+        if (record.uid != -1000) {
+            val appName = getAppName(record.uid)
+            if (apIsOn && fixTTL && record.saddr.contains(apAddresses)) {
+                line.append("<b>").append("WiFi").append("</b>").append(" -> ")
+            } else if (Tethering.usbTetherOn && fixTTL && record.saddr.contains(usbAddresses)) {
+                line.append("<b>").append("USB").append("</b>").append(" -> ")
+            } else if (Tethering.ethernetOn && fixTTL && record.saddr.contains(
+                    localEthernetDeviceAddress
+                )
             ) {
-                if (record.uid == -1000) {
-                    lines.append(" -> ")
-                }
-                if (record.uid != -1000 && record.reverseDNS.isNotEmpty()) {
-                    lines.append(record.reverseDNS).append(" -> ")
-                }
-                lines.append(record.daddr)
+                line.append("<b>").append("LAN").append("</b>").append(" -> ")
+            } else if (appName.isNotEmpty()) {
+                line.append("<b>").append(appName).append("</b>").append(" -> ")
+            } else {
+                line.append("<b>").append("Unknown UID").append(record.uid).append("</b>")
+                    .append(" -> ")
             }
-            lines.append("</font>")
+        }
 
-            if (i < connectionRecords.size - 1) {
-                lines.append("<br />")
+        if (record.aName.trim().isNotEmpty()) {
+            line.append(record.aName.lowercase(Locale.ROOT))
+            if (record.blocked && record.blockedByIpv6) {
+                line.append(" ipv6")
+            } else if (record.blocked && record.blockingRule.isNotEmpty()) {
+                line.append(" (").append(TextUtils.htmlEncode(record.blockingRule)).append(")")
             }
+        } else if (record.qName.trim().isNotEmpty()) {
+            line.append(record.qName.lowercase(Locale.ROOT))
+        }
+
+        if (record.cName.trim().isNotEmpty() && record.uid == -1000) {
+            line.append(" -> ").append(record.cName.lowercase(Locale.ROOT))
+        }
+        if (record.daddr.trim().isNotEmpty()
+            && (!record.daddr.contains(META_ADDRESS)
+                    && !record.daddr.contains(LOOPBACK_ADDRESS)
+                    || record.uid != -1000)
+        ) {
+            if (record.uid == -1000) {
+                line.append(" -> ")
+            }
+            if (record.uid != -1000 && record.reverseDNS.isNotEmpty()) {
+                line.append(record.reverseDNS).append(" -> ")
+            }
+            line.append(record.daddr)
+        }
+        line.append("</font>")
+
+        val spanned = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            Html.fromHtml(line.toString(), Html.FROM_HTML_MODE_LEGACY)
+        } else {
+            @Suppress("DEPRECATION")
+            Html.fromHtml(line.toString())
         }
 
-        return lines.toString()
+        return SpannedString(spanned)
     }
 }
@@ -19,7 +19,9 @@
 
 package pan.alexander.tordnscrypt.domain.connection_records
 
+import android.text.Spanned
+
 interface OnConnectionRecordsUpdatedListener {
-    fun onConnectionRecordsUpdated(connectionRecords: String)
+    fun onConnectionRecordsUpdated(connectionRecords: Spanned)
     fun isActive(): Boolean
 }
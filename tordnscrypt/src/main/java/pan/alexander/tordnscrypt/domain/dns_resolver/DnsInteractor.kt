@@ -19,7 +19,7 @@
 
 package pan.alexander.tordnscrypt.domain.dns_resolver
 
-import kotlinx.coroutines.ObsoleteCoroutinesApi
+import kotlinx.coroutines.flow.Flow
 import pan.alexander.tordnscrypt.settings.tor_ips.DomainIpEntity
 import pan.alexander.tordnscrypt.utils.dns.Resolver
 
@@ -36,9 +36,8 @@ interface DnsInteractor {
 
     fun reverseResolve(ip: String): String
 
-    @ObsoleteCoroutinesApi
-    suspend fun resolveDomainOrIp(
+    fun resolveDomainOrIp(
         domainIps: Set<DomainIpEntity>,
         timeout: Int = Resolver.DNS_DEFAULT_TIMEOUT_SEC
-    ): Set<DomainIpEntity>
+    ): Flow<DomainIpEntity>
 }
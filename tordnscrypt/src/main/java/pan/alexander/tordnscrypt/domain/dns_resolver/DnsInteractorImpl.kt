@@ -21,7 +21,12 @@ package pan.alexander.tordnscrypt.domain.dns_resolver
 
 import android.util.Log
 import kotlinx.coroutines.*
-import kotlinx.coroutines.channels.actor
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import pan.alexander.tordnscrypt.di.CoroutinesModule.Companion.DISPATCHER_IO
 import pan.alexander.tordnscrypt.modules.ModulesStatus
 import pan.alexander.tordnscrypt.settings.PathVars
 import pan.alexander.tordnscrypt.settings.tor_ips.DomainEntity
@@ -31,18 +36,22 @@ import pan.alexander.tordnscrypt.utils.dns.Resolver
 import pan.alexander.tordnscrypt.utils.enums.ModuleState
 import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
 import java.io.IOException
-import java.util.*
-import java.util.concurrent.ConcurrentHashMap
+import java.net.SocketTimeoutException
 import javax.inject.Inject
+import javax.inject.Named
 
 private const val DELAY_ERROR_RETRY = 100L
 private const val ERROR_RETRY_COUNT = 1
+private const val MAX_PARALLEL_RESOLUTIONS = 8
 
 class DnsInteractorImpl @Inject constructor(
     private val pathVars: PathVars,
     private val dnsRepository: DnsRepository,
+    @Named(DISPATCHER_IO)
+    private val dispatcherIo: CoroutineDispatcher
 ) : DnsInteractor {
     private val modulesStatus = ModulesStatus.getInstance()
+    private val resolveSemaphore = Semaphore(MAX_PARALLEL_RESOLUTIONS)
 
     override fun resolveDomain(domain: String): Set<String> =
         resolveDomain(domain, Resolver.DNS_DEFAULT_TIMEOUT_SEC)
@@ -84,101 +93,60 @@ class DnsInteractorImpl @Inject constructor(
             }
         }
 
-    @ObsoleteCoroutinesApi
-    override suspend fun resolveDomainOrIp(
+    //Entries are resolved in parallel, but not more than MAX_PARALLEL_RESOLUTIONS at once
+    //for all calls of this instance, results are emitted as soon as they are ready
+    override fun resolveDomainOrIp(
         domainIps: Set<DomainIpEntity>,
         timeout: Int
-    ): Set<DomainIpEntity> {
-        val result = Collections.newSetFromMap(ConcurrentHashMap<DomainIpEntity, Boolean>())
-
-        coroutineScope {
-            val channel = actor<Triple<DomainIpEntity, Deferred<DomainIpEntity>, Int>> {
-                for (triple in channel) {
-                    launch {
-                        supervisorScope {
-                            try {
-                                val hostIp = triple.second.await()
-                                result.add(hostIp)
-                                if (result.size == domainIps.size) {
-                                    channel.close()
-                                }
-                            } catch (e: IOException) {
-                                if (triple.third < ERROR_RETRY_COUNT) {
-                                    channel.send(
-                                        Triple(
-                                            triple.first,
-                                            async { resolveDomainOrIp(triple.first, timeout) },
-                                            triple.third + 1
-                                        )
-                                    )
-
-                                } else {
-                                    Log.e(
-                                        LOG_TAG,
-                                        "DnsInteractor ${e.javaClass} ${e.message}\n${e.cause}"
-                                    )
-                                    result.add(triple.first)
-                                    if (result.size == domainIps.size) {
-                                        channel.close()
-                                    }
-                                }
-                            } catch (e: Exception) {
-                                Log.e(
-                                    LOG_TAG,
-                                    "DnsInteractor ${e.javaClass} ${e.message}\n${e.cause}"
-                                )
-                                channel.close()
-                            }
-                        }
-                    }
-                }
+    ): Flow<DomainIpEntity> = channelFlow {
+        domainIps.forEach { domainIp ->
+            launch {
+                send(resolveSemaphore.withPermit {
+                    resolveDomainOrIpWithRetry(domainIp, timeout)
+                })
             }
-
-            supervisorScope {
-                domainIps.map {
-                    Triple(it, async { resolveDomainOrIp(it, timeout) }, 0)
-                }.map {
-                    channel.send(it)
-                }
-            }
-
         }
+    }.flowOn(dispatcherIo)
 
-        return result
-    }
-
-    suspend fun resolveDomainOrIpOld(
-        domainIps: List<DomainIpEntity>,
+    //A failed entry is returned as is and does not affect the others,
+    //timeouts are not retried as the next attempt is likely to time out too.
+    //The entry timeout leaves room for every query of the longest followed CNAME chain
+    private suspend fun resolveDomainOrIpWithRetry(
+        domainIp: DomainIpEntity,
         timeout: Int
-    ): List<DomainIpEntity> {
-        return supervisorScope {
-
-            domainIps.map {
-                it to async { resolveDomainOrIp(it, timeout) }
-            }.map {
-                try {
-                    it.second.await()
-                } catch (e: Exception) {
-                    retryResolveDomainOrIp(it.first, timeout)
+    ): DomainIpEntity {
+        var retry = 0
+        while (true) {
+            try {
+                return withTimeout(getEntryTimeoutMsec(timeout)) {
+                    runInterruptible {
+                        resolveDomainOrIp(domainIp, timeout)
+                    }
                 }
+            } catch (e: TimeoutCancellationException) {
+                Log.w(LOG_TAG, "DnsInteractor $domainIp timeout")
+                return domainIp
+            } catch (e: SocketTimeoutException) {
+                Log.w(LOG_TAG, "DnsInteractor $domainIp timeout")
+                return domainIp
+            } catch (e: IOException) {
+                if (retry++ < ERROR_RETRY_COUNT) {
+                    delay(DELAY_ERROR_RETRY)
+                } else {
+                    Log.e(LOG_TAG, "DnsInteractor ${e.javaClass} ${e.message}\n${e.cause}")
+                    return domainIp
+                }
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                Log.e(LOG_TAG, "DnsInteractor ${e.javaClass} ${e.message}\n${e.cause}")
+                return domainIp
             }
         }
     }
 
-    private suspend fun retryResolveDomainOrIp(
-        domainIp: DomainIpEntity,
-        timeout: Int
-    ): DomainIpEntity =
-        try {
-            delay(DELAY_ERROR_RETRY)
-            resolveDomainOrIp(domainIp, timeout)
-        } catch (e: Exception) {
-            Log.e(
-                LOG_TAG,
-                "DnsInteractor resolveDomainIps exception ${e.message}\n${e.cause}"
-            )
-            domainIp
-        }
+    private fun getEntryTimeoutMsec(timeout: Int): Long =
+        maxOf(timeout, Resolver.DNS_DEFAULT_TIMEOUT_SEC) * (MAX_CNAME_CHAIN_DEPTH + 1) * 1000L
 
     private fun resolveDomainOrIp(domainIp: DomainIpEntity, timeout: Int): DomainIpEntity =
         when (domainIp) {
@@ -19,6 +19,9 @@
 
 package pan.alexander.tordnscrypt.domain.dns_resolver
 
+//CNAME records are followed not deeper than this, each step is a separate query
+const val MAX_CNAME_CHAIN_DEPTH = 8
+
 interface DnsRepository {
     fun resolveDomainUDP(domain: String, port: Int, timeout: Int): Set<String>
     fun resolveDomainDOH(domain: String, timeout: Int): Set<String>
@@ -32,12 +32,14 @@ import pan.alexander.tordnscrypt.domain.log_reader.itpd.OnITPDHtmlUpdatedListene
 import pan.alexander.tordnscrypt.domain.log_reader.itpd.OnITPDLogUpdatedListener
 import pan.alexander.tordnscrypt.domain.log_reader.tor.OnTorLogUpdatedListener
 import pan.alexander.tordnscrypt.domain.log_reader.tor.TorInteractor
+import pan.alexander.tordnscrypt.modules.TorControlPortClient
 import javax.inject.Inject
 
 @LogReaderScope
 class LogReaderInteractors @Inject constructor(
     modulesLogRepository: ModulesLogRepository,
-    connectionsRepository: ConnectionRecordsRepository
+    connectionsRepository: ConnectionRecordsRepository,
+    torControlPortClient: dagger.Lazy<TorControlPortClient>
 ) :
     DNSCryptInteractorInterface,
     TorInteractorInterface,
@@ -45,7 +47,7 @@ class LogReaderInteractors @Inject constructor(
     ConnectionRecordsInteractorInterface {
 
     private val dnsCryptInteractor = DNSCryptInteractor(modulesLogRepository)
-    private val torInteractor = TorInteractor(modulesLogRepository)
+    private val torInteractor = TorInteractor(modulesLogRepository, torControlPortClient)
     private val itpdInteractor = ITPDInteractor(modulesLogRepository)
     private val itpdHtmlInteractor = ITPDHtmlInteractor(modulesLogRepository)
     private val connectionRecordsInteractor = ConnectionRecordsInteractor(connectionsRepository)
@@ -22,11 +22,15 @@ package pan.alexander.tordnscrypt.domain.log_reader.tor
 import android.util.Log
 import pan.alexander.tordnscrypt.domain.log_reader.ModulesLogRepository
 import pan.alexander.tordnscrypt.modules.ModulesStatus
+import pan.alexander.tordnscrypt.modules.TorControlPortClient
 import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
 import pan.alexander.tordnscrypt.utils.enums.ModuleState
 import java.lang.Exception
 
-class TorInteractor(private val modulesLogRepository: ModulesLogRepository) {
+class TorInteractor(
+    private val modulesLogRepository: ModulesLogRepository,
+    private val torControlPortClient: dagger.Lazy<TorControlPortClient>
+) {
     private val listeners: HashSet<OnTorLogUpdatedListener?> = HashSet()
     private var parser: TorLogParser? = null
     private val modulesStatus = ModulesStatus.getInstance()
@@ -71,7 +75,7 @@ class TorInteractor(private val modulesLogRepository: ModulesLogRepository) {
 
         resetParserState()
 
-        parser = parser ?: TorLogParser(modulesLogRepository)
+        parser = parser ?: TorLogParser(modulesLogRepository, torControlPortClient)
 
         val torLogData = parser?.parseLog()
 
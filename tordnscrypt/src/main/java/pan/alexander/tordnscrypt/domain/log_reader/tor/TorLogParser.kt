@@ -22,12 +22,16 @@ package pan.alexander.tordnscrypt.domain.log_reader.tor
 import pan.alexander.tordnscrypt.domain.log_reader.LogDataModel
 import pan.alexander.tordnscrypt.domain.log_reader.AbstractLogParser
 import pan.alexander.tordnscrypt.domain.log_reader.ModulesLogRepository
+import pan.alexander.tordnscrypt.modules.TorControlPortClient
 import java.util.regex.Pattern
 
 private const val COUNT_DOWN_TIMER = 5
 private val patternBootstrappedPercents = Pattern.compile("Bootstrapped +(\\d+)%")
 
-class TorLogParser(private val modulesLogRepository: ModulesLogRepository) : AbstractLogParser() {
+class TorLogParser(
+    private val modulesLogRepository: ModulesLogRepository,
+    private val torControlPortClient: dagger.Lazy<TorControlPortClient>
+) : AbstractLogParser() {
     private var startedSuccessfully = false
     private var startedWithError = false
     private var percentsSaved = -1
@@ -85,6 +89,19 @@ class TorLogParser(private val modulesLogRepository: ModulesLogRepository) : Abs
                 }
 
             }
+
+            //ControlPort pushes the bootstrap progress without the log delay, errors are detected from the log
+            val bootstrapProgress = torControlPortClient.get().bootstrapProgress
+            if (!startedSuccessfully && bootstrapProgress >= 0) {
+                if (bootstrapProgress == 100) {
+                    percentsSaved = -1
+                    startedSuccessfully = true
+                    startedWithError = false
+                    errorCountDownCounter = COUNT_DOWN_TIMER
+                } else {
+                    percentsSaved = bootstrapProgress
+                }
+            }
         }
 
         return LogDataModel(
@@ -29,4 +29,12 @@ interface PreferenceRepository {
     fun setStringPreference(key: String, value: String)
     fun getStringSetPreference(key: String): HashSet<String>
     fun setStringSetPreference(key: String, value: Set<String>)
+
+    //Read-only set without copying, it must not be modified
+    fun getStringSetPreferenceView(key: String): Set<String>
+    fun addToStringSetPreference(key: String, value: String)
+    fun removeFromStringSetPreference(key: String, value: String)
+
+    fun addOnPreferenceChangedListener(key: String, listener: OnPreferenceChangedListener)
+    fun removeOnPreferenceChangedListener(key: String, listener: OnPreferenceChangedListener)
 }
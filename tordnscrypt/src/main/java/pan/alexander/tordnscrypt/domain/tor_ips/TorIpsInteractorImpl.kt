@@ -35,8 +35,8 @@ class TorIpsInteractorImpl @Inject constructor(
     ): Set<DomainIpEntity> {
         val domainIps = hashSetOf<DomainIpEntity>()
 
-        val hosts = preferenceRepository.get().getStringSetPreference(unlockHostsStr)
-        val ips: Set<String> = preferenceRepository.get().getStringSetPreference(unlockIPsStr)
+        val hosts = preferenceRepository.get().getStringSetPreferenceView(unlockHostsStr)
+        val ips = preferenceRepository.get().getStringSetPreferenceView(unlockIPsStr)
 
         for (host in hosts) {
             val domainClear = host.replace("#", "")
@@ -67,7 +67,7 @@ class TorIpsInteractorImpl @Inject constructor(
         ipsToUnlock: Set<String>,
         settingsKey: String
     ): Boolean {
-        val ips = preferenceRepository.get().getStringSetPreference(settingsKey)
+        val ips = preferenceRepository.get().getStringSetPreferenceView(settingsKey)
         return if (ips.size == ipsToUnlock.size && ips.containsAll(ipsToUnlock)) {
             false
         } else {
@@ -83,21 +83,17 @@ class TorIpsInteractorImpl @Inject constructor(
     ) {
         val preferences = preferenceRepository.get()
         if (domainIp is IpEntity) {
-            val ipSet = preferences.getStringSetPreference(unlockIPsStr)
             if (domainIp.isActive) {
-                ipSet.remove(domainIp.ip)
+                preferences.removeFromStringSetPreference(unlockIPsStr, domainIp.ip)
             } else {
-                ipSet.remove("#" + domainIp.ip)
+                preferences.removeFromStringSetPreference(unlockIPsStr, "#" + domainIp.ip)
             }
-            preferences.setStringSetPreference(unlockIPsStr, ipSet)
         } else if (domainIp is DomainEntity) {
-            val hostSet = preferences.getStringSetPreference(unlockHostsStr)
             if (domainIp.isActive) {
-                hostSet.remove(domainIp.domain)
+                preferences.removeFromStringSetPreference(unlockHostsStr, domainIp.domain)
             } else {
-                hostSet.remove("#" + domainIp.domain)
+                preferences.removeFromStringSetPreference(unlockHostsStr, "#" + domainIp.domain)
             }
-            preferences.setStringSetPreference(unlockHostsStr, hostSet)
         }
     }
 
@@ -106,39 +102,33 @@ class TorIpsInteractorImpl @Inject constructor(
         active: Boolean,
         unlockHostsStr: String
     ) {
-        val hostsSet = preferenceRepository.get().getStringSetPreference(unlockHostsStr)
+        val preferences = preferenceRepository.get()
         if (active) {
-            hostsSet.remove("#$oldDomain")
-            hostsSet.add(oldDomain.replace("#", ""))
+            preferences.removeFromStringSetPreference(unlockHostsStr, "#$oldDomain")
+            preferences.addToStringSetPreference(unlockHostsStr, oldDomain.replace("#", ""))
         } else {
-            hostsSet.remove(oldDomain)
-            hostsSet.add("#$oldDomain")
+            preferences.removeFromStringSetPreference(unlockHostsStr, oldDomain)
+            preferences.addToStringSetPreference(unlockHostsStr, "#$oldDomain")
         }
-        preferenceRepository.get().setStringSetPreference(unlockHostsStr, hostsSet)
     }
 
     override fun saveIpActiveInPreferences(oldIp: String, active: Boolean, unlockIPsStr: String) {
-        val ipsSet = preferenceRepository.get().getStringSetPreference(unlockIPsStr)
+        val preferences = preferenceRepository.get()
         if (active) {
-            ipsSet.remove("#$oldIp")
-            ipsSet.add(oldIp.replace("#", ""))
+            preferences.removeFromStringSetPreference(unlockIPsStr, "#$oldIp")
+            preferences.addToStringSetPreference(unlockIPsStr, oldIp.replace("#", ""))
         } else {
-            ipsSet.remove(oldIp)
-            ipsSet.add("#$oldIp")
+            preferences.removeFromStringSetPreference(unlockIPsStr, oldIp)
+            preferences.addToStringSetPreference(unlockIPsStr, "#$oldIp")
         }
-        preferenceRepository.get().setStringSetPreference(unlockIPsStr, ipsSet)
     }
 
     override fun addDomainToPreferences(domain: String, unlockHostsStr: String) {
-        val hostsSet = preferenceRepository.get().getStringSetPreference(unlockHostsStr)
-        hostsSet.add(domain)
-        preferenceRepository.get().setStringSetPreference(unlockHostsStr, hostsSet)
+        preferenceRepository.get().addToStringSetPreference(unlockHostsStr, domain)
     }
 
     override fun addIpToPreferences(ip: String, unlockIPsStr: String) {
-        val ipsSet = preferenceRepository.get().getStringSetPreference(unlockIPsStr)
-        ipsSet.add(ip)
-        preferenceRepository.get().setStringSetPreference(unlockIPsStr, ipsSet)
+        preferenceRepository.get().addToStringSetPreference(unlockIPsStr, ip)
     }
 
     override fun replaceDomainInPreferences(
@@ -146,16 +136,14 @@ class TorIpsInteractorImpl @Inject constructor(
         oldDomain: String,
         unlockHostsStr: String
     ) {
-        val hostsSet = preferenceRepository.get().getStringSetPreference(unlockHostsStr)
-        hostsSet.remove(oldDomain)
-        hostsSet.add(domain)
-        preferenceRepository.get().setStringSetPreference(unlockHostsStr, hostsSet)
+        val preferences = preferenceRepository.get()
+        preferences.removeFromStringSetPreference(unlockHostsStr, oldDomain)
+        preferences.addToStringSetPreference(unlockHostsStr, domain)
     }
 
     override fun replaceIpInPreferences(ip: String, oldIp: String, unlockIPsStr: String) {
-        val ipsSet = preferenceRepository.get().getStringSetPreference(unlockIPsStr)
-        ipsSet.remove(oldIp)
-        ipsSet.add(ip)
-        preferenceRepository.get().setStringSetPreference(unlockIPsStr, ipsSet)
+        val preferences = preferenceRepository.get()
+        preferences.removeFromStringSetPreference(unlockIPsStr, oldIp)
+        preferences.addToStringSetPreference(unlockIPsStr, ip)
     }
 }
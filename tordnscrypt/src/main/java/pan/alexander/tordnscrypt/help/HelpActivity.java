@@ -61,6 +61,7 @@ import pan.alexander.tordnscrypt.domain.preferences.PreferenceRepository;
 import pan.alexander.tordnscrypt.settings.PathVars;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
 import pan.alexander.tordnscrypt.utils.enums.FileOperationsVariants;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.filemanager.ExternalStoragePermissions;
 import pan.alexander.tordnscrypt.utils.filemanager.FileManager;
 import pan.alexander.tordnscrypt.utils.filemanager.OnBinaryFileOperationsCompleteListener;
@@ -167,7 +168,7 @@ public class HelpActivity extends LangAppCompatActivity implements View.OnClickL
 
         etLogsPath.setText(pathToSaveLogs);
 
-        cachedExecutor.submit(() -> new File(cacheDir + "/logs").mkdirs());
+        cachedExecutor.submit(TaskScheduler.Pool.IO, () -> new File(cacheDir + "/logs").mkdirs());
 
         FileManager.setOnFileOperationCompleteListener(this);
     }
@@ -192,7 +193,7 @@ public class HelpActivity extends LangAppCompatActivity implements View.OnClickL
             if (modulesStatus.isRootAvailable()) {
                 collectLogsMethodOne(info);
             } else {
-                cachedExecutor.submit(br.saveLogs(getApplicationContext(), null));
+                cachedExecutor.submit(TaskScheduler.Pool.BLOCKING, br.saveLogs(getApplicationContext(), null));
             }
         } else if (id == R.id.etLogsPath) {
             chooseOutputFolder();
@@ -329,7 +330,7 @@ public class HelpActivity extends LangAppCompatActivity implements View.OnClickL
     }
 
     private void hideSelectionEditTextIfRequired() {
-        cachedExecutor.submit(() -> {
+        cachedExecutor.submit(TaskScheduler.Pool.IO, () -> {
 
             if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
                 logsDirAccessible = pan.alexander.tordnscrypt.utils.Utils.INSTANCE.isLogsDirAccessible();
@@ -41,6 +41,7 @@ import pan.alexander.tordnscrypt.R;
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceRepository;
 import pan.alexander.tordnscrypt.iptables.Tethering;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.root.RootCommands;
 import pan.alexander.tordnscrypt.utils.root.RootExecService;
 import pan.alexander.tordnscrypt.utils.zipUtil.ZipFileManager;
@@ -88,7 +89,7 @@ public class HelpActivityReceiver extends BroadcastReceiver {
             return;
         }
 
-        cachedExecutor.submit(saveLogs(context, comResult));
+        cachedExecutor.submit(TaskScheduler.Pool.BLOCKING, saveLogs(context, comResult));
     }
 
     Runnable saveLogs(final Context context, final RootCommands comResult) {
@@ -19,13 +19,13 @@ package pan.alexander.tordnscrypt.installer;
     Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
 */
 
-import android.content.Context;
-import android.content.res.AssetManager;
-
 abstract class AssetsExtractCommand implements Command {
-    AssetManager assets;
+    final ModulesArchiveExtractor extractor;
+    final ModulesArchiveExtractor.OnProgressListener progressListener;
 
-    AssetsExtractCommand(Context context) {
-        this.assets = context.getAssets();
+    AssetsExtractCommand(ModulesArchiveExtractor extractor,
+                         ModulesArchiveExtractor.OnProgressListener progressListener) {
+        this.extractor = extractor;
+        this.progressListener = progressListener;
     }
 }
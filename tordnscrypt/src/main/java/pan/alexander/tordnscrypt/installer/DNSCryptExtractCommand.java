@@ -19,21 +19,17 @@ package pan.alexander.tordnscrypt.installer;
     Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
 */
 
-import android.content.Context;
-
-import pan.alexander.tordnscrypt.utils.zipUtil.ZipFileManager;
+import java.util.Arrays;
 
 public class DNSCryptExtractCommand extends AssetsExtractCommand {
-    private final String appDataDir;
 
-    DNSCryptExtractCommand(Context context, String appDataDir) {
-        super(context);
-        this.appDataDir = appDataDir;
+    DNSCryptExtractCommand(ModulesArchiveExtractor extractor,
+                           ModulesArchiveExtractor.OnProgressListener progressListener) {
+        super(extractor, progressListener);
     }
 
     @Override
     public void execute() throws Exception {
-        ZipFileManager zipFileManager = new ZipFileManager();
-        zipFileManager.extractZipFromInputStream(assets.open("dnscrypt.mp3"), appDataDir);
+        extractor.extract(Arrays.asList("dnscrypt.mp3", "busyb.mp3"), progressListener);
     }
 }
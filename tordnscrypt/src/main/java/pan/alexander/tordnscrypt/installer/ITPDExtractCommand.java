@@ -19,21 +19,17 @@ package pan.alexander.tordnscrypt.installer;
     Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
 */
 
-import android.content.Context;
-
-import pan.alexander.tordnscrypt.utils.zipUtil.ZipFileManager;
+import java.util.Collections;
 
 public class ITPDExtractCommand extends AssetsExtractCommand {
-    private final String appDataDir;
 
-    ITPDExtractCommand(Context context, String appDataDir) {
-        super(context);
-        this.appDataDir = appDataDir;
+    ITPDExtractCommand(ModulesArchiveExtractor extractor,
+                       ModulesArchiveExtractor.OnProgressListener progressListener) {
+        super(extractor, progressListener);
     }
 
     @Override
     public void execute() throws Exception {
-        ZipFileManager zipFileManager = new ZipFileManager();
-        zipFileManager.extractZipFromInputStream(assets.open("itpd.mp3"), appDataDir);
+        extractor.extract(Collections.singletonList("itpd.mp3"), progressListener);
     }
 }
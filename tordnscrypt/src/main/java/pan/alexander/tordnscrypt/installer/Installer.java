@@ -34,6 +34,9 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import dagger.Lazy;
@@ -46,7 +49,10 @@ import pan.alexander.tordnscrypt.modules.ModulesAux;
 import pan.alexander.tordnscrypt.modules.ModulesStatus;
 import pan.alexander.tordnscrypt.modules.ModulesVersions;
 import pan.alexander.tordnscrypt.settings.PathVars;
+import pan.alexander.tordnscrypt.settings.firewall.FirewallPolicyStore;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
+import pan.alexander.tordnscrypt.utils.preferences.PreferenceSetStore;
 import pan.alexander.tordnscrypt.utils.root.RootCommands;
 import pan.alexander.tordnscrypt.utils.root.RootExecService;
 import pan.alexander.tordnscrypt.utils.filemanager.FileManager;
@@ -68,6 +74,10 @@ public class Installer implements TopFragment.OnActivityChangeListener {
     public CachedExecutor cachedExecutor;
     @Inject
     public Lazy<ModulesVersions> modulesVersions;
+    @Inject
+    public Lazy<FirewallPolicyStore> firewallPolicyStore;
+    @Inject
+    public Lazy<PreferenceSetStore> preferenceSetStore;
 
     private Activity activity;
     private MainActivity mainActivity;
@@ -78,6 +88,7 @@ public class Installer implements TopFragment.OnActivityChangeListener {
     protected static boolean interruptInstallation = false;
 
     private InstallerUIChanger installerUIChanger;
+    private ModulesArchiveExtractor modulesArchiveExtractor;
 
     public Installer(Activity activity) {
         App.getInstance().getDaggerComponent().inject(this);
@@ -129,7 +140,6 @@ public class Installer implements TopFragment.OnActivityChangeListener {
 
             unRegisterReceiver(activity);
 
-            removeInstallationDirsIfExists();
             createLogsDir();
 
             if (mainActivity == null || mainActivity.isFinishing()) {
@@ -138,19 +148,7 @@ public class Installer implements TopFragment.OnActivityChangeListener {
 
             mainActivity.runOnUiThread(installerUIChanger.stopModulesProgressBarIndeterminate());
 
-            extractDNSCrypt();
-
-            if (mainActivity == null || mainActivity.isFinishing()) {
-                throw new IllegalStateException("Installer: MainActivity is null, interrupt installation");
-            }
-
-            extractTor();
-
-            if (mainActivity == null || mainActivity.isFinishing()) {
-                throw new IllegalStateException("Installer: MainActivity is null, interrupt installation");
-            }
-
-            extractITPD();
+            extractModules();
 
             if (mainActivity == null || mainActivity.isFinishing()) {
                 throw new IllegalStateException("Installer: MainActivity is null, interrupt installation");
@@ -210,19 +208,61 @@ public class Installer implements TopFragment.OnActivityChangeListener {
 
     }
 
+    /**
+     * Extracts all modules in parallel and removes files left from the previous installation.
+     * Files that are unchanged since the previous installation are not rewritten.
+     */
+    protected void extractModules() throws Exception {
+        ExecutorService executorService = cachedExecutor.getExecutorService(TaskScheduler.Pool.IO);
+
+        List<Future<?>> tasks = new ArrayList<>();
+        tasks.add(executorService.submit(() -> {
+            extractDNSCrypt();
+            return null;
+        }));
+        tasks.add(executorService.submit(() -> {
+            extractTor();
+            return null;
+        }));
+        tasks.add(executorService.submit(() -> {
+            extractITPD();
+            return null;
+        }));
+
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (ExecutionException e) {
+            for (Future<?> task : tasks) {
+                task.cancel(true);
+            }
+
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+
+        getModulesArchiveExtractor().prune();
+
+        Log.i(LOG_TAG, "Installer: extractModules OK");
+    }
+
     protected void extractDNSCrypt() throws Exception {
         if (mainActivity != null) {
-            mainActivity.runOnUiThread(installerUIChanger.dnsCryptProgressBarIndeterminate(true));
+            mainActivity.runOnUiThread(installerUIChanger.dnsCryptProgressBarIndeterminate(false));
         }
 
-        Command command = new DNSCryptExtractCommand(activity, appDataDir);
-        command.execute();
-
-        command = new BusybExtractCommand(activity, appDataDir);
+        Command command = new DNSCryptExtractCommand(getModulesArchiveExtractor(), progress -> {
+            if (mainActivity != null) {
+                mainActivity.runOnUiThread(installerUIChanger.dnsCryptProgressBarProgress(progress));
+            }
+        });
         command.execute();
 
         if (mainActivity != null) {
-            mainActivity.runOnUiThread(installerUIChanger.dnsCryptProgressBarIndeterminate(false));
+            mainActivity.runOnUiThread(installerUIChanger.dnsCryptProgressBarProgress(0));
             mainActivity.runOnUiThread(installerUIChanger.setDnsCryptInstalledStatus());
         }
 
@@ -231,14 +271,18 @@ public class Installer implements TopFragment.OnActivityChangeListener {
 
     protected void extractTor() throws Exception {
         if (mainActivity != null) {
-            mainActivity.runOnUiThread(installerUIChanger.torProgressBarIndeterminate(true));
+            mainActivity.runOnUiThread(installerUIChanger.torProgressBarIndeterminate(false));
         }
 
-        Command command = new TorExtractCommand(activity, appDataDir);
+        Command command = new TorExtractCommand(getModulesArchiveExtractor(), progress -> {
+            if (mainActivity != null) {
+                mainActivity.runOnUiThread(installerUIChanger.torProgressBarProgress(progress));
+            }
+        });
         command.execute();
 
         if (mainActivity != null) {
-            mainActivity.runOnUiThread(installerUIChanger.torProgressBarIndeterminate(false));
+            mainActivity.runOnUiThread(installerUIChanger.torProgressBarProgress(0));
             mainActivity.runOnUiThread(installerUIChanger.setTorInstalledStatus());
         }
 
@@ -247,20 +291,31 @@ public class Installer implements TopFragment.OnActivityChangeListener {
 
     protected void extractITPD() throws Exception {
         if (mainActivity != null) {
-            mainActivity.runOnUiThread(installerUIChanger.itpdProgressBarIndeterminate(true));
+            mainActivity.runOnUiThread(installerUIChanger.itpdProgressBarIndeterminate(false));
         }
 
-        Command command = new ITPDExtractCommand(activity, appDataDir);
+        Command command = new ITPDExtractCommand(getModulesArchiveExtractor(), progress -> {
+            if (mainActivity != null) {
+                mainActivity.runOnUiThread(installerUIChanger.itpdProgressBarProgress(progress));
+            }
+        });
         command.execute();
 
         if (mainActivity != null) {
-            mainActivity.runOnUiThread(installerUIChanger.itpdProgressBarIndeterminate(false));
+            mainActivity.runOnUiThread(installerUIChanger.itpdProgressBarProgress(0));
             mainActivity.runOnUiThread(installerUIChanger.setItpdInstalledStatus());
         }
 
         Log.i(LOG_TAG, "Installer: extractITPD OK");
     }
 
+    private synchronized ModulesArchiveExtractor getModulesArchiveExtractor() {
+        if (modulesArchiveExtractor == null) {
+            modulesArchiveExtractor = new ModulesArchiveExtractor(activity, appDataDir);
+        }
+        return modulesArchiveExtractor;
+    }
+
     protected void savePreferencesModulesInstalled(boolean installed) {
         if (activity == null) {
             return;
@@ -460,7 +515,7 @@ public class Installer implements TopFragment.OnActivityChangeListener {
 
     protected void stopAllRunningModulesWithNoRootCommand() {
 
-        cachedExecutor.submit(() -> {
+        cachedExecutor.submit(TaskScheduler.Pool.BLOCKING, () -> {
             ModulesAux.stopModulesIfRunning(activity);
 
             int counter = 15;
@@ -189,6 +189,30 @@ class InstallerUIChanger {
         };
     }
 
+    Runnable dnsCryptProgressBarProgress(final int progress) {
+        return () -> {
+            if (dnsCryptRunFragment != null && dnsCryptRunFragment.getPresenter() != null) {
+                dnsCryptRunFragment.getPresenter().setDNSCryptProgressBarProgress(progress);
+            }
+        };
+    }
+
+    Runnable torProgressBarProgress(final int progress) {
+        return () -> {
+            if (torRunFragment != null && torRunFragment.getPresenter() != null) {
+                torRunFragment.getPresenter().setTorProgressBarProgress(progress);
+            }
+        };
+    }
+
+    Runnable itpdProgressBarProgress(final int progress) {
+        return () -> {
+            if (itpdRunFragment != null && itpdRunFragment.getPresenter() != null) {
+                itpdRunFragment.getPresenter().setITPDProgressBarProgress(progress);
+            }
+        };
+    }
+
 
     Runnable setModulesStartButtonsEnabled() {
         return () -> {
@@ -0,0 +1,308 @@
+package pan.alexander.tordnscrypt.installer
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import android.content.Context
+import android.util.Log
+import pan.alexander.tordnscrypt.utils.filemanager.FileManager
+import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
+import java.io.*
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.zip.ZipInputStream
+
+private const val MANIFESTS_DIR = "modules_manifests"
+private const val MANIFEST_MAGIC = 0x494D4D46
+private const val COPY_BUFFER_SIZE = 64 * 1024
+private val INSTALLATION_DIRS = listOf("app_bin", "app_data")
+
+/**
+ * Extracts modules archives from assets into the app data dir.
+ * Every extracted file is recorded in a per archive manifest with the entry CRC
+ * and the file size and modification time after writing.
+ * On reinstall entries with the same CRC whose files were not changed on disk are skipped,
+ * files that do not belong to any archive are removed by prune.
+ * Instances can be used from several threads, one thread per archive set.
+ */
+class ModulesArchiveExtractor(
+    private val context: Context,
+    private val appDataDir: String
+) {
+
+    fun interface OnProgressListener {
+        fun onProgress(percents: Int)
+    }
+
+    private class ManifestEntry(val crc: Long, val size: Long, val modified: Long)
+
+    private val extractedEntries: MutableSet<String> =
+        Collections.newSetFromMap(ConcurrentHashMap<String, Boolean>())
+    private val extractedDirs: MutableSet<String> =
+        Collections.newSetFromMap(ConcurrentHashMap<String, Boolean>())
+
+    /**
+     * Extracts archives one after another and reports progress for all of them together.
+     */
+    @Throws(IOException::class)
+    fun extract(assetNames: List<String>, listener: OnProgressListener?) {
+        val assets = context.assets
+
+        val totalSize = assetNames.sumOf { name ->
+            assets.open(name).use { it.available().toLong() }
+        }
+        var processedSize = 0L
+        var percents = -1
+
+        val buffer = ByteArray(COPY_BUFFER_SIZE)
+
+        assetNames.forEach { name ->
+            val time = System.currentTimeMillis()
+
+            val oldManifest = readManifest(name)
+            val newManifest = hashMapOf<String, ManifestEntry>()
+            var skipped = 0
+
+            val countingStream = CountingInputStream(assets.open(name).buffered(COPY_BUFFER_SIZE))
+
+            ZipInputStream(countingStream).use { zipInputStream ->
+                var zipEntry = zipInputStream.nextEntry
+
+                while (zipEntry != null) {
+                    val entryName = zipEntry.name.trimEnd('/')
+                    val file = File(appDataDir, entryName)
+
+                    if (zipEntry.isDirectory) {
+                        extractedDirs.add(entryName)
+                        ensureDir(file)
+                    } else {
+                        extractedEntries.add(entryName)
+
+                        val crc = zipEntry.crc
+                        val oldEntry = oldManifest[entryName]
+                        if (crc != -1L && oldEntry != null && oldEntry.crc == crc
+                            && isUnchanged(file, oldEntry)
+                        ) {
+                            newManifest[entryName] = oldEntry
+                            skipped++
+                        } else {
+                            writeEntry(zipInputStream, file, buffer)
+                            newManifest[entryName] = ManifestEntry(
+                                if (crc != -1L) crc else zipEntry.crc,
+                                file.length(),
+                                file.lastModified()
+                            )
+                        }
+                    }
+
+                    if (listener != null && totalSize > 0) {
+                        val currentPercents =
+                            ((processedSize + countingStream.count) * 100 / totalSize).toInt()
+                        if (currentPercents != percents) {
+                            percents = currentPercents.coerceAtMost(100)
+                            listener.onProgress(percents)
+                        }
+                    }
+
+                    zipEntry = zipInputStream.nextEntry
+                }
+            }
+
+            processedSize += countingStream.count
+
+            writeManifest(name, newManifest)
+
+            Log.i(
+                LOG_TAG, "ModulesArchiveExtractor $name extracted ${newManifest.size - skipped}, " +
+                        "skipped $skipped files in ${System.currentTimeMillis() - time} ms"
+            )
+        }
+
+        listener?.onProgress(100)
+    }
+
+    /**
+     * Removes files and dirs of the installation dirs that do not belong to the extracted archives,
+     * so the result is the same as after extraction into the empty dirs.
+     */
+    fun prune() {
+        val keepDirs = HashSet(extractedDirs)
+        (extractedEntries + extractedDirs).forEach { entry ->
+            var parent = File(entry).parent
+            while (parent != null) {
+                keepDirs.add(parent)
+                parent = File(parent).parent
+            }
+        }
+
+        INSTALLATION_DIRS.forEach { dir ->
+            val file = File(appDataDir, dir)
+            if (keepDirs.contains(dir)) {
+                pruneDir(file, dir, keepDirs)
+            } else if (file.exists()) {
+                deleteFileOrDir(file)
+            }
+        }
+    }
+
+    private fun pruneDir(dir: File, relativePath: String, keepDirs: Set<String>) {
+        dir.listFiles()?.forEach { file ->
+            val path = "$relativePath/${file.name}"
+            if (file.isDirectory && keepDirs.contains(path)) {
+                pruneDir(file, path, keepDirs)
+            } else if (file.isDirectory || !extractedEntries.contains(path)) {
+                deleteFileOrDir(file)
+            }
+        }
+    }
+
+    private fun deleteFileOrDir(file: File) {
+        if (file.isDirectory) {
+            check(FileManager.deleteDirSynchronous(context, file.absolutePath)) {
+                "${file.absolutePath} delete failed"
+            }
+        } else {
+            check(!FileManager.deleteFileSynchronous(context, file.parent, file.name)) {
+                "${file.absolutePath} delete failed"
+            }
+        }
+    }
+
+    private fun isUnchanged(file: File, entry: ManifestEntry): Boolean =
+        file.isFile && file.length() == entry.size && file.lastModified() == entry.modified
+
+    private fun ensureDir(dir: File) {
+        if (dir.isDirectory) {
+            return
+        }
+
+        if (dir.exists()) {
+            deleteFileOrDir(dir)
+        }
+
+        check(dir.mkdirs() || dir.isDirectory) {
+            "ModulesArchiveExtractor cannot create output dirs structure: dir ${dir.absolutePath}"
+        }
+    }
+
+    private fun writeEntry(inputStream: InputStream, file: File, buffer: ByteArray) {
+        file.parentFile?.let { ensureDir(it) }
+
+        if (file.isDirectory) {
+            deleteFileOrDir(file)
+        }
+
+        FileOutputStream(file).use { outputStream ->
+            while (true) {
+                val length = inputStream.read(buffer)
+                if (length < 0) {
+                    break
+                }
+                outputStream.write(buffer, 0, length)
+            }
+        }
+    }
+
+    private fun getManifestFile(assetName: String): File =
+        File(File(context.filesDir, MANIFESTS_DIR), "$assetName.manifest")
+
+    private fun readManifest(assetName: String): Map<String, ManifestEntry> {
+        val file = getManifestFile(assetName)
+        if (!file.isFile) {
+            return emptyMap()
+        }
+
+        return try {
+            DataInputStream(FileInputStream(file).buffered()).use { input ->
+                if (input.readInt() != MANIFEST_MAGIC) {
+                    return emptyMap()
+                }
+
+                val count = input.readInt()
+                val manifest = HashMap<String, ManifestEntry>(count * 2)
+                repeat(count) {
+                    manifest[input.readUTF()] =
+                        ManifestEntry(input.readLong(), input.readLong(), input.readLong())
+                }
+                manifest
+            }
+        } catch (e: Exception) {
+            Log.w(LOG_TAG, "ModulesArchiveExtractor readManifest exception ${e.message} ${e.cause}")
+            emptyMap()
+        }
+    }
+
+    private fun writeManifest(assetName: String, manifest: Map<String, ManifestEntry>) {
+        val file = getManifestFile(assetName)
+        val tempFile = File(file.path + ".tmp")
+
+        try {
+            file.parentFile?.mkdirs()
+
+            DataOutputStream(FileOutputStream(tempFile).buffered()).use { output ->
+                output.writeInt(MANIFEST_MAGIC)
+                output.writeInt(manifest.size)
+                manifest.forEach { (name, entry) ->
+                    output.writeUTF(name)
+                    output.writeLong(entry.crc)
+                    output.writeLong(entry.size)
+                    output.writeLong(entry.modified)
+                }
+            }
+
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete()
+                file.delete()
+                Log.e(LOG_TAG, "ModulesArchiveExtractor cannot rename manifest $assetName")
+            }
+        } catch (e: Exception) {
+            tempFile.delete()
+            file.delete()
+            Log.e(LOG_TAG, "ModulesArchiveExtractor writeManifest exception ${e.message} ${e.cause}")
+        }
+    }
+
+    private class CountingInputStream(inputStream: InputStream) : FilterInputStream(inputStream) {
+        @Volatile
+        var count = 0L
+            private set
+
+        override fun read(): Int {
+            val result = super.read()
+            if (result >= 0) {
+                count++
+            }
+            return result
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            val result = super.read(b, off, len)
+            if (result > 0) {
+                count += result
+            }
+            return result
+        }
+
+        override fun skip(n: Long): Long {
+            val result = super.skip(n)
+            count += result
+            return result
+        }
+    }
+}
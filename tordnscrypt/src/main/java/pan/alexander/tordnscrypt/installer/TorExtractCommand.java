@@ -19,21 +19,17 @@ package pan.alexander.tordnscrypt.installer;
     Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
 */
 
-import android.content.Context;
-
-import pan.alexander.tordnscrypt.utils.zipUtil.ZipFileManager;
+import java.util.Collections;
 
 public class TorExtractCommand extends AssetsExtractCommand {
-    private final String appDataDir;
 
-    TorExtractCommand(Context context,  String appDataDir) {
-        super(context);
-        this.appDataDir = appDataDir;
+    TorExtractCommand(ModulesArchiveExtractor extractor,
+                      ModulesArchiveExtractor.OnProgressListener progressListener) {
+        super(extractor, progressListener);
     }
 
     @Override
     public void execute() throws Exception {
-        ZipFileManager zipFileManager = new ZipFileManager();
-        zipFileManager.extractZipFromInputStream(assets.open("tor.mp3"), appDataDir);
+        extractor.extract(Collections.singletonList("tor.mp3"), progressListener);
     }
 }
@@ -101,11 +101,11 @@ public class ModulesIptablesRules extends IptablesRulesSender {
         ignoreSystemDNS = shPref.getBoolean(IGNORE_SYSTEM_DNS, false);
         apIsOn = preferences.getBoolPreference(PreferenceKeys.WIFI_ACCESS_POINT_IS_ON);
         modemIsOn = preferences.getBoolPreference(PreferenceKeys.USB_MODEM_IS_ON);
-        Set<String> unlockApps = preferences.getStringSetPreference(UNLOCK_APPS);
-        Set<String> unlockIPs = preferences.getStringSetPreference(IPS_TO_UNLOCK);
-        Set<String> clearnetApps = preferences.getStringSetPreference(CLEARNET_APPS);
-        Set<String> clearnetIPs = preferences.getStringSetPreference(IPS_FOR_CLEARNET);
-        Set<String> clearnetAppsForProxy = preferences.getStringSetPreference(CLEARNET_APPS_FOR_PROXY);
+        Set<String> unlockApps = preferences.getStringSetPreferenceView(UNLOCK_APPS);
+        Set<String> unlockIPs = preferences.getStringSetPreferenceView(IPS_TO_UNLOCK);
+        Set<String> clearnetApps = preferences.getStringSetPreferenceView(CLEARNET_APPS);
+        Set<String> clearnetIPs = preferences.getStringSetPreferenceView(IPS_FOR_CLEARNET);
+        Set<String> clearnetAppsForProxy = preferences.getStringSetPreferenceView(CLEARNET_APPS_FOR_PROXY);
 
         ModulesStatus modulesStatus = ModulesStatus.getInstance();
         boolean ttlFix = modulesStatus.isFixTTL() && (modulesStatus.getMode() == ROOT_MODE) && !modulesStatus.isUseModulesWithRoot();
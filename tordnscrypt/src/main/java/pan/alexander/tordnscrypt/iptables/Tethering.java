@@ -107,8 +107,8 @@ public class Tethering {
         boolean lan = shPref.getBoolean("Allow LAN", false);
         boolean ttlFix = modulesStatus.isFixTTL() && (modulesStatus.getMode() == ROOT_MODE) && !modulesStatus.isUseModulesWithRoot();
         apIsOn = preferences.getBoolPreference(PreferenceKeys.WIFI_ACCESS_POINT_IS_ON);
-        Set<String> ipsToUnlockTether = preferences.getStringSetPreference(IPS_TO_UNLOCK_TETHER);
-        Set<String> ipsForClearNetTether = preferences.getStringSetPreference(IPS_FOR_CLEARNET_TETHER);
+        Set<String> ipsToUnlockTether = preferences.getStringSetPreferenceView(IPS_TO_UNLOCK_TETHER);
+        Set<String> ipsForClearNetTether = preferences.getStringSetPreferenceView(IPS_FOR_CLEARNET_TETHER);
 
         setInterfaceNames();
 
@@ -54,6 +54,7 @@ import pan.alexander.tordnscrypt.modules.ModulesRunner;
 import pan.alexander.tordnscrypt.modules.ModulesStatus;
 import pan.alexander.tordnscrypt.settings.PathVars;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.filemanager.FileShortener;
 import pan.alexander.tordnscrypt.utils.enums.ModuleState;
 import pan.alexander.tordnscrypt.utils.filemanager.FileManager;
@@ -241,6 +242,13 @@ public class ITPDFragmentPresenter implements ITPDFragmentPresenterInterface,
         }
     }
 
+    @Override
+    public void setITPDProgressBarProgress(int progress) {
+        if (isActive()) {
+            view.setITPDProgressBarProgress(progress);
+        }
+    }
+
     private void setITPDInstalled(boolean installed) {
         if (!isActive()) {
             return;
@@ -428,7 +436,7 @@ public class ITPDFragmentPresenter implements ITPDFragmentPresenterInterface,
         final String certificateFolder = appDataDir + "/i2pd_data/certificates";
         final String certificateDestination = appDataDir + "/i2pd_data";
 
-        cachedExecutor.submit(() -> {
+        cachedExecutor.submit(TaskScheduler.Pool.IO, () -> {
 
             File certificateFolderDir = new File(certificateFolder);
 
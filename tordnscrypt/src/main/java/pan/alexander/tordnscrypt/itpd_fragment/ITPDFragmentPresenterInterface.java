@@ -39,4 +39,6 @@ public interface ITPDFragmentPresenterInterface {
     void setITPDStartButtonEnabled(boolean enabled);
 
     void setITPDProgressBarIndeterminate(boolean indeterminate);
+
+    void setITPDProgressBarProgress(int progress);
 }
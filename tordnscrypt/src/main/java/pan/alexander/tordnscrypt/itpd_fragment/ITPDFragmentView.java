@@ -28,6 +28,7 @@ public interface ITPDFragmentView {
     void setITPDStatus(int resourceText, int resourceColor);
     void setITPDStartButtonEnabled(boolean enabled);
     void setITPDProgressBarIndeterminate(boolean indeterminate);
+    void setITPDProgressBarProgress(int progress);
     void setITPDLogViewText();
     void setITPDLogViewText(Spanned text);
     void setITPDInfoLogText();
@@ -235,6 +235,11 @@ public class ITPDRunFragment extends Fragment implements ITPDFragmentView, View.
         }
     }
 
+    @Override
+    public void setITPDProgressBarProgress(int progress) {
+        pbITPD.setProgress(progress);
+    }
+
     @Override
     @SuppressLint("SetTextI18n")
     public void setITPDLogViewText() {
@@ -490,6 +490,11 @@ public class MainFragment extends Fragment implements DNSCryptFragmentView, TorF
         }
     }
 
+    @Override
+    public void setDNSCryptProgressBarProgress(int progress) {
+        pbDNSMainFragment.setProgress(progress);
+    }
+
     @SuppressLint({"SetTextI18n", "ClickableViewAccessibility"})
     @Override
     public void setDNSCryptLogViewText() {
@@ -700,6 +705,11 @@ public class MainFragment extends Fragment implements DNSCryptFragmentView, TorF
         }
     }
 
+    @Override
+    public void setITPDProgressBarProgress(int progress) {
+        pbITPDMainFragment.setProgress(progress);
+    }
+
     @SuppressLint("SetTextI18n")
     @Override
     public void setITPDLogViewText() {
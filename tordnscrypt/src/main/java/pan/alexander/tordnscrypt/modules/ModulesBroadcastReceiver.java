@@ -51,6 +51,7 @@ import pan.alexander.tordnscrypt.domain.connection_checker.OnInternetConnectionC
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceRepository;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
 import pan.alexander.tordnscrypt.utils.ap.InternetSharingChecker;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.preferences.PreferenceKeys;
 import pan.alexander.tordnscrypt.utils.privatedns.PrivateDnsProxyManager;
 import pan.alexander.tordnscrypt.vpn.NetworkUtils;
@@ -259,6 +260,10 @@ public class ModulesBroadcastReceiver extends BroadcastReceiver implements OnInt
                         );
                     }
                 }
+
+                if (arpScanner != null && context != null) {
+                    arpScanner.onLinkPropertiesChanged(context, linkProperties);
+                }
             }
 
             @Override
@@ -334,7 +339,7 @@ public class ModulesBroadcastReceiver extends BroadcastReceiver implements OnInt
 
     @SuppressWarnings("unchecked")
     private void checkInternetSharingState(Intent intent) {
-        cachedExecutor.submit(() -> {
+        cachedExecutor.submit(TaskScheduler.Pool.BLOCKING, () -> {
             boolean wifiAccessPointOn = false;
             boolean usbTetherOn = false;
 
@@ -424,7 +429,7 @@ public class ModulesBroadcastReceiver extends BroadcastReceiver implements OnInt
                 && !modulesStatus.isUseModulesWithRoot()
                 && !lock) {
 
-            cachedExecutor.submit(() -> {
+            cachedExecutor.submit(TaskScheduler.Pool.BLOCKING, () -> {
                 if (!lock) {
 
                     lock = true;
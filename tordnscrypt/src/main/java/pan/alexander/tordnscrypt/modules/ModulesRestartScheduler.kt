@@ -0,0 +1,159 @@
+package pan.alexander.tordnscrypt.modules
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import android.content.Context
+import android.util.Log
+import pan.alexander.tordnscrypt.utils.enums.ModuleName
+import pan.alexander.tordnscrypt.utils.enums.ModuleState
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler
+import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
+import java.util.*
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import javax.inject.Inject
+import javax.inject.Singleton
+
+private const val RESTART_DELAY_MSEC = 1500L
+private const val RESTART_CHECK_PERIOD_MSEC = 500L
+private const val RESTART_TIMEOUT_MSEC = 60_000L
+
+/**
+ * Coalesces module restart requests that come in bursts, e.g. when several settings are changed.
+ * Every new request for a module postpones its restart, so the module is restarted once.
+ * Tor is reloaded with SIGHUP instead of full restart if all pending requests allow that.
+ * Listeners are called on the scheduler thread, after a restart when the module is running again,
+ * after a reload as soon as SIGHUP is sent, because the module state does not change.
+ */
+@Singleton
+class ModulesRestartScheduler @Inject constructor(
+    private val context: Context,
+    private val taskScheduler: TaskScheduler
+) {
+
+    private val modulesStatus = ModulesStatus.getInstance()
+    private val pendingRestarts = EnumMap<ModuleName, PendingRestart>(ModuleName::class.java)
+
+    @JvmOverloads
+    fun scheduleRestart(
+        module: ModuleName,
+        reloadIsEnough: Boolean = false,
+        listener: OnModuleRestartedListener? = null
+    ) {
+        synchronized(pendingRestarts) {
+            val pending = pendingRestarts.getOrPut(module) { PendingRestart() }
+            pending.fullRestartRequired = pending.fullRestartRequired
+                    || !reloadIsEnough
+                    || module != ModuleName.TOR_MODULE
+            listener?.let { pending.listeners.add(it) }
+
+            pending.future?.cancel(false)
+            pending.future = try {
+                taskScheduler.schedule({ restart(module) }, RESTART_DELAY_MSEC, TimeUnit.MILLISECONDS)
+            } catch (e: Exception) {
+                Log.e(LOG_TAG, "ModulesRestartScheduler scheduleRestart ${e.javaClass} ${e.message} ${e.cause}")
+                null
+            }
+        }
+    }
+
+    fun isRestartPending(module: ModuleName): Boolean = synchronized(pendingRestarts) {
+        pendingRestarts.containsKey(module)
+    }
+
+    private fun restart(module: ModuleName) {
+        val pending = synchronized(pendingRestarts) {
+            pendingRestarts.remove(module)
+        } ?: return
+
+        if (getModuleState(module) != ModuleState.RUNNING) {
+            notifyListeners(module, pending, false)
+            return
+        }
+
+        when (module) {
+            ModuleName.DNSCRYPT_MODULE -> ModulesRestarter.restartDNSCrypt(context)
+            ModuleName.TOR_MODULE -> if (pending.fullRestartRequired) {
+                ModulesRestarter.restartTor(context)
+            } else {
+                ModulesRestarter.reloadTorConfiguration(context)
+            }
+            ModuleName.ITPD_MODULE -> ModulesRestarter.restartITPD(context)
+        }
+
+        Log.i(
+            LOG_TAG, "ModulesRestartScheduler ${if (pending.fullRestartRequired) "restart" else "reload"} $module"
+        )
+
+        if (pending.listeners.isEmpty()) {
+            return
+        }
+
+        if (pending.fullRestartRequired) {
+            waitForModuleRunning(module, pending, System.currentTimeMillis(), false)
+        } else {
+            notifyListeners(module, pending, true)
+        }
+    }
+
+    private fun waitForModuleRunning(
+        module: ModuleName,
+        pending: PendingRestart,
+        startTime: Long,
+        restartObserved: Boolean
+    ) {
+        val state = getModuleState(module)
+        val restarting = restartObserved || state != ModuleState.RUNNING
+
+        when {
+            state == ModuleState.FAULT -> notifyListeners(module, pending, false)
+            restarting && state == ModuleState.RUNNING -> notifyListeners(module, pending, true)
+            System.currentTimeMillis() - startTime > RESTART_TIMEOUT_MSEC ->
+                notifyListeners(module, pending, false)
+            else -> taskScheduler.schedule(
+                { waitForModuleRunning(module, pending, startTime, restarting) },
+                RESTART_CHECK_PERIOD_MSEC,
+                TimeUnit.MILLISECONDS
+            )
+        }
+    }
+
+    private fun notifyListeners(module: ModuleName, pending: PendingRestart, success: Boolean) {
+        pending.listeners.forEach {
+            try {
+                it.onModuleRestarted(module, success)
+            } catch (e: Exception) {
+                Log.e(LOG_TAG, "ModulesRestartScheduler listener ${e.javaClass} ${e.message} ${e.cause}")
+            }
+        }
+    }
+
+    private fun getModuleState(module: ModuleName): ModuleState = when (module) {
+        ModuleName.DNSCRYPT_MODULE -> modulesStatus.dnsCryptState
+        ModuleName.TOR_MODULE -> modulesStatus.torState
+        ModuleName.ITPD_MODULE -> modulesStatus.itpdState
+    }
+
+    private class PendingRestart {
+        var fullRestartRequired = false
+        var future: ScheduledFuture<*>? = null
+        val listeners = mutableListOf<OnModuleRestartedListener>()
+    }
+}
@@ -21,19 +21,30 @@ package pan.alexander.tordnscrypt.modules;
 
 import android.content.Context;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+
 import java.io.File;
 import java.util.List;
 
 import eu.chainfire.libsuperuser.Shell;
 import pan.alexander.tordnscrypt.App;
+import pan.alexander.tordnscrypt.di.AppComponent;
 import pan.alexander.tordnscrypt.settings.PathVars;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.filemanager.FileManager;
 
 import static pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG;
 
 public class ModulesRestarter {
+
+    public interface OnNewTorIdentityListener {
+        void onNewTorIdentity(boolean requestedThroughControlPort);
+    }
+
     public static void restartDNSCrypt(Context context) {
         ModulesActionSender.INSTANCE.sendIntent(context, ModulesServiceActions.actionRestartDnsCrypt);
         ModulesAux.speedupModulesStateLoopTimer(context);
@@ -44,6 +55,32 @@ public class ModulesRestarter {
         ModulesAux.speedupModulesStateLoopTimer(context);
     }
 
+    /**
+     * Requests new identity through Tor ControlPort in background and restarts Tor if the request failed.
+     * The listener is called on the main thread with true if the request succeeded, false if Tor is restarted.
+     */
+    public static void newTorIdentity(Context context, @Nullable OnNewTorIdentityListener listener) {
+        Context applicationContext = context.getApplicationContext();
+        AppComponent daggerComponent = App.getInstance().getDaggerComponent();
+
+        daggerComponent.getCachedExecutor().submit(TaskScheduler.Pool.NETWORK, () -> {
+            boolean requested = daggerComponent.getTorControlPortClient().get().newIdentity();
+
+            if (!requested) {
+                restartTor(applicationContext);
+            }
+
+            if (listener != null) {
+                new Handler(Looper.getMainLooper()).post(() -> listener.onNewTorIdentity(requested));
+            }
+        });
+    }
+
+    public static void reloadTorConfiguration(Context context) {
+        ModulesActionSender.INSTANCE.sendIntent(context, ModulesServiceActions.actionRestartTor);
+        ModulesAux.speedupModulesStateLoopTimer(context);
+    }
+
     public static void restartITPD(Context context) {
         ModulesActionSender.INSTANCE.sendIntent(context, ModulesServiceActions.actionRestartITPD);
         ModulesAux.speedupModulesStateLoopTimer(context);
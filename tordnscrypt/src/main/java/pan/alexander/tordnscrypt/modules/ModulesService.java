@@ -39,8 +39,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
@@ -54,6 +54,7 @@ import pan.alexander.tordnscrypt.patches.Patch;
 import pan.alexander.tordnscrypt.settings.PathVars;
 import pan.alexander.tordnscrypt.utils.ap.InternetSharingChecker;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.Utils;
 import pan.alexander.tordnscrypt.utils.wakelock.WakeLocksManager;
 import pan.alexander.tordnscrypt.utils.enums.OperationMode;
@@ -98,8 +99,10 @@ public class ModulesService extends Service {
 
     public static boolean serviceIsRunning = false;
 
-    private final static int TIMER_HIGH_SPEED = 1000;
-    private final static int TIMER_LOW_SPEED = 30000;
+    //Modules state loop is driven by events, these delays are used while modules are in transition
+    //and as a safety net in steady state
+    final static int LOOP_TRANSITION_DELAY = 1000;
+    final static int LOOP_WATCHDOG_DELAY = 60000;
 
     public static final String DNSCRYPT_KEYWORD = "checkDNSRunning";
     public static final String TOR_KEYWORD = "checkTrRunning";
@@ -120,13 +123,15 @@ public class ModulesService extends Service {
     public Lazy<PathVars> pathVars;
     @Inject
     public CachedExecutor cachedExecutor;
+    @Inject
+    public TaskScheduler taskScheduler;
 
     private final ModulesStatus modulesStatus = ModulesStatus.getInstance();
 
     private NotificationManager systemNotificationManager;
-    private ScheduledExecutorService checkModulesThreadsTimer;
+    private ExecutorService modulesStateLoopExecutor;
     private ScheduledFuture<?> scheduledFuture;
-    private int timerPeriod = TIMER_HIGH_SPEED;
+    private final Object loopLock = new Object();
     private ModulesStateLoop checkModulesStateTask;
     private ModulesKiller modulesKiller;
     private UsageStatistic usageStatistic;
@@ -162,7 +167,7 @@ public class ModulesService extends Service {
 
         modulesKiller = new ModulesKiller(this, pathVars.get());
 
-        startModulesThreadsTimer();
+        startModulesStateLoop();
 
         startArpScanner();
     }
@@ -257,13 +262,9 @@ public class ModulesService extends Service {
                 setAllModulesStateStopped();
                 break;
             case speedupLoop:
-                speedupTimer();
-                break;
             case slowdownLoop:
-                slowdownTimer();
-                break;
             case extraLoop:
-                makeExtraLoop();
+                scheduleModulesStateLoop(0);
                 break;
             case actionStopService:
                 stopModulesService();
@@ -844,54 +845,99 @@ public class ModulesService extends Service {
         stopSelf(startId);
     }
 
-    private void startModulesThreadsTimer() {
-        checkModulesThreadsTimer = Executors.newSingleThreadScheduledExecutor();
+    private void startModulesStateLoop() {
+        //Passes are scheduled on the shared scheduler and run one at a time on the IO pool
+        modulesStateLoopExecutor = taskScheduler.newSerialExecutor(TaskScheduler.Pool.IO, "ModulesStateLoop");
         checkModulesStateTask = new ModulesStateLoop(this);
-        scheduledFuture = checkModulesThreadsTimer.scheduleWithFixedDelay(checkModulesStateTask, 1, timerPeriod, TimeUnit.MILLISECONDS);
-    }
 
-    private void speedupTimer() {
-        if (timerPeriod != TIMER_HIGH_SPEED && checkModulesThreadsTimer != null
-                && !checkModulesThreadsTimer.isShutdown() && checkModulesStateTask != null) {
+        modulesStatus.setOnModulesStatusChangedListener(modulesStatusChangedListener);
+        PreferenceManager.getDefaultSharedPreferences(this)
+                .registerOnSharedPreferenceChangeListener(preferenceChangeListener);
 
-            timerPeriod = TIMER_HIGH_SPEED;
+        scheduleModulesStateLoop(1);
+    }
 
-            if (scheduledFuture != null && !scheduledFuture.isCancelled()) {
-                scheduledFuture.cancel(false);
+    /**
+     * Schedules a single modules state loop pass. An earlier pending pass is kept,
+     * a later one is replaced, so bursts of events are coalesced into one pass.
+     */
+    void scheduleModulesStateLoop(long delayMs) {
+        synchronized (loopLock) {
+            ExecutorService executor = modulesStateLoopExecutor;
+            if (executor == null || executor.isShutdown() || checkModulesStateTask == null) {
+                return;
             }
 
-            scheduledFuture = checkModulesThreadsTimer.scheduleWithFixedDelay(checkModulesStateTask, 1, timerPeriod, TimeUnit.MILLISECONDS);
+            if (scheduledFuture != null && !scheduledFuture.isDone()) {
+                if (scheduledFuture.getDelay(TimeUnit.MILLISECONDS) <= delayMs) {
+                    return;
+                }
+                scheduledFuture.cancel(false);
+            }
 
-            Log.i(LOG_TAG, "ModulesService speedUPTimer");
+            try {
+                scheduledFuture = taskScheduler.schedule(
+                        () -> executeModulesStateLoop(executor), delayMs, TimeUnit.MILLISECONDS
+                );
+            } catch (RejectedExecutionException e) {
+                Log.w(LOG_TAG, "ModulesService scheduleModulesStateLoop " + e.getMessage());
+            }
         }
     }
 
-    void slowdownTimer() {
-        if (timerPeriod != TIMER_LOW_SPEED && checkModulesThreadsTimer != null
-                && !checkModulesThreadsTimer.isShutdown() && checkModulesStateTask != null) {
-
-            timerPeriod = TIMER_LOW_SPEED;
-
-            if (scheduledFuture != null && !scheduledFuture.isCancelled()) {
-                scheduledFuture.cancel(false);
-            }
+    private void executeModulesStateLoop(ExecutorService executor) {
+        try {
+            executor.execute(this::runModulesStateLoop);
+        } catch (RejectedExecutionException e) {
+            Log.w(LOG_TAG, "ModulesService executeModulesStateLoop " + e.getMessage());
+        }
+    }
 
-            scheduledFuture = checkModulesThreadsTimer.scheduleWithFixedDelay(checkModulesStateTask, 1, timerPeriod, TimeUnit.MILLISECONDS);
+    private void runModulesStateLoop() {
+        ModulesStateLoop loop;
+        synchronized (loopLock) {
+            //Events that arrive during the pass must schedule the next one
+            scheduledFuture = null;
+            loop = checkModulesStateTask;
+        }
 
-            Log.i(LOG_TAG, "ModulesService slowDOWNTimer");
+        if (loop == null) {
+            return;
         }
-    }
 
-    private void makeExtraLoop() {
-        if (timerPeriod != TIMER_HIGH_SPEED && checkModulesStateTask != null) {
-            cachedExecutor.submit(checkModulesStateTask);
+        long nextDelay = LOOP_WATCHDOG_DELAY;
+        try {
+            loop.run();
+            nextDelay = loop.getNextLoopDelay();
+        } finally {
+            scheduleModulesStateLoop(nextDelay);
         }
     }
 
-    private void stopModulesThreadsTimer() {
-        if (checkModulesThreadsTimer != null && !checkModulesThreadsTimer.isShutdown()) {
-            checkModulesThreadsTimer.shutdown();
-            checkModulesThreadsTimer = null;
+    private final ModulesStatus.OnModulesStatusChangedListener modulesStatusChangedListener =
+            () -> scheduleModulesStateLoop(0);
+
+    private final SharedPreferences.OnSharedPreferenceChangeListener preferenceChangeListener =
+            (sharedPreferences, key) -> {
+                if (VPN_SERVICE_ENABLED.equals(key)) {
+                    scheduleModulesStateLoop(0);
+                }
+            };
+
+    private void stopModulesStateLoop() {
+        modulesStatus.setOnModulesStatusChangedListener(null);
+        PreferenceManager.getDefaultSharedPreferences(this)
+                .unregisterOnSharedPreferenceChangeListener(preferenceChangeListener);
+
+        synchronized (loopLock) {
+            if (scheduledFuture != null) {
+                scheduledFuture.cancel(false);
+                scheduledFuture = null;
+            }
+            if (modulesStateLoopExecutor != null) {
+                modulesStateLoopExecutor.shutdown();
+                modulesStateLoopExecutor = null;
+            }
         }
     }
 
@@ -939,7 +985,7 @@ public class ModulesService extends Service {
             checkModulesStateTask.removeHandlerTasks();
         }
 
-        stopModulesThreadsTimer();
+        stopModulesStateLoop();
 
         stopArpScanner();
 
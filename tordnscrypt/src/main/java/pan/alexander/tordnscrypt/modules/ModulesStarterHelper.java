@@ -31,6 +31,7 @@ import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import com.jrummyapps.android.shell.CommandResult;
 import com.jrummyapps.android.shell.Shell;
 
+import java.io.File;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -41,8 +42,8 @@ import pan.alexander.tordnscrypt.App;
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceRepository;
 import pan.alexander.tordnscrypt.patches.Patch;
 import pan.alexander.tordnscrypt.settings.PathVars;
+import pan.alexander.tordnscrypt.utils.configs.ModulesConfigCache;
 import pan.alexander.tordnscrypt.utils.root.RootCommands;
-import pan.alexander.tordnscrypt.utils.filemanager.FileManager;
 
 import static pan.alexander.tordnscrypt.TopFragment.appVersion;
 import static pan.alexander.tordnscrypt.modules.ModulesService.DNSCRYPT_KEYWORD;
@@ -70,6 +71,8 @@ public class ModulesStarterHelper {
     public Lazy<PreferenceRepository> preferenceRepository;
     @Inject
     public PathVars pathVars;
+    @Inject
+    public Lazy<ModulesConfigCache> configCache;
 
     private final Context context;
     private final Handler handler;
@@ -77,7 +80,6 @@ public class ModulesStarterHelper {
     private final String busyboxPath;
     private final String dnscryptPath;
     private final String torPath;
-    private final String torConfPath;
     private final String obfsPath;
     private final String itpdPath;
 
@@ -91,7 +93,6 @@ public class ModulesStarterHelper {
         busyboxPath = pathVars.getBusyboxPath();
         dnscryptPath = pathVars.getDNSCryptPath();
         torPath = pathVars.getTorPath();
-        torConfPath = pathVars.getTorConfPath();
         obfsPath = pathVars.getObfsPath();
         itpdPath = pathVars.getITPDPath();
         this.modulesStatus = ModulesStatus.getInstance();
@@ -174,12 +175,11 @@ public class ModulesStarterHelper {
             final CommandResult shellResult;
             if (modulesStatus.isUseModulesWithRoot()) {
 
-                List<String> lines = correctTorConfRunAsDaemon(context, true);
-
-                correctObfsModulePath(lines);
+                correctTorConf(true);
 
                 torCmdString = torPath + " -f "
-                        + appDataDir + "/app_data/tor/tor.conf -pidfile " + appDataDir + "/tor.pid";
+                        + appDataDir + "/app_data/tor/tor.conf -pidfile " + appDataDir + "/tor.pid"
+                        + getTorControlPortOptions();
                 String waitString = busyboxPath + "sleep 3";
                 String checkIfModuleRunning = busyboxPath + "pgrep -l /libtor.so";
 
@@ -195,14 +195,11 @@ public class ModulesStarterHelper {
 
             } else {
 
-                List<String> lines = correctTorConfRunAsDaemon(context, false);
-
-                useTorSchedulerVanilla(lines);
-
-                correctObfsModulePath(lines);
+                correctTorConf(false);
 
                 torCmdString = torPath + " -f "
-                        + appDataDir + "/app_data/tor/tor.conf -pidfile " + appDataDir + "/tor.pid";
+                        + appDataDir + "/app_data/tor/tor.conf -pidfile " + appDataDir + "/tor.pid"
+                        + getTorControlPortOptions();
                 preferenceRepository.get().setBoolPreference("TorStartedWithRoot", false);
 
                 shellResult = new ProcessStarter().startProcess(torCmdString);
@@ -276,7 +273,7 @@ public class ModulesStarterHelper {
 
             final CommandResult shellResult;
             if (modulesStatus.isUseModulesWithRoot()) {
-                correctITPDConfRunAsDaemon(context, appDataDir, true);
+                correctITPDConfRunAsDaemon(true);
 
                 Shell.SU.run(busyboxPath + "mkdir -p " + appDataDir + "/i2pd_data",
                         "cd " + appDataDir + "/app_data/i2pd",
@@ -299,7 +296,7 @@ public class ModulesStarterHelper {
                 }
 
             } else {
-                correctITPDConfRunAsDaemon(context, appDataDir, false);
+                correctITPDConfRunAsDaemon(false);
                 itpdCmdString = itpdPath + " --conf " + appDataDir
                         + "/app_data/i2pd/i2pd.conf --datadir " + appDataDir
                         + "/i2pd_data --pidfile " + appDataDir + "/i2pd.pid";
@@ -340,24 +337,68 @@ public class ModulesStarterHelper {
         };
     }
 
-    private List<String> correctTorConfRunAsDaemon(Context context, boolean runAsDaemon) {
+    //Changes are made under the config cache lock, so they cannot overwrite a concurrent edit of tor.conf
+    private void correctTorConf(boolean useModulesWithRoot) {
+        configCache.get().editTorConfig(torConfig -> {
+            List<String> lines = torConfig.getLines();
+
+            correctTorConfRunAsDaemon(lines, useModulesWithRoot);
 
-        List<String> lines = FileManager.readTextFileSynchronous(context, torConfPath);
+            if (!useModulesWithRoot) {
+                useTorSchedulerVanilla(lines);
+            }
 
+            correctObfsModulePath(lines);
+
+            removeTorControlPortLines(lines);
+
+            torConfig.replaceLines(lines);
+        });
+    }
+
+    private void correctTorConfRunAsDaemon(List<String> lines, boolean runAsDaemon) {
         for (int i = 0; i < lines.size(); i++) {
             if (lines.get(i).contains("RunAsDaemon")) {
                 if (runAsDaemon && lines.get(i).contains("0")) {
                     lines.set(i, "RunAsDaemon 1");
-                    FileManager.writeTextFileSynchronous(context, torConfPath, lines);
                 } else if (!runAsDaemon && lines.get(i).contains("1")) {
                     lines.set(i, "RunAsDaemon 0");
-                    FileManager.writeTextFileSynchronous(context, torConfPath, lines);
                 }
-                return lines;
+                return;
             }
         }
+    }
+
+    //Tor ControlPort is used for new identity and bootstrap events, user defined ControlPort is kept as is.
+    //Cookie authentication is required, otherwise any local app could control Tor.
+    //Options are passed on the command line, so they are not stored in the user's tor.conf.
+    private String getTorControlPortOptions() {
+        String controlPortFile = appDataDir + "/" + TorControlPortClientKt.TOR_CONTROL_PORT_FILE;
+
+        //Tor rewrites the file on start, the port of the previous launch must not be used
+        File file = new File(controlPortFile);
+        if (file.isFile() && !file.delete()) {
+            Log.w(LOG_TAG, "ModulesStarterHelper unable to delete " + controlPortFile);
+        }
+
+        if (configCache.get().getTorConfig().getValue("ControlPort", "") != null) {
+            return "";
+        }
 
-        return lines;
+        return " --ControlPort auto --CookieAuthentication 1 --ControlPortWriteToFile " + controlPortFile;
+    }
+
+    //Previous versions stored the ControlPort options in tor.conf, only the lines added by the app are removed
+    private void removeTorControlPortLines(List<String> lines) {
+        String controlPortFileLine = "ControlPortWriteToFile "
+                + appDataDir + "/" + TorControlPortClientKt.TOR_CONTROL_PORT_FILE;
+
+        if (!lines.remove(controlPortFileLine)) {
+            return;
+        }
+
+        lines.remove("ControlPort auto");
+        lines.remove("CookieAuthentication 1");
     }
 
     //Disable Tor Kernel-Informed Socket Transport because ioctl() with request SIOCOUTQNSD is denied by android SELINUX policy
@@ -374,7 +415,6 @@ public class ModulesStarterHelper {
 
         if (indexOfClientOnly > 0) {
             lines.add(indexOfClientOnly, "Schedulers Vanilla");
-            FileManager.writeTextFileSynchronous(context, torConfPath, lines);
         }
     }
 
@@ -404,29 +444,28 @@ public class ModulesStarterHelper {
                     }
                 }
 
-                FileManager.writeTextFileSynchronous(context, torConfPath, lines);
-
                 Log.i(LOG_TAG, "ModulesService Tor Obfs module path is corrected");
             }
         }
     }
 
-    private void correctITPDConfRunAsDaemon(Context context, String appDataDir, boolean runAsDaemon) {
-        String path = appDataDir + "/app_data/i2pd/i2pd.conf";
-        List<String> lines = FileManager.readTextFileSynchronous(context, path);
+    private void correctITPDConfRunAsDaemon(boolean runAsDaemon) {
+        configCache.get().editItpdConfig(itpdConfig -> {
+            List<String> lines = itpdConfig.getLines();
 
-        for (int i = 0; i < lines.size(); i++) {
-            if (lines.get(i).contains("daemon")) {
-                if (runAsDaemon && lines.get(i).contains("false")) {
-                    lines.set(i, "daemon = true");
-                    FileManager.writeTextFileSynchronous(context, path, lines);
-                } else if (!runAsDaemon && lines.get(i).contains("true")) {
-                    lines.set(i, "daemon = false");
-                    FileManager.writeTextFileSynchronous(context, path, lines);
+            for (int i = 0; i < lines.size(); i++) {
+                if (lines.get(i).contains("daemon")) {
+                    if (runAsDaemon && lines.get(i).contains("false")) {
+                        lines.set(i, "daemon = true");
+                    } else if (!runAsDaemon && lines.get(i).contains("true")) {
+                        lines.set(i, "daemon = false");
+                    }
+                    break;
                 }
-                return;
             }
-        }
+
+            itpdConfig.replaceLines(lines);
+        });
     }
 
     private void sendResultIntent(int moduleMark, String moduleKeyWord, String binaryPath) {
@@ -74,11 +74,11 @@ import javax.inject.Inject;
 public class ModulesStateLoop implements Runnable,
         OnDNSCryptLogUpdatedListener, OnTorLogUpdatedListener, OnITPDHtmlUpdatedListener {
 
-    //Depends on timer, currently 10 sec
-    private static final int STOP_COUNTER_DELAY = 10;
+    //Delay in ms before service can stop
+    private static final long STOP_SERVICE_DELAY = 10000;
 
-    //Delay in sec before service can stop
-    private static int stopCounter = STOP_COUNTER_DELAY;
+    //Time when modules came into the state in which service can stop, 0 if they did not
+    private static volatile long stopCountdownStartTime = 0;
 
     @Inject
     public DNSCryptInteractorInterface dnsCryptInteractor;
@@ -92,8 +92,11 @@ public class ModulesStateLoop implements Runnable,
     public Lazy<Handler> handler;
     @Inject
     public Lazy<PathVars> pathVars;
+    @Inject
+    public Lazy<TorControlPortClient> torControlPortClient;
 
     private boolean iptablesUpdateTemporaryBlocked;
+    private boolean stopCountdownContinued;
 
     private final ModulesStatus modulesStatus;
     private final ModulesService modulesService;
@@ -116,8 +119,7 @@ public class ModulesStateLoop implements Runnable,
     ModulesStateLoop(ModulesService modulesService) {
         App.getInstance().initLogReaderDaggerSubcomponent().inject(this);
 
-        //Delay in sec before service can stop
-        stopCounter = STOP_COUNTER_DELAY;
+        resetStopCountdown();
 
         this.modulesService = modulesService;
 
@@ -157,6 +159,8 @@ public class ModulesStateLoop implements Runnable,
 
             updateFixTTLRules();
 
+            stopCountdownContinued = false;
+
             updateIptablesRules(
                     modulesStatus.getDnsCryptState(),
                     modulesStatus.getTorState(),
@@ -166,6 +170,11 @@ public class ModulesStateLoop implements Runnable,
                     useModulesWithRoot
             );
 
+            //Countdown continues only while modules stay in the state in which service can stop
+            if (!stopCountdownContinued) {
+                resetStopCountdown();
+            }
+
             if (contextUIDUpdateRequested) {
                 updateContextUID(
                         modulesStatus.getDnsCryptState(),
@@ -174,17 +183,15 @@ public class ModulesStateLoop implements Runnable,
                 );
             }
 
-            if (stopCounter <= 0) {
+            if (isStopDelayElapsed()) {
 
                 denySystemDNS();
 
-                Log.i(LOG_TAG, "ModulesStateLoop stopCounter is zero. Stop service.");
+                Log.i(LOG_TAG, "ModulesStateLoop stop delay elapsed. Stop service.");
                 modulesStatus.setContextUIDUpdateRequested(false);
                 safeStopModulesService();
             }
 
-            slowDownModulesStateTimerIfRequired();
-
         } catch (Exception e) {
             if (handler != null) {
                 handler.get().post(() -> Toast.makeText(modulesService, R.string.wrong, Toast.LENGTH_SHORT).show());
@@ -198,7 +205,7 @@ public class ModulesStateLoop implements Runnable,
         if (dnsCryptThread != null && dnsCryptThread.isAlive()) {
             if (dnsCryptState == STOPPED || dnsCryptState == UNDEFINED) {
                 modulesStatus.setDnsCryptState(ModuleState.RUNNING);
-                stopCounter = STOP_COUNTER_DELAY;
+                resetStopCountdown();
             }
         } else {
             if (dnsCryptState == RUNNING || dnsCryptState == UNDEFINED) {
@@ -209,7 +216,7 @@ public class ModulesStateLoop implements Runnable,
         if (torThread != null && torThread.isAlive()) {
             if (torState == STOPPED || torState == UNDEFINED) {
                 modulesStatus.setTorState(ModuleState.RUNNING);
-                stopCounter = STOP_COUNTER_DELAY;
+                resetStopCountdown();
             }
         } else {
             if (torState == RUNNING || torState == UNDEFINED) {
@@ -220,7 +227,7 @@ public class ModulesStateLoop implements Runnable,
         if (itpdThread != null && itpdThread.isAlive()) {
             if (itpdState == STOPPED || itpdState == UNDEFINED) {
                 modulesStatus.setItpdState(ModuleState.RUNNING);
-                stopCounter = STOP_COUNTER_DELAY;
+                resetStopCountdown();
             }
         } else {
             if (itpdState == RUNNING || itpdState == UNDEFINED) {
@@ -314,10 +321,12 @@ public class ModulesStateLoop implements Runnable,
                 saveTorState(torState);
 
                 if (torState == RUNNING) {
+                    torControlPortClient.get().connect();
                     if (torInteractor != null) {
                         torInteractor.addOnTorLogUpdatedListener(this);
                     }
                 } else {
+                    torControlPortClient.get().disconnect();
                     if (torInteractor != null) {
                         torInteractor.removeOnTorLogUpdatedListener(this);
                     }
@@ -362,7 +371,7 @@ public class ModulesStateLoop implements Runnable,
 
                 Log.i(LOG_TAG, "Iptables rules updated");
 
-                stopCounter = STOP_COUNTER_DELAY;
+                resetStopCountdown();
             } else if (operationMode == VPN_MODE) {
 
                 if (dnsCryptState == STOPPED && torState == STOPPED) {
@@ -373,7 +382,7 @@ public class ModulesStateLoop implements Runnable,
                     startVPNService();
                 }
 
-                stopCounter = STOP_COUNTER_DELAY;
+                resetStopCountdown();
             }
 
             if (isFixTTL()) {
@@ -418,11 +427,11 @@ public class ModulesStateLoop implements Runnable,
                 return;
             }
 
-            stopCounter--;
+            countDownToStop();
         } else if ((dnsCryptState == STOPPED || dnsCryptState == FAULT)
                 && (torState == STOPPED || torState == FAULT)
                 && (itpdState == STOPPED || itpdState == FAULT)) {
-            stopCounter--;
+            countDownToStop();
         }
 
     }
@@ -496,14 +505,17 @@ public class ModulesStateLoop implements Runnable,
 
     void setDnsCryptThread(Thread dnsCryptThread) {
         ModulesStateLoop.dnsCryptThread = dnsCryptThread;
+        watchModuleThread(dnsCryptThread);
     }
 
     void setTorThread(Thread torThread) {
         ModulesStateLoop.torThread = torThread;
+        watchModuleThread(torThread);
     }
 
     void setItpdThread(Thread itpdThread) {
         ModulesStateLoop.itpdThread = itpdThread;
+        watchModuleThread(itpdThread);
     }
 
     void clearIptablesCommandHash() {
@@ -613,14 +625,57 @@ public class ModulesStateLoop implements Runnable,
                 && !modulesStatus.isUseModulesWithRoot();
     }
 
-    private void slowDownModulesStateTimerIfRequired() {
-        if (!modulesStatus.isUseModulesWithRoot()
-                && (modulesStatus.getDnsCryptState() == RUNNING && modulesStatus.isDnsCryptReady() || modulesStatus.getDnsCryptState() == STOPPED)
-                && (modulesStatus.getTorState() == RUNNING && modulesStatus.isTorReady() || modulesStatus.getTorState() == STOPPED)
-                && (modulesStatus.getItpdState() == RUNNING && modulesStatus.isItpdReady() || modulesStatus.getItpdState() == STOPPED)
-                && !(modulesStatus.getDnsCryptState() == STOPPED && modulesStatus.getTorState() == STOPPED && modulesStatus.getItpdState() == STOPPED)
-                && !App.getInstance().isAppForeground()) {
-            modulesService.slowdownTimer();
+    /**
+     * The loop is re-evaluated immediately on ModulesStatus changes and module thread exits,
+     * so it only needs to poll while modules are in transition or the service is going to stop.
+     */
+    long getNextLoopDelay() {
+        if (stopCountdownStartTime != 0
+                || isModuleInTransition(modulesStatus.getDnsCryptState())
+                || isModuleInTransition(modulesStatus.getTorState())
+                || isModuleInTransition(modulesStatus.getItpdState())
+                || modulesStatus.isIptablesRulesUpdateRequested()
+                || modulesStatus.isFixTTLRulesUpdateRequested()
+                || modulesStatus.isContextUIDUpdateRequested()) {
+            return ModulesService.LOOP_TRANSITION_DELAY;
+        }
+
+        return ModulesService.LOOP_WATCHDOG_DELAY;
+    }
+
+    private boolean isModuleInTransition(ModuleState state) {
+        return state != RUNNING && state != STOPPED && state != FAULT;
+    }
+
+    private void countDownToStop() {
+        stopCountdownContinued = true;
+        if (stopCountdownStartTime == 0) {
+            stopCountdownStartTime = System.currentTimeMillis();
         }
     }
+
+    private void resetStopCountdown() {
+        stopCountdownStartTime = 0;
+    }
+
+    private boolean isStopDelayElapsed() {
+        return stopCountdownStartTime != 0
+                && System.currentTimeMillis() - stopCountdownStartTime >= STOP_SERVICE_DELAY;
+    }
+
+    //Module process runs inside the thread, so thread end means the module exited or crashed
+    private void watchModuleThread(Thread moduleThread) {
+        if (moduleThread == null || modulesService.taskScheduler == null) {
+            return;
+        }
+
+        modulesService.taskScheduler.startDedicatedThread("module-watcher", () -> {
+            try {
+                moduleThread.join();
+                modulesService.scheduleModulesStateLoop(0);
+            } catch (InterruptedException e) {
+                Log.w(LOG_TAG, "ModulesStateLoop watchModuleThread interrupted");
+            }
+        });
+    }
 }
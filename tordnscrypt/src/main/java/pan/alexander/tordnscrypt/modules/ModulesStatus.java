@@ -46,8 +46,18 @@ public final class ModulesStatus {
     private volatile boolean torReady;
     private volatile boolean itpdReady;
 
+    private volatile OnModulesStatusChangedListener onModulesStatusChangedListener;
+
     private static volatile ModulesStatus modulesStatus;
 
+    /**
+     * Notified when any state or request flag actually changes, ModulesService uses it
+     * to evaluate the modules state loop instead of polling ModulesStatus.
+     */
+    interface OnModulesStatusChangedListener {
+        void onModulesStatusChanged();
+    }
+
     private ModulesStatus() {
     }
 
@@ -64,7 +74,10 @@ public final class ModulesStatus {
     }
 
     public void setUseModulesWithRoot(final boolean useModulesWithRoot) {
-        this.useModulesWithRoot = useModulesWithRoot;
+        if (this.useModulesWithRoot != useModulesWithRoot) {
+            this.useModulesWithRoot = useModulesWithRoot;
+            notifyModulesStatusChanged();
+        }
     }
 
     public ModuleState getDnsCryptState() {
@@ -80,15 +93,24 @@ public final class ModulesStatus {
     }
 
     public void setDnsCryptState(ModuleState dnsCryptState) {
-        this.dnsCryptState = dnsCryptState;
+        if (this.dnsCryptState != dnsCryptState) {
+            this.dnsCryptState = dnsCryptState;
+            notifyModulesStatusChanged();
+        }
     }
 
     public void setTorState(ModuleState torState) {
-        this.torState = torState;
+        if (this.torState != torState) {
+            this.torState = torState;
+            notifyModulesStatusChanged();
+        }
     }
 
     public void setItpdState(ModuleState itpdState) {
-        this.itpdState = itpdState;
+        if (this.itpdState != itpdState) {
+            this.itpdState = itpdState;
+            notifyModulesStatusChanged();
+        }
     }
 
     public boolean isUseModulesWithRoot() {
@@ -100,7 +122,10 @@ public final class ModulesStatus {
     }
 
     void setRootAvailable(boolean rootIsAvailable) {
-        this.rootAvailable = rootIsAvailable;
+        if (this.rootAvailable != rootIsAvailable) {
+            this.rootAvailable = rootIsAvailable;
+            notifyModulesStatusChanged();
+        }
     }
 
     synchronized boolean isIptablesRulesUpdateRequested() {
@@ -108,11 +133,14 @@ public final class ModulesStatus {
     }
 
     public synchronized void setIptablesRulesUpdateRequested(final boolean requestIptablesUpdate) {
-        this.requestIptablesUpdate = requestIptablesUpdate;
+        if (this.requestIptablesUpdate != requestIptablesUpdate) {
+            this.requestIptablesUpdate = requestIptablesUpdate;
+            notifyModulesStatusChanged();
+        }
     }
 
     public synchronized void setIptablesRulesUpdateRequested(Context context, final boolean requestIptablesUpdate) {
-        this.requestIptablesUpdate = requestIptablesUpdate;
+        setIptablesRulesUpdateRequested(requestIptablesUpdate);
         ModulesAux.makeModulesStateExtraLoop(context);
     }
 
@@ -121,7 +149,10 @@ public final class ModulesStatus {
     }
 
     void setFixTTLRulesUpdateRequested(final boolean requestFixTTLRulesUpdate) {
-        this.requestFixTTLRulesUpdate = requestFixTTLRulesUpdate;
+        if (this.requestFixTTLRulesUpdate != requestFixTTLRulesUpdate) {
+            this.requestFixTTLRulesUpdate = requestFixTTLRulesUpdate;
+            notifyModulesStatusChanged();
+        }
     }
 
     public void setFixTTLRulesUpdateRequested(Context context, final boolean requestFixTTLRulesUpdate) {
@@ -134,7 +165,10 @@ public final class ModulesStatus {
     }
 
     public void setContextUIDUpdateRequested(boolean requestContextUIDUpdate) {
-        this.requestContextUIDUpdate = requestContextUIDUpdate;
+        if (this.requestContextUIDUpdate != requestContextUIDUpdate) {
+            this.requestContextUIDUpdate = requestContextUIDUpdate;
+            notifyModulesStatusChanged();
+        }
     }
 
     public boolean isFixTTL() {
@@ -142,7 +176,10 @@ public final class ModulesStatus {
     }
 
     public void setFixTTL(boolean fixTTL) {
-        this.fixTTL = fixTTL;
+        if (this.fixTTL != fixTTL) {
+            this.fixTTL = fixTTL;
+            notifyModulesStatusChanged();
+        }
     }
 
     public OperationMode getMode() {
@@ -150,7 +187,10 @@ public final class ModulesStatus {
     }
 
     public void setMode(OperationMode mode) {
-        this.mode = mode;
+        if (this.mode != mode) {
+            this.mode = mode;
+            notifyModulesStatusChanged();
+        }
     }
 
     public boolean isSystemDNSAllowed() {
@@ -166,7 +206,10 @@ public final class ModulesStatus {
     }
 
     public void setDnsCryptReady(boolean dnsCryptReady) {
-        this.dnsCryptReady = dnsCryptReady;
+        if (this.dnsCryptReady != dnsCryptReady) {
+            this.dnsCryptReady = dnsCryptReady;
+            notifyModulesStatusChanged();
+        }
     }
 
     public boolean isTorReady() {
@@ -174,7 +217,10 @@ public final class ModulesStatus {
     }
 
     public void setTorReady(boolean torReady) {
-        this.torReady = torReady;
+        if (this.torReady != torReady) {
+            this.torReady = torReady;
+            notifyModulesStatusChanged();
+        }
     }
 
     public boolean isItpdReady() {
@@ -182,6 +228,20 @@ public final class ModulesStatus {
     }
 
     public void setItpdReady(boolean itpdReady) {
-        this.itpdReady = itpdReady;
+        if (this.itpdReady != itpdReady) {
+            this.itpdReady = itpdReady;
+            notifyModulesStatusChanged();
+        }
+    }
+
+    void setOnModulesStatusChangedListener(OnModulesStatusChangedListener listener) {
+        onModulesStatusChangedListener = listener;
+    }
+
+    private void notifyModulesStatusChanged() {
+        OnModulesStatusChangedListener listener = onModulesStatusChangedListener;
+        if (listener != null) {
+            listener.onModulesStatusChanged();
+        }
     }
 }
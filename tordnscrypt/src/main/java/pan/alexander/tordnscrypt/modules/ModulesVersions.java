@@ -33,10 +33,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import dagger.Lazy;
 import pan.alexander.tordnscrypt.App;
 import pan.alexander.tordnscrypt.settings.PathVars;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.root.RootCommands;
+import pan.alexander.tordnscrypt.utils.root.StartupProbesCache;
 
 import static pan.alexander.tordnscrypt.utils.root.RootExecService.COMMAND_RESULT;
 import static pan.alexander.tordnscrypt.utils.root.RootExecService.DNSCryptRunFragmentMark;
@@ -51,43 +54,70 @@ import javax.inject.Singleton;
 public class ModulesVersions {
     private final CachedExecutor cachedExecutor;
 
-    private String dnsCryptVersion = "";
-    private String torVersion = "";
-    private String itpdVersion = "";
+    private final Lazy<StartupProbesCache> startupProbesCache;
+
+    private volatile String dnsCryptVersion = "";
+    private volatile String torVersion = "";
+    private volatile String itpdVersion = "";
 
     private Shell.Console console;
 
     @Inject
-    ModulesVersions(CachedExecutor cachedExecutor) {
+    ModulesVersions(CachedExecutor cachedExecutor, Lazy<StartupProbesCache> startupProbesCache) {
         this.cachedExecutor = cachedExecutor;
+        this.startupProbesCache = startupProbesCache;
     }
 
     public void refreshVersions(final Context context) {
 
-        cachedExecutor.submit(() -> {
-            //openCommandShell();
-
-            PathVars pathVars = App.getInstance().getDaggerComponent().getPathVars().get();
-
-            //checkModulesVersions(pathVars);
-            checkModulesVersionsModern(pathVars);
+        PathVars pathVars = App.getInstance().getDaggerComponent().getPathVars().get();
 
-            if (isBinaryFileAccessible(pathVars.getDNSCryptPath()) && !dnsCryptVersion.isEmpty()) {
+        //Binaries are checked in parallel, versions are cached until the binary file is changed
+        cachedExecutor.submit(TaskScheduler.Pool.BLOCKING, () -> {
+            dnsCryptVersion = checkModuleVersion(pathVars.getDNSCryptPath(), "DNSCrypt_version ");
+            if (!dnsCryptVersion.isEmpty()) {
                 sendResult(context, dnsCryptVersion, DNSCryptRunFragmentMark);
             }
+        });
 
-            if (isBinaryFileAccessible(pathVars.getTorPath()) && !torVersion.isEmpty()) {
+        cachedExecutor.submit(TaskScheduler.Pool.BLOCKING, () -> {
+            torVersion = checkModuleVersion(pathVars.getTorPath(), "Tor_version ");
+            if (!torVersion.isEmpty()) {
                 sendResult(context, torVersion, TorRunFragmentMark);
             }
+        });
 
-            if (isBinaryFileAccessible(pathVars.getITPDPath()) && !itpdVersion.isEmpty()) {
+        cachedExecutor.submit(TaskScheduler.Pool.BLOCKING, () -> {
+            itpdVersion = checkModuleVersion(pathVars.getITPDPath(), "ITPD_version ");
+            if (!itpdVersion.isEmpty()) {
                 sendResult(context, itpdVersion, I2PDRunFragmentMark);
             }
-
-            //closeCommandShell();
         });
     }
 
+    private String checkModuleVersion(String path, String prefix) {
+        if (!isBinaryFileAccessible(path)) {
+            return "";
+        }
+
+        StartupProbesCache probesCache = startupProbesCache.get();
+
+        String version = probesCache.getBinaryVersion(path);
+        if (version != null) {
+            return version;
+        }
+
+        List<String> output = new ProcessStarter().startProcess(path + " --version").stdout;
+        if (output.isEmpty()) {
+            return "";
+        }
+
+        version = prefix + output.get(0);
+        probesCache.saveBinaryVersion(path, version);
+
+        return version;
+    }
+
     private boolean isBinaryFileAccessible(String path) {
         File file = new File(path);
         return file.isFile() && file.canExecute();
@@ -127,24 +157,6 @@ public class ModulesVersions {
                 .getStdout();
     }
 
-    private void checkModulesVersionsModern(PathVars pathVars) {
-
-        List<String> dnsCryptOutput = new ProcessStarter().startProcess(pathVars.getDNSCryptPath() + " --version").stdout;
-        if (!dnsCryptOutput.isEmpty()) {
-            dnsCryptVersion = "DNSCrypt_version " + dnsCryptOutput.get(0);
-        }
-
-        List<String> torOutput = new ProcessStarter().startProcess(pathVars.getTorPath() + " --version").stdout;
-        if (!torOutput.isEmpty()) {
-            torVersion = "Tor_version " + torOutput.get(0);
-        }
-
-        List<String> itpdOutput = new ProcessStarter().startProcess(pathVars.getITPDPath() + " --version").stdout;
-        if (!itpdOutput.isEmpty()) {
-            itpdVersion = "ITPD_version " + itpdOutput.get(0);
-        }
-    }
-
     private void openCommandShell() {
         closeCommandShell();
 
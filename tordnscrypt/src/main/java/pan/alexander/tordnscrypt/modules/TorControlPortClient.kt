@@ -0,0 +1,439 @@
+package pan.alexander.tordnscrypt.modules
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import android.util.Log
+import androidx.annotation.WorkerThread
+import pan.alexander.tordnscrypt.settings.PathVars
+import pan.alexander.tordnscrypt.utils.configs.ModulesConfigCache
+import pan.alexander.tordnscrypt.utils.enums.ModuleState.RUNNING
+import pan.alexander.tordnscrypt.utils.executors.CachedExecutor
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler
+import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
+import java.io.BufferedReader
+import java.io.File
+import java.io.InputStreamReader
+import java.io.OutputStreamWriter
+import java.io.Writer
+import java.net.InetSocketAddress
+import java.net.Socket
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CopyOnWriteArraySet
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.regex.Pattern
+import javax.inject.Inject
+import javax.inject.Singleton
+
+const val TOR_CONTROL_PORT_FILE = "tor_control_port"
+
+private const val CONNECT_RETRY_DELAY_MSEC = 1000L
+private const val CONNECT_RETRY_MAX_DELAY_MSEC = 30000L
+private const val CONNECT_TIMEOUT_MSEC = 3000
+private const val COMMAND_TIMEOUT_SEC = 10L
+private const val EVENTS = "STATUS_CLIENT"
+
+private val bootstrapProgressPattern by lazy { Pattern.compile("BOOTSTRAP PROGRESS=(\\d+)") }
+private val authMethodsPattern by lazy { Pattern.compile("METHODS=(\\S+)") }
+private val cookieFilePattern by lazy { Pattern.compile("COOKIEFILE=\"((?:[^\"\\\\]|\\\\.)*)\"") }
+private val controlPortPattern by lazy { Pattern.compile("^(?:(\\S+):)?(\\d+)$") }
+
+/**
+ * Long-lived client of the Tor ControlPort.
+ * Commands are written to a single connection and completed in order by the reader thread,
+ * asynchronous events are delivered to listeners, so bootstrap progress
+ * is pushed by Tor instead of being parsed from the log.
+ */
+@Singleton
+class TorControlPortClient @Inject constructor(
+    private val configCache: dagger.Lazy<ModulesConfigCache>,
+    private val pathVars: dagger.Lazy<PathVars>,
+    private val cachedExecutor: CachedExecutor,
+    private val taskScheduler: TaskScheduler
+) {
+
+    class Reply(val code: Int, val lines: List<String>) {
+        val isOk: Boolean get() = code == 250
+    }
+
+    class ReplyFuture internal constructor() : Future<Reply> {
+        private val latch = CountDownLatch(1)
+
+        @Volatile
+        private var reply: Reply? = null
+
+        internal fun complete(reply: Reply) {
+            this.reply = reply
+            latch.countDown()
+        }
+
+        override fun cancel(mayInterruptIfRunning: Boolean): Boolean = false
+
+        override fun isCancelled(): Boolean = false
+
+        override fun isDone(): Boolean = latch.count == 0L
+
+        override fun get(): Reply {
+            latch.await()
+            return reply ?: Reply(0, emptyList())
+        }
+
+        override fun get(timeout: Long, unit: TimeUnit): Reply {
+            if (!latch.await(timeout, unit)) {
+                throw TimeoutException("Tor control command timeout")
+            }
+            return reply ?: Reply(0, emptyList())
+        }
+    }
+
+    fun interface OnTorControlEventListener {
+        fun onTorControlEvent(event: String, line: String)
+    }
+
+    private val pendingReplies = ConcurrentLinkedQueue<ReplyFuture>()
+    private val listeners = CopyOnWriteArraySet<OnTorControlEventListener>()
+    private val writeLock = Any()
+
+    @Volatile
+    private var socket: Socket? = null
+
+    @Volatile
+    private var writer: Writer? = null
+
+    @Volatile
+    private var connectRequested = false
+
+    @Volatile
+    private var connecting = false
+
+    @Volatile
+    private var authenticatedSinceConnect = false
+
+    @Volatile
+    var isAuthenticated = false
+        private set
+
+    @Volatile
+    var bootstrapProgress = -1
+        private set
+
+    fun addOnTorControlEventListener(listener: OnTorControlEventListener) {
+        listeners.add(listener)
+    }
+
+    fun removeOnTorControlEventListener(listener: OnTorControlEventListener) {
+        listeners.remove(listener)
+    }
+
+    /**
+     * Connects in background and keeps reconnecting while Tor is running, until disconnect is called.
+     */
+    @Synchronized
+    fun connect() {
+        connectRequested = true
+
+        if (connecting || socket != null) {
+            return
+        }
+
+        connecting = true
+        taskScheduler.startDedicatedThread("tor-control") { connectionLoop() }
+    }
+
+    @Synchronized
+    fun disconnect() {
+        connectRequested = false
+        closeSocket()
+    }
+
+    /**
+     * @return null if there is no authenticated connection
+     */
+    fun sendCommand(command: String): ReplyFuture? {
+        if (!isAuthenticated) {
+            return null
+        }
+        return writeCommand(command)
+    }
+
+    /**
+     * Asks Tor to use new circuits for new connections without restarting it.
+     * Waits for the Tor reply, so it must not be called on the main thread.
+     * @return false if Tor did not accept the request and should be restarted instead
+     */
+    @WorkerThread
+    fun newIdentity(): Boolean {
+        val future = sendCommand("SIGNAL NEWNYM") ?: return false
+
+        return try {
+            val reply = future.get(COMMAND_TIMEOUT_SEC, TimeUnit.SECONDS)
+            if (!reply.isOk) {
+                Log.w(LOG_TAG, "TorControlPortClient NEWNYM ${reply.code} ${reply.lines}")
+            }
+            reply.isOk
+        } catch (e: Exception) {
+            Log.w(LOG_TAG, "TorControlPortClient NEWNYM ${e.message} ${e.cause}")
+            false
+        }
+    }
+
+    //Reconnects for as long as Tor is running, the delay grows while the ControlPort is not available
+    private fun connectionLoop() {
+        try {
+            var retryDelay = CONNECT_RETRY_DELAY_MSEC
+            while (connectRequested && ModulesStatus.getInstance().torState == RUNNING) {
+
+                val address = getControlPortAddress()
+                if (address != null && openSocket(address)) {
+                    authenticatedSinceConnect = false
+                    cachedExecutor.submit(TaskScheduler.Pool.NETWORK) { authenticate() }
+                    readReplies()
+                    onConnectionLost()
+
+                    //Tor was restarted, connection can be restored quickly
+                    if (authenticatedSinceConnect) {
+                        retryDelay = CONNECT_RETRY_DELAY_MSEC
+                    }
+                }
+
+                if (connectRequested) {
+                    Thread.sleep(retryDelay)
+                    retryDelay = (retryDelay * 2).coerceAtMost(CONNECT_RETRY_MAX_DELAY_MSEC)
+                }
+            }
+        } catch (e: InterruptedException) {
+            Log.w(LOG_TAG, "TorControlPortClient connection loop interrupted")
+        } finally {
+            connecting = false
+        }
+    }
+
+    private fun openSocket(address: InetSocketAddress): Boolean =
+        try {
+            val newSocket = Socket()
+            newSocket.connect(address, CONNECT_TIMEOUT_MSEC)
+            writer = OutputStreamWriter(newSocket.getOutputStream(), Charsets.US_ASCII)
+            socket = newSocket
+            Log.i(LOG_TAG, "TorControlPortClient connected to ${address.port}")
+            true
+        } catch (e: Exception) {
+            false
+        }
+
+    private fun authenticate() {
+        try {
+            val protocolInfo = writeCommand("PROTOCOLINFO 1")
+                .get(COMMAND_TIMEOUT_SEC, TimeUnit.SECONDS)
+
+            val methods = protocolInfo.lines
+                .firstNotNullOfOrNull { line ->
+                    authMethodsPattern.matcher(line).let { if (it.find()) it.group(1) else null }
+                }?.split(",") ?: emptyList()
+            val cookieFile = protocolInfo.lines
+                .firstNotNullOfOrNull { line ->
+                    cookieFilePattern.matcher(line).let { if (it.find()) it.group(1) else null }
+                }?.replace("\\\"", "\"")?.replace("\\\\", "\\")
+
+            val authCommand = when {
+                methods.contains("NULL") -> "AUTHENTICATE"
+                methods.contains("COOKIE") && cookieFile != null ->
+                    "AUTHENTICATE " + File(cookieFile).readBytes().toHexString()
+                else -> {
+                    Log.w(LOG_TAG, "TorControlPortClient unsupported auth methods $methods")
+                    closeSocket()
+                    return
+                }
+            }
+
+            val authReply = writeCommand(authCommand).get(COMMAND_TIMEOUT_SEC, TimeUnit.SECONDS)
+            if (!authReply.isOk) {
+                Log.w(LOG_TAG, "TorControlPortClient authentication failed ${authReply.code}")
+                closeSocket()
+                return
+            }
+
+            writeCommand("SETEVENTS $EVENTS").get(COMMAND_TIMEOUT_SEC, TimeUnit.SECONDS)
+
+            isAuthenticated = true
+            authenticatedSinceConnect = true
+
+            writeCommand("GETINFO status/bootstrap-phase")
+                .get(COMMAND_TIMEOUT_SEC, TimeUnit.SECONDS)
+                .lines.forEach { updateBootstrapProgress(it) }
+
+            Log.i(LOG_TAG, "TorControlPortClient authenticated, bootstrap $bootstrapProgress%")
+        } catch (e: Exception) {
+            Log.w(LOG_TAG, "TorControlPortClient authenticate exception ${e.message} ${e.cause}")
+            closeSocket()
+        }
+    }
+
+    private fun writeCommand(command: String): ReplyFuture {
+        val future = ReplyFuture()
+
+        synchronized(writeLock) {
+            val currentWriter = writer
+            if (currentWriter == null) {
+                future.complete(Reply(0, emptyList()))
+                return future
+            }
+
+            pendingReplies.add(future)
+
+            try {
+                currentWriter.write(command)
+                currentWriter.write("\r\n")
+                currentWriter.flush()
+            } catch (e: Exception) {
+                Log.w(LOG_TAG, "TorControlPortClient write exception ${e.message} ${e.cause}")
+                closeSocket()
+            }
+        }
+
+        return future
+    }
+
+    private fun readReplies() {
+        val currentSocket = socket ?: return
+
+        try {
+            BufferedReader(InputStreamReader(currentSocket.getInputStream(), Charsets.US_ASCII))
+                .use { reader ->
+                    val lines = arrayListOf<String>()
+                    var line = reader.readLine()
+                    while (line != null && line.length >= 4) {
+                        val separator = line[3]
+                        lines.add(line.substring(4))
+
+                        if (separator == '+') {
+                            //Data reply, lines until a single dot belong to it
+                            var dataLine = reader.readLine()
+                            while (dataLine != null && dataLine != ".") {
+                                lines.add(dataLine)
+                                dataLine = reader.readLine()
+                            }
+                        } else if (separator == ' ') {
+                            onReply(line.substring(0, 3).toIntOrNull() ?: 0, ArrayList(lines))
+                            lines.clear()
+                        }
+
+                        line = reader.readLine()
+                    }
+                }
+        } catch (e: Exception) {
+            if (connectRequested) {
+                Log.w(LOG_TAG, "TorControlPortClient read exception ${e.message} ${e.cause}")
+            }
+        }
+    }
+
+    private fun onReply(code: Int, lines: List<String>) {
+        if (code == 650) {
+            lines.forEach { onEvent(it) }
+        } else {
+            pendingReplies.poll()?.complete(Reply(code, lines))
+        }
+    }
+
+    private fun onEvent(line: String) {
+        val event = line.substringBefore(' ')
+
+        if (event == "STATUS_CLIENT") {
+            updateBootstrapProgress(line)
+        }
+
+        listeners.forEach {
+            try {
+                it.onTorControlEvent(event, line)
+            } catch (e: Exception) {
+                Log.e(LOG_TAG, "TorControlPortClient listener exception ${e.message} ${e.cause}")
+            }
+        }
+    }
+
+    private fun updateBootstrapProgress(line: String) {
+        val matcher = bootstrapProgressPattern.matcher(line)
+        if (matcher.find()) {
+            bootstrapProgress = matcher.group(1)?.toIntOrNull() ?: bootstrapProgress
+        }
+    }
+
+    private fun onConnectionLost() {
+        closeSocket()
+        Log.i(LOG_TAG, "TorControlPortClient disconnected")
+    }
+
+    private fun closeSocket() {
+        synchronized(writeLock) {
+            isAuthenticated = false
+            bootstrapProgress = -1
+
+            try {
+                socket?.close()
+            } catch (ignored: Exception) {
+            }
+            socket = null
+            writer = null
+
+            var future = pendingReplies.poll()
+            while (future != null) {
+                future.complete(Reply(0, emptyList()))
+                future = pendingReplies.poll()
+            }
+        }
+    }
+
+    //ControlPort is taken from tor.conf if the user defined it, otherwise from the file written by Tor
+    //for the ControlPort options passed on the command line
+    private fun getControlPortAddress(): InetSocketAddress? {
+        val torConfig = configCache.get().getTorConfig()
+
+        val controlPort = torConfig.getValue("ControlPort")
+        val controlPortFile = if (controlPort == null) {
+            pathVars.get().appDataDir + "/" + TOR_CONTROL_PORT_FILE
+        } else {
+            torConfig.getValue("ControlPortWriteToFile")
+        }
+
+        val value = controlPortFile
+            ?.let { path ->
+                File(path).takeIf { it.isFile }?.readLines()
+                    ?.firstOrNull { it.startsWith("PORT=") }
+                    ?.removePrefix("PORT=")
+            }
+            ?: controlPort
+            ?: return null
+
+        val matcher = controlPortPattern.matcher(value.substringBefore(' ').trim())
+        if (!matcher.find()) {
+            return null
+        }
+
+        val host = matcher.group(1) ?: "127.0.0.1"
+        val port = matcher.group(2)?.toIntOrNull() ?: return null
+
+        return InetSocketAddress(host, port)
+    }
+
+    private fun ByteArray.toHexString(): String =
+        joinToString("") { String.format("%02X", it) }
+}
@@ -29,10 +29,9 @@ import pan.alexander.tordnscrypt.domain.connection_checker.ConnectionCheckerInte
 import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
 import pan.alexander.tordnscrypt.utils.enums.ModuleState
 import pan.alexander.tordnscrypt.utils.enums.OperationMode
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler
 import java.text.CharacterIterator
 import java.text.StringCharacterIterator
-import java.util.concurrent.Executors
-import java.util.concurrent.ScheduledExecutorService
 import java.util.concurrent.ScheduledFuture
 import java.util.concurrent.TimeUnit
 import javax.inject.Inject
@@ -47,10 +46,11 @@ class UsageStatistic(private val context: Context) {
 
     @Inject
     lateinit var connectionCheckerInteractor: dagger.Lazy<ConnectionCheckerInteractor>
+    @Inject
+    lateinit var taskScheduler: TaskScheduler
 
     var serviceNotification: ModulesServiceNotificationManager? = null
 
-    private var timer: ScheduledExecutorService? = null
     private val modulesStatus = ModulesStatus.getInstance()
 
     private val uid = Process.myUid()
@@ -67,7 +67,6 @@ class UsageStatistic(private val context: Context) {
     private var savedTX = 0L
 
     init {
-        initModulesLogsTimer()
         startTime = System.currentTimeMillis()
         App.instance.daggerComponent.inject(this)
     }
@@ -81,15 +80,13 @@ class UsageStatistic(private val context: Context) {
 
         updatePeriod = period
 
-        initModulesLogsTimer()
-
         if (scheduledFuture != null && scheduledFuture?.isCancelled == false) {
             scheduledFuture?.cancel(false)
         }
 
 
 
-        scheduledFuture = timer?.scheduleWithFixedDelay({
+        scheduledFuture = taskScheduler.scheduleWithFixedDelay({
 
             try {
 
@@ -119,8 +116,8 @@ class UsageStatistic(private val context: Context) {
     }
 
     fun stopUpdate() {
-        if (timer != null && timer?.isShutdown == false) {
-            timer?.shutdown()
+        if (scheduledFuture != null && scheduledFuture?.isCancelled == false) {
+            scheduledFuture?.cancel(false)
         }
 
         startRX = 0
@@ -199,12 +196,6 @@ class UsageStatistic(private val context: Context) {
                 && TrafficStats.getTotalTxBytes() != TrafficStats.UNSUPPORTED.toLong()
     }
 
-    private fun initModulesLogsTimer() {
-        if (timer == null || timer?.isShutdown == true) {
-            timer = Executors.newSingleThreadScheduledExecutor()
-        }
-    }
-
     private fun getReadableSpeedString(fileSizeInBytes: Long, timePeriod: Long): String {
 
         var i = 0
@@ -22,6 +22,7 @@ package pan.alexander.tordnscrypt.patches
 import android.content.Context
 import android.util.Log
 import pan.alexander.tordnscrypt.App
+import pan.alexander.tordnscrypt.utils.configs.ModuleConfig
 import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
 import java.io.File
 import java.io.FileOutputStream
@@ -32,48 +33,32 @@ import java.util.zip.ZipInputStream
 class ConfigUtil(private val context: Context) {
     private val pathVars = App.instance.daggerComponent.getPathVars().get()
 
+    private val configCache = App.instance.daggerComponent.getModulesConfigCache().get()
+
     fun patchDNSCryptConfig(dnsCryptConfigPatches: List<PatchLine>) {
-        readFromFile(pathVars.dnscryptConfPath).replaceLinesInFile(dnsCryptConfigPatches).writeToFile(pathVars.dnscryptConfPath)
+        configCache.editDnsCryptConfig { it.patch(dnsCryptConfigPatches) }
     }
 
     fun patchTorConfig(torConfigPatches: List<PatchLine>) {
-        readFromFile(pathVars.torConfPath).replaceLinesInFile(torConfigPatches).writeToFile(pathVars.torConfPath)
+        configCache.editTorConfig { it.patch(torConfigPatches) }
     }
 
     fun patchItpdConfig(itpdConfigPatches: List<PatchLine>) {
-        readFromFile(pathVars.itpdConfPath).replaceLinesInFile(itpdConfigPatches).writeToFile(pathVars.itpdConfPath)
+        configCache.editItpdConfig { it.patch(itpdConfigPatches) }
     }
 
-    private fun readFromFile(filePath: String): List<String> {
-        val file = File(filePath)
-
-        return if (file.isFile && (file.canRead() || file.setReadable(true))) {
-            file.readLines()
-        } else {
-            Log.e(LOG_TAG, "Patches ConfigUtil cannot read from file $filePath")
-            emptyList()
-        }
-    }
+    private fun ModuleConfig.patch(patches: List<PatchLine>) {
+        val lines = getLines()
 
-    private fun List<String>.writeToFile(filePath: String) {
-
-        if (this.isEmpty()) {
+        if (lines.isEmpty()) {
+            Log.e(LOG_TAG, "Patches ConfigUtil cannot read from file $path")
             return
         }
 
-        val file = File(filePath)
-        val text = StringBuilder()
+        val patchedLines = lines.replaceLinesInFile(patches)
 
-        this.forEach { line ->
-            if (line.isNotEmpty()) {
-                text.append(line).append("\n")
-            }
-        }
-
-        if (file.isFile && (file.canWrite() || file.setWritable(true))) {
-            file.writeText(text.toString())
-        } else {
-            Log.e(LOG_TAG, "Patches ConfigUtil cannot write to file $filePath")
+        if (patchedLines.isNotEmpty()) {
+            replaceLines(patchedLines.filter { it.isNotEmpty() })
         }
     }
 
@@ -43,8 +43,11 @@ import pan.alexander.tordnscrypt.R
 import pan.alexander.tordnscrypt.settings.SettingsActivity
 import pan.alexander.tordnscrypt.databinding.FragmentProxyBinding
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceRepository
+import pan.alexander.tordnscrypt.modules.OnModuleRestartedListener
 import pan.alexander.tordnscrypt.utils.Constants.LOOPBACK_ADDRESS
+import pan.alexander.tordnscrypt.utils.enums.ModuleName
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler
 import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
 import java.util.concurrent.Future
 import javax.inject.Inject
@@ -161,16 +164,37 @@ class ProxyFragment : Fragment(), View.OnClickListener, TextWatcher {
         if (proxyServer.isNotEmpty() && proxyPort.isNotEmpty()
                 && (setBypassProxy.isNotEmpty() || proxyServer != LOOPBACK_ADDRESS)) {
             ProxyHelper.manageProxy(context, proxyServer, proxyPort, serverOrPortChanged,
-                    activateDNSCryptProxy, activateTorProxy, activateITPDProxy)
+                    activateDNSCryptProxy, activateTorProxy, activateITPDProxy,
+                    getOnModuleRestartedListener(context))
         } else {
             ProxyHelper.manageProxy(context, proxyServer, proxyPort, false,
-                    enableDNSCryptProxy = false, enableTorProxy = false, enableItpdProxy = false)
+                    enableDNSCryptProxy = false, enableTorProxy = false, enableItpdProxy = false,
+                    listener = getOnModuleRestartedListener(context))
         }
 
         Toast.makeText(context, R.string.toastSettings_saved, Toast.LENGTH_SHORT).show()
 
     }
 
+    //Modules are restarted after the fragment is closed, so the application context is used
+    private fun getOnModuleRestartedListener(context: Context): OnModuleRestartedListener {
+        val applicationContext = context.applicationContext
+        val mainHandler = handler.get()
+
+        return OnModuleRestartedListener { module, success ->
+            if (!success) {
+                val message = when (module) {
+                    ModuleName.DNSCRYPT_MODULE -> R.string.pref_common_restart_dnscrypt
+                    ModuleName.TOR_MODULE -> R.string.pref_common_restart_tor
+                    ModuleName.ITPD_MODULE -> R.string.pref_common_restart_itpd
+                }
+                mainHandler.post {
+                    Toast.makeText(applicationContext, message, Toast.LENGTH_LONG).show()
+                }
+            }
+        }
+    }
+
     override fun onDestroyView() {
         super.onDestroyView()
 
@@ -238,7 +262,7 @@ class ProxyFragment : Fragment(), View.OnClickListener, TextWatcher {
             return
         }
 
-        futureTask = cachedExecutor.submit {
+        futureTask = cachedExecutor.submit(TaskScheduler.Pool.NETWORK) {
             try {
                 val result = ProxyHelper.checkProxyConnectivity(server, port.toInt())
 
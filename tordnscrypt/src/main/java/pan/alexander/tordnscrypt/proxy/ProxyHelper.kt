@@ -22,17 +22,26 @@ package pan.alexander.tordnscrypt.proxy
 import android.content.Context
 import androidx.preference.PreferenceManager
 import pan.alexander.tordnscrypt.App
-import pan.alexander.tordnscrypt.modules.ModulesRestarter
 import pan.alexander.tordnscrypt.modules.ModulesStatus
+import pan.alexander.tordnscrypt.modules.OnModuleRestartedListener
+import pan.alexander.tordnscrypt.utils.enums.ModuleName
 import pan.alexander.tordnscrypt.utils.enums.ModuleState
-import pan.alexander.tordnscrypt.utils.filemanager.FileManager
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler
 import java.net.*
 
 object ProxyHelper {
     private const val defaultProxyAddress = "127.0.0.1:1080"
 
+    private val configCache by lazy { App.instance.daggerComponent.getModulesConfigCache() }
+
+    /**
+     * Applies proxy settings to modules configs in background and restarts running modules.
+     * @param listener is called for every restarted module on the scheduler thread
+     */
+    @JvmOverloads
     fun manageProxy(context: Context?, server: String, port: String, serverOrPortChanged: Boolean,
-                    enableDNSCryptProxy: Boolean, enableTorProxy: Boolean, enableItpdProxy: Boolean) {
+                    enableDNSCryptProxy: Boolean, enableTorProxy: Boolean, enableItpdProxy: Boolean,
+                    listener: OnModuleRestartedListener? = null) {
 
         if (context == null) {
             return
@@ -40,6 +49,7 @@ object ProxyHelper {
 
         val modulesStatus = ModulesStatus.getInstance()
         val pathVars = App.instance.daggerComponent.getPathVars().get()
+        val restartScheduler = App.instance.daggerComponent.getModulesRestartScheduler().get()
 
         val sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context)
         val dnsCryptProxified = sharedPreferences.getBoolean("Enable proxy", false)
@@ -52,27 +62,27 @@ object ProxyHelper {
             defaultProxyAddress
         }
 
-        App.instance.daggerComponent.getCachedExecutor().submit {
+        App.instance.daggerComponent.getCachedExecutor().submit(TaskScheduler.Pool.IO) {
             if ((enableDNSCryptProxy xor dnsCryptProxified) || serverOrPortChanged) {
-                manageDNSCryptProxy(context, pathVars?.dnscryptConfPath, proxyAddr, enableDNSCryptProxy)
+                val changed = manageDNSCryptProxy(context, pathVars?.dnscryptConfPath, proxyAddr, enableDNSCryptProxy)
                 sharedPreferences.edit().putBoolean("Enable proxy", enableDNSCryptProxy).apply()
 
-                if (modulesStatus.dnsCryptState == ModuleState.RUNNING) {
-                    ModulesRestarter.restartDNSCrypt(context)
+                if (changed && modulesStatus.dnsCryptState == ModuleState.RUNNING) {
+                    restartScheduler.scheduleRestart(ModuleName.DNSCRYPT_MODULE, listener = listener)
                 }
             }
             if ((enableTorProxy xor torProxified) || serverOrPortChanged) {
-                mangeTorProxy(context, pathVars?.torConfPath, proxyAddr, enableTorProxy)
+                val changed = mangeTorProxy(context, pathVars?.torConfPath, proxyAddr, enableTorProxy)
                 sharedPreferences.edit().putBoolean("Enable output Socks5Proxy", enableTorProxy).apply()
-                if (modulesStatus.torState == ModuleState.RUNNING) {
-                    ModulesRestarter.restartTor(context)
+                if (changed && modulesStatus.torState == ModuleState.RUNNING) {
+                    restartScheduler.scheduleRestart(ModuleName.TOR_MODULE, reloadIsEnough = true, listener = listener)
                 }
             }
             if ((enableItpdProxy xor itpdProxified) || serverOrPortChanged) {
-                manageITPDProxy(context, pathVars?.itpdConfPath, proxyAddr, enableItpdProxy)
+                val changed = manageITPDProxy(context, pathVars?.itpdConfPath, proxyAddr, enableItpdProxy)
                 sharedPreferences.edit().putBoolean("Enable ntcpproxy", enableItpdProxy).apply()
-                if (modulesStatus.itpdState == ModuleState.RUNNING) {
-                    ModulesRestarter.restartITPD(context)
+                if (changed && modulesStatus.itpdState == ModuleState.RUNNING) {
+                    restartScheduler.scheduleRestart(ModuleName.ITPD_MODULE, listener = listener)
                 }
             }
 
@@ -102,85 +112,74 @@ object ProxyHelper {
         return (System.currentTimeMillis() - start).toString()
     }
 
-    private fun manageDNSCryptProxy(context: Context?, dnsCryptConfPath: String?, address: String, enable: Boolean) {
+    private fun manageDNSCryptProxy(context: Context?, dnsCryptConfPath: String?, address: String, enable: Boolean): Boolean {
 
         if (context == null || dnsCryptConfPath == null) {
-            return
+            return false
         }
 
-        val dnsCryptProxyToml = FileManager.readTextFileSynchronous(context, dnsCryptConfPath)
-        for (i in dnsCryptProxyToml.indices) {
-            val line = dnsCryptProxyToml[i]
-            if (line.contains("proxy = ")) {
-                if (enable) {
-                    dnsCryptProxyToml[i] = "proxy = 'socks5://$address'"
-                } else {
-                    dnsCryptProxyToml[i] = "#proxy = 'socks5://$address'"
+        return configCache.get().editDnsCryptConfig { config ->
+            config.updateLines { _, line ->
+                when {
+                    line.contains("proxy = ") && enable -> "proxy = 'socks5://$address'"
+                    line.contains("proxy = ") -> "#proxy = 'socks5://$address'"
+                    line.contains("force_tcp") -> "force_tcp = $enable"
+                    else -> line
                 }
-            } else if (enable && line.contains("force_tcp")) {
-                dnsCryptProxyToml[i] = "force_tcp = true"
-            } else if (!enable && line.contains("force_tcp")) {
-                dnsCryptProxyToml[i] = "force_tcp = false"
             }
         }
-        FileManager.writeTextFileSynchronous(context, dnsCryptConfPath, dnsCryptProxyToml)
     }
 
-    private fun mangeTorProxy(context: Context?, torConfPath: String?, address: String, enable: Boolean) {
+    private fun mangeTorProxy(context: Context?, torConfPath: String?, address: String, enable: Boolean): Boolean {
 
         if (context == null || torConfPath == null) {
-            return
+            return false
         }
 
-        var clientOnlyLinePosition = -1
-        var socksProxyLineExist = false
-        val torConf = FileManager.readTextFileSynchronous(context, torConfPath)
-        val torConfToSave = mutableListOf<String>()
-        for (i in torConf.indices) {
-            var line = torConf[i]
-            if (line.contains("Socks5Proxy")) {
-                line = when {
-                    socksProxyLineExist -> ""
-                    enable -> "Socks5Proxy $address"
-                    else -> "#Socks5Proxy $address"
+        return configCache.get().editTorConfig { config ->
+            var clientOnlyLinePosition = -1
+            var socksProxyLineExist = false
+            val torConfToSave = mutableListOf<String>()
+            config.getLines().forEachIndexed { i, torConfLine ->
+                var line = torConfLine
+                if (line.contains("Socks5Proxy")) {
+                    line = when {
+                        socksProxyLineExist -> ""
+                        enable -> "Socks5Proxy $address"
+                        else -> "#Socks5Proxy $address"
+                    }
+                    socksProxyLineExist = true
+                } else if (line.contains("ClientOnly")) {
+                    clientOnlyLinePosition = i
                 }
-                socksProxyLineExist = true
-            } else if (line.contains("ClientOnly")) {
-                clientOnlyLinePosition = i
-            }
 
-            if (line.isNotEmpty()) {
-                torConfToSave.add(line)
+                if (line.isNotEmpty()) {
+                    torConfToSave.add(line)
+                }
             }
+            if (enable && !socksProxyLineExist && clientOnlyLinePosition >= 0) {
+                torConfToSave.add(clientOnlyLinePosition, "Socks5Proxy $address")
+            }
+            config.replaceLines(torConfToSave)
         }
-        if (enable && !socksProxyLineExist && clientOnlyLinePosition >= 0) {
-            torConfToSave.add(clientOnlyLinePosition, "Socks5Proxy $address")
-        }
-        FileManager.writeTextFileSynchronous(context, torConfPath, torConfToSave)
     }
 
-    private fun manageITPDProxy(context: Context?, itpdConfPath: String?, address: String, enable: Boolean) {
+    private fun manageITPDProxy(context: Context?, itpdConfPath: String?, address: String, enable: Boolean): Boolean {
         if (context == null || itpdConfPath == null) {
-            return
+            return false
         }
 
-        val itpdConf = FileManager.readTextFileSynchronous(context, itpdConfPath)
-        for (i in itpdConf.indices) {
-            val line = itpdConf[i]
-            if (line.contains("ntcpproxy")) {
-                if (enable) {
-                    itpdConf[i] = "ntcpproxy = socks://$address"
-                } else {
-                    itpdConf[i] = "#ntcpproxy = socks://$address"
-                }
-            } else if (line.matches(Regex("^#?proxy = (socks|http)://.+"))) {
-                if (enable) {
-                    itpdConf[i] = "proxy = socks://$address"
-                } else {
-                    itpdConf[i] = "#proxy = socks://$address"
+        val proxyRegex = Regex("^#?proxy = (socks|http)://.+")
+        return configCache.get().editItpdConfig { config ->
+            config.updateLines { _, line ->
+                when {
+                    line.contains("ntcpproxy") && enable -> "ntcpproxy = socks://$address"
+                    line.contains("ntcpproxy") -> "#ntcpproxy = socks://$address"
+                    line.matches(proxyRegex) && enable -> "proxy = socks://$address"
+                    line.matches(proxyRegex) -> "#proxy = socks://$address"
+                    else -> line
                 }
             }
         }
-        FileManager.writeTextFileSynchronous(context, itpdConfPath, itpdConf)
     }
 }
@@ -52,13 +52,15 @@ import pan.alexander.tordnscrypt.R;
 import pan.alexander.tordnscrypt.dialogs.NotificationHelper;
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceRepository;
 import pan.alexander.tordnscrypt.modules.ModulesAux;
-import pan.alexander.tordnscrypt.modules.ModulesRestarter;
+import pan.alexander.tordnscrypt.modules.ModulesRestartScheduler;
 import pan.alexander.tordnscrypt.modules.ModulesService;
 import pan.alexander.tordnscrypt.modules.ModulesServiceActions;
 import pan.alexander.tordnscrypt.modules.ModulesStatus;
 import pan.alexander.tordnscrypt.proxy.ProxyHelper;
+import pan.alexander.tordnscrypt.utils.configs.ModulesConfigCache;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
 import pan.alexander.tordnscrypt.utils.Utils;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.integrity.Verifier;
 import pan.alexander.tordnscrypt.utils.enums.FileOperationsVariants;
 import pan.alexander.tordnscrypt.utils.filemanager.FileManager;
@@ -80,6 +82,8 @@ import static pan.alexander.tordnscrypt.utils.enums.FileOperationsVariants.readT
 import static pan.alexander.tordnscrypt.utils.enums.OperationMode.PROXY_MODE;
 import static pan.alexander.tordnscrypt.utils.enums.OperationMode.ROOT_MODE;
 import static pan.alexander.tordnscrypt.utils.enums.OperationMode.VPN_MODE;
+import static pan.alexander.tordnscrypt.utils.enums.ModuleName.ITPD_MODULE;
+import static pan.alexander.tordnscrypt.utils.enums.ModuleName.TOR_MODULE;
 
 import javax.inject.Inject;
 
@@ -94,14 +98,16 @@ public class PreferencesCommonFragment extends PreferenceFragmentCompat
     public Lazy<PathVars> pathVars;
     @Inject
     public CachedExecutor cachedExecutor;
+    @Inject
+    public Lazy<ModulesRestartScheduler> modulesRestartScheduler;
+    @Inject
+    public Lazy<ModulesConfigCache> modulesConfigCache;
 
     private String torTransPort;
     private String torSocksPort;
     private String torHTTPTunnelPort;
     private boolean allowTorTether = false;
     private boolean allowITPDtether = false;
-    private String torConfPath = "";
-    private String itpdConfPath = "";
     private String itpdTunnelsPath = "";
     private boolean commandDisableProxy;
 
@@ -253,8 +259,6 @@ public class PreferencesCommonFragment extends PreferenceFragmentCompat
         torTransPort = pathVars.get().getTorTransPort();
         torSocksPort = pathVars.get().getTorSOCKSPort();
         torHTTPTunnelPort = pathVars.get().getTorHTTPTunnelPort();
-        torConfPath = pathVars.get().getTorConfPath();
-        itpdConfPath = pathVars.get().getItpdConfPath();
         itpdTunnelsPath = pathVars.get().getItpdTunnelsPath();
 
         SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
@@ -273,7 +277,7 @@ public class PreferencesCommonFragment extends PreferenceFragmentCompat
             }
         }
 
-        cachedExecutor.submit(() -> {
+        cachedExecutor.submit(TaskScheduler.Pool.CPU, () -> {
             try {
                 Verifier verifier = new Verifier(context);
                 String appSign = verifier.getApkSignatureZip();
@@ -318,11 +322,11 @@ public class PreferencesCommonFragment extends PreferenceFragmentCompat
                 break;
             case "pref_common_tor_tethering":
                 allowTorTether = Boolean.parseBoolean(newValue.toString());
-                readTorConf(context);
+                allowTorTethering(context);
                 break;
             case "pref_common_itpd_tethering":
                 allowITPDtether = Boolean.parseBoolean(newValue.toString());
-                readITPDConf(context);
+                allowITPDTethering(context);
                 readITPDTunnelsConf(context);
                 break;
             case "pref_common_tor_route_all":
@@ -460,43 +464,42 @@ public class PreferencesCommonFragment extends PreferenceFragmentCompat
         preferenceRepository.get().setBoolPreference("refresh_main_activity", true);
     }
 
-    private void readTorConf(Context context) {
-        FileManager.readTextFile(context, torConfPath, SettingsActivity.tor_conf_tag);
-    }
-
-    private void allowTorTethering(List<String> torConf) {
-
-        Context context = getActivity();
-
-        if (context == null) {
-            return;
-        }
+    private void allowTorTethering(Context context) {
 
         SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
         boolean isolateDestAddress = sharedPreferences.getBoolean("pref_tor_isolate_dest_address", false);
         boolean isolateDestPort = sharedPreferences.getBoolean("pref_tor_isolate_dest_port", false);
 
-        String line;
-        for (int i = 0; i < torConf.size(); i++) {
-            line = torConf.get(i);
-            if (line.contains("TransPort")) {
-                line = "TransPort " + addIsolateFlags(torTransPort, allowTorTether, isolateDestAddress, isolateDestPort);
-                torConf.set(i, line);
-            } else if (line.contains("SOCKSPort")) {
-                line = "SOCKSPort " + addIsolateFlags(torSocksPort, allowTorTether, isolateDestAddress, isolateDestPort);
-                torConf.set(i, line);
-            } else if (line.contains("HTTPTunnelPort")) {
-                line = "HTTPTunnelPort " + addIsolateFlags(torHTTPTunnelPort, allowTorTether, isolateDestAddress, isolateDestPort);
-                torConf.set(i, line);
-            }
-        }
+        boolean allowTether = allowTorTether;
+        Context appContext = context.getApplicationContext();
+
+        cachedExecutor.submit(TaskScheduler.Pool.IO, () -> {
+            boolean saved = modulesConfigCache.get().editTorConfig(config -> {
+                List<String> torConf = config.getLines();
+
+                String line;
+                for (int i = 0; i < torConf.size(); i++) {
+                    line = torConf.get(i);
+                    if (line.contains("TransPort")) {
+                        line = "TransPort " + addIsolateFlags(torTransPort, allowTether, isolateDestAddress, isolateDestPort);
+                        torConf.set(i, line);
+                    } else if (line.contains("SOCKSPort")) {
+                        line = "SOCKSPort " + addIsolateFlags(torSocksPort, allowTether, isolateDestAddress, isolateDestPort);
+                        torConf.set(i, line);
+                    } else if (line.contains("HTTPTunnelPort")) {
+                        line = "HTTPTunnelPort " + addIsolateFlags(torHTTPTunnelPort, allowTether, isolateDestAddress, isolateDestPort);
+                        torConf.set(i, line);
+                    }
+                }
 
-        FileManager.writeToTextFile(context, torConfPath, torConf, "ignored");
+                config.replaceLines(torConf);
+            });
 
-        if (ModulesAux.isTorSavedStateRunning()) {
-            ModulesRestarter.restartTor(context);
-            ModulesStatus.getInstance().setIptablesRulesUpdateRequested(context, true);
-        }
+            if (saved && ModulesAux.isTorSavedStateRunning()) {
+                modulesRestartScheduler.get().scheduleRestart(TOR_MODULE, true);
+                ModulesStatus.getInstance().setIptablesRulesUpdateRequested(appContext, true);
+            }
+        });
     }
 
     private String addIsolateFlags(String port, boolean allowTorTethering, boolean isolateDestinationAddress, boolean isolateDestinationPort) {
@@ -513,47 +516,39 @@ public class PreferencesCommonFragment extends PreferenceFragmentCompat
         return value;
     }
 
-    private void readITPDConf(Context context) {
-        FileManager.readTextFile(context, itpdConfPath, SettingsActivity.itpd_conf_tag);
-    }
-
-    private void allowITPDTethering(List<String> itpdConf) {
-
-        Context context = getActivity();
-
-        if (context == null) {
-            return;
-        }
-
-        String line;
-        String head = "";
-        for (int i = 0; i < itpdConf.size(); i++) {
-            line = itpdConf.get(i);
-            if (line.matches("\\[.+]"))
-                head = line.replace("[", "").replace("]", "");
-            if (head.equals("httpproxy") && line.contains("address")) {
-                if (allowITPDtether) {
-                    line = line.replace(LOOPBACK_ADDRESS, META_ADDRESS);
-                } else {
-                    line = line.replace(META_ADDRESS, LOOPBACK_ADDRESS);
-                }
-                itpdConf.set(i, line);
-            } else if (head.equals("socksproxy") && line.contains("address")) {
-                if (allowITPDtether) {
-                    line = line.replace(LOOPBACK_ADDRESS, META_ADDRESS);
-                } else {
-                    line = line.replace(META_ADDRESS, LOOPBACK_ADDRESS);
+    private void allowITPDTethering(Context context) {
+
+        boolean allowTether = allowITPDtether;
+        Context appContext = context.getApplicationContext();
+
+        cachedExecutor.submit(TaskScheduler.Pool.IO, () -> {
+            boolean saved = modulesConfigCache.get().editItpdConfig(config -> {
+                List<String> itpdConf = config.getLines();
+
+                String line;
+                String head = "";
+                for (int i = 0; i < itpdConf.size(); i++) {
+                    line = itpdConf.get(i);
+                    if (line.matches("\\[.+]"))
+                        head = line.replace("[", "").replace("]", "");
+                    if ((head.equals("httpproxy") || head.equals("socksproxy")) && line.contains("address")) {
+                        if (allowTether) {
+                            line = line.replace(LOOPBACK_ADDRESS, META_ADDRESS);
+                        } else {
+                            line = line.replace(META_ADDRESS, LOOPBACK_ADDRESS);
+                        }
+                        itpdConf.set(i, line);
+                    }
                 }
-                itpdConf.set(i, line);
-            }
-        }
 
-        FileManager.writeToTextFile(context, itpdConfPath, itpdConf, "ignored");
+                config.replaceLines(itpdConf);
+            });
 
-        if (ModulesAux.isITPDSavedStateRunning()) {
-            ModulesRestarter.restartITPD(context);
-            ModulesStatus.getInstance().setIptablesRulesUpdateRequested(context, true);
-        }
+            if (saved && ModulesAux.isITPDSavedStateRunning()) {
+                modulesRestartScheduler.get().scheduleRestart(ITPD_MODULE);
+                ModulesStatus.getInstance().setIptablesRulesUpdateRequested(appContext, true);
+            }
+        });
     }
 
     private void readITPDTunnelsConf(Context context) {
@@ -591,12 +586,6 @@ public class PreferencesCommonFragment extends PreferenceFragmentCompat
         if (fileOperationResult && currentFileOperation == readTextFile) {
             if (lines != null) {
                 switch (tag) {
-                    case SettingsActivity.tor_conf_tag:
-                        allowTorTethering(lines);
-                        break;
-                    case SettingsActivity.itpd_conf_tag:
-                        allowITPDTethering(lines);
-                        break;
                     case SettingsActivity.itpd_tunnels_tag:
                         allowITPDTunnelsTethering(lines);
                         break;
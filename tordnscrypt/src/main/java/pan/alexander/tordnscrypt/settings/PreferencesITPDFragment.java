@@ -22,6 +22,7 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.Handler;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceCategory;
 import androidx.preference.PreferenceFragmentCompat;
@@ -40,14 +41,17 @@ import pan.alexander.tordnscrypt.App;
 import pan.alexander.tordnscrypt.R;
 import pan.alexander.tordnscrypt.modules.ModulesAux;
 import pan.alexander.tordnscrypt.modules.ModulesStatus;
+import pan.alexander.tordnscrypt.utils.configs.ModulesConfigCache;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.filemanager.FileManager;
-import pan.alexander.tordnscrypt.modules.ModulesRestarter;
+import pan.alexander.tordnscrypt.modules.ModulesRestartScheduler;
 
 import static pan.alexander.tordnscrypt.TopFragment.appVersion;
 import static pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG;
 import static pan.alexander.tordnscrypt.utils.enums.ModuleState.STOPPED;
 import static pan.alexander.tordnscrypt.utils.enums.OperationMode.ROOT_MODE;
+import static pan.alexander.tordnscrypt.utils.enums.ModuleName.ITPD_MODULE;
 
 import javax.inject.Inject;
 
@@ -57,6 +61,12 @@ public class PreferencesITPDFragment extends PreferenceFragmentCompat implements
     public Lazy<PathVars> pathVars;
     @Inject
     public CachedExecutor cachedExecutor;
+    @Inject
+    public Lazy<ModulesRestartScheduler> modulesRestartScheduler;
+    @Inject
+    public Lazy<ModulesConfigCache> modulesConfigCache;
+    @Inject
+    public Lazy<Handler> handler;
 
     private ArrayList<String> key_itpd;
     private ArrayList<String> val_itpd;
@@ -238,15 +248,22 @@ public class PreferencesITPDFragment extends PreferenceFragmentCompat implements
 
         if (!isChanged) return;
 
-        FileManager.writeToTextFile(context, appDataDir + "/app_data/i2pd/i2pd.conf", itpd_conf, SettingsActivity.itpd_conf_tag);
+        Context appContext = context.getApplicationContext();
 
-        boolean itpdRunning = ModulesAux.isITPDSavedStateRunning();
+        cachedExecutor.submit(TaskScheduler.Pool.IO, () -> {
+            boolean saved = modulesConfigCache.get().editItpdConfig(config -> config.replaceLines(itpd_conf));
 
-        if (itpdRunning) {
-            ModulesRestarter.restartITPD(context);
-            ModulesStatus.getInstance().setIptablesRulesUpdateRequested(context, true);
-        }
+            if (!saved) {
+                return;
+            }
+
+            handler.get().post(() -> Toast.makeText(appContext, R.string.toastSettings_saved, Toast.LENGTH_SHORT).show());
 
+            if (ModulesAux.isITPDSavedStateRunning()) {
+                modulesRestartScheduler.get().scheduleRestart(ITPD_MODULE);
+                ModulesStatus.getInstance().setIptablesRulesUpdateRequested(appContext, true);
+            }
+        });
 
     }
 
@@ -399,7 +416,7 @@ public class PreferencesITPDFragment extends PreferenceFragmentCompat implements
                 return true;
             }
 
-            cachedExecutor.submit(() -> {
+            cachedExecutor.submit(TaskScheduler.Pool.IO, () -> {
                 boolean successfully = false;
                 if (getActivity() != null) {
                     successfully = FileManager.deleteDirSynchronous(getActivity(), appDataDir + "/i2pd_data");
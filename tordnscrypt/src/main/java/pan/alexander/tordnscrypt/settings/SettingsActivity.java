@@ -51,6 +51,7 @@ import pan.alexander.tordnscrypt.dialogs.SaveFirewallChanges;
 import pan.alexander.tordnscrypt.dialogs.progressDialogs.PleaseWaitProgressDialog;
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceRepository;
 import pan.alexander.tordnscrypt.proxy.ProxyFragment;
+import pan.alexander.tordnscrypt.settings.dnscrypt_servers.ResolversCatalog;
 import pan.alexander.tordnscrypt.settings.dnscrypt_settings.PreferencesDNSFragment;
 import pan.alexander.tordnscrypt.settings.firewall.FirewallFragment;
 import pan.alexander.tordnscrypt.settings.firewall.FirewallPreferencesFragment;
@@ -59,8 +60,9 @@ import pan.alexander.tordnscrypt.settings.show_rules.ShowRulesRecycleFrag;
 import pan.alexander.tordnscrypt.settings.tor_apps.UnlockTorAppsFragment;
 import pan.alexander.tordnscrypt.settings.tor_ips.UnlockTorIpsFragment;
 import pan.alexander.tordnscrypt.settings.tor_preferences.PreferencesTorFragment;
+import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
 import pan.alexander.tordnscrypt.utils.enums.DNSCryptRulesVariant;
-import pan.alexander.tordnscrypt.utils.filemanager.FileManager;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 
 import static pan.alexander.tordnscrypt.settings.tor_ips.UnlockTorIpsFragment.DeviceOrTether.DEVICE;
 import static pan.alexander.tordnscrypt.settings.tor_ips.UnlockTorIpsFragment.DeviceOrTether.TETHER;
@@ -76,12 +78,15 @@ public class SettingsActivity extends LangAppCompatActivity {
     public static final String itpd_conf_tag = "pan.alexander.tordnscrypt/app_data/itpd/itpd.conf";
     public static final String itpd_tunnels_tag = "pan.alexander.tordnscrypt/app_data/itpd/tunnels.conf";
     public static final String public_resolvers_md_tag = "pan.alexander.tordnscrypt/app_data/dnscrypt-proxy/public-resolvers.md";
-    public static final String rules_tag = "pan.alexander.tordnscrypt/app_data/abstract_rules";
 
     @Inject
     public Lazy<PreferenceRepository> preferenceRepository;
     @Inject
     public Lazy<PathVars> pathVars;
+    @Inject
+    public CachedExecutor cachedExecutor;
+    @Inject
+    public Lazy<ResolversCatalog> resolversCatalog;
 
     public DialogFragment dialogFragment;
     public PreferencesTorFragment preferencesTorFragment;
@@ -89,6 +94,7 @@ public class SettingsActivity extends LangAppCompatActivity {
     private PreferencesDNSFragment preferencesDNSFragment;
     private FirewallFragment firewallFragment;
     private UnlockTorAppsFragment unlockTorAppsFragment;
+    private ShowRulesRecycleFrag showRulesRecycleFrag;
     private Fragment currentFragment;
     private boolean showMenu;
 
@@ -117,15 +123,15 @@ public class SettingsActivity extends LangAppCompatActivity {
         if (Objects.equals(intent.getAction(), "DNS_Pref")) {
             dialogFragment = PleaseWaitProgressDialog.getInstance();
             dialogFragment.show(getSupportFragmentManager(), "PleaseWaitProgressDialog");
-            FileManager.readTextFile(this, appDataDir + "/app_data/dnscrypt-proxy/dnscrypt-proxy.toml", dnscrypt_proxy_toml_tag);
+            settingsParser.readModuleConfig(dnscrypt_proxy_toml_tag);
         } else if (Objects.equals(intent.getAction(), "Tor_Pref")) {
             dialogFragment = PleaseWaitProgressDialog.getInstance();
             dialogFragment.show(getSupportFragmentManager(), "PleaseWaitProgressDialog");
-            FileManager.readTextFile(this, appDataDir + "/app_data/tor/tor.conf", tor_conf_tag);
+            settingsParser.readModuleConfig(tor_conf_tag);
         } else if (Objects.equals(intent.getAction(), "I2PD_Pref")) {
             dialogFragment = PleaseWaitProgressDialog.getInstance();
             dialogFragment.show(getSupportFragmentManager(), "PleaseWaitProgressDialog");
-            FileManager.readTextFile(this, appDataDir + "/app_data/i2pd/i2pd.conf", itpd_conf_tag);
+            settingsParser.readModuleConfig(itpd_conf_tag);
         } else if (Objects.equals(intent.getAction(), "fast_Pref")) {
             PreferencesFastFragment preferencesFastFragment = new PreferencesFastFragment();
             fSupportTrans.replace(android.R.id.content, preferencesFastFragment, "fastSettingsFragment");
@@ -139,8 +145,8 @@ public class SettingsActivity extends LangAppCompatActivity {
         } else if (Objects.equals(intent.getAction(), "DNS_servers_Pref")) {
             dialogFragment = PleaseWaitProgressDialog.getInstance();
             dialogFragment.show(getSupportFragmentManager(), "PleaseWaitProgressDialog");
-            FileManager.readTextFile(this, appDataDir + "/app_data/dnscrypt-proxy/dnscrypt-proxy.toml", public_resolvers_md_tag);
-            FileManager.readTextFile(this, appDataDir + "/app_data/dnscrypt-proxy/public-resolvers.md", public_resolvers_md_tag);
+            cachedExecutor.submit(TaskScheduler.Pool.CPU, () -> resolversCatalog.get().preload());
+            settingsParser.readModuleConfig(public_resolvers_md_tag);
         } else if (Objects.equals(intent.getAction(), "open_qery_log")) {
             Bundle bundle = new Bundle();
             String path = appDataDir + "/cache/query.log";
@@ -158,25 +164,15 @@ public class SettingsActivity extends LangAppCompatActivity {
             fSupportTrans.replace(android.R.id.content, frag);
             fSupportTrans.commit();
         } else if (Objects.equals(intent.getAction(), "forwarding_rules_Pref")) {
-            dialogFragment = PleaseWaitProgressDialog.getInstance();
-            dialogFragment.show(getSupportFragmentManager(), "PleaseWaitProgressDialog");
-            FileManager.readTextFile(this, appDataDir + "/app_data/dnscrypt-proxy/forwarding-rules.txt", rules_tag);
+            openRules(fSupportTrans, appDataDir + "/app_data/dnscrypt-proxy/forwarding-rules.txt");
         } else if (Objects.equals(intent.getAction(), "cloaking_rules_Pref")) {
-            dialogFragment = PleaseWaitProgressDialog.getInstance();
-            dialogFragment.show(getSupportFragmentManager(), "PleaseWaitProgressDialog");
-            FileManager.readTextFile(this, appDataDir + "/app_data/dnscrypt-proxy/cloaking-rules.txt", rules_tag);
+            openRules(fSupportTrans, appDataDir + "/app_data/dnscrypt-proxy/cloaking-rules.txt");
         } else if (Objects.equals(intent.getAction(), "blacklist_Pref")) {
-            dialogFragment = PleaseWaitProgressDialog.getInstance();
-            dialogFragment.show(getSupportFragmentManager(), "PleaseWaitProgressDialog");
-            FileManager.readTextFile(this, appDataDir + "/app_data/dnscrypt-proxy/blacklist.txt", rules_tag);
+            openRules(fSupportTrans, appDataDir + "/app_data/dnscrypt-proxy/blacklist.txt");
         } else if (Objects.equals(intent.getAction(), "ipblacklist_Pref")) {
-            dialogFragment = PleaseWaitProgressDialog.getInstance();
-            dialogFragment.show(getSupportFragmentManager(), "PleaseWaitProgressDialog");
-            FileManager.readTextFile(this, appDataDir + "/app_data/dnscrypt-proxy/ip-blacklist.txt", rules_tag);
+            openRules(fSupportTrans, appDataDir + "/app_data/dnscrypt-proxy/ip-blacklist.txt");
         } else if (Objects.equals(intent.getAction(), "whitelist_Pref")) {
-            dialogFragment = PleaseWaitProgressDialog.getInstance();
-            dialogFragment.show(getSupportFragmentManager(), "PleaseWaitProgressDialog");
-            FileManager.readTextFile(this, appDataDir + "/app_data/dnscrypt-proxy/whitelist.txt", rules_tag);
+            openRules(fSupportTrans, appDataDir + "/app_data/dnscrypt-proxy/whitelist.txt");
         } else if (Objects.equals(intent.getAction(), "pref_itpd_addressbook_subscriptions")) {
             SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
             ArrayList<String> rules_file = new ArrayList<>();
@@ -230,6 +226,16 @@ public class SettingsActivity extends LangAppCompatActivity {
 
     }
 
+    //Rules files can be huge, so only the path is passed and the fragment maps the file itself
+    private void openRules(FragmentTransaction fSupportTrans, String path) {
+        Bundle bundle = new Bundle();
+        bundle.putString("path", path);
+        ShowRulesRecycleFrag frag = new ShowRulesRecycleFrag();
+        frag.setArguments(bundle);
+        fSupportTrans.replace(android.R.id.content, frag);
+        fSupportTrans.commit();
+    }
+
     @Override
     public void onResume() {
         super.onResume();
@@ -247,6 +253,10 @@ public class SettingsActivity extends LangAppCompatActivity {
             firewallFragment = (FirewallFragment) fragment;
         } else if (fragment instanceof UnlockTorAppsFragment) {
             unlockTorAppsFragment = (UnlockTorAppsFragment) fragment;
+        } else if (fragment instanceof ShowRulesRecycleFrag) {
+            showRulesRecycleFrag = (ShowRulesRecycleFrag) fragment;
+            //The menu can be prepared before the fragment is attached, the search listener is set again
+            invalidateOptionsMenu();
         }
 
         currentFragment = fragment;
@@ -319,6 +329,7 @@ public class SettingsActivity extends LangAppCompatActivity {
         preferencesDNSFragment = null;
         firewallFragment = null;
         unlockTorAppsFragment = null;
+        showRulesRecycleFrag = null;
         currentFragment = null;
     }
 
@@ -333,7 +344,8 @@ public class SettingsActivity extends LangAppCompatActivity {
 
         if (Objects.equals(action, "firewall")
                 || Objects.equals(action, "tor_apps_unlock")
-                || Objects.equals(action, "proxy_apps_exclude")) {
+                || Objects.equals(action, "proxy_apps_exclude")
+                || isRulesAction(action)) {
             getMenuInflater().inflate(R.menu.settings_menu, menu);
             showMenu = true;
             return true;
@@ -392,12 +404,25 @@ public class SettingsActivity extends LangAppCompatActivity {
                 && unlockTorAppsFragment != null) {
             menuSearchView.setOnQueryTextListener(unlockTorAppsFragment);
 
+            switchItem.setVisible(false);
+        } else if (isRulesAction(action) && showRulesRecycleFrag != null) {
+            menuSearchView.setOnQueryTextListener(showRulesRecycleFrag);
+
             switchItem.setVisible(false);
         }
 
         return super.onPrepareOptionsMenu(menu);
     }
 
+    private boolean isRulesAction(String action) {
+        return Objects.equals(action, "forwarding_rules_Pref")
+                || Objects.equals(action, "cloaking_rules_Pref")
+                || Objects.equals(action, "blacklist_Pref")
+                || Objects.equals(action, "ipblacklist_Pref")
+                || Objects.equals(action, "whitelist_Pref")
+                || Objects.equals(action, "pref_itpd_addressbook_subscriptions");
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         int id = item.getItemId();
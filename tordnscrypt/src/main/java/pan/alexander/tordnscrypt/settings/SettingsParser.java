@@ -33,13 +33,15 @@ import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import pan.alexander.tordnscrypt.App;
 import pan.alexander.tordnscrypt.R;
 import pan.alexander.tordnscrypt.settings.dnscrypt_relays.DNSServerRelays;
 import pan.alexander.tordnscrypt.settings.dnscrypt_servers.PreferencesDNSCryptServers;
 import pan.alexander.tordnscrypt.settings.dnscrypt_settings.PreferencesDNSFragment;
-import pan.alexander.tordnscrypt.settings.show_rules.ShowRulesRecycleFrag;
 import pan.alexander.tordnscrypt.settings.tor_preferences.PreferencesTorFragment;
+import pan.alexander.tordnscrypt.utils.configs.ModulesConfigCache;
 import pan.alexander.tordnscrypt.utils.enums.FileOperationsVariants;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.filemanager.FileManager;
 import pan.alexander.tordnscrypt.utils.filemanager.OnTextFileOperationsCompleteListener;
 
@@ -410,65 +412,31 @@ public class SettingsParser implements OnTextFileOperationsCompleteListener {
         }
     }
 
-    private void readPublicResolversMd(String path, List<String> lines) {
-        StringBuilder sb = new StringBuilder();
-        boolean lockServer = false;
-        boolean lockMD = false;
-        boolean lockTOML = false;
+    private void readDnsCryptServersConfig(List<String> lines) {
         boolean lockRoutes = false;
-        ArrayList<String> dnsServerNames = new ArrayList<>();
-        ArrayList<String> dnsServerDescr = new ArrayList<>();
-        ArrayList<String> dnsServerSDNS = new ArrayList<>();
         ArrayList<String> dnscrypt_proxy_toml = new ArrayList<>();
         ArrayList<String> dnscrypt_servers = new ArrayList<>();
         ArrayList<DNSServerRelays> routes = new ArrayList<>();
 
         if (lines != null) {
             for (String line : lines) {
-
-                if (path.contains("public-resolvers.md")) {
-                    lockMD = true;
-                    lockTOML = false;
-                }
-                if (path.contains("dnscrypt-proxy.toml")) {
-                    lockMD = false;
-                    lockTOML = true;
-                }
-
-                if ((line.contains("##") || lockServer) && lockMD && !line.trim().isEmpty()) {
-                    lockServer = fillDNSServersLists(line, dnsServerNames, dnsServerDescr, dnsServerSDNS, sb, lockServer);
-                }
-
-                if (lockTOML && !line.isEmpty()) {
+                if (!line.isEmpty()) {
                     dnscrypt_proxy_toml.add(line);
                     lockRoutes = parseCurrentDNSServersAndRoutes(line, dnscrypt_servers, routes, lockRoutes);
                 }
-
             }
 
-            checkEqualsServerNames(dnsServerNames);
-
-            openDNSServersFragmentIfDataReady(dnsServerNames, dnsServerDescr, dnsServerSDNS, dnscrypt_proxy_toml, dnscrypt_servers, routes);
-
+            openDNSServersFragmentIfDataReady(dnscrypt_proxy_toml, dnscrypt_servers, routes);
         }
     }
 
-    private void openDNSServersFragmentIfDataReady(ArrayList<String> dnsServerNames,
-                                                      ArrayList<String> dnsServerDescr,
-                                                      ArrayList<String> dnsServerSDNS,
-                                                      ArrayList<String> dnscrypt_proxy_toml,
-                                                      ArrayList<String> dnscrypt_servers,
-                                                      ArrayList<DNSServerRelays> routes) {
+    private void openDNSServersFragmentIfDataReady(ArrayList<String> dnscrypt_proxy_toml,
+                                                   ArrayList<String> dnscrypt_servers,
+                                                   ArrayList<DNSServerRelays> routes) {
         if (bundleForReadPublicResolversMdFunction == null) {
             bundleForReadPublicResolversMdFunction = new Bundle();
         }
 
-        if (!dnsServerNames.isEmpty())
-            bundleForReadPublicResolversMdFunction.putStringArrayList("dnsServerNames", dnsServerNames);
-        if (!dnsServerDescr.isEmpty())
-            bundleForReadPublicResolversMdFunction.putStringArrayList("dnsServerDescr", dnsServerDescr);
-        if (!dnsServerSDNS.isEmpty())
-            bundleForReadPublicResolversMdFunction.putStringArrayList("dnsServerSDNS", dnsServerSDNS);
         if (!dnscrypt_proxy_toml.isEmpty())
             bundleForReadPublicResolversMdFunction.putStringArrayList("dnscrypt_proxy_toml", dnscrypt_proxy_toml);
         if (!dnscrypt_servers.isEmpty())
@@ -476,10 +444,7 @@ public class SettingsParser implements OnTextFileOperationsCompleteListener {
         if (!routes.isEmpty())
             bundleForReadPublicResolversMdFunction.putSerializable("routes", routes);
 
-        if (bundleForReadPublicResolversMdFunction.get("dnsServerNames") != null
-                && bundleForReadPublicResolversMdFunction.get("dnsServerDescr") != null
-                && bundleForReadPublicResolversMdFunction.get("dnsServerSDNS") != null
-                && bundleForReadPublicResolversMdFunction.get("dnscrypt_proxy_toml") != null
+        if (bundleForReadPublicResolversMdFunction.get("dnscrypt_proxy_toml") != null
                 && bundleForReadPublicResolversMdFunction.get("dnscrypt_servers") != null) {
             PreferencesDNSCryptServers frag = new PreferencesDNSCryptServers();
             frag.setArguments(bundleForReadPublicResolversMdFunction);
@@ -529,58 +494,41 @@ public class SettingsParser implements OnTextFileOperationsCompleteListener {
         return lockRoutes;
     }
 
-    private boolean fillDNSServersLists(String line,
-                                        ArrayList<String> dnsServerNames,
-                                        ArrayList<String> dnsServerDescr,
-                                        ArrayList<String> dnsServerSDNS,
-                                        StringBuilder sb, boolean lockServer) {
-        if (line.contains("##")) {
-            lockServer = true;
-            dnsServerNames.add(line.substring(2).replaceAll("\\s+", "").trim());
-        } else if (line.contains("sdns")) {
-            dnsServerSDNS.add(line.replace("sdns://", "").trim());
-            lockServer = false;
-            dnsServerDescr.add(sb.toString().replaceAll("\\s", " "));
-            sb.setLength(0);
-        } else if (!line.contains("##") || lockServer) {
-            sb.append(line).append((char) 10);
-        }
-
-        return lockServer;
+    public void activateSettingsParser() {
+        FileManager.setOnFileOperationCompleteListener(this);
     }
 
-    private void checkEqualsServerNames(ArrayList<String> dnsServerNames) {
-        if (!dnsServerNames.isEmpty()) {
-            for (int i = 0; i < dnsServerNames.size(); i++) {
-                for (int j = 0; j < dnsServerNames.size(); j++) {
-                    String dnsServerName = dnsServerNames.get(i);
-                    if (dnsServerName.equals(dnsServerNames.get(j)) && j != i) {
-                        dnsServerNames.set(j, dnsServerName + "_repeat_server" + j);
-                    }
-                }
+    //Modules configs are taken from the cache shared with modules starters and proxy helpers
+    public void readModuleConfig(String tag) {
+        App.getInstance().getDaggerComponent().getCachedExecutor().submit(TaskScheduler.Pool.IO, () -> {
+            ModulesConfigCache configCache = App.getInstance().getDaggerComponent()
+                    .getModulesConfigCache().get();
+
+            List<String> lines;
+            switch (tag) {
+                case SettingsActivity.dnscrypt_proxy_toml_tag:
+                case SettingsActivity.public_resolvers_md_tag:
+                    lines = configCache.getDnsCryptConfig().getLines();
+                    break;
+                case SettingsActivity.tor_conf_tag:
+                    lines = configCache.getTorConfig().getLines();
+                    break;
+                case SettingsActivity.itpd_conf_tag:
+                    lines = configCache.getItpdConfig().getLines();
+                    break;
+                default:
+                    Log.w(LOG_TAG, "SettingsParser readModuleConfig unknown tag " + tag);
+                    return;
             }
-        }
-    }
 
-    private void readRules(String path, List<String> lines) {
-        ArrayList<String> rules_file = new ArrayList<>();
-        if (lines != null) {
-            rules_file.addAll(lines);
-        } else {
-            rules_file.add("");
-        }
-        FragmentTransaction fTrans = settingsActivity.getSupportFragmentManager().beginTransaction();
-        Bundle bundle = new Bundle();
-        bundle.putStringArrayList("rules_file", rules_file);
-        bundle.putString("path", path);
-        ShowRulesRecycleFrag frag = new ShowRulesRecycleFrag();
-        frag.setArguments(bundle);
-        fTrans.replace(android.R.id.content, frag);
-        fTrans.commit();
-    }
+            settingsActivity.runOnUiThread(() -> {
+                dismissDialog();
 
-    public void activateSettingsParser() {
-        FileManager.setOnFileOperationCompleteListener(this);
+                if (!lines.isEmpty()) {
+                    parseConfig(tag, lines);
+                }
+            });
+        });
     }
 
     public void deactivateSettingsParser() {
@@ -598,39 +546,37 @@ public class SettingsParser implements OnTextFileOperationsCompleteListener {
             return;
         }
 
-        DialogFragment dialogFragment = settingsActivity.dialogFragment;
-        if (dialogFragment != null) {
-            dialogFragment.dismiss();
-        }
+        dismissDialog();
 
         if (fileOperationResult && currentFileOperation == readTextFile) {
-            settingsActivity.runOnUiThread(() -> {
-                switch (tag) {
-                    case SettingsActivity.dnscrypt_proxy_toml_tag:
-                        readDnscryptProxyToml(lines);
-                        break;
-                    case SettingsActivity.tor_conf_tag:
-                        readTorConf(lines);
-                        break;
-                    case SettingsActivity.itpd_conf_tag:
-                        readITPDconf(lines);
-                        break;
-                    case SettingsActivity.public_resolvers_md_tag:
-                        readPublicResolversMd(path, lines);
-                        break;
-                    case SettingsActivity.rules_tag:
-                        readRules(path, lines);
-                        break;
-                }
+            settingsActivity.runOnUiThread(() -> parseConfig(tag, lines));
 
-            });
-
-        } else if (!fileOperationResult && currentFileOperation == readTextFile) {
-            if (tag.equals(SettingsActivity.rules_tag)) {
-                readRules(path, lines);
-            }
         } else if (fileOperationResult && currentFileOperation == writeToTextFile) {
             settingsActivity.runOnUiThread(() -> Toast.makeText(settingsActivity, settingsActivity.getText(R.string.toastSettings_saved), Toast.LENGTH_SHORT).show());
         }
     }
+
+    private void parseConfig(String tag, List<String> lines) {
+        switch (tag) {
+            case SettingsActivity.dnscrypt_proxy_toml_tag:
+                readDnscryptProxyToml(lines);
+                break;
+            case SettingsActivity.tor_conf_tag:
+                readTorConf(lines);
+                break;
+            case SettingsActivity.itpd_conf_tag:
+                readITPDconf(lines);
+                break;
+            case SettingsActivity.public_resolvers_md_tag:
+                readDnsCryptServersConfig(lines);
+                break;
+        }
+    }
+
+    private void dismissDialog() {
+        DialogFragment dialogFragment = settingsActivity.dialogFragment;
+        if (dialogFragment != null) {
+            dialogFragment.dismiss();
+        }
+    }
 }
@@ -20,16 +20,18 @@ package pan.alexander.tordnscrypt.settings.dnscrypt_servers;
 */
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.util.Base64;
 
 import androidx.annotation.NonNull;
-import androidx.preference.PreferenceManager;
 
 import java.util.ArrayList;
 import java.util.Objects;
 
-import pan.alexander.tordnscrypt.R;
+import static pan.alexander.tordnscrypt.settings.dnscrypt_servers.ResolversIndex.FLAG_DNSCRYPT;
+import static pan.alexander.tordnscrypt.settings.dnscrypt_servers.ResolversIndex.FLAG_DNSSEC;
+import static pan.alexander.tordnscrypt.settings.dnscrypt_servers.ResolversIndex.FLAG_DOH;
+import static pan.alexander.tordnscrypt.settings.dnscrypt_servers.ResolversIndex.FLAG_IPV6;
+import static pan.alexander.tordnscrypt.settings.dnscrypt_servers.ResolversIndex.FLAG_NOFILTER;
+import static pan.alexander.tordnscrypt.settings.dnscrypt_servers.ResolversIndex.FLAG_NOLOG;
 
 public class DNSServerItem implements Comparable<DNSServerItem> {
     private boolean checked = false;
@@ -44,70 +46,26 @@ public class DNSServerItem implements Comparable<DNSServerItem> {
     private final String description;
     private final String sdns;
     private boolean ownServer = false;
+    private int catalogIndex = -1;
     private final ArrayList<String> routes = new ArrayList<>();
 
     public DNSServerItem(Context context, String name, String description, String sdns) throws Exception {
+        this(name, description, sdns, ResolversIndex.decodeFlags(name, sdns));
+
+        this.visibility = DNSServersFilter.fromPreferences(context).isVisible(getFlags());
+    }
+
+    DNSServerItem(String name, String description, String sdns, int flags) {
         this.name = name;
         this.description = description;
         this.sdns = sdns;
 
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        boolean require_dnssec = sp.getBoolean("require_dnssec", false);
-        boolean require_nofilter = sp.getBoolean("require_nofilter", false);
-        boolean require_nolog = sp.getBoolean("require_nolog", false);
-        boolean use_dns_servers = sp.getBoolean("dnscrypt_servers", true);
-        boolean use_doh_servers = sp.getBoolean("doh_servers", true);
-        boolean use_ipv4_servers = sp.getBoolean("ipv4_servers", true);
-        boolean use_ipv6_servers = sp.getBoolean("ipv6_servers", false);
-
-        if (context.getText(R.string.package_name).toString().contains(".gp")) {
-            require_nofilter = true;
-        }
-
-        byte[] bin = Base64.decode(sdns.substring(0, 7).getBytes(), 16);
-        if (bin[0] == 0x01) {
-            protoDNSCrypt = true;
-        } else if (bin[0] == 0x02) {
-            protoDoH = true;
-        } else {
-            throw new Exception("Wrong sever type");
-        }
-
-        if (((bin[1]) & 1) == 1) {
-            this.dnssec = true;
-        }
-        if (((bin[1] >> 1) & 1) == 1) {
-            this.nolog = true;
-        }
-        if (((bin[1] >> 2) & 1) == 1) {
-            this.nofilter = true;
-        }
-
-        if (name.contains("v6") || name.contains("ip6")) {
-            ipv6 = true;
-        }
-
-        if (require_dnssec)
-            this.visibility = this.dnssec;
-
-        if (require_nofilter)
-            this.visibility = this.visibility && this.nofilter;
-
-        if (require_nolog)
-            this.visibility = this.visibility && this.nolog;
-
-        if (!use_dns_servers)
-            this.visibility = this.visibility && !this.protoDNSCrypt;
-
-        if (!use_doh_servers)
-            this.visibility = this.visibility && !this.protoDoH;
-
-        if (!use_ipv4_servers)
-            this.visibility = this.visibility && ipv6;
-
-        if (!use_ipv6_servers)
-            this.visibility = this.visibility && !ipv6;
+        protoDNSCrypt = (flags & FLAG_DNSCRYPT) != 0;
+        protoDoH = (flags & FLAG_DOH) != 0;
+        dnssec = (flags & FLAG_DNSSEC) != 0;
+        nolog = (flags & FLAG_NOLOG) != 0;
+        nofilter = (flags & FLAG_NOFILTER) != 0;
+        ipv6 = (flags & FLAG_IPV6) != 0;
     }
 
     public boolean isChecked() {
@@ -166,6 +124,24 @@ public class DNSServerItem implements Comparable<DNSServerItem> {
         return sdns;
     }
 
+    void setCatalogIndex(int catalogIndex) {
+        this.catalogIndex = catalogIndex;
+    }
+
+    //Position in the resolvers catalog, -1 for own servers
+    int getCatalogIndex() {
+        return catalogIndex;
+    }
+
+    private int getFlags() {
+        return (protoDNSCrypt ? FLAG_DNSCRYPT : 0)
+                | (protoDoH ? FLAG_DOH : 0)
+                | (dnssec ? FLAG_DNSSEC : 0)
+                | (nolog ? FLAG_NOLOG : 0)
+                | (nofilter ? FLAG_NOFILTER : 0)
+                | (ipv6 ? FLAG_IPV6 : 0);
+    }
+
     ArrayList<String> getRoutes() {
         return routes;
     }
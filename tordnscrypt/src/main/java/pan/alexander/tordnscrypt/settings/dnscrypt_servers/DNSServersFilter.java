@@ -0,0 +1,102 @@
+package pan.alexander.tordnscrypt.settings.dnscrypt_servers;
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.preference.PreferenceManager;
+
+import pan.alexander.tordnscrypt.R;
+
+import static pan.alexander.tordnscrypt.settings.dnscrypt_servers.ResolversIndex.FLAG_DNSCRYPT;
+import static pan.alexander.tordnscrypt.settings.dnscrypt_servers.ResolversIndex.FLAG_DNSSEC;
+import static pan.alexander.tordnscrypt.settings.dnscrypt_servers.ResolversIndex.FLAG_DOH;
+import static pan.alexander.tordnscrypt.settings.dnscrypt_servers.ResolversIndex.FLAG_IPV6;
+import static pan.alexander.tordnscrypt.settings.dnscrypt_servers.ResolversIndex.FLAG_NOFILTER;
+import static pan.alexander.tordnscrypt.settings.dnscrypt_servers.ResolversIndex.FLAG_NOLOG;
+
+class DNSServersFilter {
+    final boolean requireDnssec;
+    final boolean requireNofilter;
+    final boolean requireNolog;
+    final boolean useDnsCryptServers;
+    final boolean useDohServers;
+    final boolean useIpv4Servers;
+    final boolean useIpv6Servers;
+
+    private DNSServersFilter(boolean requireDnssec, boolean requireNofilter, boolean requireNolog,
+                             boolean useDnsCryptServers, boolean useDohServers,
+                             boolean useIpv4Servers, boolean useIpv6Servers) {
+        this.requireDnssec = requireDnssec;
+        this.requireNofilter = requireNofilter;
+        this.requireNolog = requireNolog;
+        this.useDnsCryptServers = useDnsCryptServers;
+        this.useDohServers = useDohServers;
+        this.useIpv4Servers = useIpv4Servers;
+        this.useIpv6Servers = useIpv6Servers;
+    }
+
+    static DNSServersFilter fromPreferences(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+
+        boolean require_nofilter = sp.getBoolean("require_nofilter", false);
+        if (context.getText(R.string.package_name).toString().contains(".gp")) {
+            require_nofilter = true;
+        }
+
+        return new DNSServersFilter(
+                sp.getBoolean("require_dnssec", false),
+                require_nofilter,
+                sp.getBoolean("require_nolog", false),
+                sp.getBoolean("dnscrypt_servers", true),
+                sp.getBoolean("doh_servers", true),
+                sp.getBoolean("ipv4_servers", true),
+                sp.getBoolean("ipv6_servers", false)
+        );
+    }
+
+    boolean isVisible(int flags) {
+        boolean visibility = true;
+
+        if (requireDnssec)
+            visibility = (flags & FLAG_DNSSEC) != 0;
+
+        if (requireNofilter)
+            visibility = visibility && (flags & FLAG_NOFILTER) != 0;
+
+        if (requireNolog)
+            visibility = visibility && (flags & FLAG_NOLOG) != 0;
+
+        if (!useDnsCryptServers)
+            visibility = visibility && (flags & FLAG_DNSCRYPT) == 0;
+
+        if (!useDohServers)
+            visibility = visibility && (flags & FLAG_DOH) == 0;
+
+        if (!useIpv4Servers)
+            visibility = visibility && (flags & FLAG_IPV6) != 0;
+
+        if (!useIpv6Servers)
+            visibility = visibility && (flags & FLAG_IPV6) == 0;
+
+        return visibility;
+    }
+}
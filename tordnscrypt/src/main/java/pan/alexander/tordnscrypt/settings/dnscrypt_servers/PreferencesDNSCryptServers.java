@@ -23,6 +23,7 @@ import android.content.Context;
 import android.content.res.Configuration;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.Parcelable;
 import android.util.Log;
 import android.view.Gravity;
@@ -44,6 +45,7 @@ import androidx.recyclerview.widget.RecyclerView;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -51,16 +53,17 @@ import java.util.concurrent.CopyOnWriteArrayList;
 import dagger.Lazy;
 import pan.alexander.tordnscrypt.App;
 import pan.alexander.tordnscrypt.R;
-import pan.alexander.tordnscrypt.settings.SettingsActivity;
 import pan.alexander.tordnscrypt.dialogs.AddDNSCryptServerDialogFragment;
 import pan.alexander.tordnscrypt.dialogs.NotificationHelper;
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceRepository;
 import pan.alexander.tordnscrypt.modules.ModulesAux;
-import pan.alexander.tordnscrypt.modules.ModulesRestarter;
+import pan.alexander.tordnscrypt.modules.ModulesRestartScheduler;
 import pan.alexander.tordnscrypt.settings.PathVars;
 import pan.alexander.tordnscrypt.settings.dnscrypt_relays.DNSServerRelays;
 import pan.alexander.tordnscrypt.settings.dnscrypt_relays.PreferencesDNSCryptRelays;
+import pan.alexander.tordnscrypt.utils.configs.ModulesConfigCache;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.integrity.Verifier;
 import pan.alexander.tordnscrypt.utils.enums.FileOperationsVariants;
 import pan.alexander.tordnscrypt.utils.filemanager.FileManager;
@@ -69,6 +72,7 @@ import pan.alexander.tordnscrypt.utils.filemanager.OnTextFileOperationsCompleteL
 import static pan.alexander.tordnscrypt.TopFragment.TOP_BROADCAST;
 import static pan.alexander.tordnscrypt.TopFragment.wrongSign;
 import static pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG;
+import static pan.alexander.tordnscrypt.utils.enums.ModuleName.DNSCRYPT_MODULE;
 
 import javax.inject.Inject;
 
@@ -82,11 +86,17 @@ public class PreferencesDNSCryptServers extends Fragment implements View.OnClick
     public Lazy<PathVars> pathVars;
     @Inject
     public CachedExecutor cachedExecutor;
+    @Inject
+    public Lazy<ModulesRestartScheduler> modulesRestartScheduler;
+    @Inject
+    public Lazy<ResolversCatalog> resolversCatalog;
+    @Inject
+    public Lazy<ModulesConfigCache> modulesConfigCache;
+    @Inject
+    public Lazy<Handler> handler;
 
     private RecyclerView.Adapter<DNSServersAdapter.DNSServersViewHolder> dNSServersAdapter;
-    private ArrayList<String> dnsServerNames;
-    private ArrayList<String> dnsServerDescr;
-    private ArrayList<String> dnsServerSDNS;
+    private ResolversIndex resolvers;
     private ArrayList<String> dnscrypt_proxy_toml;
     private CopyOnWriteArrayList<String> dnscrypt_servers_current;
     private CopyOnWriteArrayList<DNSServerRelays> routes_current;
@@ -100,6 +110,7 @@ public class PreferencesDNSCryptServers extends Fragment implements View.OnClick
     private SearchView searchDNSServer;
     private String searchQuery = "";
     private Parcelable rvViewState;
+    private volatile boolean dnsServersLoaded;
 
 
     public PreferencesDNSCryptServers() {
@@ -121,7 +132,7 @@ public class PreferencesDNSCryptServers extends Fragment implements View.OnClick
 
         takeArguments();
 
-        cachedExecutor.submit(() -> {
+        cachedExecutor.submit(TaskScheduler.Pool.CPU, () -> {
             try {
                 Verifier verifier = new Verifier(context);
                 String appSign = verifier.getApkSignatureZip();
@@ -181,10 +192,14 @@ public class PreferencesDNSCryptServers extends Fragment implements View.OnClick
 
         FileManager.setOnFileOperationCompleteListener(this);
 
-        fillDNSServersList(activity);
+        list_dns_servers = new CopyOnWriteArrayList<>();
+        list_dns_servers_saved = new CopyOnWriteArrayList<>();
+        dnsServersLoaded = false;
 
         createAndFillRecyclerView(activity);
 
+        fillDNSServersList(activity);
+
         readOwnServers(activity);
     }
 
@@ -229,6 +244,11 @@ public class PreferencesDNSCryptServers extends Fragment implements View.OnClick
             return;
         }
 
+        //Servers are not loaded yet, saving now would lose the selected catalog servers
+        if (!dnsServersLoaded) {
+            return;
+        }
+
         if (list_dns_servers.size() == 0 && list_dns_servers_saved.size() == 0) {
             return;
         }
@@ -253,7 +273,6 @@ public class PreferencesDNSCryptServers extends Fragment implements View.OnClick
 
         if (isChanges) {
             saveLinesToTomlFile(context);
-            restartDNSCryptIfRunning(context);
         }
     }
 
@@ -265,10 +284,6 @@ public class PreferencesDNSCryptServers extends Fragment implements View.OnClick
     @SuppressWarnings("unchecked")
     private void takeArguments() {
         if (getArguments() != null) {
-            dnsServerNames = getArguments().getStringArrayList("dnsServerNames");
-            dnsServerDescr = getArguments().getStringArrayList("dnsServerDescr");
-            dnsServerSDNS = getArguments().getStringArrayList("dnsServerSDNS");
-
             if (dnscrypt_proxy_toml == null) {
                 dnscrypt_proxy_toml = getArguments().getStringArrayList("dnscrypt_proxy_toml");
             }
@@ -291,34 +306,52 @@ public class PreferencesDNSCryptServers extends Fragment implements View.OnClick
         }
     }
 
-    private void fillDNSServersList(Context context) {
+    private void fillDNSServersList(Activity activity) {
 
-        list_dns_servers = new CopyOnWriteArrayList<>();
+        Context context = activity.getApplicationContext();
+        CopyOnWriteArrayList<DNSServerItem> savedServers = list_dns_servers_saved;
 
-        for (int i = 0; i < dnsServerNames.size(); i++) {
+        //The resolvers catalog may be parsed on the first access, so keep it off the main thread
+        cachedExecutor.submit(TaskScheduler.Pool.CPU, () -> {
             try {
-                DNSServerItem dnsServer = new DNSServerItem(context, dnsServerNames.get(i), dnsServerDescr.get(i), dnsServerSDNS.get(i));
-                setDnsServerChecked(dnsServer);
-                setRoutes(dnsServer);
+                ResolversIndex resolversIndex = resolversCatalog.get().getResolvers();
+                BitSet visibleServers = resolversIndex.filter(DNSServersFilter.fromPreferences(context));
+
+                ArrayList<DNSServerItem> dnsServers = new ArrayList<>();
+                for (int i = visibleServers.nextSetBit(0); i >= 0; i = visibleServers.nextSetBit(i + 1)) {
+                    DNSServerItem dnsServer = new DNSServerItem(resolversIndex.getName(i),
+                            resolversIndex.getDescription(i), resolversIndex.getSdns(i), resolversIndex.getFlags(i));
+                    dnsServer.setCatalogIndex(i);
+                    setDnsServerChecked(dnsServer);
+                    setRoutes(dnsServer);
+
+                    dnsServers.add(dnsServer);
+                }
 
-                if (dnsServer.isVisibility() && !dnsServerNames.get(i).contains("repeat_server"))
-                    list_dns_servers.add(dnsServer);
-            } catch (Exception e) {
-                Log.w(LOG_TAG, "Trying to add wrong DNSCrypt server " + e.getMessage() + " "
-                        + dnsServerNames.get(i) + " " + dnsServerDescr.get(i)
-                        + " " + dnsServerSDNS);
-            }
+                Collections.sort(dnsServers);
 
-        }
+                activity.runOnUiThread(() -> {
+                    //The fragment was restarted in the meantime and is loading the list again
+                    if (!isAdded() || savedServers != list_dns_servers_saved) {
+                        return;
+                    }
 
-        if (list_dns_servers.size() > 1) {
-            ArrayList<DNSServerItem> tmpList = new ArrayList<>(list_dns_servers);
-            Collections.sort(tmpList);
-            list_dns_servers.clear();
-            list_dns_servers.addAll(tmpList);
-        }
+                    resolvers = resolversIndex;
+                    //Own servers may be read already, they stay on top
+                    list_dns_servers_saved.addAll(dnsServers);
+                    dnsServersLoaded = true;
+
+                    searchServer(searchQuery);
 
-        list_dns_servers_saved = new CopyOnWriteArrayList<>(list_dns_servers);
+                    if (rvDNSServers.getLayoutManager() != null) {
+                        rvDNSServers.getLayoutManager().onRestoreInstanceState(rvViewState);
+                    }
+                });
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "PreferencesDNSCryptServers fillDNSServersList exception "
+                        + e.getMessage() + " " + e.getCause());
+            }
+        });
     }
 
     private void readOwnServers(Context context) {
@@ -363,10 +396,6 @@ public class PreferencesDNSCryptServers extends Fragment implements View.OnClick
             Log.e(LOG_TAG, "PreferencesDNSCryptServers setAdapter Exception " + e.getMessage());
         }
 
-        if (rvDNSServers.getLayoutManager() != null) {
-            rvDNSServers.getLayoutManager().onRestoreInstanceState(rvViewState);
-        }
-
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             rvDNSServers.setOnScrollChangeListener((v, scrollX, scrollY, oldScrollX, oldScrollY) -> {
                 if (scrollY > oldScrollY) {
@@ -547,17 +576,28 @@ public class PreferencesDNSCryptServers extends Fragment implements View.OnClick
     }
 
     private void saveLinesToTomlFile(Context context) {
-        FileManager.writeToTextFile(context, appDataDir
-                        + "/app_data/dnscrypt-proxy/dnscrypt-proxy.toml", dnscrypt_proxy_toml,
-                SettingsActivity.public_resolvers_md_tag);
+        Context appContext = context.getApplicationContext();
+        List<String> lines = new ArrayList<>(dnscrypt_proxy_toml);
+
+        cachedExecutor.submit(TaskScheduler.Pool.IO, () -> {
+            boolean saved = modulesConfigCache.get().editDnsCryptConfig(config -> config.replaceLines(lines));
+
+            if (!saved) {
+                return;
+            }
+
+            handler.get().post(() -> Toast.makeText(appContext, R.string.toastSettings_saved, Toast.LENGTH_SHORT).show());
+
+            restartDNSCryptIfRunning();
+        });
     }
 
-    private void restartDNSCryptIfRunning(Context context) {
+    private void restartDNSCryptIfRunning() {
 
         boolean dnsCryptRunning = ModulesAux.isDnsCryptSavedStateRunning();
 
         if (dnsCryptRunning) {
-            ModulesRestarter.restartDNSCrypt(context);
+            modulesRestartScheduler.get().scheduleRestart(DNSCRYPT_MODULE);
         }
     }
 
@@ -713,8 +753,14 @@ public class PreferencesDNSCryptServers extends Fragment implements View.OnClick
 
         list_dns_servers.clear();
 
+        BitSet catalogMatches = resolvers != null ? resolvers.search(searchText) : new BitSet();
+
         for (DNSServerItem dnsServerItem : list_dns_servers_saved) {
-            if (dnsServerItem.getName().toLowerCase().contains(searchText.toLowerCase())
+            if (dnsServerItem.getCatalogIndex() >= 0) {
+                if (catalogMatches.get(dnsServerItem.getCatalogIndex())) {
+                    list_dns_servers.add(dnsServerItem);
+                }
+            } else if (dnsServerItem.getName().toLowerCase().contains(searchText.toLowerCase())
                     || dnsServerItem.getDescription().toLowerCase().contains(searchText.toLowerCase())
                     || (dnsServerItem.isProtoDNSCrypt() && searchText.toLowerCase().contains("dnscrypt server"))
                     || (dnsServerItem.isProtoDoH() && searchText.toLowerCase().contains("doh server"))
@@ -0,0 +1,220 @@
+package pan.alexander.tordnscrypt.settings.dnscrypt_servers;
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import dagger.Lazy;
+import pan.alexander.tordnscrypt.settings.PathVars;
+import pan.alexander.tordnscrypt.utils.filemanager.FileManager;
+
+import static pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG;
+
+/**
+ * Parses public-resolvers.md once and keeps the result in memory and in a compact binary file,
+ * so the DNSCrypt servers list opens without parsing the markdown again.
+ * Both are invalidated when the resolvers file modification time or size changes.
+ */
+@Singleton
+public class ResolversCatalog {
+    private static final String CATALOG_FILE_NAME = "public-resolvers.bin";
+    private static final int CATALOG_MAGIC = 0x52534C56;
+    private static final int CATALOG_VERSION = 1;
+
+    private final Context context;
+    private final Lazy<PathVars> pathVars;
+
+    private ResolversIndex resolvers;
+    private long sourceModified;
+    private long sourceLength;
+
+    @Inject
+    public ResolversCatalog(Context context, Lazy<PathVars> pathVars) {
+        this.context = context;
+        this.pathVars = pathVars;
+    }
+
+    synchronized ResolversIndex getResolvers() {
+        File source = new File(pathVars.get().getAppDataDir() + "/app_data/dnscrypt-proxy/public-resolvers.md");
+        long modified = source.lastModified();
+        long length = source.length();
+
+        if (resolvers != null && modified == sourceModified && length == sourceLength) {
+            return resolvers;
+        }
+
+        File catalog = new File(context.getCacheDir(), CATALOG_FILE_NAME);
+
+        ResolversIndex index = readCatalog(catalog, modified, length);
+        if (index == null) {
+            index = parseResolvers(FileManager.readTextFileSynchronous(context, source.getPath()));
+            writeCatalog(catalog, index, modified, length);
+        }
+
+        resolvers = index;
+        sourceModified = modified;
+        sourceLength = length;
+
+        return index;
+    }
+
+    /**
+     * Loads the catalog in advance, should be called from a background thread.
+     */
+    public void preload() {
+        getResolvers();
+    }
+
+    private ResolversIndex parseResolvers(List<String> lines) {
+        List<String> names = new ArrayList<>();
+        List<String> descriptions = new ArrayList<>();
+        List<String> stamps = new ArrayList<>();
+        List<Integer> flags = new ArrayList<>();
+        Set<String> uniqueNames = new HashSet<>();
+
+        boolean lockServer = false;
+        String name = "";
+        StringBuilder sb = new StringBuilder();
+
+        for (String line : lines) {
+            if ((!line.contains("##") && !lockServer) || line.trim().isEmpty()) {
+                continue;
+            }
+
+            if (line.contains("##")) {
+                lockServer = true;
+                name = line.substring(2).replaceAll("\\s+", "").trim();
+            } else if (line.contains("sdns")) {
+                String sdns = line.replace("sdns://", "").trim();
+                String description = sb.toString().replaceAll("\\s", " ");
+                lockServer = false;
+                sb.setLength(0);
+
+                if (!uniqueNames.add(name)) {
+                    continue;
+                }
+
+                try {
+                    flags.add(ResolversIndex.decodeFlags(name, sdns));
+                    names.add(name);
+                    descriptions.add(description);
+                    stamps.add(sdns);
+                } catch (Exception e) {
+                    Log.w(LOG_TAG, "Trying to add wrong DNSCrypt server " + e.getMessage() + " "
+                            + name + " " + description + " " + sdns);
+                }
+            } else {
+                sb.append(line).append((char) 10);
+            }
+        }
+
+        int[] flagsArray = new int[flags.size()];
+        for (int i = 0; i < flagsArray.length; i++) {
+            flagsArray[i] = flags.get(i);
+        }
+
+        return new ResolversIndex(
+                names.toArray(new String[0]),
+                descriptions.toArray(new String[0]),
+                stamps.toArray(new String[0]),
+                flagsArray
+        );
+    }
+
+    private ResolversIndex readCatalog(File catalog, long modified, long length) {
+        if (!catalog.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(catalog)))) {
+            if (input.readInt() != CATALOG_MAGIC
+                    || input.readInt() != CATALOG_VERSION
+                    || input.readLong() != modified
+                    || input.readLong() != length) {
+                return null;
+            }
+
+            int size = input.readInt();
+            String[] names = new String[size];
+            String[] descriptions = new String[size];
+            String[] stamps = new String[size];
+            int[] flags = new int[size];
+
+            for (int i = 0; i < size; i++) {
+                names[i] = input.readUTF();
+                descriptions[i] = input.readUTF();
+                stamps[i] = input.readUTF();
+                flags[i] = input.readByte();
+            }
+
+            return new ResolversIndex(names, descriptions, stamps, flags);
+        } catch (Exception e) {
+            Log.w(LOG_TAG, "ResolversCatalog readCatalog " + e.getMessage() + " " + e.getCause());
+            return null;
+        }
+    }
+
+    private void writeCatalog(File catalog, ResolversIndex index, long modified, long length) {
+        if (index.size() == 0) {
+            return;
+        }
+
+        File tempFile = new File(catalog.getPath() + ".tmp");
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            output.writeInt(CATALOG_MAGIC);
+            output.writeInt(CATALOG_VERSION);
+            output.writeLong(modified);
+            output.writeLong(length);
+            output.writeInt(index.size());
+
+            for (int i = 0; i < index.size(); i++) {
+                output.writeUTF(index.getName(i));
+                output.writeUTF(index.getDescription(i));
+                output.writeUTF(index.getSdns(i));
+                output.writeByte(index.getFlags(i));
+            }
+        } catch (Exception e) {
+            Log.w(LOG_TAG, "ResolversCatalog writeCatalog " + e.getMessage() + " " + e.getCause());
+            tempFile.delete();
+            return;
+        }
+
+        if (!tempFile.renameTo(catalog)) {
+            tempFile.delete();
+        }
+    }
+}
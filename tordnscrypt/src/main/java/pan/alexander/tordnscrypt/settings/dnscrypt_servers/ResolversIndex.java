@@ -0,0 +1,256 @@
+package pan.alexander.tordnscrypt.settings.dnscrypt_servers;
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import android.util.Base64;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Immutable parsed resolvers list with stamp flags decoded once.
+ * Flags filtering is done with precomputed bit sets, and the search uses
+ * a sorted index of name and description word prefixes.
+ */
+class ResolversIndex {
+    static final int FLAG_DNSCRYPT = 1;
+    static final int FLAG_DOH = 1 << 1;
+    static final int FLAG_DNSSEC = 1 << 2;
+    static final int FLAG_NOLOG = 1 << 3;
+    static final int FLAG_NOFILTER = 1 << 4;
+    static final int FLAG_IPV6 = 1 << 5;
+    private static final int FLAGS_COUNT = 6;
+
+    private static final String TOKEN_DELIMITER = "[^\\p{L}\\p{N}]+";
+
+    private final String[] names;
+    private final String[] descriptions;
+    private final String[] stamps;
+    private final int[] flags;
+
+    private final BitSet[] flagSets = new BitSet[FLAGS_COUNT];
+    private final String[] tokens;
+    private final int[] tokenEntries;
+
+    ResolversIndex(String[] names, String[] descriptions, String[] stamps, int[] flags) {
+        this.names = names;
+        this.descriptions = descriptions;
+        this.stamps = stamps;
+        this.flags = flags;
+
+        for (int bit = 0; bit < FLAGS_COUNT; bit++) {
+            flagSets[bit] = new BitSet(names.length);
+        }
+
+        List<Token> tokensList = new ArrayList<>();
+        for (int entry = 0; entry < names.length; entry++) {
+            for (int bit = 0; bit < FLAGS_COUNT; bit++) {
+                if ((flags[entry] & (1 << bit)) != 0) {
+                    flagSets[bit].set(entry);
+                }
+            }
+
+            Set<String> entryTokens = new HashSet<>();
+            String name = names[entry].toLowerCase(Locale.ROOT);
+            entryTokens.add(name);
+            entryTokens.addAll(Arrays.asList(name.split(TOKEN_DELIMITER)));
+            entryTokens.addAll(Arrays.asList(descriptions[entry].toLowerCase(Locale.ROOT).split(TOKEN_DELIMITER)));
+            for (String token : entryTokens) {
+                if (!token.isEmpty()) {
+                    tokensList.add(new Token(token, entry));
+                }
+            }
+        }
+
+        Token[] sortedTokens = tokensList.toArray(new Token[0]);
+        Arrays.sort(sortedTokens, (first, second) -> first.text.compareTo(second.text));
+
+        tokens = new String[sortedTokens.length];
+        tokenEntries = new int[sortedTokens.length];
+        for (int i = 0; i < sortedTokens.length; i++) {
+            tokens[i] = sortedTokens[i].text;
+            tokenEntries[i] = sortedTokens[i].entry;
+        }
+    }
+
+    static int decodeFlags(String name, String sdns) {
+        byte[] bin = Base64.decode(sdns.substring(0, 7).getBytes(), 16);
+
+        int result;
+        if (bin[0] == 0x01) {
+            result = FLAG_DNSCRYPT;
+        } else if (bin[0] == 0x02) {
+            result = FLAG_DOH;
+        } else {
+            throw new IllegalArgumentException("Wrong sever type");
+        }
+
+        if (((bin[1]) & 1) == 1) {
+            result |= FLAG_DNSSEC;
+        }
+        if (((bin[1] >> 1) & 1) == 1) {
+            result |= FLAG_NOLOG;
+        }
+        if (((bin[1] >> 2) & 1) == 1) {
+            result |= FLAG_NOFILTER;
+        }
+
+        if (name.contains("v6") || name.contains("ip6")) {
+            result |= FLAG_IPV6;
+        }
+
+        return result;
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    String getName(int entry) {
+        return names[entry];
+    }
+
+    String getDescription(int entry) {
+        return descriptions[entry];
+    }
+
+    String getSdns(int entry) {
+        return stamps[entry];
+    }
+
+    int getFlags(int entry) {
+        return flags[entry];
+    }
+
+    BitSet filter(DNSServersFilter filter) {
+        BitSet result = new BitSet(names.length);
+        result.set(0, names.length);
+
+        if (filter.requireDnssec)
+            result.and(getFlagSet(FLAG_DNSSEC));
+
+        if (filter.requireNofilter)
+            result.and(getFlagSet(FLAG_NOFILTER));
+
+        if (filter.requireNolog)
+            result.and(getFlagSet(FLAG_NOLOG));
+
+        if (!filter.useDnsCryptServers)
+            result.andNot(getFlagSet(FLAG_DNSCRYPT));
+
+        if (!filter.useDohServers)
+            result.andNot(getFlagSet(FLAG_DOH));
+
+        if (!filter.useIpv4Servers)
+            result.and(getFlagSet(FLAG_IPV6));
+
+        if (!filter.useIpv6Servers)
+            result.andNot(getFlagSet(FLAG_IPV6));
+
+        return result;
+    }
+
+    /**
+     * Entry matches if each query word is a prefix of some word of its name or description,
+     * or if the query names one of the server properties.
+     */
+    BitSet search(String query) {
+        String lowerQuery = query.toLowerCase(Locale.ROOT);
+
+        BitSet result = new BitSet(names.length);
+
+        if (lowerQuery.contains("dnscrypt server"))
+            result.or(getFlagSet(FLAG_DNSCRYPT));
+        if (lowerQuery.contains("doh server"))
+            result.or(getFlagSet(FLAG_DOH));
+        if (lowerQuery.contains("dnssec"))
+            result.or(getFlagSet(FLAG_DNSSEC));
+        if (lowerQuery.contains("non-filtering"))
+            result.or(getFlagSet(FLAG_NOFILTER));
+        if (lowerQuery.contains("non-logging"))
+            result.or(getFlagSet(FLAG_NOLOG));
+        if (lowerQuery.contains("keep logs"))
+            result.or(getFlagSetComplement(FLAG_NOLOG));
+        if (lowerQuery.contains("ad-filtering"))
+            result.or(getFlagSetComplement(FLAG_NOFILTER));
+
+        BitSet wordsMatches = null;
+        for (String word : lowerQuery.split(TOKEN_DELIMITER)) {
+            if (word.isEmpty()) {
+                continue;
+            }
+
+            BitSet wordMatches = findPrefix(word);
+            if (wordsMatches == null) {
+                wordsMatches = wordMatches;
+            } else {
+                wordsMatches.and(wordMatches);
+            }
+        }
+
+        if (wordsMatches != null) {
+            result.or(wordsMatches);
+        }
+
+        return result;
+    }
+
+    private BitSet findPrefix(String prefix) {
+        BitSet result = new BitSet(names.length);
+
+        int position = Arrays.binarySearch(tokens, prefix);
+        if (position < 0) {
+            position = -position - 1;
+        }
+
+        while (position < tokens.length && tokens[position].startsWith(prefix)) {
+            result.set(tokenEntries[position]);
+            position++;
+        }
+
+        return result;
+    }
+
+    private BitSet getFlagSet(int flag) {
+        return flagSets[Integer.numberOfTrailingZeros(flag)];
+    }
+
+    private BitSet getFlagSetComplement(int flag) {
+        BitSet result = new BitSet(names.length);
+        result.set(0, names.length);
+        result.andNot(getFlagSet(flag));
+        return result;
+    }
+
+    private static class Token {
+        final String text;
+        final int entry;
+
+        Token(String text, int entry) {
+            this.text = text;
+            this.entry = entry;
+        }
+    }
+}
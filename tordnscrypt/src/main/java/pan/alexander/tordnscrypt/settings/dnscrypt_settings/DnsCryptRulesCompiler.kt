@@ -0,0 +1,545 @@
+package pan.alexander.tordnscrypt.settings.dnscrypt_settings
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+
+import android.util.Log
+import pan.alexander.tordnscrypt.settings.PathVars
+import pan.alexander.tordnscrypt.utils.enums.DNSCryptRulesVariant
+import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
+import java.io.BufferedReader
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.util.PriorityQueue
+import java.util.Properties
+import java.util.concurrent.locks.ReentrantLock
+import java.util.zip.CRC32
+import kotlin.concurrent.withLock
+
+private const val CHUNK_LINES = 100_000
+private const val ITPD_REDIRECT_ADDRESS = "*i2p 10.191.0.1"
+private val torDnsForwardingRegex = Regex("^onion +127.0.0.1:\\d+$")
+private val compilerLock = ReentrantLock()
+
+/**
+ * Keeps local and remote DNSCrypt rules as separate segments, sorted and without duplicates,
+ * and merges them into the rules file that dnscrypt-proxy reads.
+ * Only the changed segment is sorted again, the merge streams both segments at once,
+ * so changing local rules does not sort or validate a large remote list.
+ * Segments and the merged file are replaced atomically. The manifest stores the checksum of every
+ * segment and of the merged sources, so a restart of dnscrypt-proxy is required only
+ * when the merged file was really changed.
+ * Segments edited outside of the compiler, e.g. restored from a backup, are detected
+ * by size and modification time and compiled again.
+ * The rules file itself is changed by the rules editor, so when its size or modification time
+ * does not match the last merge, it is taken as a source: rules that remain in the file are kept
+ * in their segments, rules added in the editor go to the edited segment
+ * and rules removed in the editor are removed from segments.
+ */
+class DnsCryptRulesCompiler(
+    private val rulesVariant: DNSCryptRulesVariant,
+    private val pathVars: PathVars
+) {
+
+    enum class Segment(val key: String) {
+        LOCAL("local"),
+        REMOTE("remote"),
+        EDITED("edited")
+    }
+
+    class Result(val lines: Int, val changed: Boolean)
+
+    private val rulesFile: File
+    private val localRulesFile: File
+    private val remoteRulesFile: File
+
+    init {
+        when (rulesVariant) {
+            DNSCryptRulesVariant.BLACKLIST_HOSTS -> {
+                rulesFile = File(pathVars.dnsCryptBlackListPath)
+                localRulesFile = File(pathVars.dnsCryptLocalBlackListPath)
+                remoteRulesFile = File(pathVars.dnsCryptRemoteBlackListPath)
+            }
+            DNSCryptRulesVariant.BLACKLIST_IPS -> {
+                rulesFile = File(pathVars.dnsCryptIPBlackListPath)
+                localRulesFile = File(pathVars.dnsCryptLocalIPBlackListPath)
+                remoteRulesFile = File(pathVars.dnsCryptRemoteIPBlackListPath)
+            }
+            DNSCryptRulesVariant.WHITELIST_HOSTS -> {
+                rulesFile = File(pathVars.dnsCryptWhiteListPath)
+                localRulesFile = File(pathVars.dnsCryptLocalWhiteListPath)
+                remoteRulesFile = File(pathVars.dnsCryptRemoteWhiteListPath)
+            }
+            DNSCryptRulesVariant.CLOAKING -> {
+                rulesFile = File(pathVars.dnsCryptCloakingRulesPath)
+                localRulesFile = File(pathVars.dnsCryptLocalCloakingRulesPath)
+                remoteRulesFile = File(pathVars.dnsCryptRemoteCloakingRulesPath)
+            }
+            DNSCryptRulesVariant.FORWARDING -> {
+                rulesFile = File(pathVars.dnsCryptForwardingRulesPath)
+                localRulesFile = File(pathVars.dnsCryptLocalForwardingRulesPath)
+                remoteRulesFile = File(pathVars.dnsCryptRemoteForwardingRulesPath)
+            }
+            DNSCryptRulesVariant.UNDEFINED ->
+                throw IllegalArgumentException("DnsCryptRulesCompiler undefined rules variant")
+        }
+    }
+
+    private val editedRulesFile =
+        File(rulesFile.parentFile, "${rulesFile.nameWithoutExtension}-edited.${rulesFile.extension}")
+    private val manifestFile = File(rulesFile.path + ".manifest")
+    private val tempDir = File(pathVars.appDataDir + "/cache")
+
+    /**
+     * Replaces the segment with the rules and merges segments if the segment was changed.
+     * Rules should be already validated, the segment is not replaced if the thread was interrupted.
+     */
+    @Throws(IOException::class, InterruptedException::class)
+    fun compile(segment: Segment, rules: Sequence<String>): Result = compilerLock.withLock {
+        val manifest = readManifest()
+        prepareSegments(manifest)
+        writeSegment(segment, rules, manifest)
+        merge(manifest, getDefaultLines())
+    }
+
+    /**
+     * Merges segments with the default lines.
+     */
+    @JvmOverloads
+    @Throws(IOException::class, InterruptedException::class)
+    fun merge(defaultLines: List<String> = getDefaultLines()): Result = compilerLock.withLock {
+        val manifest = readManifest()
+        prepareSegments(manifest)
+        merge(manifest, defaultLines)
+    }
+
+    /**
+     * Replaces the default lines in the rules file in place, e.g. after the Tor DNS port was changed.
+     * Other lines, including the rules added in the rules editor, are kept as they are.
+     * @return true if the rules file was changed
+     */
+    @Throws(IOException::class)
+    fun replaceDefaultLines(defaultLines: List<String>): Boolean = compilerLock.withLock {
+        if (!rulesFile.isFile) {
+            return false
+        }
+
+        val manifest = readManifest()
+        val editedOutside = isRulesFileEditedOutside(manifest)
+
+        val tempFile = File(rulesFile.path + ".tmp")
+        var changed = false
+        try {
+            tempFile.bufferedWriter().use { writer ->
+                rulesFile.bufferedReader().useLines { lines ->
+                    lines.forEach { line ->
+                        val newLine = if (isDefaultLine(line.trim())) {
+                            defaultLines.firstOrNull() ?: ""
+                        } else {
+                            line
+                        }
+
+                        if (newLine != line) {
+                            changed = true
+                        }
+
+                        if (newLine.isNotEmpty()) {
+                            writer.write(newLine)
+                            writer.newLine()
+                        }
+                    }
+                }
+            }
+
+            if (changed) {
+                replaceFile(tempFile, rulesFile)
+            }
+        } finally {
+            tempFile.delete()
+        }
+
+        //Edits made outside must still be taken as a source by the next merge
+        if (changed && !editedOutside) {
+            manifest.setProperty("merged.sources", getSources(manifest, defaultLines))
+            setMergedFileProperties(manifest)
+            writeManifest(manifest)
+        }
+
+        changed
+    }
+
+    @Throws(IOException::class, InterruptedException::class)
+    fun erase(): Result = compilerLock.withLock {
+        val manifest = readManifest()
+        Segment.values().forEach { writeSegment(it, emptySequence(), manifest) }
+        merge(manifest, getDefaultLines())
+    }
+
+    private fun prepareSegments(manifest: Properties) {
+        Segment.values().forEach { segment ->
+            if (!isSegmentCompiled(segment, manifest)) {
+                recompileSegment(segment, manifest)
+            }
+        }
+
+        if (isRulesFileEditedOutside(manifest)) {
+            splitEditedRulesFile(manifest)
+        }
+    }
+
+    private fun merge(manifest: Properties, defaultLines: List<String>): Result {
+        val sources = getSources(manifest, defaultLines)
+
+        if (sources == manifest.getProperty("merged.sources")
+            && !isRulesFileEditedOutside(manifest)
+            && rulesFile.isFile
+        ) {
+            return Result(manifest.getProperty("merged.lines")?.toIntOrNull() ?: 0, false)
+        }
+
+        val time = System.currentTimeMillis()
+
+        val tempFile = File(rulesFile.path + ".tmp")
+        var lines = 0
+        try {
+            tempFile.bufferedWriter().use { writer ->
+                defaultLines.forEach {
+                    writer.write(it)
+                    writer.newLine()
+                }
+                lines = mergeSorted(
+                    Segment.values().map { getSegmentFile(it) }.filter { it.isFile },
+                    writer,
+                    null
+                )
+            }
+            replaceFile(tempFile, rulesFile)
+        } finally {
+            tempFile.delete()
+        }
+
+        manifest.setProperty("merged.sources", sources)
+        manifest.setProperty("merged.lines", lines.toString())
+        setMergedFileProperties(manifest)
+        writeManifest(manifest)
+
+        Log.i(
+            LOG_TAG, "DnsCryptRulesCompiler merged $lines ${rulesVariant.name} rules " +
+                    "in ${System.currentTimeMillis() - time} ms"
+        )
+
+        return Result(lines, true)
+    }
+
+    private fun getSources(manifest: Properties, defaultLines: List<String>): String =
+        Segment.values().joinToString(":") { manifest.getProperty("${it.key}.crc") } +
+                ":" + defaultLines.joinToString("\n").hashCode()
+
+    private fun setMergedFileProperties(manifest: Properties) {
+        manifest.setProperty("merged.length", rulesFile.length().toString())
+        manifest.setProperty("merged.modified", rulesFile.lastModified().toString())
+    }
+
+    //Also true for the file installed with the module or written before the compiler was introduced
+    private fun isRulesFileEditedOutside(manifest: Properties): Boolean =
+        rulesFile.isFile
+                && (manifest.getProperty("merged.length") != rulesFile.length().toString()
+                || manifest.getProperty("merged.modified") != rulesFile.lastModified().toString())
+
+    //Sorted rules of the file are compared with the sorted segments in a single pass
+    private fun splitEditedRulesFile(manifest: Properties) {
+        val time = System.currentTimeMillis()
+
+        val sortedFile = File(rulesFile.path + ".sorted")
+        val splitFiles = Segment.values().associateWith { File(getSegmentFile(it).path + ".split") }
+
+        try {
+            rulesFile.bufferedReader().use { reader ->
+                writeSorted(
+                    reader.lineSequence()
+                        .map { it.trim() }
+                        .filter { it.isNotEmpty() && !it.startsWith("#") && !isDefaultLine(it) },
+                    sortedFile,
+                    CRC32()
+                )
+            }
+
+            val remoteReader = SortedLinesReader(getSegmentFile(Segment.REMOTE))
+            val localReader = SortedLinesReader(getSegmentFile(Segment.LOCAL))
+            val writers = splitFiles.mapValues { it.value.bufferedWriter() }
+
+            try {
+                sortedFile.bufferedReader().useLines { rules ->
+                    rules.forEach { rule ->
+                        val segment = when {
+                            remoteReader.contains(rule) -> Segment.REMOTE
+                            localReader.contains(rule) -> Segment.LOCAL
+                            else -> Segment.EDITED
+                        }
+                        writers[segment]?.apply {
+                            write(rule)
+                            newLine()
+                        }
+                    }
+                }
+            } finally {
+                remoteReader.close()
+                localReader.close()
+                writers.values.forEach { it.close() }
+            }
+
+            splitFiles.forEach { (segment, file) ->
+                file.bufferedReader().use { writeSegment(segment, it.lineSequence(), manifest) }
+            }
+
+            //The file is written again by the merge even if the rules are the same
+            manifest.remove("merged.sources")
+            writeManifest(manifest)
+        } finally {
+            sortedFile.delete()
+            splitFiles.values.forEach { it.delete() }
+        }
+
+        Log.i(
+            LOG_TAG, "DnsCryptRulesCompiler took ${rulesVariant.name} rules edited outside " +
+                    "in ${System.currentTimeMillis() - time} ms"
+        )
+    }
+
+    private fun writeSegment(segment: Segment, rules: Sequence<String>, manifest: Properties) {
+        val segmentFile = getSegmentFile(segment)
+        val tempFile = File(segmentFile.path + ".tmp")
+
+        try {
+            val crc = CRC32()
+            val lines = writeSorted(rules.filter { !isDefaultLine(it) }, tempFile, crc)
+
+            if (crc.value.toString() == manifest.getProperty("${segment.key}.crc")
+                && isSegmentCompiled(segment, manifest)
+            ) {
+                return
+            }
+
+            checkInterrupted()
+
+            replaceFile(tempFile, segmentFile)
+
+            manifest.setProperty("${segment.key}.crc", crc.value.toString())
+            manifest.setProperty("${segment.key}.lines", lines.toString())
+            manifest.setProperty("${segment.key}.length", segmentFile.length().toString())
+            manifest.setProperty("${segment.key}.modified", segmentFile.lastModified().toString())
+            writeManifest(manifest)
+        } finally {
+            tempFile.delete()
+        }
+    }
+
+    //Segments written before the compiler was introduced contain unsorted rules
+    private fun recompileSegment(segment: Segment, manifest: Properties) {
+        val segmentFile = getSegmentFile(segment)
+        if (segmentFile.isFile) {
+            segmentFile.bufferedReader().use { reader ->
+                writeSegment(
+                    segment,
+                    reader.lineSequence().map { it.trim() }.filter { it.isNotEmpty() && !it.startsWith("#") },
+                    manifest
+                )
+            }
+        } else {
+            writeSegment(segment, emptySequence(), manifest)
+        }
+    }
+
+    private fun isSegmentCompiled(segment: Segment, manifest: Properties): Boolean {
+        val segmentFile = getSegmentFile(segment)
+        return manifest.getProperty("${segment.key}.crc") != null
+                && manifest.getProperty("${segment.key}.length") == segmentFile.length().toString()
+                && manifest.getProperty("${segment.key}.modified") == segmentFile.lastModified().toString()
+    }
+
+    private fun writeSorted(rules: Sequence<String>, outputFile: File, crc: CRC32): Int {
+        val chunks = arrayListOf<File>()
+        val chunk = ArrayList<String>()
+
+        try {
+            for (rule in rules) {
+                checkInterrupted()
+
+                chunk.add(rule)
+
+                if (chunk.size >= CHUNK_LINES) {
+                    chunks.add(writeChunk(chunk))
+                    chunk.clear()
+                }
+            }
+
+            //The rules sequence ends early when reading was interrupted, so the list can be partial
+            checkInterrupted()
+
+            if (chunk.isNotEmpty()) {
+                chunks.add(writeChunk(chunk))
+                chunk.clear()
+            }
+
+            return outputFile.bufferedWriter().use { writer ->
+                mergeSorted(chunks, writer, crc)
+            }
+        } finally {
+            chunks.forEach { it.delete() }
+        }
+    }
+
+    private fun checkInterrupted() {
+        if (Thread.currentThread().isInterrupted) {
+            throw InterruptedException("DnsCryptRulesCompiler ${rulesVariant.name} interrupted")
+        }
+    }
+
+    private fun writeChunk(chunk: MutableList<String>): File {
+        chunk.sort()
+
+        if (!tempDir.isDirectory) {
+            tempDir.mkdirs()
+        }
+
+        val file = File.createTempFile("rules", ".chunk", tempDir)
+        file.bufferedWriter().use { writer ->
+            var previousRule: String? = null
+            chunk.forEach { rule ->
+                if (rule != previousRule) {
+                    writer.write(rule)
+                    writer.newLine()
+                    previousRule = rule
+                }
+            }
+        }
+        return file
+    }
+
+    //K-way merge of sorted files that skips duplicates, memory does not depend on the files size
+    private fun mergeSorted(files: List<File>, writer: BufferedWriter, crc: CRC32?): Int {
+        val readers = files.map { it.bufferedReader() }
+
+        try {
+            val queue = PriorityQueue<Pair<String, BufferedReader>>(
+                files.size.coerceAtLeast(1),
+                compareBy { it.first }
+            )
+
+            readers.forEach { reader ->
+                reader.readLine()?.let { queue.add(it to reader) }
+            }
+
+            var lines = 0
+            var previousRule: String? = null
+            while (queue.isNotEmpty()) {
+                val (rule, reader) = queue.poll() ?: break
+
+                if (rule != previousRule) {
+                    writer.write(rule)
+                    writer.newLine()
+                    crc?.let {
+                        it.update(rule.toByteArray())
+                        it.update('\n'.code)
+                    }
+                    previousRule = rule
+                    lines++
+                }
+
+                reader.readLine()?.let { queue.add(it to reader) }
+            }
+
+            return lines
+        } finally {
+            readers.forEach { it.close() }
+        }
+    }
+
+    private fun replaceFile(source: File, target: File) {
+        if (!source.renameTo(target)) {
+            source.copyTo(target, true)
+        }
+    }
+
+    private fun getSegmentFile(segment: Segment): File = when (segment) {
+        Segment.LOCAL -> localRulesFile
+        Segment.REMOTE -> remoteRulesFile
+        Segment.EDITED -> editedRulesFile
+    }
+
+    private fun getDefaultLines(): List<String> = when (rulesVariant) {
+        DNSCryptRulesVariant.CLOAKING -> listOf(ITPD_REDIRECT_ADDRESS)
+        DNSCryptRulesVariant.FORWARDING -> listOf("onion 127.0.0.1:" + pathVars.torDNSPort)
+        else -> emptyList()
+    }
+
+    //Default lines are added to the merged file only, so they can be changed without segments
+    private fun isDefaultLine(line: String): Boolean = when (rulesVariant) {
+        DNSCryptRulesVariant.CLOAKING -> line == ITPD_REDIRECT_ADDRESS
+        DNSCryptRulesVariant.FORWARDING -> line.matches(torDnsForwardingRegex)
+        else -> false
+    }
+
+    //Answers whether ascending rules are in a sorted file, reading the file only once
+    private class SortedLinesReader(file: File) {
+        private val reader = if (file.isFile) file.bufferedReader() else null
+        private var current: String? = reader?.readLine()
+
+        fun contains(rule: String): Boolean {
+            while (current != null && current!! < rule) {
+                current = reader?.readLine()
+            }
+            return current == rule
+        }
+
+        fun close() {
+            reader?.close()
+        }
+    }
+
+    private fun readManifest(): Properties {
+        val properties = Properties()
+        if (manifestFile.isFile) {
+            try {
+                FileInputStream(manifestFile).use { properties.load(it) }
+            } catch (e: Exception) {
+                properties.clear()
+                Log.w(LOG_TAG, "DnsCryptRulesCompiler readManifest exception ${e.message} ${e.cause}")
+            }
+        }
+        return properties
+    }
+
+    private fun writeManifest(manifest: Properties) {
+        val tempFile = File(manifestFile.path + ".tmp")
+        try {
+            FileOutputStream(tempFile).use { manifest.store(it, null) }
+            replaceFile(tempFile, manifestFile)
+        } catch (e: Exception) {
+            manifestFile.delete()
+            Log.e(LOG_TAG, "DnsCryptRulesCompiler writeManifest exception ${e.message} ${e.cause}")
+        } finally {
+            tempFile.delete()
+        }
+    }
+}
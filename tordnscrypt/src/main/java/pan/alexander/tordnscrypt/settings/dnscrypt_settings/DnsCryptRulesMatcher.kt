@@ -0,0 +1,188 @@
+package pan.alexander.tordnscrypt.settings.dnscrypt_settings
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.content.res.Configuration
+import android.os.SystemClock
+import android.util.Log
+import pan.alexander.tordnscrypt.settings.PathVars
+import pan.alexander.tordnscrypt.utils.dns.DomainRulesMatcher
+import pan.alexander.tordnscrypt.utils.enums.DNSCryptRulesVariant
+import pan.alexander.tordnscrypt.utils.executors.CachedExecutor
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler
+import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
+import java.io.File
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import javax.inject.Inject
+import javax.inject.Singleton
+
+private const val RULES_CHECK_INTERVAL_MS = 1000L
+private val rulesSeparatorRegex = Regex("[ \\t]+")
+
+/**
+ * Answers which DNSCrypt rule blocks or cloaks a domain without asking dnscrypt-proxy.
+ * Rules files are compiled into matchers in the background on the first request,
+ * until then and while a changed file is reloaded the previous matcher or nothing is returned.
+ * Files are checked by modification time and size at most once per second.
+ * Matchers of large lists use a lot of memory, so they are released when the app UI is hidden.
+ */
+@Singleton
+class DnsCryptRulesMatcher @Inject constructor(
+    private val context: Context,
+    private val pathVars: dagger.Lazy<PathVars>,
+    private val cachedExecutor: CachedExecutor
+) {
+
+    private class LoadedRules(
+        val matcher: DomainRulesMatcher,
+        val lastModified: Long,
+        val length: Long,
+        @Volatile var checkedTime: Long
+    )
+
+    private val rules = ConcurrentHashMap<DNSCryptRulesVariant, LoadedRules>()
+    private val loading: MutableSet<DNSCryptRulesVariant> =
+        Collections.newSetFromMap(ConcurrentHashMap<DNSCryptRulesVariant, Boolean>())
+
+    private val componentCallbacks = object : ComponentCallbacks2 {
+        override fun onTrimMemory(level: Int) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN && rules.isNotEmpty()) {
+                rules.clear()
+                Log.i(LOG_TAG, "DnsCryptRulesMatcher released")
+            }
+        }
+
+        override fun onConfigurationChanged(newConfig: Configuration) {}
+
+        override fun onLowMemory() {}
+    }
+
+    init {
+        context.applicationContext.registerComponentCallbacks(componentCallbacks)
+    }
+
+    /**
+     * Returns the blacklist rule that matches the domain,
+     * or null if the domain is not blocked, is whitelisted or rules are not loaded yet.
+     */
+    fun getBlockingRule(domain: String): String? {
+        if (getMatcher(DNSCryptRulesVariant.WHITELIST_HOSTS)?.matches(domain) == true) {
+            return null
+        }
+        return getMatcher(DNSCryptRulesVariant.BLACKLIST_HOSTS)?.match(domain)
+    }
+
+    /**
+     * Returns the cloaking target of the domain, or null if the domain is not cloaked or rules are not loaded yet.
+     */
+    fun getCloakingTarget(domain: String): String? =
+        getMatcher(DNSCryptRulesVariant.CLOAKING)?.match(domain)
+
+    private fun getMatcher(rulesVariant: DNSCryptRulesVariant): DomainRulesMatcher? {
+        val loadedRules = rules[rulesVariant]
+        val time = SystemClock.elapsedRealtime()
+
+        if (loadedRules != null && time - loadedRules.checkedTime < RULES_CHECK_INTERVAL_MS) {
+            return loadedRules.matcher
+        }
+
+        val file = getRulesFile(rulesVariant)
+        if (loadedRules == null
+            || loadedRules.lastModified != file.lastModified()
+            || loadedRules.length != file.length()
+        ) {
+            load(rulesVariant, file)
+        } else {
+            loadedRules.checkedTime = time
+        }
+
+        return loadedRules?.matcher
+    }
+
+    private fun load(rulesVariant: DNSCryptRulesVariant, file: File) {
+        if (!loading.add(rulesVariant)) {
+            return
+        }
+
+        cachedExecutor.submit(TaskScheduler.Pool.CPU) {
+            try {
+                val time = System.currentTimeMillis()
+
+                val lastModified = file.lastModified()
+                val length = file.length()
+                val builder = DomainRulesMatcher.Builder()
+
+                if (file.isFile) {
+                    file.bufferedReader().useLines { lines ->
+                        lines.forEach { line -> addRule(builder, rulesVariant, line) }
+                    }
+                }
+
+                val matcher = builder.build()
+                rules[rulesVariant] = LoadedRules(
+                    matcher,
+                    lastModified,
+                    length,
+                    SystemClock.elapsedRealtime()
+                )
+
+                Log.i(
+                    LOG_TAG, "DnsCryptRulesMatcher loaded ${matcher.size} ${rulesVariant.name} rules " +
+                            "in ${System.currentTimeMillis() - time} ms"
+                )
+            } catch (e: Exception) {
+                Log.e(LOG_TAG, "DnsCryptRulesMatcher load exception ${e.message} ${e.cause}")
+            } finally {
+                loading.remove(rulesVariant)
+            }
+        }
+    }
+
+    //Cloaking rules contain the target, other rules may be followed by a time range
+    private fun addRule(
+        builder: DomainRulesMatcher.Builder,
+        rulesVariant: DNSCryptRulesVariant,
+        line: String
+    ) {
+        val rule = line.trim()
+        if (rule.isEmpty() || rule.startsWith("#")) {
+            return
+        }
+
+        val parts = rule.split(rulesSeparatorRegex, 3)
+        if (rulesVariant == DNSCryptRulesVariant.CLOAKING) {
+            if (parts.size > 1) {
+                builder.add(parts[0], parts[1])
+            }
+        } else {
+            builder.add(parts[0])
+        }
+    }
+
+    private fun getRulesFile(rulesVariant: DNSCryptRulesVariant): File = when (rulesVariant) {
+        DNSCryptRulesVariant.WHITELIST_HOSTS -> File(pathVars.get().dnsCryptWhiteListPath)
+        DNSCryptRulesVariant.CLOAKING -> File(pathVars.get().dnsCryptCloakingRulesPath)
+        else -> File(pathVars.get().dnsCryptBlackListPath)
+    }
+}
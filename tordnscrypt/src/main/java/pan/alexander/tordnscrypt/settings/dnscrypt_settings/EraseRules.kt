@@ -26,12 +26,11 @@ import androidx.preference.PreferenceManager
 import pan.alexander.tordnscrypt.App
 import pan.alexander.tordnscrypt.R
 import pan.alexander.tordnscrypt.dialogs.NotificationDialogFragment
-import pan.alexander.tordnscrypt.modules.ModulesRestarter
 import pan.alexander.tordnscrypt.modules.ModulesStatus
 import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
 import pan.alexander.tordnscrypt.utils.enums.DNSCryptRulesVariant
+import pan.alexander.tordnscrypt.utils.enums.ModuleName
 import pan.alexander.tordnscrypt.utils.enums.ModuleState
-import java.io.File
 import java.lang.Exception
 
 class EraseRules(private val context: Context,
@@ -40,57 +39,27 @@ class EraseRules(private val context: Context,
                  private val remoteRulesLinkPreferenceTag: String) : Thread() {
 
     override fun run() {
-        val pathVars = App.instance.daggerComponent.getPathVars().get()
-
-        when(dnsCryptRulesVariant) {
-
-            DNSCryptRulesVariant.BLACKLIST_HOSTS -> eraseRuleVariant(pathVars.dnsCryptBlackListPath,
-                    pathVars.dnsCryptLocalBlackListPath, pathVars.dnsCryptRemoteBlackListPath)
-
-            DNSCryptRulesVariant.BLACKLIST_IPS -> eraseRuleVariant(pathVars.dnsCryptIPBlackListPath,
-                    pathVars.dnsCryptLocalIPBlackListPath, pathVars.dnsCryptRemoteIPBlackListPath)
-
-            DNSCryptRulesVariant.WHITELIST_HOSTS -> eraseRuleVariant(pathVars.dnsCryptWhiteListPath,
-                    pathVars.dnsCryptLocalWhiteListPath, pathVars.dnsCryptRemoteWhiteListPath)
-
-            DNSCryptRulesVariant.CLOAKING -> eraseRuleVariant(pathVars.dnsCryptCloakingRulesPath,
-                    pathVars.dnsCryptLocalCloakingRulesPath, pathVars.dnsCryptRemoteCloakingRulesPath)
-
-            DNSCryptRulesVariant.FORWARDING -> eraseRuleVariant(pathVars.dnsCryptForwardingRulesPath,
-                    pathVars.dnsCryptLocalForwardingRulesPath, pathVars.dnsCryptRemoteForwardingRulesPath)
-
-            DNSCryptRulesVariant.UNDEFINED -> return
-
+        if (dnsCryptRulesVariant == DNSCryptRulesVariant.UNDEFINED) {
+            return
         }
-    }
 
-    private fun eraseRuleVariant(rulesFilePath: String, localRulesFilePath: String, remoteRulesFilePath: String) {
-        eraseFile(rulesFilePath)
-        eraseFile(localRulesFilePath)
-        eraseFile(remoteRulesFilePath)
-        erasePreference()
-        restartDNSCryptIfRequired()
-        showFinalDialog()
+        eraseRuleVariant()
     }
 
-    private fun eraseFile(filePath: String) {
-
-        var eraseText = ""
-        if (dnsCryptRulesVariant == DNSCryptRulesVariant.CLOAKING) {
-            eraseText = "*i2p 10.191.0.1"
-        } else if (dnsCryptRulesVariant == DNSCryptRulesVariant.FORWARDING) {
-            eraseText = "onion 127.0.0.1:" + App.instance.daggerComponent.getPathVars().get().torDNSPort
-        }
-
+    private fun eraseRuleVariant() {
+        var rulesChanged = false
         try {
-            val file = File(filePath)
-            if (file.isFile) {
-                file.writeText(eraseText)
-            }
+            val pathVars = App.instance.daggerComponent.getPathVars().get()
+            rulesChanged = DnsCryptRulesCompiler(dnsCryptRulesVariant, pathVars).erase().changed
         } catch (e: Exception) {
             Log.e(LOG_TAG, "EraseRules Exception " + e.message + " " + e.cause)
         }
 
+        erasePreference()
+        if (rulesChanged) {
+            restartDNSCryptIfRequired()
+        }
+        showFinalDialog()
     }
 
     private fun erasePreference() {
@@ -105,7 +74,8 @@ class EraseRules(private val context: Context,
 
     private fun restartDNSCryptIfRequired() {
         if (ModulesStatus.getInstance().dnsCryptState == ModuleState.RUNNING) {
-            ModulesRestarter.restartDNSCrypt(context)
+            App.instance.daggerComponent.getModulesRestartScheduler().get()
+                .scheduleRestart(ModuleName.DNSCRYPT_MODULE)
         }
     }
 }
\ No newline at end of file
@@ -23,21 +23,19 @@ import android.content.Context
 import android.net.Uri
 import android.util.Log
 import pan.alexander.tordnscrypt.App
-import pan.alexander.tordnscrypt.modules.ModulesRestarter
 import pan.alexander.tordnscrypt.modules.ModulesStatus
 import pan.alexander.tordnscrypt.settings.PathVars
 import pan.alexander.tordnscrypt.utils.Constants.META_ADDRESS
 import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
 import pan.alexander.tordnscrypt.utils.wakelock.WakeLocksManager
 import pan.alexander.tordnscrypt.utils.enums.DNSCryptRulesVariant
+import pan.alexander.tordnscrypt.utils.enums.ModuleName
 import pan.alexander.tordnscrypt.utils.enums.ModuleState
 import java.io.BufferedReader
 import java.io.File
 import java.io.InputStreamReader
-import java.io.PrintWriter
-import java.util.*
+import java.io.Reader
 import java.util.concurrent.locks.ReentrantLock
-import kotlin.collections.ArrayList
 
 private val blackListHostRulesRegex = Regex("^[a-zA-Z\\d-.=_*\\[\\]?]+$")
 private val blacklistIPRulesRegex = Regex("^(?:[0-9*]{1,3}\\.){1,3}[0-9*]{1,3}(?:/\\d+)*$")
@@ -46,7 +44,6 @@ private val forwardingRulesRegex =
     Regex("^[a-zA-Z\\d-._]+[ \\t]+(?:[0-9*]{1,3}\\.){3}[0-9*]{1,3}(?:, ?(?:[0-9*]{1,3}\\.){3}[0-9*]{1,3})*$")
 private val whiteListHostRulesRegex = Regex("^[a-zA-Z\\d-.=_*\\[\\]?]+$")
 private val hostFileRegex = Regex("^(?:0.0.0.0|127.0.0.1)[ \\t]+[a-zA-Z\\d-._]+$")
-private const val itpdRedirectAddress = "*i2p 10.191.0.1"
 private val excludeFromHost = listOf("localhost", "localhost.localdomain", "local", META_ADDRESS)
 private val reentrantLock = ReentrantLock()
 private val wakeLocksManager = WakeLocksManager.getInstance()
@@ -60,37 +57,13 @@ class ImportRules(
 
     private val pathVars: PathVars = App.instance.daggerComponent.getPathVars().get()
 
-    private val blackListHostRulesPath = pathVars.dnsCryptBlackListPath
-    private val blackListHostRulesLocalPath = pathVars.dnsCryptLocalBlackListPath
-    private val blackListHostRulesRemotePath = pathVars.dnsCryptRemoteBlackListPath
-
-    private val blackListIPRulesPath = pathVars.dnsCryptIPBlackListPath
-    private val blackListIPRulesLocalPath = pathVars.dnsCryptLocalIPBlackListPath
-    private val blackListIPRulesRemotePath = pathVars.dnsCryptRemoteIPBlackListPath
-
-    private val whiteListHostRulesPath = pathVars.dnsCryptWhiteListPath
-    private val whiteListHostRulesLocalPath = pathVars.dnsCryptLocalWhiteListPath
-    private val whiteListHostRulesRemotePath = pathVars.dnsCryptRemoteWhiteListPath
-
-    private val cloakingRulesPath = pathVars.dnsCryptCloakingRulesPath
-    private val cloakingRulesLocalPath = pathVars.dnsCryptLocalCloakingRulesPath
-    private val cloakingRulesRemotePath = pathVars.dnsCryptRemoteCloakingRulesPath
-
-    private val forwardingRulesPath = pathVars.dnsCryptForwardingRulesPath
-    private val forwardingRulesLocalPath = pathVars.dnsCryptLocalForwardingRulesPath
-    private val forwardingRulesRemotePath = pathVars.dnsCryptRemoteForwardingRulesPath
-
     private var onDNSCryptRuleAddLineListener: OnDNSCryptRuleAddLineListener? = null
 
     private var powerLocked = false
 
-    private var blackListFileIsHost = false
-
     private val contentResolver = context.applicationContext.contentResolver
 
     private var linesCount = 0
-    private var hash = 0
-    private var hashes = IntArray(0)
     private var savedTime = System.currentTimeMillis()
 
     interface OnDNSCryptRuleAddLineListener {
@@ -107,41 +80,26 @@ class ImportRules(
 
         when (rulesVariant) {
             DNSCryptRulesVariant.BLACKLIST_HOSTS -> doTheJob(
-                blackListHostRulesPath,
-                blackListHostRulesLocalPath,
-                blackListHostRulesRemotePath,
                 blackListHostRulesRegex,
                 filePathToImport
             )
 
             DNSCryptRulesVariant.WHITELIST_HOSTS -> doTheJob(
-                whiteListHostRulesPath,
-                whiteListHostRulesLocalPath,
-                whiteListHostRulesRemotePath,
                 whiteListHostRulesRegex,
                 filePathToImport
             )
 
             DNSCryptRulesVariant.BLACKLIST_IPS -> doTheJob(
-                blackListIPRulesPath,
-                blackListIPRulesLocalPath,
-                blackListIPRulesRemotePath,
                 blacklistIPRulesRegex,
                 filePathToImport
             )
 
             DNSCryptRulesVariant.CLOAKING -> doTheJob(
-                cloakingRulesPath,
-                cloakingRulesLocalPath,
-                cloakingRulesRemotePath,
                 cloakingRulesRegex,
                 filePathToImport
             )
 
             DNSCryptRulesVariant.FORWARDING -> doTheJob(
-                forwardingRulesPath,
-                forwardingRulesLocalPath,
-                forwardingRulesRemotePath,
                 forwardingRulesRegex,
                 filePathToImport
             )
@@ -152,9 +110,6 @@ class ImportRules(
     }
 
     private fun doTheJob(
-        rulesFilePath: String,
-        localRulesFilePath: String,
-        remoteRulesFilePath: String,
         rulesRegex: Regex,
         filesToImport: Array<*>
     ) {
@@ -169,32 +124,33 @@ class ImportRules(
 
         onDNSCryptRuleAddLineListener?.onDNSCryptRuleLinesAddingStarted(currentThread())
 
+        var restartScheduled = false
         try {
             if (filesToImport.isNotEmpty()) {
-                File(rulesFilePath).printWriter().use {
-                    addDefaultLinesIfRequired(it)
-                    mixFiles(
-                        it,
-                        localRulesFilePath,
-                        remoteRulesFilePath,
-                        rulesRegex,
-                        filesToImport.toMutableList()
-                    )
+                val segment = if (localRules) {
+                    DnsCryptRulesCompiler.Segment.LOCAL
+                } else {
+                    DnsCryptRulesCompiler.Segment.REMOTE
                 }
-            }
 
-            val fileToSave = if (localRules) {
-                localRulesFilePath
-            } else {
-                remoteRulesFilePath
-            }
+                val result = DnsCryptRulesCompiler(rulesVariant, pathVars)
+                    .compile(segment, readRules(rulesRegex, filesToImport))
 
-            File(rulesFilePath).copyTo(File(fileToSave), true)
+                onDNSCryptRuleAddLineListener?.onDNSCryptRuleLineAdded(result.lines)
 
+                if (result.changed) {
+                    restartScheduled = restartDNSCryptIfRequired()
+                }
+            }
+
+        } catch (e: InterruptedException) {
+            Log.w(LOG_TAG, "ImportRules interrupted, rules are not changed")
         } catch (e: Exception) {
             Log.e(LOG_TAG, "ImportRules Exception " + e.message + " " + e.cause)
         } finally {
-            onDNSCryptRuleAddLineListener?.onDNSCryptRuleLinesAddingFinished()
+            if (!restartScheduled) {
+                onDNSCryptRuleAddLineListener?.onDNSCryptRuleLinesAddingFinished()
+            }
 
             if (powerLocked) {
                 wakeLocksManager.stopPowerWakelock()
@@ -205,150 +161,75 @@ class ImportRules(
 
     }
 
-    private fun mixFiles(
-        printWriter: PrintWriter,
-        localRulesFilePath: String,
-        remoteRulesFilePath: String,
-        rulesRegex: Regex,
-        filesToImport: MutableList<Any?>
-    ) {
-
-        val fileToAdd: String = if (localRules) {
-            remoteRulesFilePath
-        } else {
-            localRulesFilePath
-        }
-
-        val addFile = File(fileToAdd)
-        if (addFile.isFile) {
-            filesToImport.add(addFile)
-        }
-
-        val hashIsRequired = filesToImport.size > 1
-
-        filesToImport.forEachIndexed { index, file ->
-
-            if (file is String) {
-                mixFilesWithPass(index, file, rulesRegex, hashIsRequired, printWriter)
-            } else if (file is Uri) {
-                mixFilesWithUri(index, file, rulesRegex, hashIsRequired, printWriter)
-            }
-        }
-
-        onDNSCryptRuleAddLineListener?.onDNSCryptRuleLineAdded(linesCount)
-
-        if (linesCount > 0) {
-            restartDNSCryptIfRequired()
-        }
-    }
-
-    private fun mixFilesWithPass(
-        index: Int, file: String,
-        rulesRegex: Regex, hashIsRequired: Boolean, printWriter: PrintWriter
-    ) {
-
-        if (file.isNotEmpty()) {
-            val inputFile = File(file)
+    //Rules are read lazily while the compiler sorts them, files with a wrong format are skipped
+    //The sequence ends when the thread is interrupted, the compiler then discards the partial rules
+    private fun readRules(rulesRegex: Regex, filesToImport: Array<*>): Sequence<String> = sequence {
+        filesToImport.forEach { file ->
+            try {
+                val reader = when (file) {
+                    is String -> openFileReader(file, rulesRegex)
+                    is Uri -> openUriReader(file, rulesRegex)
+                    else -> null
+                } ?: return@forEach
+
+                reader.use {
+                    var line = it.readLine()?.trim()
+                    while (line != null && !currentThread().isInterrupted) {
+                        val lineReady = if (reader.isHostFile) {
+                            hostToBlackList(line)
+                        } else {
+                            cleanRule(line, rulesRegex)
+                        }
 
-            if (inputFile.isFile) {
-                try {
-                    if (DNSCryptRulesVariant.BLACKLIST_HOSTS == rulesVariant) {
-                        blackListFileIsHost = isInputFileFormatCorrect(inputFile, hostFileRegex)
-                    }
+                        if (lineReady.isNotEmpty()) {
+                            yield(lineReady)
 
-                    val hashesNew = ArrayList<Int>()
-
-                    if (blackListFileIsHost || isInputFileFormatCorrect(inputFile, rulesRegex)) {
-                        inputFile.bufferedReader().use { reader ->
-                            mixFilesCommonPart(
-                                printWriter,
-                                reader,
-                                rulesRegex,
-                                hashIsRequired,
-                                index,
-                                hashesNew
-                            )
+                            linesCount++
+                            if (System.currentTimeMillis() - savedTime > 500) {
+                                onDNSCryptRuleAddLineListener?.onDNSCryptRuleLineAdded(linesCount)
+                                savedTime = System.currentTimeMillis()
+                            }
                         }
+                        line = it.readLine()?.trim()
                     }
-                } catch (e: Exception) {
-                    Log.e(LOG_TAG, "ImportRules Exception " + e.message + " " + e.cause)
                 }
+            } catch (e: Exception) {
+                Log.e(LOG_TAG, "ImportRules Exception " + e.message + " " + e.cause)
             }
         }
     }
 
-    private fun mixFilesWithUri(
-        index: Int, uri: Uri,
-        rulesRegex: Regex, hashIsRequired: Boolean, printWriter: PrintWriter
-    ) {
-        try {
-            if (DNSCryptRulesVariant.BLACKLIST_HOSTS == rulesVariant) {
-                blackListFileIsHost = isInputFileFormatCorrect(uri, hostFileRegex)
-            }
+    private class RulesReader(reader: Reader, val isHostFile: Boolean) :
+        BufferedReader(reader)
 
-            val hashesNew = ArrayList<Int>()
-
-            if (blackListFileIsHost || isInputFileFormatCorrect(uri, rulesRegex)) {
-                contentResolver.openInputStream(uri)?.use { inputStream ->
-                    BufferedReader(InputStreamReader(inputStream)).use { reader ->
-                        mixFilesCommonPart(
-                            printWriter,
-                            reader,
-                            rulesRegex,
-                            hashIsRequired,
-                            index,
-                            hashesNew
-                        )
-                    }
-                }
-            }
-        } catch (e: Exception) {
-            Log.e(LOG_TAG, "ImportRules Exception " + e.message + " " + e.cause)
-        }
-    }
+    private fun openFileReader(file: String, rulesRegex: Regex): RulesReader? {
+        val inputFile = File(file)
 
-    private fun mixFilesCommonPart(
-        printWriter: PrintWriter, reader: BufferedReader,
-        rulesRegex: Regex, hashIsRequired: Boolean,
-        index: Int, hashesNew: ArrayList<Int>
-    ) {
-        var line = reader.readLine()?.trim()
-        while (line != null && !currentThread().isInterrupted) {
-            val lineReady = if (blackListFileIsHost) {
-                hostToBlackList(line)
-            } else {
-                cleanRule(line, rulesRegex)
-            }
+        if (file.isEmpty() || !inputFile.isFile) {
+            return null
+        }
 
-            if (hashIsRequired) {
-                hash = lineReady.hashCode()
-            }
+        val isHostFile = DNSCryptRulesVariant.BLACKLIST_HOSTS == rulesVariant
+                && isInputFileFormatCorrect(inputFile, hostFileRegex)
 
-            if (lineReady.isNotEmpty() && (!hashIsRequired || index < 1 || Arrays.binarySearch(
-                    hashes,
-                    hash
-                ) < 0)
-            ) {
+        return if (isHostFile || isInputFileFormatCorrect(inputFile, rulesRegex)) {
+            RulesReader(inputFile.reader(), isHostFile)
+        } else {
+            null
+        }
+    }
 
-                if (hashIsRequired) {
-                    hashesNew += hash
-                }
+    private fun openUriReader(uri: Uri, rulesRegex: Regex): RulesReader? {
+        val isHostFile = DNSCryptRulesVariant.BLACKLIST_HOSTS == rulesVariant
+                && isInputFileFormatCorrect(uri, hostFileRegex)
 
-                printWriter.println(lineReady)
-                linesCount++
-                if (System.currentTimeMillis() - savedTime > 500) {
-                    onDNSCryptRuleAddLineListener?.onDNSCryptRuleLineAdded(linesCount)
-                    savedTime = System.currentTimeMillis()
-                }
+        return if (isHostFile || isInputFileFormatCorrect(uri, rulesRegex)) {
+            contentResolver.openInputStream(uri)?.let { inputStream ->
+                RulesReader(InputStreamReader(inputStream), isHostFile)
             }
-            line = reader.readLine()?.trim()
+        } else {
+            null
         }
-
-        val arrNew = IntArray(hashes.size + hashesNew.size)
-        System.arraycopy(hashes, 0, arrNew, 0, hashes.size)
-        System.arraycopy(hashesNew.toIntArray(), 0, arrNew, hashes.size, hashesNew.size)
-        hashes = arrNew
-        hashes.sort()
     }
 
     private fun cleanRule(line: String, regExp: Regex): String {
@@ -379,16 +260,6 @@ class ImportRules(
         return output
     }
 
-    private fun addDefaultLinesIfRequired(printWriter: PrintWriter) {
-        if (DNSCryptRulesVariant.CLOAKING == rulesVariant) {
-            printWriter.println(itpdRedirectAddress)
-        } else if (DNSCryptRulesVariant.FORWARDING == rulesVariant) {
-            printWriter.println(
-                "onion 127.0.0.1:" + App.instance.daggerComponent.getPathVars().get().torDNSPort
-            )
-        }
-    }
-
     private fun isInputFileFormatCorrect(file: File, regExp: Regex): Boolean {
         file.bufferedReader().use {
             var line = it.readLine()?.trim()
@@ -430,9 +301,21 @@ class ImportRules(
         return false
     }
 
-    private fun restartDNSCryptIfRequired() {
-        if (ModulesStatus.getInstance().dnsCryptState == ModuleState.RUNNING) {
-            ModulesRestarter.restartDNSCrypt(context)
+    //Import is shown as finished when DNSCrypt is restarted and uses the new rules
+    private fun restartDNSCryptIfRequired(): Boolean {
+        if (ModulesStatus.getInstance().dnsCryptState != ModuleState.RUNNING) {
+            return false
         }
+
+        val listener = onDNSCryptRuleAddLineListener
+        App.instance.daggerComponent.getModulesRestartScheduler().get()
+            .scheduleRestart(ModuleName.DNSCRYPT_MODULE, false) { _, success ->
+                if (!success) {
+                    Log.w(LOG_TAG, "ImportRules DNSCrypt was not restarted")
+                }
+                listener?.onDNSCryptRuleLinesAddingFinished()
+            }
+
+        return true
     }
 }
\ No newline at end of file
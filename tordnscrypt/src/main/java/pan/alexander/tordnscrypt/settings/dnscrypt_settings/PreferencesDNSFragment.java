@@ -25,6 +25,7 @@ import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.Environment;
 import android.util.Log;
 import android.widget.Toast;
@@ -48,16 +49,17 @@ import java.util.Objects;
 import dagger.Lazy;
 import pan.alexander.tordnscrypt.App;
 import pan.alexander.tordnscrypt.R;
-import pan.alexander.tordnscrypt.settings.SettingsActivity;
 import pan.alexander.tordnscrypt.dialogs.progressDialogs.ImportRulesDialog;
 import pan.alexander.tordnscrypt.modules.ModulesAux;
-import pan.alexander.tordnscrypt.modules.ModulesRestarter;
+import pan.alexander.tordnscrypt.modules.ModulesRestartScheduler;
 import pan.alexander.tordnscrypt.modules.ModulesStatus;
 import pan.alexander.tordnscrypt.settings.ConfigEditorFragment;
 import pan.alexander.tordnscrypt.settings.PathVars;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
 import pan.alexander.tordnscrypt.utils.Utils;
+import pan.alexander.tordnscrypt.utils.configs.ModulesConfigCache;
 import pan.alexander.tordnscrypt.utils.enums.DNSCryptRulesVariant;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.filemanager.FileManager;
 import pan.alexander.tordnscrypt.vpn.service.ServiceVPN;
 
@@ -69,6 +71,7 @@ import static pan.alexander.tordnscrypt.utils.preferences.PreferenceKeys.IGNORE_
 import static pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG;
 import static pan.alexander.tordnscrypt.utils.enums.ModuleState.STOPPED;
 import static pan.alexander.tordnscrypt.utils.enums.OperationMode.ROOT_MODE;
+import static pan.alexander.tordnscrypt.utils.enums.ModuleName.DNSCRYPT_MODULE;
 
 import javax.inject.Inject;
 
@@ -86,6 +89,12 @@ public class PreferencesDNSFragment extends PreferenceFragmentCompat
     public Lazy<PathVars> pathVars;
     @Inject
     public CachedExecutor cachedExecutor;
+    @Inject
+    public Lazy<ModulesRestartScheduler> modulesRestartScheduler;
+    @Inject
+    public Lazy<ModulesConfigCache> modulesConfigCache;
+    @Inject
+    public Lazy<Handler> handler;
 
     private final static String ipv4Regex = "^((25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)$";
 
@@ -284,14 +293,22 @@ public class PreferencesDNSFragment extends PreferenceFragmentCompat
 
         if (!isChanged) return;
 
-        FileManager.writeToTextFile(context, appDataDir + "/app_data/dnscrypt-proxy/dnscrypt-proxy.toml", dnscrypt_proxy_toml, SettingsActivity.dnscrypt_proxy_toml_tag);
+        Context appContext = context.getApplicationContext();
 
-        boolean dnsCryptRunning = ModulesAux.isDnsCryptSavedStateRunning();
+        cachedExecutor.submit(TaskScheduler.Pool.IO, () -> {
+            boolean saved = modulesConfigCache.get().editDnsCryptConfig(config -> config.replaceLines(dnscrypt_proxy_toml));
 
-        if (dnsCryptRunning) {
-            ModulesRestarter.restartDNSCrypt(context);
-            ModulesStatus.getInstance().setIptablesRulesUpdateRequested(context, true);
-        }
+            if (!saved) {
+                return;
+            }
+
+            handler.get().post(() -> Toast.makeText(appContext, R.string.toastSettings_saved, Toast.LENGTH_SHORT).show());
+
+            if (ModulesAux.isDnsCryptSavedStateRunning()) {
+                modulesRestartScheduler.get().scheduleRestart(DNSCRYPT_MODULE);
+                ModulesStatus.getInstance().setIptablesRulesUpdateRequested(appContext, true);
+            }
+        });
     }
 
 
@@ -615,7 +632,7 @@ public class PreferencesDNSFragment extends PreferenceFragmentCompat
 
     private void checkRootDirAccessible() {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
-            cachedExecutor.submit(() -> {
+            cachedExecutor.submit(TaskScheduler.Pool.IO, () -> {
                 rootDirAccessible = Utils.INSTANCE.isLogsDirAccessible();
             });
         }
@@ -642,7 +659,7 @@ public class PreferencesDNSFragment extends PreferenceFragmentCompat
             return;
         }
 
-        cachedExecutor.submit(() -> {
+        cachedExecutor.submit(TaskScheduler.Pool.IO, () -> {
 
             boolean successfully1 = !FileManager.deleteFileSynchronous(context, appDataDir
                     + "/app_data/dnscrypt-proxy", "public-resolvers.md");
@@ -19,7 +19,6 @@ package pan.alexander.tordnscrypt.settings.firewall
     Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
 */
 
-import android.annotation.SuppressLint
 import android.content.Context
 import android.text.Html
 import android.util.Log
@@ -30,6 +29,7 @@ import android.widget.ImageButton
 import android.widget.ImageView
 import android.widget.TextView
 import androidx.core.content.ContextCompat
+import androidx.recyclerview.widget.AsyncListDiffer
 import androidx.recyclerview.widget.RecyclerView
 import pan.alexander.tordnscrypt.R
 import pan.alexander.tordnscrypt.modules.ModulesStatus
@@ -41,6 +41,8 @@ class FirewallAdapter(private val firewallFragment: FirewallFragment) :
 
     private var context = firewallFragment.requireContext()
 
+    private val diff = AsyncListDiffer(this, FirewallAppModelDiffUtilItemCallback())
+
     override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): FirewallViewHolder {
         val itemView =
             LayoutInflater.from(parent.context).inflate(R.layout.item_firewall, parent, false)
@@ -58,37 +60,23 @@ class FirewallAdapter(private val firewallFragment: FirewallFragment) :
     }
 
     override fun getItemId(position: Int): Long {
-        return position.toLong()
+        return getItem(position).applicationData.uid.toLong()
     }
 
     override fun getItemCount(): Int {
-        return firewallFragment.appsList.size
+        return diff.currentList.size
     }
 
     fun getItem(position: Int): FirewallAppModel {
-        return firewallFragment.appsList[position]
+        return diff.currentList[position]
     }
 
-    private fun setItem(
-        position: Int,
-        firewallAppModel: FirewallAppModel
-    ) {
-        firewallFragment.appsList[position] = firewallAppModel
-
-        val uid = firewallAppModel.applicationData.uid
-        run label@{
-            firewallFragment.savedAppsListWhenSearch?.forEachIndexed { index, savedApp ->
-                if (savedApp.applicationData.uid == uid) {
-                    firewallFragment.savedAppsListWhenSearch?.set(index, firewallAppModel)
-                    return@label
-                }
-            }
-        }
+    fun submitList(apps: List<FirewallAppModel>) {
+        diff.submitList(apps)
     }
 
-    private fun allowLan(position: Int, firewallAppModel: FirewallAppModel, allow: Boolean) {
+    private fun allowLan(firewallAppModel: FirewallAppModel, allow: Boolean) {
         firewallAppModel.allowLan = allow
-        setItem(position, firewallAppModel)
 
         if (firewallFragment.allowLanForAll) {
             firewallFragment.allowLanForAll = false
@@ -99,9 +87,8 @@ class FirewallAdapter(private val firewallFragment: FirewallFragment) :
         }
     }
 
-    private fun allowWifi(position: Int, firewallAppModel: FirewallAppModel, allow: Boolean) {
+    private fun allowWifi(firewallAppModel: FirewallAppModel, allow: Boolean) {
         firewallAppModel.allowWifi = allow
-        setItem(position, firewallAppModel)
 
         if (firewallFragment.allowWifiForAll) {
             firewallFragment.allowWifiForAll = false
@@ -112,9 +99,8 @@ class FirewallAdapter(private val firewallFragment: FirewallFragment) :
         }
     }
 
-    private fun allowGsm(position: Int, firewallAppModel: FirewallAppModel, allow: Boolean) {
+    private fun allowGsm(firewallAppModel: FirewallAppModel, allow: Boolean) {
         firewallAppModel.allowGsm = allow
-        setItem(position, firewallAppModel)
 
         if (firewallFragment.allowGsmForAll) {
             firewallFragment.allowGsmForAll = false
@@ -125,9 +111,8 @@ class FirewallAdapter(private val firewallFragment: FirewallFragment) :
         }
     }
 
-    private fun allowRoaming(position: Int, firewallAppModel: FirewallAppModel, allow: Boolean) {
+    private fun allowRoaming(firewallAppModel: FirewallAppModel, allow: Boolean) {
         firewallAppModel.allowRoaming = allow
-        setItem(position, firewallAppModel)
 
         if (firewallFragment.allowRoamingForAll) {
             firewallFragment.allowRoamingForAll = false
@@ -138,9 +123,8 @@ class FirewallAdapter(private val firewallFragment: FirewallFragment) :
         }
     }
 
-    private fun allowVpn(position: Int, firewallAppModel: FirewallAppModel, allow: Boolean) {
+    private fun allowVpn(firewallAppModel: FirewallAppModel, allow: Boolean) {
         firewallAppModel.allowVPN = allow
-        setItem(position, firewallAppModel)
 
         if (firewallFragment.allowVPNForAll) {
             firewallFragment.allowVPNForAll = false
@@ -258,7 +242,6 @@ class FirewallAdapter(private val firewallFragment: FirewallFragment) :
             )
         }
 
-        @SuppressLint("NotifyDataSetChanged")
         override fun onClick(v: View?) {
             val id = v?.id
             val position = bindingAdapterPosition
@@ -272,17 +255,17 @@ class FirewallAdapter(private val firewallFragment: FirewallFragment) :
             val item = getItem(position)
 
             when (id) {
-                R.id.btnLanFirewall -> allowLan(position, item, !item.allowLan)
-                R.id.btnWifiFirewall -> allowWifi(position, item, !item.allowWifi)
-                R.id.btnGsmFirewall -> allowGsm(position, item, !item.allowGsm)
-                R.id.btnRoamingFirewall -> allowRoaming(position, item, !item.allowRoaming)
-                R.id.btnVpnFirewall -> allowVpn(position, item, !item.allowVPN)
+                R.id.btnLanFirewall -> allowLan(item, !item.allowLan)
+                R.id.btnWifiFirewall -> allowWifi(item, !item.allowWifi)
+                R.id.btnGsmFirewall -> allowGsm(item, !item.allowGsm)
+                R.id.btnRoamingFirewall -> allowRoaming(item, !item.allowRoaming)
+                R.id.btnVpnFirewall -> allowVpn(item, !item.allowVPN)
                 else -> {
                     Log.e(LOG_TAG, "FirewallAdapter unknown id onclick $id"); return
                 }
             }
 
-            notifyDataSetChanged()
+            notifyItemChanged(position)
         }
     }
 }
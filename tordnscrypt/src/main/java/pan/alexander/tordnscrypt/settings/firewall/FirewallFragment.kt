@@ -33,25 +33,20 @@ import androidx.appcompat.widget.SwitchCompat
 import androidx.core.content.ContextCompat
 import androidx.fragment.app.Fragment
 import androidx.recyclerview.widget.LinearLayoutManager
-import androidx.recyclerview.widget.RecyclerView
 import com.google.android.material.chip.ChipGroup
 import pan.alexander.tordnscrypt.App
 import pan.alexander.tordnscrypt.R
 import pan.alexander.tordnscrypt.databinding.FragmentFirewallBinding
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceRepository
 import pan.alexander.tordnscrypt.modules.ModulesStatus
-import pan.alexander.tordnscrypt.settings.tor_apps.ApplicationData
-import pan.alexander.tordnscrypt.utils.apps.InstalledApplicationsManager
+import pan.alexander.tordnscrypt.utils.apps.InstalledAppsRepository
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler
 import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
 import pan.alexander.tordnscrypt.utils.enums.OperationMode
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor
 import java.util.*
-import java.util.concurrent.CopyOnWriteArrayList
 import java.util.concurrent.Future
-import java.util.concurrent.TimeUnit
-import java.util.concurrent.locks.ReentrantLock
 import javax.inject.Inject
-import kotlin.Comparator
 
 
 const val APPS_ALLOW_LAN_PREF = "appsAllowLan"
@@ -62,7 +57,7 @@ const val APPS_ALLOW_VPN = "appsAllowVpn"
 const val APPS_NEWLY_INSTALLED = "appsNewlyInstalled"
 
 @SuppressLint("NotifyDataSetChanged")
-class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListener,
+class FirewallFragment : Fragment(),
     View.OnClickListener,
     SearchView.OnQueryTextListener, ChipGroup.OnCheckedChangeListener,
     CompoundButton.OnCheckedChangeListener {
@@ -73,23 +68,27 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
     lateinit var cachedExecutor: CachedExecutor
     @Inject
     lateinit var handler: dagger.Lazy<Handler>
+    @Inject
+    lateinit var firewallPolicyStore: dagger.Lazy<FirewallPolicyStore>
+    @Inject
+    lateinit var installedAppsRepository: dagger.Lazy<InstalledAppsRepository>
 
     private var _binding: FragmentFirewallBinding? = null
     private val binding get() = _binding!!
 
     private val modulesStatus = ModulesStatus.getInstance()
     private var futureTask: Future<*>? = null
-    private var firewallAdapter: RecyclerView.Adapter<FirewallAdapter.FirewallViewHolder>? = null
+    private var firewallAdapter: FirewallAdapter? = null
     private var lastVisibleAdapterPosition: Int = 0
 
     var firewallSwitch: SwitchCompat? = null
 
-    @Volatile
-    var appsList = CopyOnWriteArrayList<FirewallAppModel>()
-    private val appsNewlyInstalledList by lazy { ArrayList<FirewallAppModel>() }
-    var savedAppsListWhenSearch: CopyOnWriteArrayList<FirewallAppModel>? = null
-
-    private val reentrantLock = ReentrantLock()
+    //Displayed apps, models are shared with appsByUid
+    var appsList: List<FirewallAppModel> = emptyList()
+        private set
+    private val appsByUid = hashMapOf<Int, FirewallAppModel>()
+    private val appsNewlyInstalled = mutableSetOf<Int>()
+    private var installedApps: InstalledAppsRepository.InstalledApps? = null
 
     private var appsAllowLan = mutableSetOf<Int>()
     private var appsAllowWifi = mutableSetOf<Int>()
@@ -115,14 +114,14 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
     @Volatile
     var appsListComplete = false
 
+    private var firewallPolicyLoadingStarted = false
+    private var firewallPolicyLoaded = false
+    private var firewallFirstStart = false
+
     private var searchText: String? = null
 
     var firewallEnabled = false
 
-    private var comparatorWithName: Comparator<FirewallAppModel>? = null
-
-    private var comparatorWithUID: Comparator<FirewallAppModel>? = null
-
     @Suppress("deprecation")
     override fun onCreate(savedInstanceState: Bundle?) {
         App.instance.daggerComponent.inject(this)
@@ -132,8 +131,6 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
         retainInstance = true
 
         firewallEnabled = preferenceRepository.get().getBoolPreference("FirewallEnabled")
-
-        initComparators()
     }
 
     @SuppressLint("ResourceType")
@@ -146,7 +143,7 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
         _binding = FragmentFirewallBinding.inflate(inflater, container, false)
 
         if (firewallEnabled) {
-            enableFirewall(context)
+            enableFirewall()
         } else {
             disableFirewall()
         }
@@ -173,16 +170,19 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
 
         searchText = null
 
-        when {
-            binding.chipFirewallSystem.isChecked -> chipSelectSystemApps(context)
-            binding.chipFirewallUser.isChecked -> chipSelectUserApps(context)
-            binding.chipFirewallAll.isChecked -> chipSelectAllApps(context)
-            else -> updateTopIcons(context)
-        }
+        updateTopIcons(context)
 
         return binding.root
     }
 
+    override fun onViewCreated(view: View, savedInstanceState: Bundle?) {
+        super.onViewCreated(view, savedInstanceState)
+
+        installedAppsRepository.get().apps.observe(viewLifecycleOwner) { apps ->
+            apps?.let { onInstalledAppsChanged(it) }
+        }
+    }
+
     override fun onResume() {
         super.onResume()
 
@@ -205,10 +205,8 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
             binding.pbFirewallApp.visibility = View.VISIBLE
         }
 
-        if (searchText != null && appsListComplete && !binding.rvFirewallApps.isComputingLayout) {
-            updateTopIconsData()
-            updateTopIcons(context)
-            firewallAdapter?.notifyDataSetChanged()
+        if (appsListComplete) {
+            updateAppsList()
         }
 
         if (lastVisibleAdapterPosition > 0 && appsListComplete) {
@@ -234,6 +232,7 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
     override fun onDestroyView() {
         super.onDestroyView()
 
+        firewallAdapter = null
         _binding = null
     }
 
@@ -244,220 +243,153 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
         handler.get().removeCallbacksAndMessages(null)
     }
 
-    private fun initComparators() {
+    private fun getDeviceApps() {
 
-        val rootMode = modulesStatus.mode == OperationMode.ROOT_MODE
-
-        comparatorWithName = compareBy({
-            !(it.allowLan
-                    || it.allowWifi
-                    || it.allowGsm
-                    || it.allowRoaming
-                    || it.allowVPN && rootMode)
-        },
-            { it.applicationData.names.first() })
-
-        comparatorWithUID = compareBy({
-            !(it.allowLan
-                    || it.allowWifi
-                    || it.allowGsm
-                    || it.allowRoaming
-                    || it.allowVPN && rootMode)
-        },
-            { it.applicationData.uid })
-    }
-
-    private fun getDeviceApps(context: Context) {
-
-        if (appsList.isNotEmpty()) {
+        if (firewallPolicyLoadingStarted) {
+            installedAppsRepository.get().load()
             return
         }
 
-        appsListComplete = false
-
-        futureTask = cachedExecutor.submit {
-
-            try {
+        firewallPolicyLoadingStarted = true
 
-                reentrantLock.lockInterruptibly()
+        binding.pbFirewallApp.isIndeterminate = true
+        binding.pbFirewallApp.visibility = View.VISIBLE
 
-                if (appsList.isEmpty()) {
+        futureTask = cachedExecutor.submit(TaskScheduler.Pool.IO) {
 
-                    handler.get().post {
-                        if (_binding != null) {
-                            binding.pbFirewallApp.isIndeterminate = true
-                            binding.pbFirewallApp.visibility = View.VISIBLE
-                        }
-                    }
+            try {
+                val preferences = preferenceRepository.get()
 
-                    val preferences = preferenceRepository.get()
+                val firstStart = !preferences.getBoolPreference("FirewallWasStarted")
+                if (firstStart) {
+                    preferences.setBoolPreference("FirewallWasStarted", true)
+                }
 
-                    val firewallFirstStart = !preferences.getBoolPreference("FirewallWasStarted")
-                    if (firewallFirstStart) {
-                        preferences.setBoolPreference("FirewallWasStarted", true)
-                    }
+                val policy = firewallPolicyStore.get().getPolicy()
+                val allowLan = policy.getUids(FIREWALL_ALLOW_LAN)
+                val allowWifi = policy.getUids(FIREWALL_ALLOW_WIFI)
+                val allowGsm = policy.getUids(FIREWALL_ALLOW_GSM)
+                val allowRoaming = policy.getUids(FIREWALL_ALLOW_ROAMING)
+                val allowVpn = policy.getUids(FIREWALL_ALLOW_VPN)
 
-                    appsAllowLan.addAll(
-                        stringSetToIntSet(
-                            preferences.getStringSetPreference(APPS_ALLOW_LAN_PREF)
-                        )
-                    )
-                    appsAllowWifi.addAll(
-                        stringSetToIntSet(
-                            preferences.getStringSetPreference(APPS_ALLOW_WIFI_PREF)
-                        )
-                    )
-                    appsAllowGsm.addAll(
-                        stringSetToIntSet(
-                            preferences.getStringSetPreference(APPS_ALLOW_GSM_PREF)
-                        )
-                    )
-                    appsAllowRoaming.addAll(
-                        stringSetToIntSet(
-                            preferences.getStringSetPreference(APPS_ALLOW_ROAMING)
-                        )
+                val appsNewlyInstalledSavedSet =
+                    stringSetToIntSet(
+                        preferences.getStringSetPreference(APPS_NEWLY_INSTALLED)
                     )
-                    appsAllowVpn.addAll(
-                        stringSetToIntSet(
-                            preferences.getStringSetPreference(APPS_ALLOW_VPN)
-                        )
-                    )
-
-                    val appsNewlyInstalledSavedSet =
-                        stringSetToIntSet(
-                            preferences.getStringSetPreference(APPS_NEWLY_INSTALLED)
-                        )
-
-                    val installedApplications = InstalledApplicationsManager(context, setOf())
-                    installedApplications.setOnAppAddListener(this@FirewallFragment)
-                    val installedApps = installedApplications.getInstalledApps(true)
-
-                    while (_binding?.rvFirewallApps?.isComputingLayout == true) {
-                        TimeUnit.MILLISECONDS.sleep(100)
-                    }
-
-                    appsListComplete = true
-
-                    appsList.clear()
-
-                    for (applicationData: ApplicationData in installedApps) {
-                        val uid = applicationData.uid
-
-                        if (appsNewlyInstalledSavedSet.contains(uid)) {
-                            appsNewlyInstalledList.add(
-                                0, FirewallAppModel(
-                                    applicationData,
-                                    appsAllowLan.contains(uid),
-                                    appsAllowWifi.contains(uid),
-                                    appsAllowGsm.contains(uid),
-                                    appsAllowRoaming.contains(uid),
-                                    appsAllowVpn.contains(uid)
-                                )
-                            )
-                        } else {
-                            appsList.add(
-                                FirewallAppModel(
-                                    applicationData,
-                                    appsAllowLan.contains(uid),
-                                    appsAllowWifi.contains(uid),
-                                    appsAllowGsm.contains(uid),
-                                    appsAllowRoaming.contains(uid),
-                                    appsAllowVpn.contains(uid)
-                                )
-                            )
-                        }
-                    }
 
-                    preferences.setStringSetPreference(APPS_NEWLY_INSTALLED, setOf())
-
-                    val appListSize = appsList.size
-                    allowLanForAll = appsAllowLan.size == appListSize
-                    allowWifiForAll = appsAllowWifi.size == appListSize
-                    allowGsmForAll = appsAllowGsm.size == appListSize
-                    allowRoamingForAll = appsAllowRoaming.size == appListSize
-                    allowVPNForAll = appsAllowVpn.size == appListSize
-
-                    while (_binding?.rvFirewallApps?.isComputingLayout == true) {
-                        TimeUnit.MILLISECONDS.sleep(100)
-                    }
-
-                    handler.get().post {
-
-                        if (_binding != null) {
-                            binding.pbFirewallApp.isIndeterminate = false
-                            binding.pbFirewallApp.visibility = View.GONE
-
-                            if (firewallFirstStart) {
-                                activateAllFirsStart(context)
-                            }
-
-                            if (binding.chipFirewallSortUid.isChecked) {
-                                sortByUid()
-                            } else {
-                                sortByName()
-                            }
-
-                            appsNewlyInstalledList.forEach {
-                                appsList.add(0, it)
-                            }
-                            appsNewlyInstalledList.clear()
-
-                            if (binding.chipFirewallSystem.isChecked) {
-                                chipSelectSystemApps(context)
-                            } else if (binding.chipFirewallUser.isChecked) {
-                                chipSelectUserApps(context)
-                            }
-
-                            if (allowLanForAll || allowWifiForAll || allowGsmForAll
-                                || allowRoamingForAll || allowVPNForAll
-                            ) {
-                                updateTopIcons(context)
-                            }
-
-                            firewallAdapter?.notifyDataSetChanged()
-                        }
+                preferences.setStringSetPreference(APPS_NEWLY_INSTALLED, setOf())
+
+                handler.get().post {
+                    appsAllowLan.addAll(allowLan)
+                    appsAllowWifi.addAll(allowWifi)
+                    appsAllowGsm.addAll(allowGsm)
+                    appsAllowRoaming.addAll(allowRoaming)
+                    appsAllowVpn.addAll(allowVpn)
+                    appsNewlyInstalled.addAll(appsNewlyInstalledSavedSet)
+                    firewallFirstStart = firstStart
+                    firewallPolicyLoaded = true
+
+                    installedAppsRepository.get().apply {
+                        apps.value?.let { onInstalledAppsChanged(it) }
+                        load()
                     }
                 }
 
             } catch (e: Exception) {
-                appsListComplete = true
                 Log.e(
                     LOG_TAG,
                     "FirewallFragment getDeviceApps exception ${e.message} ${e.cause} ${
                         Arrays.toString(e.stackTrace)
                     }"
                 )
-            } finally {
-                if (reentrantLock.isLocked) {
-                    reentrantLock.unlock()
+            }
+        }
+    }
+
+    private fun onInstalledAppsChanged(apps: InstalledAppsRepository.InstalledApps) {
+        if (!firewallPolicyLoaded || apps === installedApps) {
+            return
+        }
+
+        val firstLoad = appsByUid.isEmpty()
+        val previousApps = HashMap(appsByUid)
+        appsByUid.clear()
+
+        for (applicationData in apps.byName) {
+            val uid = applicationData.uid
+            val previousApp = previousApps[uid]
+
+            appsByUid[uid] = if (previousApp != null) {
+                previousApp.copy(applicationData = applicationData)
+            } else {
+                if (!firstLoad) {
+                    appsNewlyInstalled.add(uid)
                 }
+                FirewallAppModel(
+                    applicationData,
+                    appsAllowLan.contains(uid),
+                    appsAllowWifi.contains(uid),
+                    appsAllowGsm.contains(uid),
+                    appsAllowRoaming.contains(uid),
+                    appsAllowVpn.contains(uid)
+                )
             }
         }
+
+        installedApps = apps
+        appsListComplete = true
+
+        if (_binding == null) {
+            return
+        }
+
+        binding.pbFirewallApp.isIndeterminate = false
+        binding.pbFirewallApp.visibility = View.GONE
+
+        if (firewallFirstStart) {
+            firewallFirstStart = false
+            activateAllFirsStart(binding.root.context)
+        }
+
+        updateAppsList()
     }
 
-    override fun onAppAdded(application: ApplicationData) {
-        if (appsListComplete || _binding?.rvFirewallApps?.isComputingLayout == true) {
+    //Newly installed apps are on top, then apps with any allowed connection
+    private fun updateAppsList() {
+        val apps = installedApps ?: return
+
+        if (_binding == null) {
             return
         }
 
-        val uid = application.uid
-        appsList.add(
-            0,
-            FirewallAppModel(
-                application,
-                appsAllowLan.contains(uid),
-                appsAllowWifi.contains(uid),
-                appsAllowGsm.contains(uid),
-                appsAllowRoaming.contains(uid),
-                appsAllowVpn.contains(uid)
-            )
-        )
+        val filter = when {
+            binding.chipFirewallSystem.isChecked -> InstalledAppsRepository.Filter.SYSTEM
+            binding.chipFirewallUser.isChecked -> InstalledAppsRepository.Filter.USER
+            else -> InstalledAppsRepository.Filter.ALL
+        }
+
+        val rootMode = modulesStatus.mode == OperationMode.ROOT_MODE
 
-        handler.get().post {
-            if (!appsListComplete && _binding?.rvFirewallApps?.isComputingLayout == false) {
-                firewallAdapter?.notifyDataSetChanged()
+        val newlyInstalled = arrayListOf<FirewallAppModel>()
+        val allowed = arrayListOf<FirewallAppModel>()
+        val denied = arrayListOf<FirewallAppModel>()
+
+        apps.select(filter, searchText, binding.chipFirewallSortUid.isChecked, true).forEach {
+            val app = appsByUid[it.uid] ?: return@forEach
+            when {
+                appsNewlyInstalled.contains(it.uid) -> newlyInstalled.add(app)
+                app.allowLan || app.allowWifi || app.allowGsm || app.allowRoaming
+                        || app.allowVPN && rootMode -> allowed.add(app)
+                else -> denied.add(app)
             }
         }
+
+        appsList = newlyInstalled + allowed + denied
+
+        firewallAdapter?.submitList(appsList)
+
+        updateTopIconsData()
+        updateTopIcons(binding.root.context)
     }
 
     override fun onClick(v: View?) {
@@ -476,7 +408,7 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
             R.id.btnTopCheckAllFirewall -> activateAll(v.context, true)
             R.id.btnTopUnCheckAllFirewall -> activateAll(v.context, false)
             R.id.btnPowerFirewall -> {
-                enableFirewall(v.context)
+                enableFirewall()
                 modulesStatus.setIptablesRulesUpdateRequested(context, true)
             }
             else -> Log.e(LOG_TAG, "FirewallFragment onClick unknown id: ${v.id}")
@@ -484,46 +416,26 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
     }
 
     override fun onQueryTextSubmit(query: String?): Boolean {
-
-        if (!appsListComplete || binding.rvFirewallApps.isComputingLayout) {
-            return false
-        }
-
-        searchApps(query)
-        firewallAdapter?.notifyDataSetChanged()
-
-        return true
+        return searchApps(query)
     }
 
     override fun onQueryTextChange(newText: String?): Boolean {
-
-        if (!appsListComplete || binding.rvFirewallApps.isComputingLayout) {
-            return false
-        }
-
-        searchApps(newText)
-        firewallAdapter?.notifyDataSetChanged()
-
-        return true
+        return searchApps(newText)
     }
 
     override fun onCheckedChanged(group: ChipGroup?, checkedId: Int) {
-        val context = group?.context ?: return
-
-        if (!appsListComplete || binding.rvFirewallApps.isComputingLayout) {
+        if (!appsListComplete) {
             return
         }
 
         when (checkedId) {
-            R.id.chipFirewallAll -> chipSelectAllApps(context)
-            R.id.chipFirewallSystem -> chipSelectSystemApps(context)
-            R.id.chipFirewallUser -> chipSelectUserApps(context)
-            R.id.chipFirewallSortName -> sortByName()
-            R.id.chipFirewallSortUid -> sortByUid()
+            R.id.chipFirewallAll,
+            R.id.chipFirewallSystem,
+            R.id.chipFirewallUser,
+            R.id.chipFirewallSortName,
+            R.id.chipFirewallSortUid -> updateAppsList()
             else -> Log.e(LOG_TAG, "FirewallFragment chipGroup onCheckedChanged wrong id: $id")
         }
-
-        firewallAdapter?.notifyDataSetChanged()
     }
 
     override fun onCheckedChanged(buttonView: CompoundButton?, isChecked: Boolean) {
@@ -531,7 +443,7 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
 
         if (buttonView.id == R.id.menu_switch) {
             if (isChecked) {
-                enableFirewall(context)
+                enableFirewall()
             } else {
                 disableFirewall()
             }
@@ -544,20 +456,13 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
             return false
         }
 
-        savedAppsListWhenSearch?.let {
-            if (it.isNotEmpty()) {
-                appsList = it
-                savedAppsListWhenSearch = null
-            }
-        }
-
         val appsAllowLanToSave = mutableSetOf<Int>()
         val appsAllowWifiToSave = mutableSetOf<Int>()
         val appsAllowGsmToSave = mutableSetOf<Int>()
         val appsAllowRoamingToSave = mutableSetOf<Int>()
         val appsAllowVpnToSave = mutableSetOf<Int>()
 
-        for (firewallAppModel: FirewallAppModel in appsList) {
+        for (firewallAppModel: FirewallAppModel in appsByUid.values) {
             val uid = firewallAppModel.applicationData.uid
             if (firewallAppModel.allowLan) {
                 appsAllowLanToSave.add(uid)
@@ -616,20 +521,13 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
 
         val context = context ?: return
 
-        savedAppsListWhenSearch?.let {
-            if (it.isNotEmpty()) {
-                appsList = it
-                savedAppsListWhenSearch = null
-            }
-        }
-
         val appsAllowLanToSave = mutableSetOf<Int>()
         val appsAllowWifiToSave = mutableSetOf<Int>()
         val appsAllowGsmToSave = mutableSetOf<Int>()
         val appsAllowRoamingToSave = mutableSetOf<Int>()
         val appsAllowVpnToSave = mutableSetOf<Int>()
 
-        for (firewallAppModel: FirewallAppModel in appsList) {
+        for (firewallAppModel: FirewallAppModel in appsByUid.values) {
             val uid = firewallAppModel.applicationData.uid
             if (firewallAppModel.allowLan) {
                 appsAllowLanToSave.add(uid)
@@ -648,55 +546,19 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
             }
         }
 
-        var iptablesUpdateRequired = false
-        val preferences = preferenceRepository.get()
-
+        appsAllowLan = appsAllowLanToSave
+        appsAllowWifi = appsAllowWifiToSave
+        appsAllowGsm = appsAllowGsmToSave
+        appsAllowRoaming = appsAllowRoamingToSave
+        appsAllowVpn = appsAllowVpnToSave
 
-        if (appsAllowLanToSave.size != appsAllowLan.size || !appsAllowLanToSave.containsAll(
-                appsAllowLan
-            )
-        ) {
-            appsAllowLan = appsAllowLanToSave
-            preferences.setStringSetPreference(APPS_ALLOW_LAN_PREF, intSetToStringSet(appsAllowLan))
-            iptablesUpdateRequired = true
-        }
-        if (appsAllowWifiToSave.size != appsAllowWifi.size || !appsAllowWifiToSave.containsAll(
-                appsAllowWifi
-            )
-        ) {
-            appsAllowWifi = appsAllowWifiToSave
-            preferences.setStringSetPreference(
-                APPS_ALLOW_WIFI_PREF,
-                intSetToStringSet(appsAllowWifi)
-            )
-            iptablesUpdateRequired = true
-        }
-        if (appsAllowGsmToSave.size != appsAllowGsm.size || !appsAllowGsmToSave.containsAll(
-                appsAllowGsm
-            )
-        ) {
-            appsAllowGsm = appsAllowGsmToSave
-            preferences.setStringSetPreference(APPS_ALLOW_GSM_PREF, intSetToStringSet(appsAllowGsm))
-            iptablesUpdateRequired = true
-        }
-        if (appsAllowRoamingToSave.size != appsAllowRoaming.size || !appsAllowRoamingToSave.containsAll(
-                appsAllowRoaming
-            )
-        ) {
-            appsAllowRoaming = appsAllowRoamingToSave
-            preferences.setStringSetPreference(
-                APPS_ALLOW_ROAMING,
-                intSetToStringSet(appsAllowRoaming)
-            )
-            iptablesUpdateRequired = true
-        }
-        if (appsAllowVpnToSave.size != appsAllowVpn.size || !appsAllowVpnToSave.containsAll(
-                appsAllowVpn
-            )
-        ) {
-            appsAllowVpn = appsAllowVpnToSave
-            preferences.setStringSetPreference(APPS_ALLOW_VPN, intSetToStringSet(appsAllowVpn))
-            iptablesUpdateRequired = true
+        val iptablesUpdateRequired = firewallPolicyStore.get().update { masks ->
+            masks.clear()
+            putMasks(masks, appsAllowLan, FIREWALL_ALLOW_LAN)
+            putMasks(masks, appsAllowWifi, FIREWALL_ALLOW_WIFI)
+            putMasks(masks, appsAllowGsm, FIREWALL_ALLOW_GSM)
+            putMasks(masks, appsAllowRoaming, FIREWALL_ALLOW_ROAMING)
+            putMasks(masks, appsAllowVpn, FIREWALL_ALLOW_VPN)
         }
 
         if (iptablesUpdateRequired) {
@@ -710,50 +572,11 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
         return intSet
     }
 
-    private fun intSetToStringSet(intSet: MutableSet<Int>): Set<String> {
-        val stringSet = mutableSetOf<String>()
-        intSet.forEach { stringSet.add(it.toString()) }
-        return stringSet
-    }
-
-    private fun sortByName() {
-        if (binding.rvFirewallApps.isComputingLayout || !appsListComplete) {
-            return
-        }
-
-        comparatorWithName?.let { appsList.sortListWith(it) }
-        comparatorWithName?.let { savedAppsListWhenSearch?.sortListWith(it) }
-    }
-
-    private fun sortByUid() {
-        if (binding.rvFirewallApps.isComputingLayout || !appsListComplete) {
-            return
-        }
-
-        comparatorWithUID?.let { appsList.sortListWith(it) }
-        comparatorWithUID?.let { savedAppsListWhenSearch?.sortListWith(it) }
-    }
-
-    @SuppressLint("unused")
-    private inline fun <T, R : Comparable<R>> CopyOnWriteArrayList<T>.sortListBy(crossinline selector: (T) -> R?) {
-        if (size > 1) {
-            val list = ArrayList(this)
-            list.sortBy(selector)
-            clear()
-            addAll(list)
-        }
+    private fun putMasks(masks: MutableMap<Int, Int>, uids: Set<Int>, flag: Int) {
+        uids.forEach { uid -> masks[uid] = (masks[uid] ?: 0) or flag }
     }
 
-    private fun <T> CopyOnWriteArrayList<T>.sortListWith(comparator: Comparator<T>) {
-        if (size > 1) {
-            val list = ArrayList(this)
-            list.sortWith(comparator)
-            clear()
-            addAll(list)
-        }
-    }
-
-    private fun enableFirewall(context: Context) {
+    private fun enableFirewall() {
         firewallEnabled = true
         preferenceRepository.get().setBoolPreference("FirewallEnabled", true)
 
@@ -762,7 +585,7 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
         binding.llFirewallMain.visibility = View.VISIBLE
         binding.rvFirewallApps.visibility = View.VISIBLE
 
-        getDeviceApps(context)
+        getDeviceApps()
 
         firewallSwitch?.isChecked = true
 
@@ -784,144 +607,16 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
         binding.btnPowerFirewall.setOnClickListener(this)
     }
 
-    private fun searchApps(text: String?) {
-        val context = context ?: return
-
+    private fun searchApps(text: String?): Boolean {
         searchText = text
 
-        if (binding.rvFirewallApps.isComputingLayout || !appsListComplete) {
-            return
-        }
-
-        val allAppsSelected = binding.chipFirewallAll.isChecked
-        val systemAppsSelected = binding.chipFirewallSystem.isChecked
-        val userAppsSelected = binding.chipFirewallUser.isChecked
-
-        if (text == null || text.isEmpty()) {
-
-            savedAppsListWhenSearch?.let {
-                appsList = it
-                savedAppsListWhenSearch = null
-            }
-
-            if (systemAppsSelected) {
-                chipSelectSystemApps(context)
-            } else if (userAppsSelected) {
-                chipSelectUserApps(context)
-            }
-
-            return
-        }
-
-        if (savedAppsListWhenSearch == null) {
-            savedAppsListWhenSearch = CopyOnWriteArrayList<FirewallAppModel>(appsList)
-        }
-
-        appsList.clear()
-
-        savedAppsListWhenSearch?.forEach { savedApp ->
-            if (savedApp.applicationData.toString().lowercase(Locale.ROOT)
-                    .contains(text.lowercase(Locale.ROOT).trim())
-            ) {
-                if (allAppsSelected
-                    || systemAppsSelected && savedApp.applicationData.system
-                    || userAppsSelected && !savedApp.applicationData.system
-                ) {
-                    appsList.add(savedApp)
-                }
-
-            }
-        }
-
-        updateTopIconsData()
-        updateTopIcons(context)
-    }
-
-    private fun chipSelectAllApps(context: Context) {
-        if (binding.rvFirewallApps.isComputingLayout || !appsListComplete) {
-            return
-        }
-
-        savedAppsListWhenSearch?.let { savedAppsList ->
-
-            if (searchText == null || searchText?.isBlank() == true) {
-                appsList = savedAppsList
-                savedAppsListWhenSearch = null
-
-                updateTopIconsData()
-                updateTopIcons(context)
-
-            } else {
-                searchText?.let { text ->
-                    searchApps(text)
-                }
-
-            }
-        }
-    }
-
-    private fun chipSelectSystemApps(context: Context) {
-        if (binding.rvFirewallApps.isComputingLayout || !appsListComplete) {
-            return
-        }
-
-        if (savedAppsListWhenSearch == null) {
-            savedAppsListWhenSearch = CopyOnWriteArrayList<FirewallAppModel>(appsList)
-        }
-
-        appsList.clear()
-
-        savedAppsListWhenSearch?.forEach { savedApp ->
-            if (savedApp.applicationData.system) {
-                if (searchText == null || searchText?.isBlank() == true) {
-                    appsList.add(savedApp)
-                } else {
-                    searchText?.let {
-                        if (savedApp.applicationData.toString().lowercase(Locale.ROOT)
-                                .contains(it.lowercase(Locale.ROOT).trim())
-                        ) {
-                            appsList.add(savedApp)
-                        }
-                    }
-
-                }
-            }
-        }
-
-        updateTopIconsData()
-        updateTopIcons(context)
-    }
-
-    private fun chipSelectUserApps(context: Context) {
-        if (binding.rvFirewallApps.isComputingLayout || !appsListComplete) {
-            return
-        }
-
-        if (savedAppsListWhenSearch == null) {
-            savedAppsListWhenSearch = CopyOnWriteArrayList<FirewallAppModel>(appsList)
+        if (!appsListComplete) {
+            return false
         }
 
-        appsList.clear()
-
-        savedAppsListWhenSearch?.forEach { savedApp ->
-            if (!savedApp.applicationData.system) {
-                if (searchText == null || searchText?.isBlank() == true) {
-                    appsList.add(savedApp)
-                } else {
-                    searchText?.let {
-                        if (savedApp.applicationData.toString().lowercase(Locale.ROOT)
-                                .contains(it.lowercase(Locale.ROOT).trim())
-                        ) {
-                            appsList.add(savedApp)
-                        }
-                    }
+        updateAppsList()
 
-                }
-            }
-        }
-
-        updateTopIconsData()
-        updateTopIcons(context)
+        return true
     }
 
     private fun updateTopIconsData() {
@@ -954,8 +649,6 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
             return
         }
 
-        val activatedApps = CopyOnWriteArrayList<FirewallAppModel>()
-
         allowLanForAll = !allowLanForAll
 
         updateLanIcon(context)
@@ -963,10 +656,8 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
         for (firewallAppModel: FirewallAppModel in appsList) {
             firewallAppModel.apply {
                 allowLan = allowLanForAll
-                activatedApps.add(this)
             }
         }
-        appsList = activatedApps
 
         firewallAdapter?.notifyDataSetChanged()
     }
@@ -992,8 +683,6 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
             return
         }
 
-        val activatedApps = CopyOnWriteArrayList<FirewallAppModel>()
-
         allowWifiForAll = !allowWifiForAll
 
         updateWifiIcon(context)
@@ -1001,10 +690,8 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
         for (firewallAppModel: FirewallAppModel in appsList) {
             firewallAppModel.apply {
                 allowWifi = allowWifiForAll
-                activatedApps.add(this)
             }
         }
-        appsList = activatedApps
 
         firewallAdapter?.notifyDataSetChanged()
     }
@@ -1030,8 +717,6 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
             return
         }
 
-        val activatedApps = CopyOnWriteArrayList<FirewallAppModel>()
-
         allowGsmForAll = !allowGsmForAll
 
         updateGsmIcon(context)
@@ -1039,10 +724,8 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
         for (firewallAppModel: FirewallAppModel in appsList) {
             firewallAppModel.apply {
                 allowGsm = allowGsmForAll
-                activatedApps.add(this)
             }
         }
-        appsList = activatedApps
 
         firewallAdapter?.notifyDataSetChanged()
     }
@@ -1068,8 +751,6 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
             return
         }
 
-        val activatedApps = CopyOnWriteArrayList<FirewallAppModel>()
-
         allowRoamingForAll = !allowRoamingForAll
 
         updateRoamingIcon(context)
@@ -1077,10 +758,8 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
         for (firewallAppModel: FirewallAppModel in appsList) {
             firewallAppModel.apply {
                 allowRoaming = allowRoamingForAll
-                activatedApps.add(this)
             }
         }
-        appsList = activatedApps
 
         firewallAdapter?.notifyDataSetChanged()
     }
@@ -1107,8 +786,6 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
             return
         }
 
-        val activatedApps = CopyOnWriteArrayList<FirewallAppModel>()
-
         allowVPNForAll = !allowVPNForAll
 
         updateVpnIcon(context)
@@ -1116,10 +793,8 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
         for (firewallAppModel: FirewallAppModel in appsList) {
             firewallAppModel.apply {
                 allowVPN = allowVPNForAll
-                activatedApps.add(this)
             }
         }
-        appsList = activatedApps
 
         firewallAdapter?.notifyDataSetChanged()
     }
@@ -1145,8 +820,6 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
             return
         }
 
-        val activatedApps = CopyOnWriteArrayList<FirewallAppModel>()
-
         allowLanForAll = activate
         allowWifiForAll = activate
         allowGsmForAll = activate
@@ -1162,10 +835,8 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
                 allowGsm = activate
                 allowRoaming = activate
                 allowVPN = activate
-                activatedApps.add(this)
             }
         }
-        appsList = activatedApps
 
         firewallAdapter?.notifyDataSetChanged()
     }
@@ -1173,7 +844,15 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
     private fun activateAllFirsStart(context: Context) {
         activateAll(context, true)
 
-        for (firewallAppModel: FirewallAppModel in appsList) {
+        for (firewallAppModel: FirewallAppModel in appsByUid.values) {
+            firewallAppModel.apply {
+                allowLan = true
+                allowWifi = true
+                allowGsm = true
+                allowRoaming = true
+                allowVPN = true
+            }
+
             val uid = firewallAppModel.applicationData.uid
             appsAllowLan.add(uid)
             appsAllowWifi.add(uid)
@@ -1182,14 +861,14 @@ class FirewallFragment : Fragment(), InstalledApplicationsManager.OnAppAddListen
             appsAllowVpn.add(uid)
         }
 
-        val preferences = preferenceRepository.get()
-
-        preferences.setStringSetPreference(APPS_ALLOW_LAN_PREF, intSetToStringSet(appsAllowLan))
-        preferences.setStringSetPreference(APPS_ALLOW_WIFI_PREF, intSetToStringSet(appsAllowWifi))
-        preferences.setStringSetPreference(APPS_ALLOW_GSM_PREF, intSetToStringSet(appsAllowGsm))
-        preferences.setStringSetPreference(APPS_ALLOW_ROAMING, intSetToStringSet(appsAllowRoaming))
-        if (modulesStatus.isRootAvailable) {
-            preferences.setStringSetPreference(APPS_ALLOW_VPN, intSetToStringSet(appsAllowVpn))
+        firewallPolicyStore.get().update { masks ->
+            putMasks(masks, appsAllowLan, FIREWALL_ALLOW_LAN)
+            putMasks(masks, appsAllowWifi, FIREWALL_ALLOW_WIFI)
+            putMasks(masks, appsAllowGsm, FIREWALL_ALLOW_GSM)
+            putMasks(masks, appsAllowRoaming, FIREWALL_ALLOW_ROAMING)
+            if (modulesStatus.isRootAvailable) {
+                putMasks(masks, appsAllowVpn, FIREWALL_ALLOW_VPN)
+            }
         }
     }
 }
@@ -50,6 +50,7 @@ class FirewallNotification : BroadcastReceiver() {
 
     private val modulesStatus = ModulesStatus.getInstance()
     private val preferenceRepository = App.instance.daggerComponent.getPreferenceRepository()
+    private val firewallPolicyStore = App.instance.daggerComponent.getFirewallPolicyStore()
     private var notificationStartId = 102130
     private var newAppsAreAllowed = false
 
@@ -205,31 +206,9 @@ class FirewallNotification : BroadcastReceiver() {
     private fun addFirewallRule(context: Context?, uid: Int) {
         if (uid > 0) {
 
-            val preferences = preferenceRepository.get()
-
-            val appsAllowLan = preferences.getStringSetPreference(APPS_ALLOW_LAN_PREF)
-            val appsAllowWifi = preferences.getStringSetPreference(APPS_ALLOW_WIFI_PREF)
-            val appsAllowGsm = preferences.getStringSetPreference(APPS_ALLOW_GSM_PREF)
-            val appsAllowRoaming =preferences.getStringSetPreference(APPS_ALLOW_ROAMING)
-            val appsAllowVpn = preferences.getStringSetPreference(APPS_ALLOW_VPN)
-
-
-            preferences.setStringSetPreference(
-                APPS_ALLOW_LAN_PREF,
-                appsAllowLan.apply { add(uid.toString()) })
-            preferences.setStringSetPreference(
-                APPS_ALLOW_WIFI_PREF,
-                appsAllowWifi.apply { add(uid.toString()) })
-            preferences.setStringSetPreference(
-                APPS_ALLOW_GSM_PREF,
-                appsAllowGsm.apply { add(uid.toString()) })
-            preferences.setStringSetPreference(
-                APPS_ALLOW_ROAMING,
-                appsAllowRoaming.apply { add(uid.toString()) })
-            if (modulesStatus.isRootAvailable) {
-                preferences.setStringSetPreference(
-                    APPS_ALLOW_VPN,
-                    appsAllowVpn.apply { add(uid.toString()) })
+            val mask = getRuleMask()
+            firewallPolicyStore.get().update { masks ->
+                masks[uid] = (masks[uid] ?: 0) or mask
             }
 
             if (context != null) {
@@ -243,31 +222,9 @@ class FirewallNotification : BroadcastReceiver() {
     private fun removeFirewallRule(context: Context?, uid: Int) {
         if (uid > 0) {
 
-            val preferences = preferenceRepository.get()
-
-            val appsAllowLan = preferences.getStringSetPreference(APPS_ALLOW_LAN_PREF)
-            val appsAllowWifi = preferences.getStringSetPreference(APPS_ALLOW_WIFI_PREF)
-            val appsAllowGsm = preferences.getStringSetPreference(APPS_ALLOW_GSM_PREF)
-            val appsAllowRoaming = preferences.getStringSetPreference(APPS_ALLOW_ROAMING)
-            val appsAllowVpn = preferences.getStringSetPreference(APPS_ALLOW_VPN)
-
-
-            preferences.setStringSetPreference(
-                APPS_ALLOW_LAN_PREF,
-                appsAllowLan.apply { remove(uid.toString()) })
-            preferences.setStringSetPreference(
-                APPS_ALLOW_WIFI_PREF,
-                appsAllowWifi.apply { remove(uid.toString()) })
-            preferences.setStringSetPreference(
-                APPS_ALLOW_GSM_PREF,
-                appsAllowGsm.apply { remove(uid.toString()) })
-            preferences.setStringSetPreference(
-                APPS_ALLOW_ROAMING,
-                appsAllowRoaming.apply { remove(uid.toString()) })
-            if (modulesStatus.isRootAvailable) {
-                preferences.setStringSetPreference(
-                    APPS_ALLOW_VPN,
-                    appsAllowVpn.apply { remove(uid.toString()) })
+            val mask = getRuleMask()
+            firewallPolicyStore.get().update { masks ->
+                masks[uid] = (masks[uid] ?: 0) and mask.inv()
             }
 
             if (context != null) {
@@ -278,6 +235,15 @@ class FirewallNotification : BroadcastReceiver() {
         }
     }
 
+    private fun getRuleMask(): Int {
+        var mask = FIREWALL_ALLOW_LAN or FIREWALL_ALLOW_WIFI or
+                FIREWALL_ALLOW_GSM or FIREWALL_ALLOW_ROAMING
+        if (modulesStatus.isRootAvailable) {
+            mask = mask or FIREWALL_ALLOW_VPN
+        }
+        return mask
+    }
+
     private fun closeNotification(notificationManager: NotificationManager?, notificationId: Int) {
         if (notificationId > 0) {
             notificationManager?.cancel(notificationId)
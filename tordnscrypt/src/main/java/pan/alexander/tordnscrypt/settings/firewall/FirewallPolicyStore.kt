@@ -0,0 +1,308 @@
+package pan.alexander.tordnscrypt.settings.firewall
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import android.content.Context
+import android.util.Log
+import pan.alexander.tordnscrypt.domain.preferences.PreferenceRepository
+import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.util.concurrent.CopyOnWriteArraySet
+import javax.inject.Inject
+import javax.inject.Singleton
+
+const val FIREWALL_ALLOW_LAN = 1
+const val FIREWALL_ALLOW_WIFI = 1 shl 1
+const val FIREWALL_ALLOW_GSM = 1 shl 2
+const val FIREWALL_ALLOW_ROAMING = 1 shl 3
+const val FIREWALL_ALLOW_VPN = 1 shl 4
+
+private const val POLICY_FILE_NAME = "firewall_policy.bin"
+private const val POLICY_FILE_MAGIC = 0x49465750
+private const val POLICY_FILE_VERSION = 1
+private const val POLICY_HEADER_SIZE = 24
+private const val DELTA_LOG_SIZE = 32
+
+/**
+ * Firewall permissions stored as one bitmask per UID.
+ * Policy is kept in a versioned binary file that is the only source of truth,
+ * it is read once into an immutable snapshot with constant time lookups.
+ * Every update is recorded in a short delta log and delivered to listeners,
+ * so consumers can apply only changed UIDs.
+ * String set preferences are imported only when the file is missing or corrupted and after restore or reset,
+ * they are written only on export before a backup, not on every change.
+ */
+@Singleton
+class FirewallPolicyStore @Inject constructor(
+    private val context: Context,
+    private val preferenceRepository: dagger.Lazy<PreferenceRepository>
+) {
+
+    class Policy internal constructor(
+        val revision: Long,
+        private val masks: Map<Int, Int>
+    ) {
+        fun getMask(uid: Int): Int = masks[uid] ?: 0
+
+        fun isAllowed(uid: Int, flag: Int): Boolean = getMask(uid) and flag != 0
+
+        fun getUids(flag: Int): Set<Int> =
+            masks.filterValues { it and flag != 0 }.keys
+
+        fun getMasks(): Map<Int, Int> = masks
+    }
+
+    /**
+     * Changed UIDs with their new masks, 0 means that UID was removed.
+     */
+    class PolicyDelta internal constructor(
+        val fromRevision: Long,
+        val revision: Long,
+        val changes: Map<Int, Int>
+    )
+
+    fun interface OnPolicyChangedListener {
+        fun onPolicyChanged(policy: Policy, delta: PolicyDelta)
+    }
+
+    @Volatile
+    private var policy: Policy? = null
+    private val deltaLog = ArrayDeque<PolicyDelta>()
+    private val listeners = CopyOnWriteArraySet<OnPolicyChangedListener>()
+
+    fun getPolicy(): Policy = policy ?: load(false)
+
+    fun addOnPolicyChangedListener(listener: OnPolicyChangedListener) {
+        listeners.add(listener)
+    }
+
+    fun removeOnPolicyChangedListener(listener: OnPolicyChangedListener) {
+        listeners.remove(listener)
+    }
+
+    /**
+     * @return deltas applied after the revision or null if the log does not reach that far,
+     * in which case the whole policy should be re-read
+     */
+    @Synchronized
+    fun getChangesSince(revision: Long): List<PolicyDelta>? {
+        if (revision == getPolicy().revision) {
+            return emptyList()
+        }
+
+        val index = deltaLog.indexOfFirst { it.fromRevision == revision }
+        return if (index >= 0) {
+            deltaLog.subList(index, deltaLog.size).toList()
+        } else {
+            null
+        }
+    }
+
+    /**
+     * Applies changes to the mutable copy of masks.
+     * @return true if anything was actually changed
+     */
+    @Synchronized
+    fun update(block: (MutableMap<Int, Int>) -> Unit): Boolean {
+        val current = getPolicy()
+        val newMasks = HashMap(current.getMasks())
+        block(newMasks)
+        newMasks.values.removeAll { it == 0 }
+
+        val changes = hashMapOf<Int, Int>()
+        newMasks.forEach { (uid, mask) ->
+            if (current.getMask(uid) != mask) {
+                changes[uid] = mask
+            }
+        }
+        current.getMasks().keys.forEach { uid ->
+            if (!newMasks.containsKey(uid)) {
+                changes[uid] = 0
+            }
+        }
+
+        if (changes.isEmpty()) {
+            return false
+        }
+
+        val newPolicy = Policy(nextRevision(current.revision), newMasks)
+        save(newPolicy)
+
+        val delta = PolicyDelta(current.revision, newPolicy.revision, changes)
+        deltaLog.addLast(delta)
+        while (deltaLog.size > DELTA_LOG_SIZE) {
+            deltaLog.removeFirst()
+        }
+
+        policy = newPolicy
+
+        Log.i(LOG_TAG, "FirewallPolicyStore revision ${newPolicy.revision} changed ${changes.size} UIDs")
+
+        listeners.forEach {
+            try {
+                it.onPolicyChanged(newPolicy, delta)
+            } catch (e: Exception) {
+                Log.e(LOG_TAG, "FirewallPolicyStore listener exception ${e.message} ${e.cause}")
+            }
+        }
+
+        return true
+    }
+
+    fun setMask(uid: Int, mask: Int): Boolean = update { it[uid] = mask }
+
+    fun remove(uid: Int): Boolean = update { it.remove(uid) }
+
+    /**
+     * Writes the policy to the string set preferences, which are saved to backups.
+     */
+    @Synchronized
+    fun exportToPreferences() {
+        val current = getPolicy()
+        val preferences = preferenceRepository.get()
+
+        getPreferenceKeys().forEach { (flag, key) ->
+            preferences.setStringSetPreference(
+                key,
+                current.getUids(flag).mapTo(hashSetOf()) { it.toString() }
+            )
+        }
+    }
+
+    /**
+     * Rebuilds the policy from the string set preferences, after restore or reset of settings.
+     */
+    @Synchronized
+    fun importFromPreferences() {
+        policy = null
+        load(true)
+    }
+
+    @Synchronized
+    private fun load(forceImport: Boolean): Policy {
+        policy?.let { return it }
+
+        val saved = readFile()
+        var loaded = if (forceImport) null else saved
+        if (loaded == null) {
+            Log.i(LOG_TAG, "FirewallPolicyStore import preferences")
+            loaded = Policy(nextRevision(saved?.revision ?: 0), readPreferences())
+            save(loaded)
+        }
+
+        deltaLog.clear()
+        policy = loaded
+        return loaded
+    }
+
+    private fun readFile(): Policy? {
+        val file = File(context.filesDir, POLICY_FILE_NAME)
+        if (!file.isFile || file.length() < POLICY_HEADER_SIZE) {
+            return null
+        }
+
+        return try {
+            DataInputStream(FileInputStream(file).buffered()).use { input ->
+                if (input.readInt() != POLICY_FILE_MAGIC || input.readInt() != POLICY_FILE_VERSION) {
+                    return null
+                }
+
+                val revision = input.readLong()
+                val count = input.readInt()
+                val reserved = input.readInt()
+                if (reserved != 0 || count < 0 || file.length() - POLICY_HEADER_SIZE < count * 8L) {
+                    return null
+                }
+
+                val masks = HashMap<Int, Int>(count * 2)
+                repeat(count) {
+                    masks[input.readInt()] = input.readInt()
+                }
+
+                Policy(revision, masks)
+            }
+        } catch (e: Exception) {
+            Log.e(LOG_TAG, "FirewallPolicyStore readFile exception ${e.message} ${e.cause}")
+            null
+        }
+    }
+
+    private fun save(policy: Policy) {
+        val file = File(context.filesDir, POLICY_FILE_NAME)
+        val tempFile = File(context.filesDir, "$POLICY_FILE_NAME.tmp")
+
+        try {
+            val fileOutputStream = FileOutputStream(tempFile)
+            DataOutputStream(fileOutputStream.buffered()).use { output ->
+                output.writeInt(POLICY_FILE_MAGIC)
+                output.writeInt(POLICY_FILE_VERSION)
+                output.writeLong(policy.revision)
+                output.writeInt(policy.getMasks().size)
+                output.writeInt(0)
+                policy.getMasks().toSortedMap().forEach { (uid, mask) ->
+                    output.writeInt(uid)
+                    output.writeInt(mask)
+                }
+                //The file replaces the previous policy, so it must be on disk before the rename
+                output.flush()
+                fileOutputStream.fd.sync()
+            }
+
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete()
+                Log.e(LOG_TAG, "FirewallPolicyStore cannot rename policy file")
+            }
+        } catch (e: Exception) {
+            tempFile.delete()
+            Log.e(LOG_TAG, "FirewallPolicyStore save exception ${e.message} ${e.cause}")
+        }
+    }
+
+    private fun readPreferences(): Map<Int, Int> {
+        val masks = hashMapOf<Int, Int>()
+        val preferences = preferenceRepository.get()
+
+        getPreferenceKeys().forEach { (flag, key) ->
+            preferences.getStringSetPreference(key).forEach { uidStr ->
+                uidStr.toIntOrNull()?.let { uid ->
+                    masks[uid] = (masks[uid] ?: 0) or flag
+                }
+            }
+        }
+
+        return masks
+    }
+
+    private fun getPreferenceKeys(): List<Pair<Int, String>> = listOf(
+        FIREWALL_ALLOW_LAN to APPS_ALLOW_LAN_PREF,
+        FIREWALL_ALLOW_WIFI to APPS_ALLOW_WIFI_PREF,
+        FIREWALL_ALLOW_GSM to APPS_ALLOW_GSM_PREF,
+        FIREWALL_ALLOW_ROAMING to APPS_ALLOW_ROAMING,
+        FIREWALL_ALLOW_VPN to APPS_ALLOW_VPN
+    )
+
+    //Revisions are unique across imports, so deltas of a replaced policy cannot be applied to a new one
+    private fun nextRevision(revision: Long): Long =
+        maxOf(revision + 1, System.currentTimeMillis())
+}
@@ -0,0 +1,196 @@
+package pan.alexander.tordnscrypt.settings.show_rules;
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import pan.alexander.tordnscrypt.utils.filemanager.FileManager;
+
+import static pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG;
+
+/**
+ * Line offsets index over the memory-mapped rules file.
+ * Only offsets are kept in memory, rule lines are decoded on demand,
+ * so files with millions of rules can be browsed without loading them.
+ */
+class RulesFileIndex implements RulesSource {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final MappedByteBuffer buffer;
+
+    private int[] ruleOffsets = new int[INITIAL_CAPACITY];
+    private int[] ruleLengths = new int[INITIAL_CAPACITY];
+    private int rulesCount;
+
+    private int[] otherOffsets = new int[INITIAL_CAPACITY];
+    private int[] otherLengths = new int[INITIAL_CAPACITY];
+    private int othersCount;
+
+    private byte[] lineBytes = new byte[256];
+
+    private RulesFileIndex(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+
+        if (buffer != null) {
+            buildIndex();
+        }
+    }
+
+    static RulesFileIndex open(Context context, String path) throws IOException {
+        File file = new File(path);
+
+        if (!file.isFile()) {
+            return new RulesFileIndex(null);
+        }
+
+        if (!file.canRead() && !file.setReadable(true, false)) {
+            Log.w(LOG_TAG, "RulesFileIndex take " + path + " warning");
+            new FileManager().restoreAccess(context, path);
+        }
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             FileChannel channel = randomAccessFile.getChannel()) {
+
+            long size = channel.size();
+            if (size == 0) {
+                return new RulesFileIndex(null);
+            } else if (size > Integer.MAX_VALUE) {
+                throw new IOException("Rules file is too large " + path + " " + size);
+            }
+
+            //Mapping remains valid after the channel is closed
+            return new RulesFileIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    @Override
+    public int getRulesCount() {
+        return rulesCount;
+    }
+
+    @Override
+    public String getRuleLine(int index) {
+        if (index < 0 || index >= rulesCount) {
+            throw new IndexOutOfBoundsException("Rule index " + index + " rules count " + rulesCount);
+        }
+
+        return decode(ruleOffsets[index], ruleLengths[index]);
+    }
+
+    @Override
+    public List<String> getOtherLines() {
+        List<String> lines = new ArrayList<>(othersCount);
+        for (int i = 0; i < othersCount; i++) {
+            lines.add(decode(otherOffsets[i], otherLengths[i]));
+        }
+        return lines;
+    }
+
+    private void buildIndex() {
+        int limit = buffer.limit();
+        int lineStart = 0;
+
+        for (int position = 0; position <= limit; position++) {
+            if (position == limit || buffer.get(position) == '\n') {
+                addLine(lineStart, position);
+                lineStart = position + 1;
+            }
+        }
+
+        ruleOffsets = Arrays.copyOf(ruleOffsets, rulesCount);
+        ruleLengths = Arrays.copyOf(ruleLengths, rulesCount);
+        otherOffsets = Arrays.copyOf(otherOffsets, othersCount);
+        otherLengths = Arrays.copyOf(otherLengths, othersCount);
+    }
+
+    //Same classification as the lines of the file were trimmed and checked against "#.*#.*"
+    private void addLine(int start, int end) {
+        while (start < end && isWhitespace(buffer.get(start))) {
+            start++;
+        }
+        while (end > start && isWhitespace(buffer.get(end - 1))) {
+            end--;
+        }
+
+        if (start == end) {
+            return;
+        }
+
+        boolean commentedWithHashes = false;
+        if (buffer.get(start) == '#') {
+            for (int i = start + 1; i < end; i++) {
+                if (buffer.get(i) == '#') {
+                    commentedWithHashes = true;
+                    break;
+                }
+            }
+        }
+
+        if (commentedWithHashes) {
+            if (othersCount == otherOffsets.length) {
+                otherOffsets = grow(otherOffsets);
+                otherLengths = grow(otherLengths);
+            }
+            otherOffsets[othersCount] = start;
+            otherLengths[othersCount] = end - start;
+            othersCount++;
+        } else {
+            if (rulesCount == ruleOffsets.length) {
+                ruleOffsets = grow(ruleOffsets);
+                ruleLengths = grow(ruleLengths);
+            }
+            ruleOffsets[rulesCount] = start;
+            ruleLengths[rulesCount] = end - start;
+            rulesCount++;
+        }
+    }
+
+    private synchronized String decode(int offset, int length) {
+        if (lineBytes.length < length) {
+            lineBytes = new byte[length];
+        }
+
+        for (int i = 0; i < length; i++) {
+            lineBytes[i] = buffer.get(offset + i);
+        }
+
+        return new String(lineBytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b >= 0 && b <= ' ';
+    }
+
+    private static int[] grow(int[] array) {
+        return Arrays.copyOf(array, array.length + (array.length >> 1));
+    }
+}
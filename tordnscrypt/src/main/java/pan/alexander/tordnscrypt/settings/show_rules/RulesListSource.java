@@ -0,0 +1,53 @@
+package pan.alexander.tordnscrypt.settings.show_rules;
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+class RulesListSource implements RulesSource {
+
+    private final List<String> rules;
+
+    RulesListSource(List<String> lines) {
+        rules = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            if (!line.isEmpty()) {
+                rules.add(line);
+            }
+        }
+    }
+
+    @Override
+    public int getRulesCount() {
+        return rules.size();
+    }
+
+    @Override
+    public String getRuleLine(int index) {
+        return rules.get(index);
+    }
+
+    @Override
+    public List<String> getOtherLines() {
+        return Collections.emptyList();
+    }
+}
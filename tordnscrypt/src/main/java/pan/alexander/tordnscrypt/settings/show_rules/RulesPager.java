@@ -0,0 +1,299 @@
+package pan.alexander.tordnscrypt.settings.show_rules;
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import pan.alexander.tordnscrypt.utils.filemanager.FileManager;
+
+import static pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG;
+
+/**
+ * Paged view of the rules source with a sparse overlay of the user edits.
+ * Rules are parsed page by page only when shown. Changed, deleted and added rules
+ * are kept apart from the source and merged with it on save.
+ */
+class RulesPager {
+
+    private static final int PAGE_SIZE = 128;
+    private static final int MAX_CACHED_PAGES = 16;
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final String[] LOCKED_ITEMS = {".i2p", "onion"};
+
+    private final RulesSource source;
+    private final boolean subscriptions;
+
+    private final Map<Integer, Rules[]> pages = new LinkedHashMap<Integer, Rules[]>(MAX_CACHED_PAGES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Rules[]> eldest) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    };
+
+    //Keys and values are source indexes
+    private final Map<Integer, Rules> changedRules = new HashMap<>();
+    private final List<Integer> deletedRules = new ArrayList<>();
+    private final List<Rules> addedRules = new ArrayList<>();
+    private boolean changed;
+
+    RulesPager(RulesSource source, boolean subscriptions) {
+        this.source = source;
+        this.subscriptions = subscriptions;
+    }
+
+    synchronized int size() {
+        return getSourceSize() + addedRules.size();
+    }
+
+    synchronized Rules get(int position) {
+        int sourceSize = getSourceSize();
+        if (position >= sourceSize) {
+            return addedRules.get(position - sourceSize);
+        }
+
+        int index = toSourceIndex(position);
+        Rules rule = changedRules.get(index);
+        if (rule == null) {
+            rule = getPage(index / PAGE_SIZE)[index % PAGE_SIZE];
+        }
+        return rule;
+    }
+
+    /**
+     * Keeps the edited rule in the overlay, so it is not lost when its page is evicted.
+     */
+    synchronized void setChanged(int position) {
+        int sourceSize = getSourceSize();
+        if (position < sourceSize) {
+            changedRules.put(toSourceIndex(position), get(position));
+        }
+        changed = true;
+    }
+
+    synchronized void add(Rules rule) {
+        addedRules.add(rule);
+        changed = true;
+    }
+
+    synchronized void remove(int position) {
+        int sourceSize = getSourceSize();
+        if (position >= sourceSize) {
+            addedRules.remove(position - sourceSize);
+        } else {
+            int index = toSourceIndex(position);
+            int insertion = Collections.binarySearch(deletedRules, index);
+            if (insertion < 0) {
+                deletedRules.add(-insertion - 1, index);
+            }
+            changedRules.remove(index);
+        }
+        changed = true;
+    }
+
+    synchronized boolean isChanged() {
+        return changed;
+    }
+
+    synchronized void markSaved() {
+        changed = false;
+    }
+
+    /**
+     * Scans positions in range and adds the matched ones to the list.
+     * Rules from not cached pages are checked without parsing to keep the page cache intact.
+     * @param query lower case query
+     */
+    synchronized void findMatches(String query, int from, int to, List<Integer> matches) {
+        to = Math.min(to, size());
+        for (int position = from; position < to; position++) {
+            if (matches(position, query)) {
+                matches.add(position);
+            }
+        }
+    }
+
+    synchronized boolean matches(int position, String query) {
+        if (position >= size()) {
+            return false;
+        }
+
+        return getRuleText(position).toLowerCase(Locale.ROOT).contains(query);
+    }
+
+    synchronized List<String> getSubscriptions() {
+        List<String> subscriptionsList = new ArrayList<>();
+        for (int position = 0; position < size(); position++) {
+            Rules rule = get(position);
+            if (rule.subscription) {
+                subscriptionsList.add(rule.text);
+            }
+        }
+        return subscriptionsList;
+    }
+
+    /**
+     * Writes other lines and then all rules, merging the source with the overlay.
+     * The file is replaced only when completely written.
+     */
+    synchronized boolean save(Context context, String path) {
+        File file = new File(path);
+        File tempFile = new File(path + TEMP_FILE_SUFFIX);
+
+        boolean saved;
+        try {
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile))) {
+                writeLines(line -> {
+                    writer.write(line);
+                    writer.newLine();
+                });
+            }
+
+            saved = tempFile.renameTo(file);
+        } catch (Exception e) {
+            Log.w(LOG_TAG, "RulesPager save " + e.getMessage() + " " + e.getCause());
+            saved = false;
+        }
+
+        if (!saved) {
+            tempFile.delete();
+
+            List<String> lines = new ArrayList<>();
+            try {
+                writeLines(lines::add);
+            } catch (IOException ignored) {
+            }
+            saved = FileManager.writeTextFileSynchronous(context, path, lines);
+        }
+
+        if (saved) {
+            markSaved();
+        }
+
+        return saved;
+    }
+
+    private void writeLines(LineWriter writer) throws IOException {
+        for (String line : source.getOtherLines()) {
+            writer.write(line);
+            writer.write("");
+        }
+
+        for (int position = 0; position < size(); position++) {
+            String line = getRuleLine(position);
+            if (line != null) {
+                writer.write(line);
+                writer.write("");
+            }
+        }
+    }
+
+    private String getRuleLine(int position) {
+        int index = position < getSourceSize() ? toSourceIndex(position) : -1;
+
+        if (index >= 0 && !changedRules.containsKey(index)) {
+            Rules[] page = pages.get(index / PAGE_SIZE);
+            if (page == null) {
+                return source.getRuleLine(index);
+            }
+        }
+
+        Rules rule = get(position);
+        if (rule.text.isEmpty()) {
+            return null;
+        }
+        return rule.active ? rule.text : "#" + rule.text;
+    }
+
+    private String getRuleText(int position) {
+        int index = position < getSourceSize() ? toSourceIndex(position) : -1;
+
+        if (index >= 0 && !changedRules.containsKey(index)) {
+            Rules[] page = pages.get(index / PAGE_SIZE);
+            if (page == null) {
+                return source.getRuleLine(index).replace("#", "");
+            }
+        }
+
+        return get(position).text;
+    }
+
+    private int getSourceSize() {
+        return source.getRulesCount() - deletedRules.size();
+    }
+
+    private int toSourceIndex(int position) {
+        int index = position;
+        for (int deleted : deletedRules) {
+            if (deleted <= index) {
+                index++;
+            } else {
+                break;
+            }
+        }
+        return index;
+    }
+
+    private Rules[] getPage(int pageIndex) {
+        Rules[] page = pages.get(pageIndex);
+
+        if (page == null) {
+            int start = pageIndex * PAGE_SIZE;
+            int end = Math.min(start + PAGE_SIZE, source.getRulesCount());
+            page = new Rules[end - start];
+            for (int index = start; index < end; index++) {
+                page[index - start] = parseRule(source.getRuleLine(index));
+            }
+            pages.put(pageIndex, page);
+        }
+
+        return page;
+    }
+
+    private Rules parseRule(String line) {
+        boolean active = !line.contains("#");
+        boolean locked = false;
+
+        for (String str : LOCKED_ITEMS) {
+            if (line.matches(".?" + str + ".*")) {
+                locked = true;
+                break;
+            }
+        }
+
+        return new Rules(line.replace("#", ""), active, locked, subscriptions);
+    }
+
+    private interface LineWriter {
+        void write(String line) throws IOException;
+    }
+}
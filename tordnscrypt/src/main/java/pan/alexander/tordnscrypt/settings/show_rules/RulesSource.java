@@ -1,4 +1,6 @@
-package pan.alexander.tordnscrypt.installer;/*
+package pan.alexander.tordnscrypt.settings.show_rules;
+
+/*
     This file is part of InviZible Pro.
 
     InviZible Pro is free software: you can redistribute it and/or modify
@@ -15,23 +17,21 @@ package pan.alexander.tordnscrypt.installer;/*
     along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
 
     Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
- */
+*/
 
-import android.content.Context;
+import java.util.List;
 
-import pan.alexander.tordnscrypt.utils.zipUtil.ZipFileManager;
+interface RulesSource {
 
-public class BusybExtractCommand extends AssetsExtractCommand {
-    private final String appDataDir;
+    int getRulesCount();
 
-    public BusybExtractCommand(Context context, String appDataDir) {
-        super(context);
-        this.appDataDir = appDataDir;
-    }
+    /**
+     * @return rule line as it is stored, including leading "#" for disabled rules
+     */
+    String getRuleLine(int index);
 
-    @Override
-    public void execute() throws Exception {
-        ZipFileManager zipFileManager = new ZipFileManager();
-        zipFileManager.extractZipFromInputStream(assets.open("busyb.mp3"), appDataDir);
-    }
+    /**
+     * @return not rule lines like comments, which should be kept at the top of the file on save
+     */
+    List<String> getOtherLines();
 }
@@ -22,6 +22,7 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.Handler;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -29,14 +30,15 @@ import androidx.annotation.Nullable;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
 import androidx.appcompat.widget.LinearLayoutCompat;
+import androidx.appcompat.widget.SearchView;
 import androidx.appcompat.widget.SwitchCompat;
-import androidx.fragment.app.DialogFragment;
 import androidx.fragment.app.Fragment;
 import androidx.preference.PreferenceManager;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import android.text.Editable;
+import android.text.TextUtils;
 import android.text.TextWatcher;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -46,35 +48,54 @@ import android.widget.CompoundButton;
 import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.inject.Inject;
+
+import dagger.Lazy;
+import pan.alexander.tordnscrypt.App;
 import pan.alexander.tordnscrypt.R;
-import pan.alexander.tordnscrypt.settings.SettingsActivity;
-import pan.alexander.tordnscrypt.dialogs.NotificationDialogFragment;
 import pan.alexander.tordnscrypt.modules.ModulesAux;
-import pan.alexander.tordnscrypt.utils.filemanager.FileManager;
-import pan.alexander.tordnscrypt.modules.ModulesRestarter;
+import pan.alexander.tordnscrypt.modules.ModulesRestartScheduler;
+import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 
 import static pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG;
+import static pan.alexander.tordnscrypt.utils.enums.ModuleName.DNSCRYPT_MODULE;
+import static pan.alexander.tordnscrypt.utils.enums.ModuleName.ITPD_MODULE;
+
+
+public class ShowRulesRecycleFrag extends Fragment implements View.OnClickListener, SearchView.OnQueryTextListener {
 
+    private static final int SEARCH_CHUNK_SIZE = 5000;
 
-public class ShowRulesRecycleFrag extends Fragment implements View.OnClickListener {
+    @Inject
+    public CachedExecutor cachedExecutor;
+    @Inject
+    public Lazy<Handler> handler;
+    @Inject
+    public Lazy<ModulesRestartScheduler> modulesRestartScheduler;
 
     private RecyclerView mRecyclerView;
     private RecyclerView.Adapter<RulesAdapter.RuleViewHolder> mAdapter;
     private FloatingActionButton btnAddRule;
 
-    private final ArrayList<String> rules_file = new ArrayList<>();
-    private final ArrayList<Rules> rules_list = new ArrayList<>();
-    private final ArrayList<String> others_list = new ArrayList<>();
-    private final ArrayList<String> original_rules = new ArrayList<>();
+    private final ArrayList<String> subscriptions_list = new ArrayList<>();
+    private volatile RulesPager rulesPager;
+
+    //Pager positions matching the query, null when not searching
+    private List<Integer> searchResults;
+    private String searchQuery;
+    private boolean searchComplete;
+    private final AtomicInteger searchGeneration = new AtomicInteger();
 
     private String file_path;
-    private boolean readOnly;
 
 
     public ShowRulesRecycleFrag() {
@@ -83,13 +104,15 @@ public class ShowRulesRecycleFrag extends Fragment implements View.OnClickListen
 
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
+        App.getInstance().getDaggerComponent().inject(this);
+
         super.onCreate(savedInstanceState);
 
         setRetainInstance(true);
 
         if (getArguments() != null) {
-            List<String> rules = getArguments().getStringArrayList("rules_file");
-            rules_file.addAll(rules != null ? rules : Collections.emptyList());
+            List<String> subscriptions = getArguments().getStringArrayList("rules_file");
+            subscriptions_list.addAll(subscriptions != null ? subscriptions : Collections.emptyList());
             file_path = getArguments().getString("path");
         }
 
@@ -106,19 +129,10 @@ public class ShowRulesRecycleFrag extends Fragment implements View.OnClickListen
         mRecyclerView = view.findViewById(R.id.rvRules);
         mRecyclerView.setLayoutManager(mLayoutManager);
 
-        if (checkAndTrimIfRulesTooMany()) {
-            readOnly = true;
-            showTooManyRulesDialog();
-        }
-
         btnAddRule = view.findViewById(R.id.floatingBtnAddRule);
-        if (readOnly) {
-            btnAddRule.setVisibility(View.GONE);
-        } else {
-            btnAddRule.setAlpha(0.8f);
-            btnAddRule.setOnClickListener(this);
-            btnAddRule.requestFocus();
-        }
+        btnAddRule.setAlpha(0.8f);
+        btnAddRule.setOnClickListener(this);
+        btnAddRule.requestFocus();
 
         return view;
     }
@@ -134,12 +148,12 @@ public class ShowRulesRecycleFrag extends Fragment implements View.OnClickListen
 
         setTitle(activity);
 
-        if (rules_list.isEmpty()) {
-            fillRules();
+        if (rulesPager == null) {
+            loadRules(activity.getApplicationContext());
+        } else {
+            mAdapter = new RulesAdapter();
+            mRecyclerView.setAdapter(mAdapter);
         }
-
-        mAdapter = new RulesAdapter(rules_list);
-        mRecyclerView.setAdapter(mAdapter);
     }
 
     @Override
@@ -147,76 +161,68 @@ public class ShowRulesRecycleFrag extends Fragment implements View.OnClickListen
         super.onStop();
 
         Context context = getActivity();
-        if (context == null) {
+        RulesPager pager = rulesPager;
+        if (context == null || pager == null || !pager.isChanged()) {
             return;
         }
 
-        List<String> rules_file_new = new LinkedList<>();
-
-        for (Rules rule : rules_list) {
-            if (rule.active) {
-                rules_file_new.add(rule.text);
-            } else {
-                rules_file_new.add("#" + rule.text);
-            }
-            rules_file_new.add("");
-        }
-
-        if (rules_file_new.equals(original_rules)) return;
-
-        if (file_path.contains("subscriptions")) {
+        if (isSubscriptions()) {
             SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-            StringBuilder sb = new StringBuilder();
-            String str = "";
-            for (Rules rule : rules_list) {
-                if (rule.subscription)
-                    sb.append(rule.text).append(", ");
-            }
-            if (sb.length() > 2) {
-                str = sb.substring(0, sb.length() - 2);
-            }
-            sp.edit().putString("subscriptions", str).apply();
+            sp.edit().putString("subscriptions", TextUtils.join(", ", pager.getSubscriptions())).apply();
+            pager.markSaved();
 
-            rules_file.clear();
-            rules_file.addAll(rules_file_new);
-            original_rules.clear();
-            original_rules.addAll(rules_file_new);
+            if (ModulesAux.isITPDSavedStateRunning()) {
+                modulesRestartScheduler.get().scheduleRestart(ITPD_MODULE);
+            }
         } else {
-            rules_file.clear();
-            rules_file.addAll(others_list);
-            rules_file.addAll(rules_file_new);
-            original_rules.clear();
-            original_rules.addAll(rules_file_new);
+            Context applicationContext = context.getApplicationContext();
+            cachedExecutor.submit(TaskScheduler.Pool.IO, () -> {
+                if (pager.save(applicationContext, file_path)) {
+                    handler.get().post(() -> Toast.makeText(applicationContext, R.string.toastSettings_saved, Toast.LENGTH_SHORT).show());
 
-            FileManager.writeToTextFile(context, file_path, rules_file, SettingsActivity.rules_tag);
+                    if (ModulesAux.isDnsCryptSavedStateRunning()) {
+                        modulesRestartScheduler.get().scheduleRestart(DNSCRYPT_MODULE);
+                    }
+                } else {
+                    Log.e(LOG_TAG, "ShowRulesRecycleFrag cannot save " + file_path);
+                }
+            });
         }
+    }
 
-        boolean dnsCryptRunning = ModulesAux.isDnsCryptSavedStateRunning();
-        boolean itpdRunning = ModulesAux.isITPDSavedStateRunning();
+    private void loadRules(Context context) {
+        boolean subscriptions = isSubscriptions();
 
-        if (itpdRunning && file_path.contains("subscriptions")) {
-            ModulesRestarter.restartITPD(context);
-        } else if (dnsCryptRunning) {
-            ModulesRestarter.restartDNSCrypt(context);
+        if (subscriptions) {
+            rulesPager = new RulesPager(new RulesListSource(subscriptions_list), true);
+            mAdapter = new RulesAdapter();
+            mRecyclerView.setAdapter(mAdapter);
+            return;
         }
-    }
 
-    private boolean checkAndTrimIfRulesTooMany() {
-        if (rules_file.size() > 1000) {
-            rules_file.subList(1000, rules_file.size()).clear();
-            rules_file.trimToSize();
+        cachedExecutor.submit(TaskScheduler.Pool.IO, () -> {
+            RulesSource source;
+            try {
+                source = RulesFileIndex.open(context, file_path);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "ShowRulesRecycleFrag loadRules " + e.getMessage() + " " + e.getCause());
+                source = new RulesListSource(Collections.emptyList());
+            }
 
-            return true;
-        }
+            RulesPager pager = new RulesPager(source, false);
 
-        return false;
+            handler.get().post(() -> {
+                rulesPager = pager;
+                if (isAdded() && mRecyclerView != null) {
+                    mAdapter = new RulesAdapter();
+                    mRecyclerView.setAdapter(mAdapter);
+                }
+            });
+        });
     }
 
-    private void showTooManyRulesDialog() {
-        DialogFragment dialogFragment = NotificationDialogFragment.newInstance(R.string.dnscrypt_many_rules_dialog_message);
-        if (isAdded()) {
-            dialogFragment.show(getParentFragmentManager(), "TooManyRules");
-        }
+    private boolean isSubscriptions() {
+        return file_path.contains("subscriptions");
     }
 
     private void setTitle(Activity activity) {
@@ -235,47 +241,119 @@ public class ShowRulesRecycleFrag extends Fragment implements View.OnClickListen
         }
     }
 
-    private void fillRules() {
-        String[] lockedItems = {".i2p", "onion"};
+    @Override
+    public void onClick(View v) {
+        if (rulesPager == null || mAdapter == null) {
+            return;
+        }
 
-        for (int i = 0; i < rules_file.size(); i++) {
-            boolean match = !rules_file.get(i).matches("#.*#.*") && !rules_file.get(i).isEmpty();
-            boolean active = !rules_file.get(i).contains("#");
-            boolean locked = false;
-            boolean subscription = file_path.contains("subscriptions") && !rules_file.get(i).isEmpty();
+        rulesPager.add(new Rules("", true, false, isSubscriptions()));
+        int position = rulesPager.size() - 1;
 
-            for (String str : lockedItems) {
-                if (rules_file.get(i).matches(".?" + str + ".*")) {
-                    locked = true;
-                    break;
-                }
-            }
-            if (match) {
-                rules_list.add(new Rules(rules_file.get(i).replace("#", ""), active, locked, subscription));
-                original_rules.add(rules_file.get(i));
-                original_rules.add("");
-            } else if (!rules_file.get(i).isEmpty()) {
-                others_list.add(rules_file.get(i));
-                others_list.add("");
-            }
+        if (searchResults != null) {
+            searchResults.add(position);
         }
+
+        mAdapter.notifyDataSetChanged();
+        mRecyclerView.scrollToPosition(mAdapter.getItemCount() - 1);
     }
 
     @Override
-    public void onClick(View v) {
-        boolean subscription = file_path.contains("subscriptions");
-        rules_list.add(new Rules("", true, false, subscription));
+    public boolean onQueryTextSubmit(String query) {
+        searchRules(query);
+        return true;
+    }
+
+    @Override
+    public boolean onQueryTextChange(String newText) {
+        searchRules(newText);
+        return true;
+    }
+
+    /**
+     * Matches are shown as soon as each chunk is scanned.
+     * When the query only narrows the previous complete search, previous matches are rechecked
+     * instead of scanning all rules again.
+     */
+    private void searchRules(String query) {
+        RulesPager pager = rulesPager;
+        if (pager == null || mAdapter == null || mRecyclerView.isComputingLayout()) {
+            return;
+        }
+
+        String lowerQuery = query == null ? "" : query.trim().toLowerCase(Locale.ROOT);
+        int generation = searchGeneration.incrementAndGet();
+
+        if (lowerQuery.isEmpty()) {
+            searchResults = null;
+            searchQuery = null;
+            mAdapter.notifyDataSetChanged();
+            return;
+        } else if (lowerQuery.equals(searchQuery)) {
+            return;
+        }
+
+        List<Integer> candidates = null;
+        if (searchComplete && searchResults != null && searchQuery != null && lowerQuery.contains(searchQuery)) {
+            candidates = new ArrayList<>(searchResults);
+        }
+
+        searchResults = new ArrayList<>();
+        searchQuery = lowerQuery;
+        searchComplete = false;
         mAdapter.notifyDataSetChanged();
-        mRecyclerView.scrollToPosition(rules_list.size() - 1);
+
+        final List<Integer> positionsToCheck = candidates;
+        cachedExecutor.submit(TaskScheduler.Pool.CPU, () -> {
+            int total = positionsToCheck == null ? pager.size() : positionsToCheck.size();
+
+            int start = 0;
+            do {
+                if (generation != searchGeneration.get()) {
+                    return;
+                }
+
+                int end = Math.min(start + SEARCH_CHUNK_SIZE, total);
+                List<Integer> matches = new ArrayList<>();
+
+                if (positionsToCheck == null) {
+                    pager.findMatches(lowerQuery, start, end, matches);
+                } else {
+                    for (int i = start; i < end; i++) {
+                        int position = positionsToCheck.get(i);
+                        if (pager.matches(position, lowerQuery)) {
+                            matches.add(position);
+                        }
+                    }
+                }
+
+                boolean complete = end >= total;
+                handler.get().post(() -> addSearchResults(generation, matches, complete));
+
+                start = end;
+            } while (start < total);
+        });
+    }
+
+    private void addSearchResults(int generation, List<Integer> matches, boolean complete) {
+        if (generation != searchGeneration.get() || searchResults == null || mAdapter == null) {
+            return;
+        }
+
+        int from = searchResults.size();
+        searchResults.addAll(matches);
+        searchComplete = complete;
+
+        if (!matches.isEmpty()) {
+            mAdapter.notifyItemRangeInserted(from, matches.size());
+        }
     }
 
     public class RulesAdapter extends RecyclerView.Adapter<RulesAdapter.RuleViewHolder> {
 
-        ArrayList<Rules> list_rules_adapter;
         LayoutInflater lInflater = (LayoutInflater) requireActivity().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
 
-        RulesAdapter(ArrayList<Rules> rules_list) {
-            list_rules_adapter = rules_list;
+        RulesAdapter() {
         }
 
 
@@ -293,22 +371,42 @@ public class ShowRulesRecycleFrag extends Fragment implements View.OnClickListen
 
         @Override
         public int getItemCount() {
-            return list_rules_adapter.size();
+            if (searchResults != null) {
+                return searchResults.size();
+            }
+            return rulesPager != null ? rulesPager.size() : 0;
+        }
+
+        int getPagerPosition(int position) {
+            if (searchResults != null) {
+                return searchResults.get(position);
+            }
+            return position;
         }
 
         Rules getRule(int position) {
-            return list_rules_adapter.get(position);
+            return rulesPager.get(getPagerPosition(position));
+        }
+
+        void setRuleChanged(int position) {
+            rulesPager.setChanged(getPagerPosition(position));
         }
 
         void delRule(int position) {
 
             try {
-                list_rules_adapter.remove(position);
+                rulesPager.remove(getPagerPosition(position));
             } catch (Exception e) {
-                Log.e(LOG_TAG, "ShowRulesRecycleFrag getItemCount exception " + e.getMessage() + " " + e.getCause());
+                Log.e(LOG_TAG, "ShowRulesRecycleFrag delRule exception " + e.getMessage() + " " + e.getCause());
             }
 
-
+            if (searchResults != null) {
+                //Positions after the removed rule are shifted, so search again
+                String query = searchQuery;
+                searchQuery = null;
+                searchComplete = false;
+                searchRules(query);
+            }
         }
 
         class RuleViewHolder extends RecyclerView.ViewHolder
@@ -327,37 +425,30 @@ public class ShowRulesRecycleFrag extends Fragment implements View.OnClickListen
                 llRules = itemView.findViewById(R.id.llRules);
                 swRuleActive = itemView.findViewById(R.id.swRuleActive);
 
-                if (readOnly) {
-                    delBtnRules.setVisibility(View.GONE);
-                    swRuleActive.setVisibility(View.GONE);
-                } else {
-                    if (!file_path.contains("subscriptions")) {
-                        swRuleActive.setOnCheckedChangeListener(this);
-                        swRuleActive.setOnFocusChangeListener(this);
-                    }
-                    etRule.addTextChangedListener(textWatcher);
-                    delBtnRules.setOnClickListener(this);
+                if (!isSubscriptions()) {
+                    swRuleActive.setOnCheckedChangeListener(this);
+                    swRuleActive.setOnFocusChangeListener(this);
                 }
+                etRule.addTextChangedListener(textWatcher);
+                delBtnRules.setOnClickListener(this);
             }
 
             void bind(int position) {
-                etRule.setText(getRule(position).text, TextView.BufferType.EDITABLE);
-                etRule.setEnabled(getRule(position).active);
+                Rules rule = getRule(position);
+
+                etRule.setText(rule.text, TextView.BufferType.EDITABLE);
+                etRule.setEnabled(rule.active);
 
-                if (getRule(position).subscription) {
+                if (rule.subscription) {
                     swRuleActive.setVisibility(View.GONE);
-                } else if (!readOnly) {
+                } else {
                     swRuleActive.setVisibility(View.VISIBLE);
-                    swRuleActive.setChecked(getRule(position).active);
+                    swRuleActive.setChecked(rule.active);
                 }
 
-                delBtnRules.setEnabled(true);
-
-                if (getRule(position).locked) {
-                    delBtnRules.setEnabled(false);
-                }
+                delBtnRules.setEnabled(!rule.locked);
 
-                if (position == list_rules_adapter.size() - 1) {
+                if (position == getItemCount() - 1) {
                     llRules.setPadding(0, 0, 0, btnAddRule.getHeight());
                 } else {
                     llRules.setPadding(0, 0, 0, 0);
@@ -371,8 +462,17 @@ public class ShowRulesRecycleFrag extends Fragment implements View.OnClickListen
 
                 @Override
                 public void onTextChanged(CharSequence s, int start, int before, int count) {
-                    if (!getRule(getAdapterPosition()).locked)
-                        getRule(getAdapterPosition()).text = s.toString();
+                    int position = getAdapterPosition();
+                    if (position == RecyclerView.NO_POSITION) {
+                        return;
+                    }
+
+                    Rules rule = getRule(position);
+                    String text = s.toString();
+                    if (!rule.locked && !rule.text.equals(text)) {
+                        rule.text = text;
+                        setRuleChanged(position);
+                    }
                 }
 
                 @Override
@@ -382,17 +482,25 @@ public class ShowRulesRecycleFrag extends Fragment implements View.OnClickListen
 
             @Override
             public void onClick(View v) {
-                if (v.getId() == R.id.delBtnRules) {
-                    delRule(getAdapterPosition());
+                int position = getAdapterPosition();
+                if (v.getId() == R.id.delBtnRules && position != RecyclerView.NO_POSITION) {
+                    delRule(position);
                     notifyDataSetChanged();
                 }
             }
 
             @Override
             public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-                if (getRule(getAdapterPosition()).active != isChecked) {
-                    getRule(getAdapterPosition()).active = isChecked;
-                    notifyItemChanged(getAdapterPosition());
+                int position = getAdapterPosition();
+                if (position == RecyclerView.NO_POSITION) {
+                    return;
+                }
+
+                Rules rule = getRule(position);
+                if (rule.active != isChecked) {
+                    rule.active = isChecked;
+                    setRuleChanged(position);
+                    notifyItemChanged(position);
                 }
             }
 
@@ -0,0 +1,37 @@
+package pan.alexander.tordnscrypt.settings.tor_apps
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import androidx.recyclerview.widget.DiffUtil
+
+class ApplicationDataDiffUtilItemCallback : DiffUtil.ItemCallback<ApplicationData>() {
+
+    override fun areItemsTheSame(oldItem: ApplicationData, newItem: ApplicationData): Boolean {
+        return oldItem.uid == newItem.uid
+    }
+
+    override fun areContentsTheSame(oldItem: ApplicationData, newItem: ApplicationData): Boolean {
+        return oldItem.active == newItem.active
+                && oldItem.system == newItem.system
+                && oldItem.pack == newItem.pack
+                && oldItem.icon === newItem.icon
+                && oldItem.names == newItem.names
+    }
+}
@@ -30,11 +30,17 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.widget.SwitchCompat;
 import androidx.cardview.widget.CardView;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.AsyncListDiffer;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.util.List;
+
 import pan.alexander.tordnscrypt.R;
 
 class TorAppsAdapter extends RecyclerView.Adapter<TorAppsAdapter.TorAppsViewHolder> {
+    private final AsyncListDiffer<ApplicationData> diff = new AsyncListDiffer<>(
+            this, new ApplicationDataDiffUtilItemCallback()
+    );
     UnlockTorAppsFragment fragment;
     LayoutInflater lInflater;
 
@@ -57,33 +63,28 @@ class TorAppsAdapter extends RecyclerView.Adapter<TorAppsAdapter.TorAppsViewHold
 
     @Override
     public long getItemId(int position) {
-        return position;
+        return getItem(position).getUid();
     }
 
     @Override
     public int getItemCount() {
-        return fragment.appsUnlock.size();
+        return diff.getCurrentList().size();
     }
 
     ApplicationData getItem(int position) {
-        return fragment.appsUnlock.get(position);
+        return diff.getCurrentList().get(position);
     }
 
-    void setActive(int position, boolean active) {
+    List<ApplicationData> getCurrentList() {
+        return diff.getCurrentList();
+    }
 
-        ApplicationData appUnlock = fragment.appsUnlock.get(position);
-        appUnlock.setActive(active);
-        fragment.appsUnlock.set(position, appUnlock);
-
-        if (fragment.savedAppsUnlockWhenSearch != null) {
-            for (int i = 0; i < fragment.savedAppsUnlockWhenSearch.size(); i++) {
-                ApplicationData appUnlockSaved = fragment.savedAppsUnlockWhenSearch.get(i);
-                if (appUnlockSaved.equals(appUnlock)) {
-                    appUnlockSaved.setActive(active);
-                    fragment.savedAppsUnlockWhenSearch.set(i, appUnlockSaved);
-                }
-            }
-        }
+    void submitList(List<ApplicationData> apps) {
+        diff.submitList(apps);
+    }
+
+    void setActive(int position, boolean active) {
+        getItem(position).setActive(active);
     }
 
     protected class TorAppsViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener, View.OnFocusChangeListener {
@@ -147,7 +148,7 @@ class TorAppsAdapter extends RecyclerView.Adapter<TorAppsAdapter.TorAppsViewHold
 
             boolean appActive = getItem(position).getActive();
             setActive(position, !appActive);
-            fragment.mAdapter.notifyDataSetChanged();
+            notifyItemChanged(position);
         }
 
         @Override
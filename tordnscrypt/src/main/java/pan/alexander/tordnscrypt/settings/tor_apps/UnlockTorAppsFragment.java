@@ -21,8 +21,6 @@ package pan.alexander.tordnscrypt.settings.tor_apps;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -31,6 +29,7 @@ import android.widget.CompoundButton;
 import android.widget.ProgressBar;
 import android.widget.Toast;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.widget.SearchView;
 import androidx.fragment.app.Fragment;
@@ -41,16 +40,13 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.material.chip.Chip;
 import com.google.android.material.chip.ChipGroup;
 
-import org.jetbrains.annotations.NotNull;
-
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.FutureTask;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
 
 import dagger.Lazy;
 import pan.alexander.tordnscrypt.App;
@@ -58,8 +54,9 @@ import pan.alexander.tordnscrypt.R;
 import pan.alexander.tordnscrypt.dialogs.NotificationHelper;
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceRepository;
 import pan.alexander.tordnscrypt.modules.ModulesStatus;
+import pan.alexander.tordnscrypt.utils.apps.InstalledAppsRepository;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
-import pan.alexander.tordnscrypt.utils.apps.InstalledApplicationsManager;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.integrity.Verifier;
 
 import static pan.alexander.tordnscrypt.TopFragment.TOP_BROADCAST;
@@ -73,35 +70,32 @@ import static pan.alexander.tordnscrypt.utils.enums.OperationMode.VPN_MODE;
 import javax.inject.Inject;
 
 
-public class UnlockTorAppsFragment extends Fragment implements InstalledApplicationsManager.OnAppAddListener,
-        CompoundButton.OnCheckedChangeListener, ChipGroup.OnCheckedChangeListener, SearchView.OnQueryTextListener {
+public class UnlockTorAppsFragment extends Fragment implements CompoundButton.OnCheckedChangeListener,
+        ChipGroup.OnCheckedChangeListener, SearchView.OnQueryTextListener {
 
     public static final String UNLOCK_APPS = "unlockApps";
     public static final String CLEARNET_APPS = "clearnetApps";
 
     private Chip chipTorAppsUser;
     private Chip chipTorAppsSystem;
-    private Chip chipTorAppsAll;
     private Chip chipTorAppsSortUid;
     private ProgressBar pbTorApp;
     private RecyclerView rvListTorApps;
-    RecyclerView.Adapter<TorAppsAdapter.TorAppsViewHolder> mAdapter;
+    private TorAppsAdapter mAdapter;
 
-    final CopyOnWriteArrayList<ApplicationData> appsUnlock = new CopyOnWriteArrayList<>();
-    CopyOnWriteArrayList<ApplicationData> savedAppsUnlockWhenSearch = null;
+    //Own copies of the shared applications that hold the active state of this screen
+    private final Map<Integer, ApplicationData> appsUnlock = new HashMap<>();
+    private InstalledAppsRepository.InstalledApps installedApps;
     private Set<String> setUnlockApps;
 
     private String unlockAppsStr;
-    private FutureTask<?> futureTask;
-    private final ReentrantLock reentrantLock = new ReentrantLock();
-    private volatile boolean appsListComplete = false;
     private String searchText;
     @Inject
     public Lazy<PreferenceRepository> preferenceRepository;
     @Inject
     public CachedExecutor cachedExecutor;
     @Inject
-    public Lazy<Handler> handler;
+    public Lazy<InstalledAppsRepository> installedAppsRepository;
 
 
     public UnlockTorAppsFragment() {
@@ -149,7 +143,6 @@ public class UnlockTorAppsFragment extends Fragment implements InstalledApplicat
         chipGroupTorApps.setOnCheckedChangeListener(this);
         chipTorAppsUser = view.findViewById(R.id.chipTorAppsUser);
         chipTorAppsSystem = view.findViewById(R.id.chipTorAppsSystem);
-        chipTorAppsAll = view.findViewById(R.id.chipTorAppsAll);
 
         ChipGroup chipGroupTorAppsSort = view.findViewById(R.id.chipGroupTorAppsSort);
         chipGroupTorAppsSort.setOnCheckedChangeListener(this);
@@ -158,20 +151,35 @@ public class UnlockTorAppsFragment extends Fragment implements InstalledApplicat
         pbTorApp = view.findViewById(R.id.pbTorApp);
 
         rvListTorApps = view.findViewById(R.id.rvTorApps);
+        rvListTorApps.setLayoutManager(new LinearLayoutManager(inflater.getContext()));
 
-        searchText = null;
+        mAdapter = new TorAppsAdapter(this);
+        mAdapter.setHasStableIds(true);
+        rvListTorApps.setAdapter(mAdapter);
 
-        if (chipTorAppsSystem.isChecked()) {
-            chipSelectSystemApps();
-        } else if (chipTorAppsUser.isChecked()) {
-            chipSelectUserApps();
-        } else if (chipTorAppsAll.isChecked()) {
-            chipSelectAllApps();
-        }
+        searchText = null;
 
         return view;
     }
 
+    @Override
+    public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
+        super.onViewCreated(view, savedInstanceState);
+
+        //The fragment is retained, so the view can be recreated for the already loaded apps
+        if (installedApps == null) {
+            pbTorApp.setIndeterminate(true);
+            pbTorApp.setVisibility(View.VISIBLE);
+        } else {
+            updateAppsList();
+        }
+
+        installedAppsRepository.get().getApps().observe(getViewLifecycleOwner(), apps -> {
+            if (apps != null) {
+                onInstalledAppsChanged(apps);
+            }
+        });
+    }
 
     @Override
     public void onResume() {
@@ -183,16 +191,9 @@ public class UnlockTorAppsFragment extends Fragment implements InstalledApplicat
             return;
         }
 
-        RecyclerView.LayoutManager mLayoutManager = new LinearLayoutManager(context);
-        rvListTorApps.setLayoutManager(mLayoutManager);
-
-        mAdapter = new TorAppsAdapter(this);
-        mAdapter.setHasStableIds(true);
-        rvListTorApps.setAdapter(mAdapter);
+        installedAppsRepository.get().load();
 
-        getDeviceApps(context, setUnlockApps);
-
-        cachedExecutor.submit(() -> {
+        cachedExecutor.submit(TaskScheduler.Pool.CPU, () -> {
             try {
                 Verifier verifier = new Verifier(context);
                 String appSignAlt = verifier.getApkSignature();
@@ -222,18 +223,12 @@ public class UnlockTorAppsFragment extends Fragment implements InstalledApplicat
 
         Context context = getActivity();
 
-        if (context == null || !appsListComplete) {
+        if (context == null || installedApps == null) {
             return;
         }
 
-        if (savedAppsUnlockWhenSearch != null) {
-            appsUnlock.clear();
-            appsUnlock.addAll(savedAppsUnlockWhenSearch);
-        }
-
         Set<String> setAppUIDtoSave = new HashSet<>();
-        for (int i = 0; i < appsUnlock.size(); i++) {
-            ApplicationData app = appsUnlock.get(i);
+        for (ApplicationData app : appsUnlock.values()) {
             if (app.getActive())
                 setAppUIDtoSave.add(String.valueOf(app.getUid()));
         }
@@ -261,333 +256,117 @@ public class UnlockTorAppsFragment extends Fragment implements InstalledApplicat
 
         chipTorAppsUser = null;
         chipTorAppsSystem = null;
-        chipTorAppsAll = null;
         chipTorAppsSortUid = null;
         rvListTorApps = null;
         mAdapter = null;
         pbTorApp = null;
     }
 
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
-
-        if (futureTask != null && futureTask.cancel(true)) {
-            return;
-        }
-
-        handler.get().removeCallbacksAndMessages(null);
-    }
-
     @Override
     public void onCheckedChanged(CompoundButton compoundButton, boolean active) {
-        if (compoundButton.getId() == R.id.menu_switch && rvListTorApps != null
-                && !rvListTorApps.isComputingLayout() && mAdapter != null && appsListComplete) {
-            if (active) {
-                for (int i = 0; i < appsUnlock.size(); i++) {
-                    ApplicationData app = appsUnlock.get(i);
-                    app.setActive(true);
-                    appsUnlock.set(i, app);
-                }
-            } else {
-                for (int i = 0; i < appsUnlock.size(); i++) {
-                    ApplicationData app = appsUnlock.get(i);
-                    app.setActive(false);
-                    appsUnlock.set(i, app);
-                }
+        if (compoundButton.getId() == R.id.menu_switch && mAdapter != null && installedApps != null) {
+            for (ApplicationData app : mAdapter.getCurrentList()) {
+                app.setActive(active);
             }
-            mAdapter.notifyDataSetChanged();
+            mAdapter.notifyItemRangeChanged(0, mAdapter.getItemCount());
         }
     }
 
     @Override
     public void onCheckedChanged(ChipGroup group, int checkedId) {
-        if (rvListTorApps.isComputingLayout() || !appsListComplete) {
-            return;
-        }
-
-        if (checkedId == R.id.chipTorAppsUser) {
-            chipSelectUserApps();
-        } else if (checkedId == R.id.chipTorAppsSystem) {
-            chipSelectSystemApps();
-        } else if (checkedId == R.id.chipTorAppsAll) {
-            chipSelectAllApps();
-        } else if (checkedId == R.id.chipTorAppsSortName) {
-            sortByName();
-        } else if (checkedId == R.id.chipTorAppsSortUid) {
-            sortByUid();
-        }
-
-        if (mAdapter != null) {
-            mAdapter.notifyDataSetChanged();
-        }
+        updateAppsList();
     }
 
     @Override
     public boolean onQueryTextSubmit(String s) {
-        if (mAdapter == null || rvListTorApps == null || rvListTorApps.isComputingLayout() || !appsListComplete) {
-            return false;
-        }
-
-        searchApps(s);
-
-        mAdapter.notifyDataSetChanged();
-
-        return true;
+        return searchApps(s);
     }
 
     @Override
     public boolean onQueryTextChange(String s) {
-
-        if (mAdapter == null || rvListTorApps == null || rvListTorApps.isComputingLayout() || !appsListComplete) {
-            return false;
-        }
-
-        searchApps(s);
-
-        mAdapter.notifyDataSetChanged();
-
-        return true;
+        return searchApps(s);
     }
 
-    private void searchApps(String text) {
+    private boolean searchApps(String text) {
         searchText = text;
 
-        if (rvListTorApps == null || rvListTorApps.isComputingLayout() || !appsListComplete) {
-            return;
-        }
-
-        boolean allAppsSelected = chipTorAppsAll.isChecked();
-        boolean systemAppsSelected = chipTorAppsSystem.isChecked();
-        boolean userAppsSelected = chipTorAppsUser.isChecked();
-
-        if (text == null || text.isEmpty()) {
-            if (savedAppsUnlockWhenSearch != null) {
-                appsUnlock.clear();
-                appsUnlock.addAll(savedAppsUnlockWhenSearch);
-                savedAppsUnlockWhenSearch = null;
-            }
-
-            if (systemAppsSelected) {
-                chipSelectSystemApps();
-            } else if (userAppsSelected) {
-                chipSelectUserApps();
-            }
-
-            return;
-        }
-
-        if (savedAppsUnlockWhenSearch == null) {
-            savedAppsUnlockWhenSearch = new CopyOnWriteArrayList<>(appsUnlock);
+        if (mAdapter == null || installedApps == null) {
+            return false;
         }
 
-        appsUnlock.clear();
+        updateAppsList();
 
-        for (int i = 0; i < savedAppsUnlockWhenSearch.size(); i++) {
-            ApplicationData app = savedAppsUnlockWhenSearch.get(i);
-            if (app.toString().toLowerCase().contains(text.toLowerCase().trim())
-                    || app.getPack().toLowerCase().contains(text.toLowerCase().trim())) {
-                if (allAppsSelected
-                        || systemAppsSelected && app.getSystem()
-                        || userAppsSelected && !app.getSystem()) {
-                    appsUnlock.add(app);
-                }
-            }
-        }
+        return true;
     }
 
-    private void sortByName() {
-        if (rvListTorApps.isComputingLayout() || !appsListComplete) {
+    private void onInstalledAppsChanged(InstalledAppsRepository.InstalledApps apps) {
+        if (apps == installedApps) {
             return;
         }
 
-        ApplicationData.Companion.sortListBy(appsUnlock, ApplicationData::compareTo);
-        ApplicationData.Companion.sortListBy(savedAppsUnlockWhenSearch, ApplicationData::compareTo);
-    }
+        Map<Integer, ApplicationData> previousApps = new HashMap<>(appsUnlock);
+        appsUnlock.clear();
 
-    private void sortByUid() {
-        if (rvListTorApps.isComputingLayout() || !appsListComplete) {
-            return;
+        for (ApplicationData app : apps.getByName()) {
+            int uid = app.getUid();
+            ApplicationData previousApp = previousApps.get(uid);
+            boolean active = previousApp != null
+                    ? previousApp.getActive()
+                    : setUnlockApps.contains(String.valueOf(uid));
+            appsUnlock.put(uid, app.copyWithActive(active));
         }
 
-        ApplicationData.Companion.sortListBy(appsUnlock, (o1, o2) -> {
-            if (!o1.getActive() && o2.getActive()) {
-                return 1;
-            } else if (o1.getActive() && !o2.getActive()) {
-                return -1;
-            } else {
-                return o1.getUid() - o2.getUid();
-            }
-        });
-
-        ApplicationData.Companion.sortListBy(savedAppsUnlockWhenSearch, (o1, o2) -> {
-            if (!o1.getActive() && o2.getActive()) {
-                return 1;
-            } else if (o1.getActive() && !o2.getActive()) {
-                return -1;
-            } else {
-                return o1.getUid() - o2.getUid();
-            }
-        });
-    }
+        boolean firstLoad = installedApps == null;
+        installedApps = apps;
 
-    private void chipSelectAllApps() {
-        if (rvListTorApps.isComputingLayout() || !appsListComplete) {
-            return;
+        if (pbTorApp != null) {
+            pbTorApp.setIndeterminate(false);
+            pbTorApp.setVisibility(View.GONE);
         }
 
-        if (savedAppsUnlockWhenSearch != null) {
-            if (searchText == null || searchText.trim().isEmpty()) {
-                appsUnlock.clear();
-                appsUnlock.addAll(savedAppsUnlockWhenSearch);
-                savedAppsUnlockWhenSearch = null;
-            } else {
-                searchApps(searchText);
-            }
-        }
+        updateAppsList(firstLoad);
     }
 
-    private void chipSelectSystemApps() {
-        if (rvListTorApps.isComputingLayout() || !appsListComplete) {
-            return;
-        }
-
-        if (savedAppsUnlockWhenSearch == null) {
-            savedAppsUnlockWhenSearch = new CopyOnWriteArrayList<>(appsUnlock);
-        }
-
-        appsUnlock.clear();
-
-        for (ApplicationData applicationData : savedAppsUnlockWhenSearch) {
-            if (applicationData.getSystem()) {
-                if (searchText == null || searchText.isEmpty()) {
-                    appsUnlock.add(applicationData);
-                } else if (applicationData.toString().toLowerCase().contains(searchText.toLowerCase().trim())
-                        || applicationData.getPack().toLowerCase().contains(searchText.toLowerCase().trim())) {
-                    appsUnlock.add(applicationData);
-                }
-            }
-        }
+    private void updateAppsList() {
+        updateAppsList(true);
     }
 
-    private void chipSelectUserApps() {
-        if (rvListTorApps.isComputingLayout() || !appsListComplete) {
+    //Active apps are moved to the top only when the list is reordered by the user,
+    //not when a package is added or removed
+    private void updateAppsList(boolean activeFirst) {
+        if (mAdapter == null || installedApps == null) {
             return;
         }
 
-        if (savedAppsUnlockWhenSearch == null) {
-            savedAppsUnlockWhenSearch = new CopyOnWriteArrayList<>(appsUnlock);
+        InstalledAppsRepository.Filter filter;
+        if (chipTorAppsSystem.isChecked()) {
+            filter = InstalledAppsRepository.Filter.SYSTEM;
+        } else if (chipTorAppsUser.isChecked()) {
+            filter = InstalledAppsRepository.Filter.USER;
+        } else {
+            filter = InstalledAppsRepository.Filter.ALL;
         }
 
-        appsUnlock.clear();
+        List<ApplicationData> selectedApps = installedApps.select(
+                filter, searchText, chipTorAppsSortUid.isChecked(), false
+        );
 
-        for (ApplicationData applicationData : savedAppsUnlockWhenSearch) {
-            if (!applicationData.getSystem()) {
-                if (searchText == null || searchText.isEmpty()) {
-                    appsUnlock.add(applicationData);
-                } else if (applicationData.toString().toLowerCase().contains(searchText.toLowerCase().trim())
-                        || applicationData.getPack().toLowerCase().contains(searchText.toLowerCase().trim())) {
-                    appsUnlock.add(applicationData);
-                }
+        List<ApplicationData> activeApps = new ArrayList<>();
+        List<ApplicationData> inactiveApps = new ArrayList<>();
+        for (ApplicationData selectedApp : selectedApps) {
+            ApplicationData app = appsUnlock.get(selectedApp.getUid());
+            if (app == null) {
+                continue;
             }
-        }
-    }
-
-    @Override
-    public void onAppAdded(@NotNull ApplicationData application) {
-        if (handler == null || rvListTorApps == null
-                || mAdapter == null || rvListTorApps.isComputingLayout() || appsListComplete) {
-            return;
-        }
-
-        appsUnlock.add(0, application);
 
-        handler.get().post(() -> {
-            if (rvListTorApps == null || mAdapter == null
-                    || rvListTorApps.isComputingLayout() || appsListComplete) {
-                return;
+            if (app.getActive() || !activeFirst) {
+                activeApps.add(app);
+            } else {
+                inactiveApps.add(app);
             }
-
-            mAdapter.notifyDataSetChanged();
-        });
-    }
-
-    private void getDeviceApps(final Context context, final Set<String> unlockAppsArrListSaved) {
-
-        if (!appsUnlock.isEmpty()) {
-            return;
         }
+        activeApps.addAll(inactiveApps);
 
-        futureTask = new FutureTask<>(() -> {
-
-            try {
-
-                reentrantLock.lockInterruptibly();
-
-                if (appsUnlock.isEmpty()) {
-
-                    if (handler != null && pbTorApp != null) {
-                        handler.get().post(() -> {
-                            if (pbTorApp != null) {
-                                pbTorApp.setIndeterminate(true);
-                                pbTorApp.setVisibility(View.VISIBLE);
-                            }
-                        });
-                    }
-
-                    appsListComplete = false;
-
-                    InstalledApplicationsManager installedApplicationsManager = new InstalledApplicationsManager(context, unlockAppsArrListSaved);
-                    installedApplicationsManager.setOnAppAddListener(UnlockTorAppsFragment.this);
-                    List<ApplicationData> installedApps = installedApplicationsManager.getInstalledApps(false);
-
-                    while (rvListTorApps != null && rvListTorApps.isComputingLayout()) {
-                        TimeUnit.MILLISECONDS.sleep(100);
-                    }
-
-                    appsListComplete = true;
-
-                    appsUnlock.clear();
-                    appsUnlock.addAll(installedApps);
-
-                    if (handler != null && pbTorApp != null) {
-                        handler.get().post(() -> {
-                            if (pbTorApp != null && mAdapter != null) {
-                                pbTorApp.setIndeterminate(false);
-                                pbTorApp.setVisibility(View.GONE);
-
-                                if (chipTorAppsSortUid.isChecked()) {
-                                    sortByUid();
-                                }
-
-                                if (chipTorAppsSystem.isChecked()) {
-                                    chipSelectSystemApps();
-                                } else if (chipTorAppsUser.isChecked()) {
-                                    chipSelectUserApps();
-                                }
-
-                                mAdapter.notifyDataSetChanged();
-                            }
-                        });
-                    }
-
-                }
-
-            } catch (Exception e) {
-                Log.e(LOG_TAG, "UnlockTorAppsFragment getDeviceApps exception " + e.getMessage()
-                        + "\n" + e.getCause() + "\n" + Arrays.toString(e.getStackTrace()));
-            } finally {
-                if (reentrantLock.isLocked()) {
-                    reentrantLock.unlock();
-                }
-            }
-
-            System.gc();
-
-            return null;
-        });
-
-        cachedExecutor.submit(futureTask);
-
+        mAdapter.submitList(activeApps);
     }
 }
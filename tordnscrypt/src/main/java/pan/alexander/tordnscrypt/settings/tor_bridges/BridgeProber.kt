@@ -0,0 +1,142 @@
+package pan.alexander.tordnscrypt.settings.tor_bridges
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import android.os.SystemClock
+import android.util.Log
+import kotlinx.coroutines.*
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import pan.alexander.tordnscrypt.di.CoroutinesModule
+import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
+import java.net.InetSocketAddress
+import java.net.Socket
+import java.util.concurrent.ConcurrentHashMap
+import javax.inject.Inject
+import javax.inject.Named
+import javax.inject.Singleton
+
+private const val MAX_PARALLEL_PROBES = 16
+private const val CONNECT_TIMEOUT_MSEC = 3000
+private const val PROBE_RESULT_EXPIRY_MSEC = 10 * 60 * 1000L
+private const val RANK_TIMEOUT_MSEC = 30 * 1000L
+
+//Snowflake and meek use placeholder addresses, so there is nothing to probe
+private val bridgeAddressPattern =
+    Regex("^(?:(?:obfs4|obfs3|scramblesuit) +)?(\\[[0-9a-fA-F:]+]|\\d{1,3}(?:\\.\\d{1,3}){3}):(\\d{1,5})(?: .*)?$")
+
+/**
+ * Checks bridges reachability by connecting to their endpoints directly.
+ * Results are cached for a while, so saving the same bridges again does not probe them again.
+ * Direct connections reveal bridges to the network observer, so only bridges selected by the user are probed.
+ */
+@Singleton
+class BridgeProber @Inject constructor(
+    @Named(CoroutinesModule.SUPERVISOR_JOB_IO_DISPATCHER_SCOPE)
+    private val baseCoroutineScope: CoroutineScope,
+    private val coroutineExceptionHandler: CoroutineExceptionHandler
+) {
+
+    private class ProbeResult(val reachable: Boolean, val latencyMsec: Long)
+
+    private class CachedProbe(val result: Deferred<ProbeResult>, val time: Long)
+
+    private val coroutineScope by lazy {
+        baseCoroutineScope + CoroutineName("BridgeProber") + coroutineExceptionHandler
+    }
+    private val semaphore = Semaphore(MAX_PARALLEL_PROBES)
+    private val probes = ConcurrentHashMap<String, CachedProbe>()
+
+    /**
+     * Blocks until all bridges are probed. Should not be called from the main thread.
+     * Bridges are only reordered, never removed, as a probe can fail for a working bridge.
+     * @return reachable bridges sorted by latency, then bridges that could not be probed,
+     * then unreachable ones, or bridges unchanged when none of them is reachable,
+     * as the network may be unavailable at the moment
+     */
+    fun rankBridges(bridges: Collection<String>): List<String> = runBlocking {
+        val probes = bridges.map { bridge -> bridge to getProbe(bridge) }
+        val results = withTimeoutOrNull(RANK_TIMEOUT_MSEC) {
+            probes.map { (bridge, probe) -> bridge to probe?.result?.await() }
+        } ?: return@runBlocking bridges.toList()
+
+        val notProbed = results.filter { it.second == null }.map { it.first }
+        val reachable = results.filter { it.second?.reachable == true }
+            .sortedBy { it.second?.latencyMsec }
+            .map { it.first }
+        val unreachable = results.filter { it.second?.reachable == false }.map { it.first }
+
+        if (reachable.isEmpty()) {
+            Log.w(LOG_TAG, "BridgeProber no reachable bridges among ${bridges.size}")
+            bridges.toList()
+        } else {
+            Log.i(
+                LOG_TAG, "BridgeProber ${reachable.size} of ${bridges.size - notProbed.size} bridges are reachable"
+            )
+            reachable + notProbed + unreachable
+        }
+    }
+
+    fun clearCache() {
+        probes.clear()
+    }
+
+    private fun getProbe(bridge: String): CachedProbe? {
+        val address = parseAddress(bridge) ?: return null
+        val key = "${address.hostString}:${address.port}"
+
+        val cached = probes[key]
+        if (cached != null && SystemClock.elapsedRealtime() - cached.time < PROBE_RESULT_EXPIRY_MSEC) {
+            return cached
+        }
+
+        val probe = CachedProbe(
+            coroutineScope.async { semaphore.withPermit { probe(address) } },
+            SystemClock.elapsedRealtime()
+        )
+        probes[key] = probe
+        return probe
+    }
+
+    private fun probe(address: InetSocketAddress): ProbeResult {
+        val start = SystemClock.elapsedRealtime()
+
+        return try {
+            Socket().use {
+                it.connect(address, CONNECT_TIMEOUT_MSEC)
+                ProbeResult(it.isConnected, SystemClock.elapsedRealtime() - start)
+            }
+        } catch (e: Exception) {
+            ProbeResult(false, Long.MAX_VALUE)
+        }
+    }
+
+    private fun parseAddress(bridge: String): InetSocketAddress? {
+        val match = bridgeAddressPattern.matchEntire(bridge.trim()) ?: return null
+        val host = match.groupValues[1].removePrefix("[").removeSuffix("]")
+        val port = match.groupValues[2].toIntOrNull() ?: return null
+
+        return if (port in 1..65535) {
+            InetSocketAddress(host, port)
+        } else {
+            null
+        }
+    }
+}
@@ -55,6 +55,7 @@ import pan.alexander.tordnscrypt.dialogs.progressDialogs.PleaseWaitDialogBridges
 import pan.alexander.tordnscrypt.modules.ModulesStatus;
 import pan.alexander.tordnscrypt.settings.PathVars;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.wakelock.WakeLocksManager;
 
 import static pan.alexander.tordnscrypt.utils.Constants.LOOPBACK_ADDRESS;
@@ -244,7 +245,7 @@ public class GetNewBridges implements GetNewBridgesCallbacks {
         if (dialogPleaseWait != null && dialogPleaseWait.get() != null)
             dialogPleaseWait.get().setThreadRequest(threadRequestCodeImage);
 
-        cachedExecutor.submit(threadRequestCodeImage);
+        cachedExecutor.submit(TaskScheduler.Pool.NETWORK, threadRequestCodeImage);
     }
 
     public void showProgressDialog() {
@@ -538,6 +539,6 @@ public class GetNewBridges implements GetNewBridgesCallbacks {
         if (dialogPleaseWait != null && dialogPleaseWait.get() != null)
             dialogPleaseWait.get().setThreadRequest(threadRequestBridges);
 
-        cachedExecutor.submit(threadRequestBridges);
+        cachedExecutor.submit(TaskScheduler.Pool.NETWORK, threadRequestBridges);
     }
 }
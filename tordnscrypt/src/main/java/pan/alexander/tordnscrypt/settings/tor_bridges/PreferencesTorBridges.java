@@ -68,10 +68,12 @@ import pan.alexander.tordnscrypt.settings.SettingsActivity;
 import pan.alexander.tordnscrypt.dialogs.NotificationHelper;
 import pan.alexander.tordnscrypt.dialogs.UpdateDefaultBridgesDialog;
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceRepository;
-import pan.alexander.tordnscrypt.modules.ModulesRestarter;
+import pan.alexander.tordnscrypt.modules.ModulesRestartScheduler;
 import pan.alexander.tordnscrypt.modules.ModulesStatus;
 import pan.alexander.tordnscrypt.settings.PathVars;
+import pan.alexander.tordnscrypt.utils.configs.ModulesConfigCache;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.integrity.Verifier;
 import pan.alexander.tordnscrypt.utils.enums.BridgeType;
 import pan.alexander.tordnscrypt.utils.enums.BridgesSelector;
@@ -95,6 +97,7 @@ import static pan.alexander.tordnscrypt.utils.enums.BridgeType.snowflake;
 import static pan.alexander.tordnscrypt.utils.enums.BridgeType.undefined;
 import static pan.alexander.tordnscrypt.utils.enums.FileOperationsVariants.readTextFile;
 import static pan.alexander.tordnscrypt.utils.enums.ModuleState.RUNNING;
+import static pan.alexander.tordnscrypt.utils.enums.ModuleName.TOR_MODULE;
 
 import javax.inject.Inject;
 
@@ -144,7 +147,13 @@ public class PreferencesTorBridges extends Fragment implements View.OnClickListe
     @Inject
     public CachedExecutor cachedExecutor;
     @Inject
+    public Lazy<ModulesRestartScheduler> modulesRestartScheduler;
+    @Inject
     public Lazy<Handler> handlerLazy;
+    @Inject
+    public Lazy<BridgeProber> bridgeProber;
+    @Inject
+    public Lazy<ModulesConfigCache> modulesConfigCache;
 
 
     public PreferencesTorBridges() {
@@ -277,7 +286,7 @@ public class PreferencesTorBridges extends Fragment implements View.OnClickListe
         spDefaultBridges.setOnItemSelectedListener(this);
         spOwnBridges.setOnItemSelectedListener(this);
 
-        cachedExecutor.submit(() -> {
+        cachedExecutor.submit(TaskScheduler.Pool.CPU, () -> {
             try {
                 Verifier verifier = new Verifier(context);
                 String appSignAlt = verifier.getApkSignature();
@@ -398,6 +407,8 @@ public class PreferencesTorBridges extends Fragment implements View.OnClickListe
             sharedPreferences.edit().putString("pref_tor_snowflake_stun", stunServer).apply();
         }
 
+        List<String> bridgesToSave = new ArrayList<>();
+
         if (!currentBridges.isEmpty() && !currentBridgesType.equals(undefined)) {
 
             torConfCleaned.add("UseBridges 1");
@@ -433,16 +444,20 @@ public class PreferencesTorBridges extends Fragment implements View.OnClickListe
                     if (!currentBridge.isEmpty() && !currentBridge.contains(obfs4.toString())
                             && !currentBridge.contains(obfs3.toString()) && !currentBridge.contains(scramblesuit.toString())
                             && !currentBridge.contains(meek_lite.toString()) && !currentBridge.contains(snowflake.toString())) {
-                        torConfCleaned.add("Bridge " + currentBridge);
+                        bridgesToSave.add(currentBridge);
                     }
                 } else {
                     if (!currentBridge.isEmpty() && currentBridge.contains(currentBridgesType.toString())) {
-                        torConfCleaned.add("Bridge " + currentBridge);
+                        bridgesToSave.add(currentBridge);
                     }
                 }
 
             }
 
+            for (String bridge : bridgesToSave) {
+                torConfCleaned.add("Bridge " + bridge);
+            }
+
         } else {
             torConfCleaned.add("UseBridges 0");
         }
@@ -451,16 +466,72 @@ public class PreferencesTorBridges extends Fragment implements View.OnClickListe
             return;
         }
 
-        FileManager.writeToTextFile(context, appDataDir + "/app_data/tor/tor.conf", torConfCleaned, "ignored");
+        saveTorConf(context.getApplicationContext(), torConfCleaned, bridgesToSave);
+    }
 
-        ///////////////////////Tor restart/////////////////////////////////////////////
-        boolean torRunning = ModulesStatus.getInstance().getTorState() == RUNNING;
+    //tor.conf is written without waiting for bridges probes, they are reordered afterwards
+    private void saveTorConf(Context context, List<String> torConf, List<String> bridges) {
+        String torConfPath = appDataDir + "/app_data/tor/tor.conf";
 
-        if (torRunning) {
-            ModulesRestarter.restartTor(context);
-            Toast.makeText(context, getText(R.string.toastSettings_saved), Toast.LENGTH_SHORT).show();
-        }
+        cachedExecutor.submit(TaskScheduler.Pool.IO, () -> {
+            if (!FileManager.writeTextFileSynchronous(context, torConfPath, torConf)) {
+                return;
+            }
+
+            ///////////////////////Tor restart/////////////////////////////////////////////
+            boolean torRunning = ModulesStatus.getInstance().getTorState() == RUNNING;
+
+            if (torRunning) {
+                modulesRestartScheduler.get().scheduleRestart(TOR_MODULE);
+                new Handler(Looper.getMainLooper()).post(() ->
+                        Toast.makeText(context, context.getText(R.string.toastSettings_saved), Toast.LENGTH_SHORT).show());
+            }
+
+            if (bridges.size() > 1) {
+                rankBridges(bridges);
+            }
+        });
+    }
+
+    //Bridges are sorted by latency with unreachable ones last, so Tor bootstraps faster
+    //Only the selected bridges are probed and only when the user saves them, not the whole list
+    private void rankBridges(List<String> bridges) {
+        cachedExecutor.submit(TaskScheduler.Pool.NETWORK, () -> {
+            List<String> rankedBridges = bridgeProber.get().rankBridges(bridges);
+            if (rankedBridges.equals(bridges)) {
+                return;
+            }
+
+            boolean[] reordered = {false};
+            modulesConfigCache.get().editTorConfig(torConfig -> {
+                List<String> lines = torConfig.getLines();
+
+                List<Integer> bridgeIndexes = new ArrayList<>();
+                List<String> savedBridges = new ArrayList<>();
+                for (int i = 0; i < lines.size(); i++) {
+                    String line = lines.get(i);
+                    if (line.startsWith("Bridge ")) {
+                        bridgeIndexes.add(i);
+                        savedBridges.add(line.substring(7));
+                    }
+                }
 
+                //Bridges were changed while they were probed
+                if (!savedBridges.equals(bridges)) {
+                    return;
+                }
+
+                for (int i = 0; i < bridgeIndexes.size(); i++) {
+                    lines.set(bridgeIndexes.get(i), "Bridge " + rankedBridges.get(i));
+                }
+                torConfig.replaceLines(lines);
+                reordered[0] = true;
+            });
+
+            if (reordered[0] && ModulesStatus.getInstance().getTorState() == RUNNING) {
+                modulesRestartScheduler.get().scheduleRestart(TOR_MODULE, true);
+            }
+        });
     }
 
     @Override
@@ -912,7 +983,7 @@ public class PreferencesTorBridges extends Fragment implements View.OnClickListe
 
     private Future<?> verifyNewDefaultBridgesExist(Context context, boolean useDefaultBridges) {
 
-        return cachedExecutor.submit(() -> {
+        return cachedExecutor.submit(TaskScheduler.Pool.IO, () -> {
             File outputFile = new File(appDataDir + "/app_data/tor/bridges_default.lst");
             long installedBridgesSize = outputFile.length();
 
@@ -0,0 +1,71 @@
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+ */
+
+
+package pan.alexander.tordnscrypt.settings.tor_ips
+
+import android.os.SystemClock
+import java.util.concurrent.ConcurrentHashMap
+import javax.inject.Inject
+import javax.inject.Singleton
+
+private const val RESOLVED_TTL_MSEC = 10 * 60 * 1000L
+private const val FAILED_TTL_MSEC = 60 * 1000L
+
+/**
+ * Keeps resolved domains and IPs of the Tor unlock lists, so entries that were not changed
+ * are not queried again while the list is edited or reopened.
+ * Failed resolutions are kept for a shorter time to be retried soon.
+ */
+@Singleton
+class DomainIpCache @Inject constructor() {
+
+    private class CachedDomainIp(
+        val domainIp: DomainIpEntity,
+        val time: Long,
+        val ttl: Long
+    )
+
+    private val cache = ConcurrentHashMap<DomainIpEntity, CachedDomainIp>()
+
+    fun get(domainIp: DomainIpEntity): DomainIpEntity? {
+        val cached = cache[domainIp] ?: return null
+
+        if (SystemClock.elapsedRealtime() - cached.time > cached.ttl) {
+            cache.remove(domainIp, cached)
+            return null
+        }
+
+        return copy(cached.domainIp, domainIp.isActive)
+    }
+
+    fun put(domainIp: DomainIpEntity, failed: Boolean) {
+        cache[domainIp] = CachedDomainIp(
+            copy(domainIp, domainIp.isActive),
+            SystemClock.elapsedRealtime(),
+            if (failed) FAILED_TTL_MSEC else RESOLVED_TTL_MSEC
+        )
+    }
+
+    private fun copy(domainIp: DomainIpEntity, active: Boolean): DomainIpEntity =
+        when (domainIp) {
+            is DomainEntity -> domainIp.copy(isActive = active)
+            is IpEntity -> domainIp.copy(isActive = active)
+        }
+}
@@ -48,6 +48,7 @@ import pan.alexander.tordnscrypt.R;
 import pan.alexander.tordnscrypt.dialogs.NotificationHelper;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
 import pan.alexander.tordnscrypt.utils.executors.CoroutineExecutor;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.integrity.Verifier;
 import pan.alexander.tordnscrypt.modules.ModulesStatus;
 
@@ -122,7 +123,7 @@ public class UnlockTorIpsFragment extends Fragment {
                 routeAllThroughTorTether
         );
 
-        cachedExecutor.submit(() -> {
+        cachedExecutor.submit(TaskScheduler.Pool.CPU, () -> {
             try {
                 Verifier verifier = new Verifier(activity);
                 String appSignAlt = verifier.getApkSignature();
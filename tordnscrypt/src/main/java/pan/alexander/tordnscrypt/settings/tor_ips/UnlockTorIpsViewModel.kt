@@ -24,6 +24,8 @@ import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
 import kotlinx.coroutines.*
+import kotlinx.coroutines.flow.firstOrNull
+import kotlinx.coroutines.flow.map
 import pan.alexander.tordnscrypt.App
 import pan.alexander.tordnscrypt.di.CoroutinesModule.Companion.DISPATCHER_COMPUTATION
 import pan.alexander.tordnscrypt.domain.dns_resolver.DnsInteractor
@@ -40,7 +42,6 @@ import java.util.concurrent.ConcurrentHashMap
 import javax.inject.Inject
 import javax.inject.Named
 
-@ObsoleteCoroutinesApi
 class UnlockTorIpsViewModel : ViewModel() {
 
     @Inject
@@ -53,6 +54,8 @@ class UnlockTorIpsViewModel : ViewModel() {
     lateinit var exceptionHandler: CoroutineExceptionHandler
     @Inject
     lateinit var resourceRepository: dagger.Lazy<ResourceRepository>
+    @Inject
+    lateinit var domainIpCache: DomainIpCache
 
     init {
         App.instance.daggerComponent.inject(this)
@@ -75,8 +78,7 @@ class UnlockTorIpsViewModel : ViewModel() {
         dispatcherIo + CoroutineName("getDomainIps") + exceptionHandler
     }
 
-    @Volatile
-    private var getDomainIpsJob: Job? = null
+    private val resolveJobs = ConcurrentHashMap<DomainIpEntity, Job>()
 
     fun defineAppropriatePreferenceKeys(
         deviceOrTether: String,
@@ -115,7 +117,7 @@ class UnlockTorIpsViewModel : ViewModel() {
     fun addDomainIp(domainIp: DomainIpEntity) {
         this.domainIps.remove(domainIp)
         this.domainIps.add(domainIp)
-        resolveDomainIps()
+        resolveDomainIps(listOf(domainIp))
         mutableDomainIpLiveData.postValue(domainIps)
     }
 
@@ -123,15 +125,18 @@ class UnlockTorIpsViewModel : ViewModel() {
         domainIp: DomainIpEntity,
         oldDomainIp: DomainIpEntity
     ) {
+        if (domainIp != oldDomainIp) {
+            resolveJobs.remove(oldDomainIp)?.cancel()
+        }
         this.domainIps.remove(oldDomainIp)
         this.domainIps.add(domainIp)
-        resolveDomainIps()
+        resolveDomainIps(listOf(domainIp))
         mutableDomainIpLiveData.postValue(domainIps)
     }
 
     fun removeDomainIp(domainIp: DomainIpEntity) {
+        resolveJobs.remove(domainIp)?.cancel()
         this.domainIps.remove(domainIp)
-        resolveDomainIps()
         mutableDomainIpLiveData.postValue(domainIps)
     }
 
@@ -144,7 +149,7 @@ class UnlockTorIpsViewModel : ViewModel() {
     fun getDomainIps() {
         viewModelScope.launch(coroutineContext) {
             getDomainIpsFromPreferences()
-            resolveDomainIps()
+            resolveDomainIps(domainIps.toList())
         }
     }
 
@@ -162,25 +167,77 @@ class UnlockTorIpsViewModel : ViewModel() {
         }
     }
 
-    private fun resolveDomainIps() {
+    //Only entries that are new or changed are resolved, the rest are taken from the cache
+    private fun resolveDomainIps(domainIps: Collection<DomainIpEntity>) {
+        val pleaseWaitMessage = resourceRepository.get().getPleaseWaitString()
+        val wrongDomainIpMessage = resourceRepository.get().getWrongIpString()
+
+        val fromCache = hashSetOf<DomainIpEntity>()
+
+        for (domainIp in domainIps) {
+            if (!isUnresolved(domainIp, pleaseWaitMessage)) {
+                resolveJobs.remove(domainIp)?.cancel()
+                domainIpCache.put(domainIp, isFailed(domainIp, wrongDomainIpMessage))
+                continue
+            }
+
+            val cached = domainIpCache.get(domainIp)
+            if (cached != null) {
+                resolveJobs.remove(domainIp)?.cancel()
+                fromCache.add(cached)
+            } else if (resolveJobs[domainIp]?.isActive != true) {
+                resolveDomainIp(domainIp, pleaseWaitMessage, wrongDomainIpMessage)
+            }
+        }
 
-        getDomainIpsJob?.cancel()
+        if (fromCache.isNotEmpty()) {
+            updateDomainIps(fromCache)
+        }
+    }
 
-        getDomainIpsJob = viewModelScope.launch(coroutineContext) {
-            val result = dnsInteractor.get().resolveDomainOrIp(domainIps)
+    private fun resolveDomainIp(
+        domainIp: DomainIpEntity,
+        pleaseWaitMessage: String,
+        wrongDomainIpMessage: String
+    ) {
+        val job = viewModelScope.launch(coroutineContext, CoroutineStart.LAZY) {
+            val result = dnsInteractor.get().resolveDomainOrIp(setOf(domainIp))
                 .map {
-                    replacePleaseWaitMessage(
-                        it,
-                        resourceRepository.get().getPleaseWaitString(),
-                        resourceRepository.get().getWrongIpString()
-                    )
-                }.toSet()
+                    replacePleaseWaitMessage(it, pleaseWaitMessage, wrongDomainIpMessage)
+                }.firstOrNull() ?: return@launch
 
             ensureActive()
-            updateDomainIps(result)
+
+            val currentJob = this.coroutineContext[Job]
+            if (currentJob != null && resolveJobs.remove(domainIp, currentJob)) {
+                domainIpCache.put(result, isFailed(result, wrongDomainIpMessage))
+                applyResolvedDomainIp(result)
+            }
         }
+
+        resolveJobs.put(domainIp, job)?.cancel()
+        job.start()
+    }
+
+    //The entry could be switched while it was resolving
+    private fun applyResolvedDomainIp(domainIp: DomainIpEntity) {
+        val current = domainIps.find { it == domainIp } ?: return
+        domainIp.isActive = current.isActive
+        updateDomainIps(setOf(domainIp))
     }
 
+    private fun isUnresolved(domainIp: DomainIpEntity, pleaseWaitMessage: String): Boolean =
+        when (domainIp) {
+            is DomainEntity -> domainIp.ips.isEmpty() || domainIp.ips.contains(pleaseWaitMessage)
+            is IpEntity -> domainIp.domain == pleaseWaitMessage
+        }
+
+    private fun isFailed(domainIp: DomainIpEntity, wrongDomainIpMessage: String): Boolean =
+        when (domainIp) {
+            is DomainEntity -> domainIp.ips.contains(wrongDomainIpMessage)
+            is IpEntity -> domainIp.domain.isEmpty()
+        }
+
     private fun replacePleaseWaitMessage(
         domainIp: DomainIpEntity,
         pleaseWaitMessage: String,
@@ -22,87 +22,39 @@ package pan.alexander.tordnscrypt.settings.tor_preferences
 import android.content.Context
 import android.util.Log
 import pan.alexander.tordnscrypt.App
-import pan.alexander.tordnscrypt.modules.ModulesRestarter
 import pan.alexander.tordnscrypt.modules.ModulesStatus
+import pan.alexander.tordnscrypt.settings.dnscrypt_settings.DnsCryptRulesCompiler
 import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
+import pan.alexander.tordnscrypt.utils.enums.DNSCryptRulesVariant
+import pan.alexander.tordnscrypt.utils.enums.ModuleName
 import pan.alexander.tordnscrypt.utils.enums.ModuleState
-import java.io.File
-import java.io.PrintWriter
 
 class ModifyForwardingRules(private val context: Context,
                             private val lineToReplaceTo: String) {
 
     private val pathVars = App.instance.daggerComponent.getPathVars().get()
-    private val forwardingRulesFile: String = pathVars.dnsCryptForwardingRulesPath
-    private val localForwardingRulesFile: String = pathVars.dnsCryptLocalForwardingRulesPath
-    private val cacheDir: String = pathVars.appDataDir + "/cache/"
-    private val tempFile: String = "$cacheDir/tmpForwardingRules.txt"
-    private val lineToFindRegExp = Regex("^onion +127.0.0.1:\\d+$")
 
     fun getRunnable() : Runnable {
         return Runnable {
             try {
-                val dir = File(cacheDir)
-                if (!dir.isDirectory) {
-                    dir.mkdirs()
-                }
-
-                replaceLineInFile(forwardingRulesFile, tempFile)
-                replaceLineInFile(localForwardingRulesFile, tempFile)
-
-                restartDNSCryptIfRequired()
+                //Only the Tor DNS line is replaced, rules added in the rules editor are kept
+                val changed = DnsCryptRulesCompiler(DNSCryptRulesVariant.FORWARDING, pathVars)
+                    .replaceDefaultLines(listOf(lineToReplaceTo))
 
-            } catch (e: java.lang.Exception) {
-                Log.e(LOG_TAG, "ImportRules Exception " + e.message + " " + e.cause)
-            }
-        }
-    }
-
-    private fun replaceLineInFile(inputFilePath: String, tmpOutputFilePath: String) {
-        try {
-
-            val inputFile = File(inputFilePath)
-            val outputFile = File(tmpOutputFilePath)
-
-            if (inputFile.isFile) {
-                outputFile.printWriter().use {printWriter ->
-                    writeToFile(inputFile, printWriter)
+                if (changed) {
+                    restartDNSCryptIfRequired()
                 }
 
-                outputFile.copyTo(inputFile, true)
-                outputFile.delete()
-            }
-
-        } catch (e: Exception) {
-            Log.e(LOG_TAG, "ImportRules Exception " + e.message + " " + e.cause)
-        }
-    }
-
-    private fun writeToFile(inputFile: File, printWriter: PrintWriter) {
-
-        try {
-
-            inputFile.bufferedReader().use {
-                var line = it.readLine()?.trim()
-                while (line != null && !Thread.currentThread().isInterrupted) {
-
-                    if (line.matches(lineToFindRegExp)) {
-                        printWriter.println(lineToReplaceTo)
-                    } else if (line.isNotEmpty()) {
-                        printWriter.println(line)
-                    }
-                    line = it.readLine()?.trim()
-                }
+            } catch (e: java.lang.Exception) {
+                Log.e(LOG_TAG, "ModifyForwardingRules Exception " + e.message + " " + e.cause)
             }
-
-        } catch (e: Exception) {
-            Log.e(LOG_TAG, "ModifyForwardingRules " + e.message + " " + e.cause)
         }
     }
 
     private fun restartDNSCryptIfRequired() {
         if (ModulesStatus.getInstance().dnsCryptState == ModuleState.RUNNING) {
-            ModulesRestarter.restartDNSCrypt(context)
+            App.instance.daggerComponent.getModulesRestartScheduler().get()
+                .scheduleRestart(ModuleName.DNSCRYPT_MODULE)
         }
     }
 }
\ No newline at end of file
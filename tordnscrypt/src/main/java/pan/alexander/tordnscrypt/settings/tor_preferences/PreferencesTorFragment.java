@@ -22,6 +22,7 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.Handler;
 import android.util.Log;
 import android.widget.Toast;
 
@@ -40,21 +41,23 @@ import java.util.Objects;
 import dagger.Lazy;
 import pan.alexander.tordnscrypt.App;
 import pan.alexander.tordnscrypt.R;
-import pan.alexander.tordnscrypt.settings.SettingsActivity;
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceRepository;
 import pan.alexander.tordnscrypt.modules.ModulesAux;
-import pan.alexander.tordnscrypt.modules.ModulesRestarter;
+import pan.alexander.tordnscrypt.modules.ModulesRestartScheduler;
 import pan.alexander.tordnscrypt.modules.ModulesStatus;
 import pan.alexander.tordnscrypt.settings.ConfigEditorFragment;
 import pan.alexander.tordnscrypt.settings.PathVars;
 import pan.alexander.tordnscrypt.settings.tor_countries.CountrySelectFragment;
+import pan.alexander.tordnscrypt.utils.configs.ModulesConfigCache;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.filemanager.FileManager;
 
 import static pan.alexander.tordnscrypt.TopFragment.appVersion;
 import static pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG;
 import static pan.alexander.tordnscrypt.utils.enums.ModuleState.STOPPED;
 import static pan.alexander.tordnscrypt.utils.enums.OperationMode.ROOT_MODE;
+import static pan.alexander.tordnscrypt.utils.enums.ModuleName.TOR_MODULE;
 
 import javax.inject.Inject;
 
@@ -80,6 +83,12 @@ public class PreferencesTorFragment extends PreferenceFragmentCompat implements
     public Lazy<PathVars> pathVars;
     @Inject
     public CachedExecutor cachedExecutor;
+    @Inject
+    public Lazy<ModulesRestartScheduler> modulesRestartScheduler;
+    @Inject
+    public Lazy<ModulesConfigCache> modulesConfigCache;
+    @Inject
+    public Lazy<Handler> handler;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -266,14 +275,22 @@ public class PreferencesTorFragment extends PreferenceFragmentCompat implements
             return;
         }
 
-        FileManager.writeToTextFile(context, appDataDir + "/app_data/tor/tor.conf", tor_conf, SettingsActivity.tor_conf_tag);
+        Context appContext = context.getApplicationContext();
 
-        boolean torRunning = ModulesAux.isTorSavedStateRunning();
+        cachedExecutor.submit(TaskScheduler.Pool.IO, () -> {
+            boolean saved = modulesConfigCache.get().editTorConfig(config -> config.replaceLines(tor_conf));
 
-        if (torRunning) {
-            ModulesRestarter.restartTor(context);
-            ModulesStatus.getInstance().setIptablesRulesUpdateRequested(context, true);
-        }
+            if (!saved) {
+                return;
+            }
+
+            handler.get().post(() -> Toast.makeText(appContext, R.string.toastSettings_saved, Toast.LENGTH_SHORT).show());
+
+            if (ModulesAux.isTorSavedStateRunning()) {
+                modulesRestartScheduler.get().scheduleRestart(TOR_MODULE);
+                ModulesStatus.getInstance().setIptablesRulesUpdateRequested(appContext, true);
+            }
+        });
 
     }
 
@@ -367,7 +384,7 @@ public class PreferencesTorFragment extends PreferenceFragmentCompat implements
 
             ModifyForwardingRules modifyForwardingRules = new ModifyForwardingRules(context,
                     "onion 127.0.0.1:" + newValue.toString().trim());
-            cachedExecutor.submit(modifyForwardingRules.getRunnable());
+            cachedExecutor.submit(TaskScheduler.Pool.IO, modifyForwardingRules.getRunnable());
         } else if (Objects.equals(preference.getKey(), "pref_tor_snowflake_stun")) {
 
             if (newValue.toString().trim().isEmpty()) {
@@ -517,7 +534,7 @@ public class PreferencesTorFragment extends PreferenceFragmentCompat implements
                 return true;
             }
 
-            cachedExecutor.submit(() -> {
+            cachedExecutor.submit(TaskScheduler.Pool.IO, () -> {
                 Activity activity = getActivity();
                 if (activity == null) {
                     return;
@@ -130,9 +130,18 @@ class ChangeTorIpTileManager @Inject constructor(
 
     fun tileClicked(tile: Tile) {
         if (tile.state == Tile.STATE_INACTIVE) {
-            ModulesRestarter.restartTor(context)
-            tile.state = Tile.STATE_ACTIVE
-            tile.updateTile()
+            ModulesRestarter.newTorIdentity(context) { requestedThroughControlPort ->
+                if (requestedThroughControlPort) {
+                    Toast.makeText(
+                        context,
+                        context.getText(R.string.toast_new_tor_identity),
+                        Toast.LENGTH_SHORT
+                    ).show()
+                } else {
+                    tile.state = Tile.STATE_ACTIVE
+                    tile.updateTile()
+                }
+            }
         }
 
         if (task?.isCompleted != false) {
@@ -53,6 +53,7 @@ import pan.alexander.tordnscrypt.modules.ModulesKiller;
 import pan.alexander.tordnscrypt.modules.ModulesRunner;
 import pan.alexander.tordnscrypt.modules.ModulesStatus;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.integrity.Verifier;
 import pan.alexander.tordnscrypt.utils.enums.ModuleState;
 import pan.alexander.tordnscrypt.vpn.service.ServiceVPNHelper;
@@ -547,6 +548,13 @@ public class TorFragmentPresenter implements TorFragmentPresenterInterface,
         }
     }
 
+    @Override
+    public void setTorProgressBarProgress(int progress) {
+        if (isActive()) {
+            view.setTorProgressBarProgress(progress);
+        }
+    }
+
     private void setTorProgressBarPercents(int percents) {
         view.setTorProgressBarIndeterminate(false);
         view.setTorProgressBarProgress(percents);
@@ -576,7 +584,7 @@ public class TorFragmentPresenter implements TorFragmentPresenterInterface,
             return;
         }
 
-        cachedExecutor.submit(() -> {
+        cachedExecutor.submit(TaskScheduler.Pool.CPU, () -> {
 
             if (!isActive() || activity == null) {
                 return;
@@ -39,4 +39,6 @@ public interface TorFragmentPresenterInterface {
     void setTorStartButtonEnabled(boolean enabled);
 
     void setTorProgressBarIndeterminate(boolean indeterminate);
+
+    void setTorProgressBarProgress(int progress);
 }
@@ -34,24 +34,15 @@ import androidx.core.app.NotificationCompat;
 import androidx.core.content.FileProvider;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.lang.ref.WeakReference;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
-import java.net.URL;
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
-import java.util.zip.CRC32;
 
 import javax.inject.Inject;
-import javax.net.ssl.HttpsURLConnection;
 
 import dagger.Lazy;
 import pan.alexander.tordnscrypt.App;
@@ -60,6 +51,7 @@ import pan.alexander.tordnscrypt.R;
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceRepository;
 import pan.alexander.tordnscrypt.modules.ModulesStatus;
 import pan.alexander.tordnscrypt.settings.PathVars;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.filemanager.FileManager;
 
 import static pan.alexander.tordnscrypt.update.UpdateService.STOP_DOWNLOAD_ACTION;
@@ -67,19 +59,17 @@ import static pan.alexander.tordnscrypt.update.UpdateService.UPDATE_CHANNEL_ID;
 import static pan.alexander.tordnscrypt.update.UpdateService.UPDATE_CHANNEL_NOTIFICATION_ID;
 import static pan.alexander.tordnscrypt.update.UpdateService.UPDATE_RESULT;
 import static pan.alexander.tordnscrypt.utils.Constants.LOOPBACK_ADDRESS;
-import static pan.alexander.tordnscrypt.utils.Constants.TOR_BROWSER_USER_AGENT;
 import static pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG;
 import static pan.alexander.tordnscrypt.utils.root.RootExecService.TopFragmentMark;
 import static pan.alexander.tordnscrypt.utils.enums.ModuleState.RUNNING;
 
 public class DownloadTask extends Thread {
-    private static final int READ_TIMEOUT = 60;
-    private static final int CONNECT_TIMEOUT = 60;
-
     @Inject
     public Lazy<PreferenceRepository> preferenceRepository;
     @Inject
     public PathVars pathVars;
+    @Inject
+    public TaskScheduler taskScheduler;
 
     private final Context context;
     private final UpdateService updateService;
@@ -120,11 +110,9 @@ public class DownloadTask extends Thread {
                         + " hash = " + hash);
             }
 
-            File outputFile = downloadFile(fileToDownload, urlToDownload);
+            File outputFile = downloadFile(fileToDownload, urlToDownload, hash);
 
-            boolean checkSum = hash.equalsIgnoreCase(crc32(outputFile));
-
-            if (checkSum) {
+            if (outputFile != null) {
 
                 preferences.setStringPreference("LastUpdateResult",
                         context.getString(R.string.update_installed));
@@ -150,7 +138,6 @@ public class DownloadTask extends Thread {
                 preferences.setStringPreference("LastUpdateResult", context.getString(R.string.update_fault));
                 preferences.setStringPreference("UpdateResultMessage", context.getString(R.string.update_fault));
                 FileManager.deleteFile(context, cacheDir, fileToDownload, "ignored");
-                Log.e(LOG_TAG, "UpdateService file hashes mismatch " + fileToDownload);
             }
 
         } catch (Exception e) {
@@ -172,74 +159,31 @@ public class DownloadTask extends Thread {
         }
     }
 
-    private File downloadFile(String fileToDownload, String urlToDownload) throws IOException {
-        long range = 0;
-
+    private File downloadFile(String fileToDownload, String urlToDownload, String hash) throws IOException {
         String path = cacheDir + "/" + fileToDownload;
         File outputFile = new File(path);
 
-        if (outputFile.isFile()) {
-            range = outputFile.length();
-        } else {
+        if (!outputFile.isFile()) {
             removeOldApkFileFromPrevUpdate(cacheDir);
-            //noinspection ResultOfMethodCallIgnored
-            outputFile.createNewFile();
         }
 
-
         Proxy proxy = null;
         if (ModulesStatus.getInstance().getTorState() == RUNNING) {
             proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(LOOPBACK_ADDRESS, Integer.parseInt(pathVars.getTorHTTPTunnelPort())));
         }
 
-        //create url and connect
-        URL url = new URL(urlToDownload);
-
-        HttpsURLConnection con;
-        if (proxy == null) {
-            con = (HttpsURLConnection) url.openConnection();
-        } else {
-            con = (HttpsURLConnection) url.openConnection(proxy);
-        }
-
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
-            con.setHostnameVerifier((hostname, session) -> true);
-        }
-
-        con.setConnectTimeout(1000 * CONNECT_TIMEOUT);
-        con.setReadTimeout(1000 * READ_TIMEOUT);
-        con.setRequestProperty("User-Agent", TOR_BROWSER_USER_AGENT);
-
-        if (range != 0) {
-            con.setRequestProperty("Range", "bytes=" + range + "-");
-        }
-
-        long fileLength = con.getContentLength();
+        ResumableDownloader downloader = new ResumableDownloader(
+                taskScheduler.getPool(TaskScheduler.Pool.NETWORK),
+                proxy,
+                percent -> updateNotification(fileToDownload, percent)
+        );
 
-        try (InputStream input = new BufferedInputStream(con.getInputStream());
-             OutputStream output = new FileOutputStream(path, true)) {
-            byte[] data = new byte[1024];
-            int count;
-            int percent = 0;
-            while ((count = input.read(data)) != -1) {
-                range += count;
+        ResumableDownloader.Result result = downloader.download(urlToDownload, outputFile);
 
-                if (Thread.currentThread().isInterrupted()) {
-                    Log.w(LOG_TAG, "Download was interrupted by user " + fileToDownload);
-                    break;
-                }
-
-
-                int currentPercent = (int) (range * 100 / fileLength);
-                if (currentPercent - percent >= 5) {
-                    percent = currentPercent;
-                    updateNotification(fileToDownload, percent);
-                }
-
-                output.write(data, 0, count);
-            }
-        } finally {
-            con.disconnect();
+        if (!result.matches(hash)) {
+            Log.e(LOG_TAG, "UpdateService file hashes mismatch " + fileToDownload
+                    + " expected " + hash + " crc32 " + result.getCrc32() + " sha256 " + result.getSha256());
+            return null;
         }
 
         return outputFile;
@@ -323,27 +267,6 @@ public class DownloadTask extends Thread {
         }
     }
 
-    private String crc32(File file) {
-        CRC32 crc = new CRC32();
-
-        try (InputStream is = new FileInputStream(file);
-             ByteArrayOutputStream bout = new ByteArrayOutputStream()) {
-            byte[] readBuffer = new byte[4 * 1024];
-            int read;
-            while ((read = is.read(readBuffer)) != -1) {
-                bout.write(readBuffer, 0, read);
-            }
-
-            crc.update(bout.toByteArray());
-
-            return String.format("%08X", crc.getValue());
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "crc32() Exception while getting FileInputStream " + e.getMessage());
-        }
-
-        return null;
-    }
-
     @SuppressLint("UnspecifiedImmutableFlag")
     private void updateNotification(String fileToDownload, int percent) {
         String ticker = context.getString(R.string.update_notification);
@@ -0,0 +1,441 @@
+package pan.alexander.tordnscrypt.update
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import android.os.Build
+import android.util.Log
+import pan.alexander.tordnscrypt.utils.Constants.TOR_BROWSER_USER_AGENT
+import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
+import java.io.*
+import java.net.HttpURLConnection
+import java.net.Proxy
+import java.net.URL
+import java.security.MessageDigest
+import java.util.Properties
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.zip.CRC32
+import javax.net.ssl.HttpsURLConnection
+
+private const val BUFFER_SIZE = 64 * 1024
+private const val PARALLEL_MIN_SIZE = 4L * 1024 * 1024
+private const val PARALLEL_SEGMENTS = 4
+private const val META_SAVE_INTERVAL = 1024 * 1024
+private const val CONNECT_TIMEOUT_SEC = 60
+private const val READ_TIMEOUT_SEC = 60
+private const val PROGRESS_STEP = 5
+
+private const val META_URL = "url"
+private const val META_VALIDATOR = "validator"
+private const val META_LENGTH = "length"
+private const val META_SEGMENTS = "segments"
+
+/**
+ * Downloads a file into the cache with resume support.
+ * The download state is saved next to the file together with the ETag or Last-Modified validator,
+ * which is sent in the If-Range header, so a changed file on the server restarts the download.
+ * The file is hashed with CRC32 and SHA-256 while it is streamed.
+ * Through the Tor HTTP tunnel large files are fetched by several ranges in parallel,
+ * such downloads are hashed by a single streaming pass over the file at the end.
+ */
+class ResumableDownloader(
+    private val executor: ExecutorService,
+    private val proxy: Proxy?,
+    private val listener: OnProgressListener?
+) {
+
+    fun interface OnProgressListener {
+        fun onProgress(percents: Int)
+    }
+
+    class Result(val crc32: String, val sha256: String) {
+        fun matches(hash: String): Boolean =
+            hash.equals(crc32, ignoreCase = true) || hash.equals(sha256, ignoreCase = true)
+    }
+
+    private class ContentChangedException(message: String) : IOException(message)
+
+    //End is exclusive, -1 if the length is unknown
+    private class Segment(val start: Long, @Volatile var end: Long, @Volatile var position: Long) {
+        val isDone: Boolean
+            get() = end >= 0 && position >= end
+    }
+
+    private class Meta(
+        val url: String,
+        val validator: String,
+        val length: Long,
+        val segments: List<Segment>
+    )
+
+    private class Hasher {
+        private val crc = CRC32()
+        private val sha256 = MessageDigest.getInstance("SHA-256")
+
+        fun update(buffer: ByteArray, offset: Int, length: Int) {
+            crc.update(buffer, offset, length)
+            sha256.update(buffer, offset, length)
+        }
+
+        fun getResult(): Result {
+            val digest = sha256.digest()
+            val sha256Hex = StringBuilder(digest.size * 2)
+            digest.forEach { sha256Hex.append(String.format("%02x", it)) }
+            return Result(String.format("%08X", crc.value), sha256Hex.toString())
+        }
+    }
+
+    private val downloaded = AtomicLong()
+    private val reportedPercents = AtomicInteger()
+
+    @Throws(IOException::class)
+    fun download(url: String, file: File): Result =
+        try {
+            downloadOnce(url, file)
+        } catch (e: ContentChangedException) {
+            Log.w(LOG_TAG, "ResumableDownloader ${file.name} ${e.message}, restart download")
+            reset(file)
+            downloadOnce(url, file)
+        }
+
+    private fun downloadOnce(url: String, file: File): Result {
+        val metaFile = getMetaFile(file)
+
+        var meta = if (file.isFile) readMeta(metaFile, url) else null
+
+        var firstConnection: HttpURLConnection? = null
+        if (meta == null) {
+            reset(file)
+
+            val connection = openConnection(url, 0, -1, null)
+            val code = connection.responseCode
+            if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL) {
+                connection.disconnect()
+                throw IOException("ResumableDownloader response code $code")
+            }
+
+            val length = if (code == HttpURLConnection.HTTP_PARTIAL) {
+                getTotalLength(connection)
+            } else {
+                connection.getHeaderField("Content-Length")?.toLongOrNull() ?: -1
+            }
+            val validator = getValidator(connection)
+
+            val segments = if (code == HttpURLConnection.HTTP_PARTIAL && proxy != null
+                && length >= PARALLEL_MIN_SIZE && validator.isNotEmpty()
+            ) {
+                splitToSegments(length)
+            } else {
+                listOf(Segment(0, length, 0))
+            }
+
+            meta = Meta(url, validator, length, segments)
+            saveMeta(metaFile, meta)
+
+            firstConnection = connection
+        }
+
+        return downloadSegments(file, metaFile, meta, firstConnection)
+    }
+
+    private fun downloadSegments(
+        file: File,
+        metaFile: File,
+        meta: Meta,
+        firstConnection: HttpURLConnection?
+    ): Result {
+        downloaded.set(meta.segments.sumOf { it.position - it.start })
+        reportedPercents.set(0)
+
+        val first = meta.segments.first()
+        val hasher = if (meta.segments.size == 1) Hasher() else null
+        if (hasher != null && first.position > 0) {
+            hashFile(file, first.position, hasher)
+        }
+
+        val tasks = arrayListOf<Future<*>>()
+
+        try {
+            meta.segments.drop(1).filter { !it.isDone }.forEach { segment ->
+                tasks.add(executor.submit(Callable {
+                    downloadSegment(file, metaFile, meta, segment, null, null)
+                }))
+            }
+
+            if (first.isDone) {
+                firstConnection?.disconnect()
+            } else {
+                downloadSegment(file, metaFile, meta, first, firstConnection, hasher)
+            }
+
+            tasks.forEach {
+                try {
+                    it.get()
+                } catch (e: ExecutionException) {
+                    throw e.cause as? IOException ?: IOException(e.cause)
+                } catch (e: InterruptedException) {
+                    throw InterruptedIOException("Download was interrupted by user")
+                }
+            }
+        } catch (e: Exception) {
+            tasks.forEach { it.cancel(true) }
+            saveMeta(metaFile, meta)
+            throw e
+        }
+
+        if (meta.length >= 0 && file.length() != meta.length) {
+            throw ContentChangedException("length ${file.length()} does not match ${meta.length}")
+        }
+
+        val result = hasher?.getResult() ?: Hasher().also { hashFile(file, file.length(), it) }.getResult()
+
+        metaFile.delete()
+
+        return result
+    }
+
+    private fun downloadSegment(
+        file: File,
+        metaFile: File,
+        meta: Meta,
+        segment: Segment,
+        connection: HttpURLConnection?,
+        hasher: Hasher?
+    ) {
+        val con = connection ?: openConnection(meta.url, segment.position, segment.end, meta.validator)
+
+        try {
+            if (connection == null) {
+                val code = con.responseCode
+                val restartedFromZero = code == HttpURLConnection.HTTP_OK
+                        && segment.position == 0L && meta.segments.size == 1
+                if (code != HttpURLConnection.HTTP_PARTIAL && !restartedFromZero) {
+                    throw ContentChangedException("response code $code")
+                }
+            }
+
+            RandomAccessFile(file, "rw").use { randomAccessFile ->
+                randomAccessFile.seek(segment.position)
+
+                con.inputStream.use { input ->
+                    val buffer = ByteArray(BUFFER_SIZE)
+                    var unsaved = 0
+
+                    while (segment.end < 0 || segment.position < segment.end) {
+                        if (Thread.currentThread().isInterrupted) {
+                            throw InterruptedIOException("Download was interrupted by user")
+                        }
+
+                        val maxCount = if (segment.end < 0) {
+                            BUFFER_SIZE
+                        } else {
+                            minOf(BUFFER_SIZE.toLong(), segment.end - segment.position).toInt()
+                        }
+
+                        val count = input.read(buffer, 0, maxCount)
+                        if (count < 0) {
+                            break
+                        }
+
+                        randomAccessFile.write(buffer, 0, count)
+                        hasher?.update(buffer, 0, count)
+                        segment.position += count
+
+                        reportProgress(downloaded.addAndGet(count.toLong()), meta.length)
+
+                        unsaved += count
+                        if (unsaved >= META_SAVE_INTERVAL) {
+                            saveMeta(metaFile, meta)
+                            unsaved = 0
+                        }
+                    }
+                }
+            }
+
+            if (segment.end < 0) {
+                segment.end = segment.position
+            } else if (segment.position < segment.end) {
+                throw IOException("ResumableDownloader segment ${segment.start} is incomplete")
+            }
+        } finally {
+            con.disconnect()
+        }
+    }
+
+    private fun openConnection(
+        url: String,
+        start: Long,
+        end: Long,
+        validator: String?
+    ): HttpURLConnection {
+        val connection = if (proxy == null) {
+            URL(url).openConnection()
+        } else {
+            URL(url).openConnection(proxy)
+        } as HttpURLConnection
+
+        if (connection is HttpsURLConnection && Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            connection.setHostnameVerifier { _, _ -> true }
+        }
+
+        connection.connectTimeout = 1000 * CONNECT_TIMEOUT_SEC
+        connection.readTimeout = 1000 * READ_TIMEOUT_SEC
+        connection.setRequestProperty("User-Agent", TOR_BROWSER_USER_AGENT)
+        //Ranges and lengths must refer to the file itself, not to the compressed response
+        connection.setRequestProperty("Accept-Encoding", "identity")
+        connection.setRequestProperty(
+            "Range",
+            if (end >= 0) "bytes=$start-${end - 1}" else "bytes=$start-"
+        )
+        if (!validator.isNullOrEmpty()) {
+            connection.setRequestProperty("If-Range", validator)
+        }
+
+        return connection
+    }
+
+    //Content-Range: bytes 0-999/12345
+    private fun getTotalLength(connection: HttpURLConnection): Long =
+        connection.getHeaderField("Content-Range")
+            ?.substringAfterLast('/', "")
+            ?.trim()
+            ?.toLongOrNull() ?: -1
+
+    //Weak ETags cannot be used in If-Range
+    private fun getValidator(connection: HttpURLConnection): String {
+        val eTag = connection.getHeaderField("ETag")
+        if (!eTag.isNullOrEmpty() && !eTag.startsWith("W/")) {
+            return eTag
+        }
+        return connection.getHeaderField("Last-Modified") ?: ""
+    }
+
+    private fun splitToSegments(length: Long): List<Segment> {
+        val segmentSize = (length + PARALLEL_SEGMENTS - 1) / PARALLEL_SEGMENTS
+        val segments = arrayListOf<Segment>()
+        var start = 0L
+        while (start < length) {
+            val end = minOf(start + segmentSize, length)
+            segments.add(Segment(start, end, start))
+            start = end
+        }
+        return segments
+    }
+
+    private fun reportProgress(downloaded: Long, length: Long) {
+        if (listener == null || length <= 0) {
+            return
+        }
+
+        val percents = (downloaded * 100 / length).toInt()
+        val reported = reportedPercents.get()
+        if (percents - reported >= PROGRESS_STEP && reportedPercents.compareAndSet(reported, percents)) {
+            listener.onProgress(percents)
+        }
+    }
+
+    private fun hashFile(file: File, length: Long, hasher: Hasher) {
+        FileInputStream(file).use { input ->
+            val buffer = ByteArray(BUFFER_SIZE)
+            var remaining = length
+            while (remaining > 0) {
+                val count = input.read(buffer, 0, minOf(BUFFER_SIZE.toLong(), remaining).toInt())
+                if (count < 0) {
+                    break
+                }
+                hasher.update(buffer, 0, count)
+                remaining -= count
+            }
+        }
+    }
+
+    private fun reset(file: File) {
+        getMetaFile(file).delete()
+        if (file.exists() && !file.delete()) {
+            throw IOException("ResumableDownloader unable to delete ${file.absolutePath}")
+        }
+        if (!file.createNewFile()) {
+            throw IOException("ResumableDownloader unable to create ${file.absolutePath}")
+        }
+    }
+
+    private fun getMetaFile(file: File): File = File(file.path + ".meta")
+
+    private fun readMeta(metaFile: File, url: String): Meta? {
+        if (!metaFile.isFile) {
+            return null
+        }
+
+        return try {
+            val properties = Properties()
+            FileInputStream(metaFile).use { properties.load(it) }
+
+            val validator = properties.getProperty(META_VALIDATOR) ?: ""
+            if (properties.getProperty(META_URL) != url || validator.isEmpty()) {
+                return null
+            }
+
+            val segments = properties.getProperty(META_SEGMENTS)
+                ?.split(',')
+                ?.map { segment ->
+                    val (start, end, position) = segment.split(':').map { it.toLong() }
+                    Segment(start, end, position)
+                }
+
+            if (segments.isNullOrEmpty()) {
+                null
+            } else {
+                Meta(url, validator, properties.getProperty(META_LENGTH).toLong(), segments)
+            }
+        } catch (e: Exception) {
+            Log.w(LOG_TAG, "ResumableDownloader readMeta exception ${e.message} ${e.cause}")
+            null
+        }
+    }
+
+    @Synchronized
+    private fun saveMeta(metaFile: File, meta: Meta) {
+        val tempFile = File(metaFile.path + ".tmp")
+
+        try {
+            val properties = Properties()
+            properties.setProperty(META_URL, meta.url)
+            properties.setProperty(META_VALIDATOR, meta.validator)
+            properties.setProperty(META_LENGTH, meta.length.toString())
+            properties.setProperty(
+                META_SEGMENTS,
+                meta.segments.joinToString(",") { "${it.start}:${it.end}:${it.position}" }
+            )
+
+            FileOutputStream(tempFile).use { properties.store(it, null) }
+
+            if (!tempFile.renameTo(metaFile)) {
+                tempFile.delete()
+            }
+        } catch (e: Exception) {
+            tempFile.delete()
+            Log.w(LOG_TAG, "ResumableDownloader saveMeta exception ${e.message} ${e.cause}")
+        }
+    }
+}
@@ -47,6 +47,7 @@ import pan.alexander.tordnscrypt.BuildConfig;
 import pan.alexander.tordnscrypt.R;
 import pan.alexander.tordnscrypt.TopFragment;
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceRepository;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.web.HttpsRequest;
 
 import static pan.alexander.tordnscrypt.TopFragment.appProcVersion;
@@ -226,7 +227,7 @@ public class UpdateCheck {
             return null;
         }
 
-        return App.getInstance().getDaggerComponent().getCachedExecutor().submit(() -> {
+        return App.getInstance().getDaggerComponent().getCachedExecutor().submit(TaskScheduler.Pool.NETWORK, () -> {
             String serverAnswerEncoded = "";
             String serverAnswer = "";
 
@@ -44,22 +44,10 @@ class InstalledApplicationsManager(private val context: Context, private val act
         private val reentrantLock = ReentrantLock()
     }
 
-    private var onAppAddListener: OnAppAddListener? = null
-
-    fun setOnAppAddListener(onAppAddListener: OnAppAddListener?) {
-        this.onAppAddListener = onAppAddListener
-    }
-
-    interface OnAppAddListener {
-        fun onAppAdded(application: ApplicationData)
-    }
-
     private val ownUID = Process.myUid()
     private val sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context)
     private val multiUserSupport = sharedPreferences.getBoolean("pref_common_multi_user", false)
     private var showSpecials = false
-    private var savedTime = 0L
-    private val onAppAddedRefreshPeriod = 250
 
     fun getInstalledApps(showSpecials: Boolean = false): List<ApplicationData> {
 
@@ -115,25 +103,9 @@ class InstalledApplicationsManager(private val context: Context, private val act
 
                 if (application == null) {
                     val system = (applicationInfo.flags and ApplicationInfo.FLAG_SYSTEM) != 0
-                    var useInternet = false
                     val uid = applicationInfo.uid
 
-                    try {
-                        val pInfo: PackageInfo = packageManager.getPackageInfo(applicationInfo.packageName, PackageManager.GET_PERMISSIONS)
-                        if (pInfo.requestedPermissions != null) {
-                            for (permInfo in pInfo.requestedPermissions) {
-                                if (permInfo == Manifest.permission.INTERNET) {
-                                    useInternet = true
-                                    break
-                                }
-                            }
-                        }
-                    } catch (e: Exception) {
-                        useInternet = true
-                        Log.w(LOG_TAG, "InstalledApplications getApp exception  ${e.message}\n${e.cause}")
-                    }
-
-                    if (!useInternet && !system || uid == ownUID) {
+                    if (!system && !isUseInternet(packageManager, applicationInfo.packageName) || uid == ownUID) {
                         return@forEach
                     }
 
@@ -144,11 +116,6 @@ class InstalledApplicationsManager(private val context: Context, private val act
                     if ((applicationInfo.flags and ApplicationInfo.FLAG_INSTALLED) != 0) {
                         application?.let {
                             userAppsMap[uid] = it
-                            val time = System.currentTimeMillis()
-                            if (time - savedTime > onAppAddedRefreshPeriod) {
-                                onAppAddListener?.onAppAdded(it)
-                                savedTime = time
-                            }
                         }
                     }
                 } else {
@@ -156,7 +123,7 @@ class InstalledApplicationsManager(private val context: Context, private val act
                 }
 
                 if (uids.size > 1 || uids.getOrElse(0) { 0 } != 0) {
-                    val tempMultiUserAppsMap: Map<Int, ApplicationData> = checkPartOfMultiUser(applicationInfo, name, icon, uids, packageManager, multiUserAppsMap)
+                    val tempMultiUserAppsMap: Map<Int, ApplicationData> = checkPartOfMultiUser(applicationInfo, name, icon, uids, packageManager)
                     tempMultiUserAppsMap.forEach { (uid, applicationData) ->
                         if (multiUserAppsMap.containsKey(uid)) {
                             multiUserAppsMap[uid]?.addAllNames(applicationData.names)
@@ -194,9 +161,66 @@ class InstalledApplicationsManager(private val context: Context, private val act
         return emptyList()
     }
 
+    /**
+     * Returns the application of the uid of the main user the same way as getInstalledApps does,
+     * so a single package change does not require scanning all installed packages.
+     */
+    fun getInstalledApp(uid: Int): ApplicationData? {
+        if (uid == ownUID) {
+            return null
+        }
+
+        val packageManager: PackageManager = context.packageManager
+        var application: ApplicationData? = null
+
+        try {
+            packageManager.getPackagesForUid(uid)?.forEach { packageName ->
+                val applicationInfo = packageManager.getApplicationInfo(packageName, PackageManager.GET_META_DATA)
+                if ((applicationInfo.flags and ApplicationInfo.FLAG_INSTALLED) == 0) {
+                    return@forEach
+                }
+
+                val name = packageManager.getApplicationLabel(applicationInfo)?.toString() ?: "Undefined"
+
+                val app = application
+                if (app == null) {
+                    val system = (applicationInfo.flags and ApplicationInfo.FLAG_SYSTEM) != 0
+                    if (system || isUseInternet(packageManager, packageName)) {
+                        application = ApplicationData(
+                                name, packageName, uid, packageManager.getApplicationIcon(applicationInfo),
+                                system, activeApps.contains(uid.toString())
+                        )
+                    }
+                } else {
+                    app.addName(name)
+                }
+            }
+        } catch (e: Exception) {
+            Log.w(LOG_TAG, "InstalledApplications getInstalledApp $uid exception ${e.message} ${e.cause}")
+        }
+
+        return application
+    }
+
+    private fun isUseInternet(packageManager: PackageManager, packageName: String): Boolean {
+        try {
+            val pInfo: PackageInfo = packageManager.getPackageInfo(packageName, PackageManager.GET_PERMISSIONS)
+            if (pInfo.requestedPermissions != null) {
+                for (permInfo in pInfo.requestedPermissions) {
+                    if (permInfo == Manifest.permission.INTERNET) {
+                        return true
+                    }
+                }
+            }
+        } catch (e: Exception) {
+            Log.w(LOG_TAG, "InstalledApplications getApp exception  ${e.message}\n${e.cause}")
+            return true
+        }
+        return false
+    }
+
     private fun checkPartOfMultiUser(applicationInfo: ApplicationInfo, name: String, icon: Drawable, uids: List<Int>,
-                                     packageManager: PackageManager,
-                                     multiUserAppsMap: Map<Int, ApplicationData>): Map<Int, ApplicationData> {
+                                     packageManager: PackageManager): Map<Int, ApplicationData> {
 
         val tempMultiUserAppsMap = hashMapOf<Int, ApplicationData>()
 
@@ -214,14 +238,6 @@ class InstalledApplicationsManager(private val context: Context, private val act
                                 icon, system, activeApps.contains(applicationUID.toString()))
 
                         tempMultiUserAppsMap[applicationUID] = application
-
-                        val time = System.currentTimeMillis()
-
-                        if (!multiUserAppsMap.containsKey(applicationUID)
-                                && time - savedTime > onAppAddedRefreshPeriod) {
-                            onAppAddListener?.onAppAdded(application)
-                            savedTime = time
-                        }
                     }
                 } catch (e: java.lang.Exception) {
                     Log.e(LOG_TAG, "checkPartOfMultiUser exception ${e.message} ${e.cause}")
@@ -0,0 +1,267 @@
+package pan.alexander.tordnscrypt.utils.apps
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import android.content.BroadcastReceiver
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.content.res.Configuration
+import android.util.Log
+import androidx.lifecycle.LiveData
+import androidx.lifecycle.MutableLiveData
+import androidx.preference.PreferenceManager
+import pan.alexander.tordnscrypt.settings.tor_apps.ApplicationData
+import pan.alexander.tordnscrypt.utils.executors.CachedExecutor
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler
+import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
+import java.util.Locale
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Process wide list of installed applications for the Tor apps, proxy apps and firewall screens.
+ * Packages are scanned once, then the list is updated from package added and removed events,
+ * so switching between these screens does not rescan packages.
+ * Every change publishes a new immutable InstalledApps with precomputed sort orders and search keys.
+ * The list holds icons, so it is released when the app UI is hidden and no screen observes it.
+ */
+@Singleton
+class InstalledAppsRepository @Inject constructor(
+    private val context: Context,
+    private val cachedExecutor: CachedExecutor
+) {
+
+    enum class Filter {
+        ALL,
+        SYSTEM,
+        USER
+    }
+
+    class InstalledApps(apps: Collection<ApplicationData>) {
+        val byName: List<ApplicationData> = apps.sorted()
+        val byUid: List<ApplicationData> = apps.sortedBy { it.uid }
+        private val uidToApp: Map<Int, ApplicationData> = apps.associateBy { it.uid }
+        private val searchKeys: Map<Int, String> = apps.associate { app ->
+            app.uid to "${app.names.joinToString("\n")}\n${app.pack}".lowercase(Locale.ROOT)
+        }
+
+        val size: Int get() = byName.size
+
+        operator fun get(uid: Int): ApplicationData? = uidToApp[uid]
+
+        fun select(
+            filter: Filter,
+            query: String?,
+            sortByUid: Boolean,
+            withSpecials: Boolean
+        ): List<ApplicationData> {
+            val text = query?.trim()?.lowercase(Locale.ROOT)
+
+            return (if (sortByUid) byUid else byName).filter { app ->
+                (withSpecials || !isSpecial(app.uid))
+                        && isMatchFilter(app, filter)
+                        && (text.isNullOrEmpty() || searchKeys[app.uid]?.contains(text) == true)
+            }
+        }
+
+        private fun isMatchFilter(app: ApplicationData, filter: Filter): Boolean =
+            when (filter) {
+                Filter.ALL -> true
+                Filter.SYSTEM -> app.system
+                Filter.USER -> !app.system
+            }
+
+        private fun isSpecial(uid: Int): Boolean =
+            uid == ApplicationData.SPECIAL_UID_NTP || uid == ApplicationData.SPECIAL_UID_AGPS
+    }
+
+    private val mutableApps = MutableLiveData<InstalledApps?>()
+    val apps: LiveData<InstalledApps?> get() = mutableApps
+
+    @Volatile
+    private var installedApps: InstalledApps? = null
+
+    @Volatile
+    private var loading = false
+
+    @Volatile
+    private var multiUserSupport = false
+
+    private var packagesReceiverRegistered = false
+
+    private val packagesReceiver = object : BroadcastReceiver() {
+        override fun onReceive(context: Context?, intent: Intent?) {
+            val uid = intent?.getIntExtra(Intent.EXTRA_UID, -1) ?: -1
+            if (uid < 0) {
+                return
+            }
+
+            when (intent?.action) {
+                Intent.ACTION_PACKAGE_ADDED -> cachedExecutor.submit(TaskScheduler.Pool.IO) { updateUid(uid) }
+                Intent.ACTION_PACKAGE_REMOVED ->
+                    //Package added follows removed when the package is replaced
+                    if (!intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) {
+                        cachedExecutor.submit(TaskScheduler.Pool.IO) { updateUid(uid) }
+                    }
+            }
+        }
+    }
+
+    private val componentCallbacks = object : ComponentCallbacks2 {
+        override fun onTrimMemory(level: Int) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN && !mutableApps.hasObservers()) {
+                release()
+            }
+        }
+
+        override fun onConfigurationChanged(newConfig: Configuration) {}
+
+        override fun onLowMemory() {}
+    }
+
+    init {
+        context.applicationContext.registerComponentCallbacks(componentCallbacks)
+    }
+
+    /**
+     * Publishes the installed applications, packages are scanned only on the first call
+     * or when the multi-user support preference was changed.
+     */
+    fun load() {
+        val multiUser = isMultiUserSupportEnabled()
+
+        synchronized(this) {
+            val apps = installedApps
+            if (apps != null && multiUser == multiUserSupport) {
+                if (mutableApps.value !== apps) {
+                    mutableApps.postValue(apps)
+                }
+                return
+            } else if (loading) {
+                return
+            }
+            loading = true
+        }
+
+        cachedExecutor.submit(TaskScheduler.Pool.IO) {
+            try {
+                val time = System.currentTimeMillis()
+
+                val apps = InstalledApps(
+                    InstalledApplicationsManager(context, emptySet()).getInstalledApps(true)
+                )
+
+                publish(apps, multiUser)
+
+                Log.i(
+                    LOG_TAG, "InstalledAppsRepository loaded ${apps.size} apps " +
+                            "in ${System.currentTimeMillis() - time} ms"
+                )
+            } catch (e: Exception) {
+                Log.e(LOG_TAG, "InstalledAppsRepository load exception ${e.message} ${e.cause}")
+            } finally {
+                loading = false
+            }
+        }
+    }
+
+    @Synchronized
+    private fun publish(apps: InstalledApps, multiUser: Boolean) {
+        installedApps = apps
+        multiUserSupport = multiUser
+        mutableApps.postValue(apps)
+        registerPackagesReceiver()
+    }
+
+    @Synchronized
+    private fun updateUid(uid: Int) {
+        val apps = installedApps ?: return
+
+        //Uids of other users depend on every package of the main user
+        if (multiUserSupport) {
+            installedApps = null
+            load()
+            return
+        }
+
+        val app = InstalledApplicationsManager(context, emptySet()).getInstalledApp(uid)
+        if (app == null && apps[uid] == null) {
+            return
+        }
+
+        val newApps = apps.byName.filterTo(arrayListOf<ApplicationData>()) { it.uid != uid }
+        app?.let { newApps.add(it) }
+
+        installedApps = InstalledApps(newApps)
+        mutableApps.postValue(installedApps)
+
+        Log.i(LOG_TAG, "InstalledAppsRepository ${if (app == null) "removed" else "updated"} uid $uid")
+    }
+
+    @Synchronized
+    private fun release() {
+        if (installedApps == null || loading) {
+            return
+        }
+
+        installedApps = null
+        mutableApps.postValue(null)
+        unregisterPackagesReceiver()
+
+        Log.i(LOG_TAG, "InstalledAppsRepository released")
+    }
+
+    private fun registerPackagesReceiver() {
+        if (packagesReceiverRegistered) {
+            return
+        }
+
+        try {
+            val filter = IntentFilter().apply {
+                addAction(Intent.ACTION_PACKAGE_ADDED)
+                addAction(Intent.ACTION_PACKAGE_REMOVED)
+                addDataScheme("package")
+            }
+            context.applicationContext.registerReceiver(packagesReceiver, filter)
+            packagesReceiverRegistered = true
+        } catch (e: Exception) {
+            Log.e(LOG_TAG, "InstalledAppsRepository registerPackagesReceiver exception ${e.message} ${e.cause}")
+        }
+    }
+
+    private fun unregisterPackagesReceiver() {
+        if (!packagesReceiverRegistered) {
+            return
+        }
+
+        try {
+            context.applicationContext.unregisterReceiver(packagesReceiver)
+        } catch (e: Exception) {
+            Log.w(LOG_TAG, "InstalledAppsRepository unregisterPackagesReceiver exception ${e.message} ${e.cause}")
+        }
+        packagesReceiverRegistered = false
+    }
+
+    private fun isMultiUserSupportEnabled(): Boolean =
+        PreferenceManager.getDefaultSharedPreferences(context)
+            .getBoolean("pref_common_multi_user", false)
+}
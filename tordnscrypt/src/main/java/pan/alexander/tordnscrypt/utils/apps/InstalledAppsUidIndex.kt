@@ -0,0 +1,323 @@
+package pan.alexander.tordnscrypt.utils.apps
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import android.Manifest
+import android.content.Context
+import android.content.pm.ApplicationInfo
+import android.content.pm.PackageManager
+import android.os.Build
+import android.os.Process
+import android.os.UserManager
+import android.util.Log
+import androidx.preference.PreferenceManager
+import pan.alexander.tordnscrypt.settings.tor_apps.ApplicationData
+import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
+import java.util.concurrent.ConcurrentHashMap
+import java.util.regex.Pattern
+import javax.inject.Inject
+import javax.inject.Singleton
+
+private val userHandlePattern: Pattern = Pattern.compile("UserHandle\\{(.*)\\}")
+
+/**
+ * Lightweight uid -> package index used to build VPN rules.
+ * Unlike InstalledApplicationsManager it never loads labels, icons or package permissions lists,
+ * so VPN start and reload do not depend on the number of installed packages.
+ * The index is built once and then updated from package added and removed events.
+ * Labels are resolved only on demand, for the connection log.
+ */
+@Singleton
+class InstalledAppsUidIndex @Inject constructor(
+    private val context: Context
+) {
+
+    class AppUid(val uid: Int, val packageName: String)
+
+    private val ownUID = Process.myUid()
+
+    //Replaced as a whole on rebuild, so readers never see a partially filled index
+    @Volatile
+    private var apps = ConcurrentHashMap<Int, AppUid>()
+    private val labels = ConcurrentHashMap<Int, String>()
+
+    @Volatile
+    private var ready = false
+
+    @Volatile
+    private var multiUserSupport = false
+
+    fun getApps(): Collection<AppUid> {
+        val multiUser = isMultiUserSupportEnabled()
+        if (!ready || multiUser != multiUserSupport) {
+            rebuild(multiUser)
+        }
+        return apps.values
+    }
+
+    fun packageAdded(uid: Int) {
+        if (!ready) {
+            return
+        }
+
+        labels.remove(uid)
+
+        if (multiUserSupport || isKnownUid(uid)) {
+            invalidate()
+            return
+        }
+
+        val app = getAppForUid(context.packageManager, uid)
+        if (app != null) {
+            apps[uid] = app
+        }
+    }
+
+    fun packageRemoved(uid: Int) {
+        if (!ready) {
+            return
+        }
+
+        labels.remove(uid)
+
+        if (multiUserSupport) {
+            invalidate()
+            return
+        }
+
+        val app = getAppForUid(context.packageManager, uid)
+        if (app == null) {
+            apps.remove(uid)
+        } else {
+            apps[uid] = app
+        }
+    }
+
+    fun invalidate() {
+        ready = false
+    }
+
+    fun getLabel(uid: Int): String {
+        labels[uid]?.let { return it }
+
+        val label = loadLabel(uid)
+        if (label.isNotEmpty()) {
+            labels[uid] = label
+        }
+        return label
+    }
+
+    @Synchronized
+    private fun rebuild(multiUser: Boolean) {
+        if (ready && multiUser == multiUserSupport) {
+            return
+        }
+
+        val time = System.currentTimeMillis()
+
+        val packageManager = context.packageManager
+        val newApps = hashMapOf<Int, AppUid>()
+
+        try {
+            val userIds = if (multiUser) getUserIds() else emptyList()
+
+            var pkgManagerFlags = 0
+            if (multiUser) {
+                pkgManagerFlags = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                    PackageManager.MATCH_UNINSTALLED_PACKAGES
+                } else {
+                    @Suppress("DEPRECATION")
+                    PackageManager.GET_UNINSTALLED_PACKAGES
+                }
+            }
+
+            packageManager.getInstalledApplications(pkgManagerFlags).forEach { applicationInfo ->
+                val uid = applicationInfo.uid
+
+                if (!newApps.containsKey(uid) && isInstalled(applicationInfo)
+                    && isAllowedToUseNetwork(packageManager, applicationInfo)
+                ) {
+                    newApps[uid] = AppUid(uid, applicationInfo.packageName)
+                }
+
+                userIds.forEach { userId ->
+                    addPartOfMultiUser(packageManager, applicationInfo, userId, newApps)
+                }
+            }
+
+            getKnownUids().forEach { (name, uid) ->
+                if (!newApps.containsKey(uid)) {
+                    newApps[uid] = AppUid(uid, name)
+                }
+            }
+        } catch (e: Exception) {
+            //For example TransactionTooLargeException, the previous index is better than a partial one
+            Log.e(LOG_TAG, "InstalledAppsUidIndex rebuild exception ${e.message} ${e.cause}")
+            return
+        }
+
+        if (newApps.isEmpty()) {
+            return
+        }
+
+        apps = ConcurrentHashMap(newApps)
+        multiUserSupport = multiUser
+        ready = true
+
+        Log.i(LOG_TAG, "InstalledAppsUidIndex indexed ${newApps.size} uids " +
+                "in ${System.currentTimeMillis() - time} ms")
+    }
+
+    private fun getAppForUid(packageManager: PackageManager, uid: Int): AppUid? {
+        try {
+            val packages = packageManager.getPackagesForUid(uid) ?: return null
+            for (packageName in packages) {
+                val applicationInfo = packageManager.getApplicationInfo(packageName, 0)
+                if (isInstalled(applicationInfo)
+                    && isAllowedToUseNetwork(packageManager, applicationInfo)
+                ) {
+                    return AppUid(uid, applicationInfo.packageName)
+                }
+            }
+        } catch (e: Exception) {
+            Log.w(LOG_TAG, "InstalledAppsUidIndex getAppForUid $uid exception ${e.message} ${e.cause}")
+        }
+        return null
+    }
+
+    private fun isInstalled(applicationInfo: ApplicationInfo): Boolean =
+        (applicationInfo.flags and ApplicationInfo.FLAG_INSTALLED) != 0
+
+    //INTERNET is a normal permission, so it is granted to every package that requests it
+    private fun isAllowedToUseNetwork(
+        packageManager: PackageManager,
+        applicationInfo: ApplicationInfo
+    ): Boolean {
+        if (applicationInfo.uid == ownUID) {
+            return false
+        }
+
+        val system = (applicationInfo.flags and ApplicationInfo.FLAG_SYSTEM) != 0
+
+        return system || packageManager.checkPermission(
+            Manifest.permission.INTERNET,
+            applicationInfo.packageName
+        ) == PackageManager.PERMISSION_GRANTED
+    }
+
+    private fun addPartOfMultiUser(
+        packageManager: PackageManager,
+        applicationInfo: ApplicationInfo,
+        userId: Int,
+        newApps: MutableMap<Int, AppUid>
+    ) {
+        try {
+            val applicationUID = "$userId${applicationInfo.uid}".toInt()
+
+            if (newApps.containsKey(applicationUID)) {
+                return
+            }
+
+            packageManager.getPackagesForUid(applicationUID)?.let {
+                newApps[applicationUID] = AppUid(applicationUID, it.joinToString())
+            }
+        } catch (e: Exception) {
+            Log.e(LOG_TAG, "InstalledAppsUidIndex addPartOfMultiUser exception ${e.message} ${e.cause}")
+        }
+    }
+
+    private fun getUserIds(): List<Int> {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return emptyList()
+        }
+
+        val userService = context.getSystemService(Context.USER_SERVICE) as UserManager
+        val userIds = arrayListOf<Int>()
+        for (user in userService.userProfiles) {
+            user?.let {
+                val m = userHandlePattern.matcher(user.toString())
+                if (m.find()) {
+                    m.group(1)?.toIntOrNull()?.let { id ->
+                        if (id != 0) {
+                            userIds.add(id)
+                        }
+                    }
+                }
+            }
+        }
+        return userIds
+    }
+
+    private fun isMultiUserSupportEnabled(): Boolean =
+        PreferenceManager.getDefaultSharedPreferences(context)
+            .getBoolean("pref_common_multi_user", false)
+
+    private fun isKnownUid(uid: Int): Boolean =
+        getKnownUids().any { it.second == uid }
+
+    //Same special uids as InstalledApplicationsManager shows in the apps lists
+    private fun getKnownUids(): List<Pair<String, Int>> {
+        val userId = Process.myUid() / 100_000
+        val knownUids = arrayListOf(
+            "UID -1" to ApplicationData.SPECIAL_UID_KERNEL,
+            "root" to 0,
+            "adb" to getUidForName("adb", 1011 + userId * 100_000),
+            "media" to getUidForName("media", 1013 + userId * 100_000),
+            "vpn" to getUidForName("vpn", 1016 + userId * 100_000),
+            "drm" to getUidForName("drm", 1019 + userId * 100_000),
+            "mDNS" to getUidForName("mdns", 1020 + userId * 100_000),
+            "gps" to getUidForName("gps", 1021 + userId * 100_000),
+            "dns" to getUidForName("dns", 1051 + userId * 100_000),
+            "shell" to getUidForName("shell", 2000 + userId * 100_000)
+        )
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            knownUids.add("clat" to getUidForName("clat", 1029 + userId * 100_000))
+        }
+
+        return knownUids
+    }
+
+    private fun getUidForName(name: String, defaultValue: Int): Int =
+        try {
+            val result = Process.getUidForName(name)
+            if (result > 0) result else defaultValue
+        } catch (e: Exception) {
+            defaultValue
+        }
+
+    private fun loadLabel(uid: Int): String {
+        val packageManager = context.packageManager
+        val names = sortedSetOf<String>()
+
+        try {
+            packageManager.getPackagesForUid(uid)?.forEach { packageName ->
+                val applicationInfo = packageManager.getApplicationInfo(packageName, 0)
+                packageManager.getApplicationLabel(applicationInfo)?.toString()?.let {
+                    names.add(it)
+                }
+            }
+        } catch (e: Exception) {
+            Log.w(LOG_TAG, "InstalledAppsUidIndex loadLabel $uid exception ${e.message} ${e.cause}")
+        }
+
+        return names.joinToString()
+    }
+}
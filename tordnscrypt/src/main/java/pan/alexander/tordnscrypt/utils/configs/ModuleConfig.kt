@@ -0,0 +1,173 @@
+package pan.alexander.tordnscrypt.utils.configs
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+private val headerRegex = Regex("^\\[.+]$")
+
+/**
+ * Parsed representation of a module configuration file.
+ * Lines are kept in their original order, so the file can be written back unchanged
+ * except for edited entries. Keys changed since the last save are tracked as dirty.
+ */
+class ModuleConfig internal constructor(
+    override val path: String,
+    override val syntax: Syntax,
+    lines: List<String>,
+    internal var lastModified: Long,
+    internal var length: Long
+) : ModuleConfigView {
+
+    enum class Syntax(val separator: Char) {
+        //dnscrypt-proxy.toml
+        TOML('='),
+        //tor.conf
+        TOR(' '),
+        //i2pd.conf
+        INI('=')
+    }
+
+    private val lines = ArrayList<String>(lines)
+    private val dirtyKeys = linkedSetOf<String>()
+
+    val isDirty: Boolean
+        @Synchronized get() = dirtyKeys.isNotEmpty()
+
+    @Synchronized
+    override fun getLines(): List<String> = ArrayList(lines)
+
+    @Synchronized
+    fun getDirtyKeys(): Set<String> = LinkedHashSet(dirtyKeys)
+
+    @Synchronized
+    override fun getValue(key: String, header: String): String? {
+        var currentHeader = ""
+        for (line in lines) {
+            if (line.matches(headerRegex)) {
+                currentHeader = line
+                continue
+            }
+
+            if ((header.isEmpty() || header == currentHeader) && extractKey(line) == key) {
+                return extractValue(line)
+            }
+        }
+        return null
+    }
+
+    @Synchronized
+    override fun isKeyEnabled(key: String, header: String): Boolean = getValue(key, header) != null
+
+    /**
+     * Replaces the first line, commented or not, that contains the key.
+     * @return false if there is no such key in the config
+     */
+    @Synchronized
+    fun setValue(key: String, value: String, header: String = "", enabled: Boolean = true): Boolean {
+        var currentHeader = ""
+        for (index in lines.indices) {
+            val line = lines[index]
+            if (line.matches(headerRegex)) {
+                currentHeader = line
+                continue
+            }
+
+            if ((header.isEmpty() || header == currentHeader)
+                && extractKey(line.removePrefix("#").trim()) == key
+            ) {
+                setLine(index, formatLine(key, value, enabled), key)
+                return true
+            }
+        }
+        return false
+    }
+
+    /**
+     * Applies transformation to every line. Return null from transformation to remove the line.
+     */
+    @Synchronized
+    fun updateLines(transformation: (index: Int, line: String) -> String?) {
+        val newLines = ArrayList<String>(lines.size)
+        lines.forEachIndexed { index, line ->
+            transformation(index, line)?.let { newLines.add(it) }
+        }
+        replaceLines(newLines)
+    }
+
+    @Synchronized
+    fun replaceLines(newLines: List<String>) {
+        if (newLines.size == lines.size) {
+            for (index in newLines.indices) {
+                if (newLines[index] != lines[index]) {
+                    setLine(index, newLines[index], extractKey(newLines[index].removePrefix("#").trim()))
+                }
+            }
+        } else {
+            lines.clear()
+            lines.addAll(newLines)
+            dirtyKeys.add(ALL_KEYS)
+        }
+    }
+
+    @Synchronized
+    internal fun copy(): ModuleConfig = ModuleConfig(path, syntax, lines, lastModified, length)
+
+    @Synchronized
+    internal fun markSaved() {
+        dirtyKeys.clear()
+    }
+
+    private fun setLine(index: Int, line: String, key: String) {
+        if (lines[index] != line) {
+            lines[index] = line
+            dirtyKeys.add(key.ifEmpty { ALL_KEYS })
+        }
+    }
+
+    private fun formatLine(key: String, value: String, enabled: Boolean): String {
+        val prefix = if (enabled) "" else "#"
+        return when {
+            value.isEmpty() -> "$prefix$key"
+            syntax == Syntax.TOR -> "$prefix$key $value"
+            else -> "$prefix$key = $value"
+        }
+    }
+
+    private fun extractKey(line: String): String {
+        val separatorIndex = line.indexOf(syntax.separator)
+        return if (separatorIndex > 0) {
+            line.substring(0, separatorIndex).trim()
+        } else {
+            line.trim()
+        }
+    }
+
+    private fun extractValue(line: String): String {
+        val separatorIndex = line.indexOf(syntax.separator)
+        return if (separatorIndex > 0) {
+            line.substring(separatorIndex + 1).trim()
+        } else {
+            ""
+        }
+    }
+
+    companion object {
+        const val ALL_KEYS = "*"
+    }
+}
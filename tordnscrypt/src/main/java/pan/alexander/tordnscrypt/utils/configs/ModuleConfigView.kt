@@ -0,0 +1,39 @@
+package pan.alexander.tordnscrypt.utils.configs
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+/**
+ * Read-only access to a cached module configuration.
+ * Use ModulesConfigCache edit methods to change the config.
+ */
+interface ModuleConfigView {
+    val path: String
+    val syntax: ModuleConfig.Syntax
+
+    fun getLines(): List<String>
+
+    /**
+     * Returns value of the active (not commented) key or null if key is absent or disabled.
+     * @param header section name like "[httpproxy]", empty to search in the whole file
+     */
+    fun getValue(key: String, header: String = ""): String?
+
+    fun isKeyEnabled(key: String, header: String = ""): Boolean
+}
@@ -0,0 +1,170 @@
+package pan.alexander.tordnscrypt.utils.configs
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import android.content.Context
+import android.util.Log
+import pan.alexander.tordnscrypt.settings.PathVars
+import pan.alexander.tordnscrypt.utils.filemanager.FileManager
+import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+import javax.inject.Inject
+import javax.inject.Singleton
+
+private const val TEMP_FILE_SUFFIX = ".tmp"
+
+/**
+ * Keeps one parsed config per module file in memory.
+ * Cached config is dropped when the file modification time or size differs,
+ * so edits made by modules or by the config editor are still noticed.
+ * Cached configs are handed out read-only, edits are applied to a copy
+ * that replaces the cached config only after it is saved.
+ */
+@Singleton
+class ModulesConfigCache @Inject constructor(
+    private val context: Context,
+    private val pathVars: dagger.Lazy<PathVars>
+) {
+
+    fun interface Editor {
+        fun edit(config: ModuleConfig)
+    }
+
+    private val configs = ConcurrentHashMap<String, ModuleConfig>()
+
+    fun getDnsCryptConfig(): ModuleConfigView =
+        getConfig(pathVars.get().dnscryptConfPath, ModuleConfig.Syntax.TOML)
+
+    fun getTorConfig(): ModuleConfigView =
+        getConfig(pathVars.get().torConfPath, ModuleConfig.Syntax.TOR)
+
+    fun getItpdConfig(): ModuleConfigView =
+        getConfig(pathVars.get().itpdConfPath, ModuleConfig.Syntax.INI)
+
+    fun editDnsCryptConfig(block: Editor): Boolean =
+        edit(pathVars.get().dnscryptConfPath, ModuleConfig.Syntax.TOML, block)
+
+    fun editTorConfig(block: Editor): Boolean =
+        edit(pathVars.get().torConfPath, ModuleConfig.Syntax.TOR, block)
+
+    fun editItpdConfig(block: Editor): Boolean =
+        edit(pathVars.get().itpdConfPath, ModuleConfig.Syntax.INI, block)
+
+    fun getConfig(path: String, syntax: ModuleConfig.Syntax): ModuleConfigView =
+        loadConfig(path, syntax)
+
+    private fun loadConfig(path: String, syntax: ModuleConfig.Syntax): ModuleConfig {
+        val file = File(path)
+        val lastModified = file.lastModified()
+        val length = file.length()
+
+        val cached = configs[path]
+        if (cached != null && cached.lastModified == lastModified && cached.length == length) {
+            return cached
+        }
+
+        val lines = FileManager.readTextFileSynchronous(context, path)
+        val config = ModuleConfig(path, syntax, lines, lastModified, length)
+        if (lines.isNotEmpty()) {
+            configs[path] = config
+        }
+        return config
+    }
+
+    /**
+     * Reads, changes and saves the config under one lock, so concurrent edits are not lost.
+     * The config is saved only if something was actually changed.
+     * @return true if the file was rewritten
+     */
+    @Synchronized
+    fun edit(path: String, syntax: ModuleConfig.Syntax, block: Editor): Boolean {
+        val config = loadConfig(path, syntax).copy()
+        block.edit(config)
+        return if (config.isDirty) {
+            save(config)
+        } else {
+            false
+        }
+    }
+
+    private fun save(config: ModuleConfig): Boolean {
+        val lines = config.getLines()
+        if (lines.isEmpty()) {
+            return false
+        }
+
+        val saved = writeAtomically(config.path, lines)
+            || FileManager.writeTextFileSynchronous(context, config.path, lines)
+
+        if (saved) {
+            config.markSaved()
+            val file = File(config.path)
+            config.lastModified = file.lastModified()
+            config.length = file.length()
+            configs[config.path] = config
+            Log.i(LOG_TAG, "ModulesConfigCache saved ${config.path}")
+        } else {
+            configs.remove(config.path)
+            Log.e(LOG_TAG, "ModulesConfigCache cannot save ${config.path}")
+        }
+
+        return saved
+    }
+
+    fun invalidate(path: String) {
+        configs.remove(path)
+    }
+
+    fun invalidateAll() {
+        configs.clear()
+    }
+
+    private fun writeAtomically(path: String, lines: List<String>): Boolean {
+        val file = File(path)
+        val tempFile = File(path + TEMP_FILE_SUFFIX)
+
+        return try {
+            if (file.isFile && !file.canWrite() && !file.setWritable(true)) {
+                return false
+            }
+
+            tempFile.bufferedWriter().use { writer ->
+                lines.forEach { line ->
+                    writer.write(line)
+                    writer.newLine()
+                }
+            }
+
+            tempFile.setReadable(true, false)
+
+            if (tempFile.renameTo(file)) {
+                true
+            } else {
+                tempFile.delete()
+                false
+            }
+        } catch (e: Exception) {
+            Log.w(LOG_TAG, "ModulesConfigCache writeAtomically ${e.javaClass} ${e.message} ${e.cause}")
+            tempFile.delete()
+            false
+        }
+    }
+}
@@ -0,0 +1,487 @@
+package pan.alexander.tordnscrypt.utils.dns
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import java.util.Locale
+
+/**
+ * Matches domains against dnscrypt-proxy name rules without dnscrypt-proxy,
+ * with the same pattern types as blocked_names, allowed_names and cloaking_rules:
+ * "example.com" and "*.example.com" match the domain and subdomains, "=example.com" the domain only,
+ * "ads.*" is a prefix, "*ads*" a substring, patterns with "?", "[]" or an inner "*" are globs.
+ * Exact and suffix rules are kept in a reversed label trie, prefixes are looked up by length.
+ * Substrings and the longest literal part of every glob are searched at once by the Aho-Corasick automaton,
+ * so only globs whose literal part is present in the domain are evaluated.
+ * Instances are immutable and can be used from any thread.
+ */
+class DomainRulesMatcher private constructor(
+    private val labels: LabelNode,
+    private val prefixes: Map<String, String>,
+    private val prefixLengths: IntArray,
+    private val automaton: Automaton,
+    private val substrings: Array<String>,
+    private val globs: Array<Glob>,
+    private val literalFreeGlobs: IntArray,
+    val size: Int
+) {
+
+    /**
+     * Returns the value of the most specific matching rule, or null if the domain does not match.
+     */
+    fun match(domain: String): String? {
+        val name = normalize(domain)
+        if (name.length < 2) {
+            return null
+        }
+
+        matchLabels(name)?.let { return it }
+
+        for (length in prefixLengths) {
+            if (length > name.length) {
+                break
+            }
+            prefixes[name.substring(0, length)]?.let { return it }
+        }
+
+        var result: String? = null
+        automaton.search(name) { patternId ->
+            result = if (patternId < substrings.size) {
+                substrings[patternId]
+            } else {
+                globs[patternId - substrings.size].let { if (it.matches(name)) it.value else null }
+            }
+            result != null
+        }
+        result?.let { return it }
+
+        for (index in literalFreeGlobs) {
+            val glob = globs[index]
+            if (glob.matches(name)) {
+                return glob.value
+            }
+        }
+
+        return null
+    }
+
+    fun matches(domain: String): Boolean = match(domain) != null
+
+    private fun matchLabels(name: String): String? {
+        var node = labels
+        var result: String? = null
+        var end = name.length
+
+        while (end > 0) {
+            val start = name.lastIndexOf('.', end - 1) + 1
+            node = node.children?.get(name.substring(start, end)) ?: break
+            if (start == 0) {
+                node.exactValue?.let { return it }
+            }
+            node.suffixValue?.let { result = it }
+            end = start - 1
+        }
+
+        return result
+    }
+
+    class Builder {
+        private val labels = LabelNode()
+        private val prefixes = hashMapOf<String, String>()
+        private val automatonBuilder = AutomatonBuilder()
+        private val substrings = arrayListOf<String>()
+        private val substringPatterns = arrayListOf<String>()
+        private val globs = arrayListOf<Glob>()
+        private var size = 0
+
+        /**
+         * Adds the rule pattern, the value is returned on match, the pattern by default.
+         * Returns false if the pattern is not valid.
+         */
+        @JvmOverloads
+        fun add(pattern: String, value: String = pattern): Boolean {
+            val rule = pattern.trim().lowercase(Locale.ROOT)
+            if (rule.isEmpty() || rule.startsWith("#")) {
+                return false
+            }
+
+            val leadingStar = rule.startsWith("*")
+            val trailingStar = rule.endsWith("*")
+
+            when {
+                isGlob(rule) -> {
+                    val glob = Glob(rule, value)
+                    if (!glob.isValid()) {
+                        return false
+                    }
+                    globs.add(glob)
+                }
+                leadingStar && trailingStar -> {
+                    if (rule.length < 3) {
+                        return false
+                    }
+                    substringPatterns.add(rule.substring(1, rule.length - 1))
+                    substrings.add(value)
+                }
+                trailingStar -> {
+                    if (rule.length < 2) {
+                        return false
+                    }
+                    prefixes.putIfAbsent(rule.substring(0, rule.length - 1), value)
+                }
+                rule.startsWith("=") -> {
+                    val name = normalize(rule.substring(1))
+                    if (name.isEmpty()) {
+                        return false
+                    }
+                    addLabels(name).let { if (it.exactValue == null) it.exactValue = value }
+                }
+                else -> {
+                    val name = normalize(rule.removePrefix("*").removePrefix("."))
+                    if (name.isEmpty()) {
+                        return false
+                    }
+                    addLabels(name).let { if (it.suffixValue == null) it.suffixValue = value }
+                }
+            }
+
+            size++
+            return true
+        }
+
+        fun build(): DomainRulesMatcher {
+            substringPatterns.forEachIndexed { index, substring ->
+                automatonBuilder.add(substring, index)
+            }
+
+            val literalFreeGlobs = arrayListOf<Int>()
+            globs.forEachIndexed { index, glob ->
+                val literal = glob.getLongestLiteral()
+                if (literal.isEmpty()) {
+                    literalFreeGlobs.add(index)
+                } else {
+                    automatonBuilder.add(literal, substringPatterns.size + index)
+                }
+            }
+
+            return DomainRulesMatcher(
+                labels,
+                HashMap(prefixes),
+                prefixes.keys.map { it.length }.distinct().sorted().toIntArray(),
+                automatonBuilder.build(),
+                substrings.toTypedArray(),
+                globs.toTypedArray(),
+                literalFreeGlobs.toIntArray(),
+                size
+            )
+        }
+
+        private fun addLabels(name: String): LabelNode {
+            var node = labels
+            var end = name.length
+            while (end > 0) {
+                val start = name.lastIndexOf('.', end - 1) + 1
+                val children = node.children ?: hashMapOf<String, LabelNode>().also { node.children = it }
+                node = children.getOrPut(name.substring(start, end)) { LabelNode() }
+                end = start - 1
+            }
+            return node
+        }
+
+        //Same as dnscrypt-proxy, a star is a glob only inside the pattern
+        private fun isGlob(rule: String): Boolean {
+            rule.forEachIndexed { index, char ->
+                if (char == '?' || char == '[' || char == '*' && index != 0 && index != rule.length - 1) {
+                    return true
+                }
+            }
+            return false
+        }
+    }
+
+    private class LabelNode {
+        var children: HashMap<String, LabelNode>? = null
+        var exactValue: String? = null
+        var suffixValue: String? = null
+    }
+
+    //Aho-Corasick automaton, transitions of all states are kept in one map to save memory
+    private class Automaton(
+        private val transitions: Map<Long, Int>,
+        private val fail: IntArray,
+        private val outputs: Array<IntArray?>,
+        private val outputLinks: IntArray
+    ) {
+
+        //Calls onMatch for every pattern found in the text until onMatch returns true
+        fun search(text: String, onMatch: (Int) -> Boolean) {
+            if (fail.size < 2) {
+                return
+            }
+
+            var state = 0
+            for (char in text) {
+                var next = transitions[key(state, char)]
+                while (next == null && state != 0) {
+                    state = fail[state]
+                    next = transitions[key(state, char)]
+                }
+                state = next ?: 0
+
+                var outputState = if (outputs[state] != null) state else outputLinks[state]
+                while (outputState > 0) {
+                    outputs[outputState]?.forEach { patternId ->
+                        if (onMatch(patternId)) {
+                            return
+                        }
+                    }
+                    outputState = outputLinks[outputState]
+                }
+            }
+        }
+    }
+
+    private class AutomatonBuilder {
+        private val transitions = hashMapOf<Long, Int>()
+        private val children = arrayListOf<MutableList<Int>>(arrayListOf())
+        private val chars = arrayListOf('\u0000')
+        private val outputs = arrayListOf<MutableList<Int>?>(null)
+
+        fun add(pattern: String, patternId: Int) {
+            var state = 0
+            for (char in pattern) {
+                state = transitions.getOrPut(key(state, char)) {
+                    val newState = children.size
+                    children.add(arrayListOf())
+                    chars.add(char)
+                    outputs.add(null)
+                    children[state].add(newState)
+                    newState
+                }
+            }
+            (outputs[state] ?: arrayListOf<Int>().also { outputs[state] = it }).add(patternId)
+        }
+
+        fun build(): Automaton {
+            val statesCount = children.size
+            val fail = IntArray(statesCount)
+            val outputLinks = IntArray(statesCount)
+
+            //Breadth first, so fail states are ready before their children
+            val queue = ArrayDeque<Int>()
+            children[0].forEach { queue.add(it) }
+
+            while (queue.isNotEmpty()) {
+                val state = queue.removeFirst()
+
+                for (child in children[state]) {
+                    val char = chars[child]
+                    var failState = fail[state]
+                    var next = if (state == 0) null else transitions[key(failState, char)]
+                    while (next == null && failState != 0) {
+                        failState = fail[failState]
+                        next = transitions[key(failState, char)]
+                    }
+                    fail[child] = if (state == 0) 0 else next ?: 0
+
+                    val failTarget = fail[child]
+                    outputLinks[child] = if (outputs[failTarget] != null) failTarget else outputLinks[failTarget]
+
+                    queue.add(child)
+                }
+            }
+
+            return Automaton(
+                HashMap(transitions),
+                fail,
+                Array(statesCount) { outputs[it]?.toIntArray() },
+                outputLinks
+            )
+        }
+    }
+
+    //Glob syntax of the Go path.Match that is used by dnscrypt-proxy
+    private class Glob(private val pattern: String, val value: String) {
+
+        fun isValid(): Boolean {
+            var index = 0
+            while (index < pattern.length) {
+                when (pattern[index]) {
+                    '[' -> index = skipClass(index).takeIf { it > 0 } ?: return false
+                    '\\' -> index += if (index + 1 < pattern.length) 2 else return false
+                    else -> index++
+                }
+            }
+            return true
+        }
+
+        fun getLongestLiteral(): String {
+            var longest = ""
+            val current = StringBuilder()
+            var index = 0
+            while (index < pattern.length) {
+                when (val char = pattern[index]) {
+                    '*', '?', '[' -> {
+                        if (current.length > longest.length) {
+                            longest = current.toString()
+                        }
+                        current.setLength(0)
+                        index = if (char == '[') skipClass(index) else index + 1
+                    }
+                    '\\' -> {
+                        current.append(pattern[index + 1])
+                        index += 2
+                    }
+                    else -> {
+                        current.append(char)
+                        index++
+                    }
+                }
+            }
+            return if (current.length > longest.length) current.toString() else longest
+        }
+
+        //Iterative matching with backtracking to the last star
+        fun matches(name: String): Boolean {
+            var patternIndex = 0
+            var nameIndex = 0
+            var starPatternIndex = -1
+            var starNameIndex = 0
+
+            while (nameIndex < name.length) {
+                if (patternIndex < pattern.length) {
+                    when (pattern[patternIndex]) {
+                        '*' -> {
+                            starPatternIndex = patternIndex++
+                            starNameIndex = nameIndex
+                            continue
+                        }
+                        '?' -> {
+                            patternIndex++
+                            nameIndex++
+                            continue
+                        }
+                        '[' -> {
+                            val classEnd = skipClass(patternIndex)
+                            if (matchesClass(patternIndex, name[nameIndex])) {
+                                patternIndex = classEnd
+                                nameIndex++
+                                continue
+                            }
+                        }
+                        '\\' -> if (pattern[patternIndex + 1] == name[nameIndex]) {
+                            patternIndex += 2
+                            nameIndex++
+                            continue
+                        }
+                        else -> if (pattern[patternIndex] == name[nameIndex]) {
+                            patternIndex++
+                            nameIndex++
+                            continue
+                        }
+                    }
+                }
+
+                if (starPatternIndex < 0) {
+                    return false
+                }
+                patternIndex = starPatternIndex + 1
+                nameIndex = ++starNameIndex
+            }
+
+            while (patternIndex < pattern.length && pattern[patternIndex] == '*') {
+                patternIndex++
+            }
+
+            return patternIndex == pattern.length
+        }
+
+        //Returns the index after the class or -1 if the class is malformed,
+        //like Go, a class is not empty and an unescaped "-" or "]" cannot start a range
+        private fun skipClass(start: Int): Int {
+            var index = start + 1
+            if (index < pattern.length && pattern[index] == '^') {
+                index++
+            }
+            var ranges = 0
+            while (index < pattern.length) {
+                if (pattern[index] == ']' && ranges > 0) {
+                    return index + 1
+                }
+                index = skipClassChar(index)
+                if (index > 0 && index < pattern.length && pattern[index] == '-') {
+                    index = skipClassChar(index + 1)
+                }
+                if (index < 0) {
+                    return -1
+                }
+                ranges++
+            }
+            return -1
+        }
+
+        private fun skipClassChar(index: Int): Int = when {
+            index >= pattern.length || pattern[index] == '-' || pattern[index] == ']' -> -1
+            pattern[index] == '\\' -> if (index + 1 < pattern.length) index + 2 else -1
+            else -> index + 1
+        }
+
+        private fun matchesClass(start: Int, char: Char): Boolean {
+            var index = start + 1
+            val negated = index < pattern.length && pattern[index] == '^'
+            if (negated) {
+                index++
+            }
+
+            //The class is validated, so it is closed and every range is complete
+            var matched = false
+            while (pattern[index] != ']') {
+                var low = pattern[index]
+                if (low == '\\') {
+                    low = pattern[++index]
+                }
+                index++
+
+                var high = low
+                if (pattern[index] == '-') {
+                    high = pattern[index + 1]
+                    if (high == '\\') {
+                        high = pattern[index + 2]
+                        index++
+                    }
+                    index += 2
+                }
+
+                if (char in low..high) {
+                    matched = true
+                }
+            }
+
+            return matched != negated
+        }
+    }
+
+    companion object {
+        private fun normalize(domain: String): String =
+            domain.trim().trimEnd('.').lowercase(Locale.ROOT)
+
+        private fun key(state: Int, char: Char): Long =
+            (state.toLong() shl 16) or char.code.toLong()
+    }
+}
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.nio.channels.DatagramChannel;
 
 import dagger.assisted.Assisted;
 import dagger.assisted.AssistedInject;
@@ -49,7 +50,10 @@ public class UdpResolver extends DnsResolver {
         byte[] requestData = request.toDnsQuestionData();
 
         InetAddress address = InetAddress.getByName(server);
-        try (DatagramSocket socket = new DatagramSocket()) {
+        //Socket of the channel is closed when the waiting thread is interrupted,
+        //so cancelled requests do not hold the thread until the timeout
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            DatagramSocket socket = channel.socket();
             DatagramPacket packet = new DatagramPacket(requestData, requestData.length,
                     address, dnsUdpPort);
             socket.setSoTimeout(timeout * 1000);
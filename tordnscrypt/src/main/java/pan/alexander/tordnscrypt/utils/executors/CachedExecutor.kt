@@ -19,26 +19,23 @@ package pan.alexander.tordnscrypt.utils.executors
     Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
 */
 
-import android.util.Log
-import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
-import java.lang.Exception
 import java.util.concurrent.ExecutorService
-import java.util.concurrent.Executors
 import java.util.concurrent.Future
 import javax.inject.Inject
 import javax.inject.Singleton
 
+/**
+ * Runs tasks on the shared pools of TaskScheduler.
+ * The pool is chosen by the caller according to the kind of work, see TaskScheduler.
+ */
 @Singleton
-class CachedExecutor @Inject constructor() {
-
-    val executorService: ExecutorService by lazy { Executors.newCachedThreadPool() }
-
-    @Synchronized
-    fun submit(block: Runnable): Future<*>? =
-        try {
-            executorService.submit(block)
-        } catch (e: Exception) {
-            Log.e(LOG_TAG, "CachedExecutor ${e.javaClass} ${e.message} ${e.cause}")
-            null
-        }
+class CachedExecutor @Inject constructor(
+    private val taskScheduler: TaskScheduler
+) {
+
+    fun getExecutorService(pool: TaskScheduler.Pool): ExecutorService =
+        taskScheduler.getPool(pool)
+
+    fun submit(pool: TaskScheduler.Pool, block: Runnable): Future<*>? =
+        taskScheduler.submit(pool, block)
 }
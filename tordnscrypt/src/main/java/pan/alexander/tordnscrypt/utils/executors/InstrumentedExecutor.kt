@@ -0,0 +1,197 @@
+package pan.alexander.tordnscrypt.utils.executors
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import android.os.Looper
+import android.os.Process
+import android.os.SystemClock
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.FutureTask
+import java.util.concurrent.PriorityBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+private const val KEEP_ALIVE_SEC = 30L
+
+/**
+ * Fixed size pool with a priority queue and usage metrics.
+ * Idle threads are stopped, so the pool costs nothing when unused.
+ * When more than queueCapacity tasks are waiting, a task submitted from a background thread
+ * runs on the submitting thread, which slows down the producer instead of growing the queue.
+ */
+class InstrumentedExecutor(
+    val name: String,
+    threads: Int,
+    private val queueCapacity: Int,
+    threadPriority: Int
+) : ThreadPoolExecutor(
+    threads,
+    threads,
+    KEEP_ALIVE_SEC,
+    TimeUnit.SECONDS,
+    PriorityBlockingQueue<Runnable>(),
+    NamedThreadFactory(name, threadPriority)
+) {
+
+    class RunningTask internal constructor(
+        val thread: Thread,
+        val taskName: String,
+        val startTime: Long
+    ) {
+        @Volatile
+        internal var reported = false
+    }
+
+    private val sequence = AtomicLong()
+    private val runningTasks = ConcurrentHashMap<Thread, RunningTask>()
+    private val callerRunsCount = AtomicLong()
+
+    val waitLatency = LatencyHistogram()
+    val runLatency = LatencyHistogram()
+
+    init {
+        allowCoreThreadTimeOut(true)
+    }
+
+    override fun execute(command: Runnable) {
+        execute(command, TaskPriority.NORMAL)
+    }
+
+    fun execute(command: Runnable, priority: TaskPriority) {
+        enqueue(command, priority, command.javaClass.name)
+    }
+
+    //For executors on top of this pool that must never run tasks on the submitting thread
+    internal fun executeQueued(command: Runnable, priority: TaskPriority, taskName: String) {
+        super.execute(PrioritizedTask(command, priority, sequence.incrementAndGet(), taskName))
+    }
+
+    fun submit(task: Runnable, priority: TaskPriority): FutureTask<Unit?> {
+        val future = FutureTask<Unit?>(task, null)
+        enqueue(future, priority, task.javaClass.name)
+        return future
+    }
+
+    private fun enqueue(command: Runnable, priority: TaskPriority, taskName: String) {
+        val task = command as? PrioritizedTask
+            ?: PrioritizedTask(command, priority, sequence.incrementAndGet(), taskName)
+
+        if (queue.size >= queueCapacity && !isShutdown
+            && Looper.getMainLooper()?.thread !== Thread.currentThread()
+        ) {
+            callerRunsCount.incrementAndGet()
+            task.run()
+            return
+        }
+
+        super.execute(task)
+    }
+
+    override fun beforeExecute(thread: Thread, runnable: Runnable) {
+        super.beforeExecute(thread, runnable)
+
+        val now = SystemClock.elapsedRealtime()
+        val taskName = if (runnable is PrioritizedTask) {
+            waitLatency.record(now - runnable.enqueueTime)
+            runnable.taskName
+        } else {
+            runnable.javaClass.name
+        }
+
+        runningTasks[thread] = RunningTask(thread, taskName, now)
+    }
+
+    override fun afterExecute(runnable: Runnable?, throwable: Throwable?) {
+        super.afterExecute(runnable, throwable)
+
+        runningTasks.remove(Thread.currentThread())?.let {
+            runLatency.record(SystemClock.elapsedRealtime() - it.startTime)
+        }
+    }
+
+    fun getQueueDepth(): Int = queue.size
+
+    fun getCallerRunsCount(): Long = callerRunsCount.get()
+
+    /**
+     * @return tasks that run longer than the threshold and were not returned before
+     */
+    fun pollLongRunningTasks(thresholdMs: Long): List<RunningTask> {
+        val now = SystemClock.elapsedRealtime()
+        return runningTasks.values.filter {
+            if (!it.reported && now - it.startTime > thresholdMs) {
+                it.reported = true
+                true
+            } else {
+                false
+            }
+        }
+    }
+
+    fun getMetrics(): String =
+        "$name threads:$poolSize active:$activeCount largest:$largestPoolSize " +
+                "queue:${queue.size} completed:$completedTaskCount callerRuns:${callerRunsCount.get()} " +
+                "wait[$waitLatency] run[$runLatency]"
+}
+
+enum class TaskPriority {
+    LOW,
+    NORMAL,
+    HIGH
+}
+
+internal class PrioritizedTask(
+    private val runnable: Runnable,
+    private val priority: TaskPriority,
+    private val sequence: Long,
+    val taskName: String
+) : Runnable, Comparable<PrioritizedTask> {
+
+    val enqueueTime = SystemClock.elapsedRealtime()
+
+    override fun run() {
+        runnable.run()
+    }
+
+    //Higher priority first, submission order within the same priority
+    override fun compareTo(other: PrioritizedTask): Int =
+        if (priority != other.priority) {
+            other.priority.compareTo(priority)
+        } else {
+            sequence.compareTo(other.sequence)
+        }
+}
+
+internal class NamedThreadFactory(
+    private val name: String,
+    private val threadPriority: Int
+) : ThreadFactory {
+
+    private val threadNumber = AtomicInteger()
+
+    override fun newThread(runnable: Runnable): Thread =
+        Thread({
+            Process.setThreadPriority(threadPriority)
+            runnable.run()
+        }, "InviZible-$name-${threadNumber.incrementAndGet()}")
+}
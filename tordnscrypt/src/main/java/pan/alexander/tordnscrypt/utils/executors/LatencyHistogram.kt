@@ -0,0 +1,65 @@
+package pan.alexander.tordnscrypt.utils.executors
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import java.util.concurrent.atomic.AtomicLongArray
+
+private val bucketBounds = longArrayOf(1, 5, 10, 50, 100, 500, 1000, 5000, 30000)
+
+/**
+ * Lock-free histogram of task latencies in milliseconds with fixed buckets.
+ */
+class LatencyHistogram {
+
+    private val counts = AtomicLongArray(bucketBounds.size + 1)
+
+    fun record(latencyMs: Long) {
+        var index = bucketBounds.size
+        for (i in bucketBounds.indices) {
+            if (latencyMs <= bucketBounds[i]) {
+                index = i
+                break
+            }
+        }
+        counts.incrementAndGet(index)
+    }
+
+    fun getCounts(): LongArray = LongArray(counts.length()) { counts.get(it) }
+
+    override fun toString(): String {
+        val snapshot = getCounts()
+        return buildString {
+            for (i in snapshot.indices) {
+                if (snapshot[i] == 0L) {
+                    continue
+                }
+                if (isNotEmpty()) {
+                    append(" ")
+                }
+                if (i < bucketBounds.size) {
+                    append("<=").append(bucketBounds[i]).append("ms:")
+                } else {
+                    append(">").append(bucketBounds.last()).append("ms:")
+                }
+                append(snapshot[i])
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package pan.alexander.tordnscrypt.utils.executors
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import java.util.concurrent.AbstractExecutorService
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Runs tasks one at a time in submission order on threads of a shared pool,
+ * instead of keeping an own thread for each single thread executor.
+ */
+class SerialExecutor(
+    private val executor: InstrumentedExecutor,
+    private val name: String,
+    private val priority: TaskPriority = TaskPriority.NORMAL
+) : AbstractExecutorService() {
+
+    private val lock = ReentrantLock()
+    private val terminated = lock.newCondition()
+    private val tasks = ArrayDeque<Runnable>()
+    private var active: Runnable? = null
+    private var shutdown = false
+
+    override fun execute(command: Runnable) {
+        lock.withLock {
+            if (shutdown) {
+                throw RejectedExecutionException("SerialExecutor $name is shut down")
+            }
+
+            tasks.addLast(Runnable {
+                try {
+                    command.run()
+                } finally {
+                    scheduleNext()
+                }
+            })
+
+            if (active == null) {
+                scheduleNext()
+            }
+        }
+    }
+
+    private fun scheduleNext() {
+        lock.withLock {
+            active = tasks.removeFirstOrNull()
+
+            active?.let {
+                try {
+                    executor.executeQueued(it, priority, name)
+                } catch (e: RejectedExecutionException) {
+                    active = null
+                    tasks.clear()
+                }
+            }
+
+            if (active == null && shutdown) {
+                terminated.signalAll()
+            }
+        }
+    }
+
+    override fun shutdown() {
+        lock.withLock {
+            shutdown = true
+            if (active == null) {
+                terminated.signalAll()
+            }
+        }
+    }
+
+    override fun shutdownNow(): List<Runnable> =
+        lock.withLock {
+            shutdown = true
+            val pending = tasks.toList()
+            tasks.clear()
+            if (active == null) {
+                terminated.signalAll()
+            }
+            pending
+        }
+
+    override fun isShutdown(): Boolean = lock.withLock { shutdown }
+
+    override fun isTerminated(): Boolean = lock.withLock { shutdown && active == null }
+
+    override fun awaitTermination(timeout: Long, unit: TimeUnit): Boolean {
+        var nanos = unit.toNanos(timeout)
+        lock.withLock {
+            while (!(shutdown && active == null)) {
+                if (nanos <= 0) {
+                    return false
+                }
+                nanos = terminated.awaitNanos(nanos)
+            }
+            return true
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package pan.alexander.tordnscrypt.utils.executors
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import android.os.Build
+import android.os.Process
+import android.os.SystemClock
+import android.util.Log
+import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
+import java.util.concurrent.Future
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import javax.inject.Inject
+import javax.inject.Singleton
+
+private const val IO_QUEUE_CAPACITY = 128
+private const val CPU_QUEUE_CAPACITY = 64
+private const val NETWORK_THREADS = 6
+private const val NETWORK_QUEUE_CAPACITY = 64
+private const val BLOCKING_THREADS = 16
+private const val BLOCKING_QUEUE_CAPACITY = 64
+private const val SCHEDULER_THREADS = 2
+private const val WATCHDOG_PERIOD_SEC = 30L
+private const val LONG_RUNNING_TASK_MS = 120_000L
+
+/**
+ * Shared thread pools for the whole app.
+ * IO is for short file and preferences operations, CPU for parsing and computations,
+ * NETWORK for sockets and http requests, BLOCKING only for tasks that wait for a long time,
+ * such as processes, sleeps and waiting for modules. All pools are bounded.
+ * Tasks that wait for the whole app lifetime get dedicated threads instead of pool threads.
+ * Pools start threads only on demand and stop them when idle.
+ * Tasks that run longer than two minutes are logged together with the pools metrics.
+ */
+@Singleton
+class TaskScheduler @Inject constructor() {
+
+    enum class Pool {
+        IO,
+        CPU,
+        NETWORK,
+        BLOCKING
+    }
+
+    private val cpuCount = Runtime.getRuntime().availableProcessors()
+
+    private val ioLazy = lazy {
+        InstrumentedExecutor(
+            "io",
+            cpuCount.coerceIn(2, 4),
+            IO_QUEUE_CAPACITY,
+            Process.THREAD_PRIORITY_BACKGROUND
+        ).also { startWatchdog() }
+    }
+
+    private val cpuLazy = lazy {
+        InstrumentedExecutor(
+            "cpu",
+            cpuCount.coerceAtLeast(2),
+            CPU_QUEUE_CAPACITY,
+            Process.THREAD_PRIORITY_BACKGROUND
+        ).also { startWatchdog() }
+    }
+
+    private val networkLazy = lazy {
+        InstrumentedExecutor(
+            "network",
+            NETWORK_THREADS,
+            NETWORK_QUEUE_CAPACITY,
+            Process.THREAD_PRIORITY_BACKGROUND
+        ).also { startWatchdog() }
+    }
+
+    private val blockingLazy = lazy {
+        InstrumentedExecutor(
+            "blocking",
+            BLOCKING_THREADS,
+            BLOCKING_QUEUE_CAPACITY,
+            Process.THREAD_PRIORITY_DEFAULT
+        ).also { startWatchdog() }
+    }
+
+    val io by ioLazy
+    val cpu by cpuLazy
+    val network by networkLazy
+    val blocking by blockingLazy
+
+    /**
+     * For short periodic tasks, long work should be submitted to one of the pools.
+     */
+    val scheduler: ScheduledExecutorService by lazy {
+        ScheduledThreadPoolExecutor(
+            SCHEDULER_THREADS,
+            NamedThreadFactory("scheduler", Process.THREAD_PRIORITY_BACKGROUND)
+        ).apply {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                removeOnCancelPolicy = true
+            }
+        }
+    }
+
+    @Volatile
+    private var watchdog: ScheduledFuture<*>? = null
+
+    fun getPool(pool: Pool): InstrumentedExecutor = when (pool) {
+        Pool.IO -> io
+        Pool.CPU -> cpu
+        Pool.NETWORK -> network
+        Pool.BLOCKING -> blocking
+    }
+
+    @JvmOverloads
+    fun submit(
+        pool: Pool,
+        task: Runnable,
+        priority: TaskPriority = TaskPriority.NORMAL
+    ): Future<*>? =
+        try {
+            getPool(pool).submit(task, priority)
+        } catch (e: RejectedExecutionException) {
+            Log.e(LOG_TAG, "TaskScheduler ${pool.name} rejected ${e.message} ${e.cause}")
+            null
+        }
+
+    fun schedule(task: Runnable, delay: Long, unit: TimeUnit): ScheduledFuture<*> =
+        scheduler.schedule(task, delay, unit)
+
+    fun scheduleWithFixedDelay(
+        task: Runnable,
+        initialDelay: Long,
+        delay: Long,
+        unit: TimeUnit
+    ): ScheduledFuture<*> =
+        scheduler.scheduleWithFixedDelay(task, initialDelay, delay, unit)
+
+    /**
+     * For tasks that run until the app or the module stops, such as connection loops
+     * and module process watchers, so they do not hold pool threads and are not reported as long running.
+     */
+    fun startDedicatedThread(name: String, task: Runnable): Thread =
+        NamedThreadFactory(name, Process.THREAD_PRIORITY_DEFAULT).newThread(task).apply {
+            isDaemon = true
+            start()
+        }
+
+    /**
+     * Replacement for a single thread executor that does not own a thread.
+     */
+    @JvmOverloads
+    fun newSerialExecutor(
+        pool: Pool,
+        name: String,
+        priority: TaskPriority = TaskPriority.NORMAL
+    ): SerialExecutor = SerialExecutor(getPool(pool), name, priority)
+
+    fun getMetrics(): String =
+        getStartedPools().joinToString("\n") { it.getMetrics() }
+
+    //Only pools that were used, checking metrics should not start new pools
+    private fun getStartedPools(): List<InstrumentedExecutor> =
+        listOf(ioLazy, cpuLazy, networkLazy, blockingLazy)
+            .filter { it.isInitialized() }
+            .map { it.value }
+
+    @Synchronized
+    private fun startWatchdog() {
+        if (watchdog != null) {
+            return
+        }
+
+        watchdog = scheduler.scheduleWithFixedDelay(
+            { checkLongRunningTasks() },
+            WATCHDOG_PERIOD_SEC,
+            WATCHDOG_PERIOD_SEC,
+            TimeUnit.SECONDS
+        )
+    }
+
+    private fun checkLongRunningTasks() {
+        try {
+            val longRunningTasks = getStartedPools().flatMap {
+                it.pollLongRunningTasks(LONG_RUNNING_TASK_MS)
+            }
+
+            if (longRunningTasks.isEmpty()) {
+                return
+            }
+
+            longRunningTasks.forEach {
+                Log.w(
+                    LOG_TAG, "TaskScheduler ${it.thread.name} runs ${it.taskName} " +
+                            "for ${(SystemClock.elapsedRealtime() - it.startTime) / 1000} sec"
+                )
+            }
+            Log.i(LOG_TAG, "TaskScheduler metrics\n${getMetrics()}")
+        } catch (e: Exception) {
+            Log.e(LOG_TAG, "TaskScheduler checkLongRunningTasks exception ${e.message} ${e.cause}")
+        }
+    }
+}
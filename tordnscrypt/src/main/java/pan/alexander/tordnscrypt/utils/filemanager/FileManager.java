@@ -48,7 +48,6 @@ import java.util.Objects;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -56,6 +55,7 @@ import dagger.Lazy;
 import pan.alexander.tordnscrypt.App;
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceRepository;
 import pan.alexander.tordnscrypt.settings.PathVars;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.root.RootCommands;
 import pan.alexander.tordnscrypt.utils.root.RootExecService;
 
@@ -79,12 +79,17 @@ public class FileManager {
     private static final ReentrantLock reentrantLock = new ReentrantLock();
     private static OnFileOperationsCompleteListener callback;
     private static CopyOnWriteArrayList<OnFileOperationsCompleteListener> stackCallbacks;
-    private static ExecutorService executorService = Executors.newSingleThreadExecutor();
+    private static ExecutorService executorService;
 
     public FileManager() {
         App.getInstance().getDaggerComponent().inject(this);
     }
 
+    private static ExecutorService newFileOperationsExecutor() {
+        return App.getInstance().getDaggerComponent().getTaskScheduler()
+                .newSerialExecutor(TaskScheduler.Pool.IO, "FileManager");
+    }
+
     private BroadcastReceiver br = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -207,7 +212,7 @@ public class FileManager {
         };
 
         if (executorService == null || executorService.isShutdown()) {
-            executorService = Executors.newSingleThreadExecutor();
+            executorService = newFileOperationsExecutor();
         }
         executorService.execute(runnable);
     }
@@ -306,7 +311,7 @@ public class FileManager {
         };
 
         if (executorService == null || executorService.isShutdown()) {
-            executorService = Executors.newSingleThreadExecutor();
+            executorService = newFileOperationsExecutor();
         }
         executorService.execute(runnable);
     }
@@ -577,7 +582,7 @@ public class FileManager {
         };
 
         if (executorService == null || executorService.isShutdown()) {
-            executorService = Executors.newSingleThreadExecutor();
+            executorService = newFileOperationsExecutor();
         }
         executorService.execute(runnable);
     }
@@ -758,7 +763,7 @@ public class FileManager {
         };
 
         if (executorService == null || executorService.isShutdown()) {
-            executorService = Executors.newSingleThreadExecutor();
+            executorService = newFileOperationsExecutor();
         }
         executorService.execute(runnable);
     }
@@ -809,6 +814,7 @@ public class FileManager {
                 }
 
                 linesListMap.remove(filePath);
+                invalidateConfigCache(filePath);
 
                 if (callback != null && !tag.contains("ignored")) {
                     if (callback instanceof OnTextFileOperationsCompleteListener) {
@@ -839,7 +845,7 @@ public class FileManager {
         };
 
         if (executorService == null || executorService.isShutdown()) {
-            executorService = Executors.newSingleThreadExecutor();
+            executorService = newFileOperationsExecutor();
         }
         executorService.execute(runnable);
     }
@@ -967,6 +973,8 @@ public class FileManager {
                 }
 
             }
+
+            invalidateConfigCache(filePath);
         } catch (Exception e) {
             Log.e(LOG_TAG, "writeTextFileSynchronous Exception " + e.getMessage() + " " + e.getCause());
             result = false;
@@ -982,6 +990,10 @@ public class FileManager {
         return result;
     }
 
+    private static void invalidateConfigCache(String filePath) {
+        App.getInstance().getDaggerComponent().getModulesConfigCache().get().invalidate(filePath);
+    }
+
     public void restoreAccess(Context context, String filePath) {
         if (context != null) {
             boolean rootIsAvailable = preferenceRepository.get().getBoolPreference(ROOT_IS_AVAILABLE);
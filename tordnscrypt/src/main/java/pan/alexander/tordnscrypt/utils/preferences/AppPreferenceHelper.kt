@@ -21,6 +21,7 @@ package pan.alexander.tordnscrypt.utils.preferences
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.ObsoleteCoroutinesApi
+import pan.alexander.tordnscrypt.domain.preferences.OnPreferenceChangedListener
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceType
 
 interface AppPreferenceHelper {
@@ -29,4 +30,16 @@ interface AppPreferenceHelper {
     @ObsoleteCoroutinesApi
     @ExperimentalCoroutinesApi
     fun setPreference(key: String, value: Any): Job
+
+    @ObsoleteCoroutinesApi
+    @ExperimentalCoroutinesApi
+    fun addToStringSet(key: String, value: String)
+
+    @ObsoleteCoroutinesApi
+    @ExperimentalCoroutinesApi
+    fun removeFromStringSet(key: String, value: String)
+
+    fun addOnPreferenceChangedListener(key: String, listener: OnPreferenceChangedListener)
+
+    fun removeOnPreferenceChangedListener(key: String, listener: OnPreferenceChangedListener)
 }
@@ -19,13 +19,18 @@ package pan.alexander.tordnscrypt.utils.preferences
 */
 
 import android.content.SharedPreferences
+import android.util.Log
 import kotlinx.coroutines.*
 import kotlinx.coroutines.channels.actor
 import pan.alexander.tordnscrypt.di.CoroutinesModule
 import pan.alexander.tordnscrypt.di.SharedPreferencesModule.Companion.APP_PREFERENCES_NAME
+import pan.alexander.tordnscrypt.domain.preferences.OnPreferenceChangedListener
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceType
+import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
 import java.lang.UnsupportedOperationException
-import java.util.concurrent.ConcurrentSkipListSet
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArraySet
 import javax.inject.Inject
 import javax.inject.Named
 import javax.inject.Singleton
@@ -33,76 +38,183 @@ import javax.inject.Singleton
 private const val COROUTINE_NAME = "Preferences coroutine"
 private const val CHANNEL_BUFFER_CAPACITY = 10
 
+/**
+ * Values are visible to readers as soon as they are set,
+ * while SharedPreferences are updated in batches, with one apply for all queued values.
+ * Large string sets are kept in PreferenceSetStore.
+ */
 @Singleton
 class AppPreferenceHelperImpl @Inject constructor(
     @Named(APP_PREFERENCES_NAME)
     private val appSharedPreferences: SharedPreferences,
     @Named(CoroutinesModule.SUPERVISOR_JOB_MAIN_DISPATCHER_SCOPE)
-    private val _coroutineScope: CoroutineScope
+    private val _coroutineScope: CoroutineScope,
+    private val preferenceSetStore: dagger.Lazy<PreferenceSetStore>
 ) : AppPreferenceHelper {
 
     private val coroutineScope = _coroutineScope + CoroutineName(COROUTINE_NAME)
     private val editor = appSharedPreferences.edit()
-    private val keysToSaveSet by lazy { ConcurrentSkipListSet<String>() }
+    private val pendingValues = ConcurrentHashMap<String, Any>()
+    private val listeners = ConcurrentHashMap<String, CopyOnWriteArraySet<OnPreferenceChangedListener>>()
 
     @ExperimentalCoroutinesApi
     @ObsoleteCoroutinesApi
     private val channel by lazy {
         coroutineScope.actor<Pair<String, Any>>(capacity = CHANNEL_BUFFER_CAPACITY) {
 
+            val batch = hashMapOf<String, Any>()
+
             for (message in channel) {
                 val key = message.first
-                keysToSaveSet.add(key)
-                when (val value = message.second) {
+                val value = message.second
+                when (value) {
                     is Boolean -> editor.putBoolean(key, value)
                     is Int -> editor.putInt(key, value)
                     is Float -> editor.putFloat(key, value)
                     is String -> editor.putString(key, null).putString(key, value)
                     is Set<*> -> {
-                        if (value.all { it is String }) {
-                            @Suppress("UNCHECKED_CAST")
-                            editor.putStringSet(key, null).putStringSet(key, value as Set<String>)
-                        } else {
-                            throw UnsupportedOperationException("AppPreferenceHelper Only String Set is allowed")
-                        }
+                        @Suppress("UNCHECKED_CAST")
+                        editor.putStringSet(key, null).putStringSet(key, value as Set<String>)
                     }
-                    else -> throw UnsupportedOperationException(
-                        "AppPreferenceHelper Type ${value.javaClass.canonicalName} is not implemented"
-                    )
                 }
+                batch[key] = value
+
                 if (channel.isEmpty) {
                     editor.apply()
-                    keysToSaveSet.clear()
+                    //SharedPreferences memory is updated by apply, values set again meanwhile stay pending
+                    batch.forEach { (batchKey, batchValue) ->
+                        pendingValues.remove(batchKey, batchValue)
+                    }
+                    batch.clear()
+                }
+            }
+        }
+    }
+
+    @ObsoleteCoroutinesApi
+    @ExperimentalCoroutinesApi
+    override fun setPreference(key: String, value: Any): Job {
+
+        val preference = when (value) {
+            is Boolean, is Int, is Float, is String -> value
+            is Set<*> -> {
+                if (value.all { it is String }) {
+                    @Suppress("UNCHECKED_CAST")
+                    val set = value as Set<String>
+
+                    if (preferenceSetStore.get().isStoredKey(key)) {
+                        if (preferenceSetStore.get().set(key, set)) {
+                            notifyPreferenceChanged(key)
+                        }
+                        return Job().apply { complete() }
+                    }
+
+                    Collections.unmodifiableSet(HashSet(set))
+                } else {
+                    throw UnsupportedOperationException("AppPreferenceHelper Only String Set is allowed")
                 }
             }
+            else -> throw UnsupportedOperationException(
+                "AppPreferenceHelper Type ${value.javaClass.canonicalName} is not implemented"
+            )
+        }
+
+        pendingValues[key] = preference
+        notifyPreferenceChanged(key)
+
+        return coroutineScope.launch {
+            channel.send(key to preference)
+        }
+    }
+
+    @ObsoleteCoroutinesApi
+    @ExperimentalCoroutinesApi
+    override fun addToStringSet(key: String, value: String) {
+        if (preferenceSetStore.get().isStoredKey(key)) {
+            if (preferenceSetStore.get().add(key, value)) {
+                notifyPreferenceChanged(key)
+            }
+            return
+        }
+
+        synchronized(this) {
+            val set = getStringSet(key)
+            if (!set.contains(value)) {
+                setPreference(key, HashSet(set).apply { add(value) })
+            }
         }
     }
 
     @ObsoleteCoroutinesApi
     @ExperimentalCoroutinesApi
-    override fun setPreference(key: String, value: Any) = coroutineScope.launch {
-        channel.send(key to value)
+    override fun removeFromStringSet(key: String, value: String) {
+        if (preferenceSetStore.get().isStoredKey(key)) {
+            if (preferenceSetStore.get().remove(key, value)) {
+                notifyPreferenceChanged(key)
+            }
+            return
+        }
+
+        synchronized(this) {
+            val set = getStringSet(key)
+            if (set.contains(value)) {
+                setPreference(key, HashSet(set).apply { remove(value) })
+            }
+        }
     }
 
     override fun getPreference(@PreferenceType type: Int, key: String): Any {
 
-        if (keysToSaveSet.contains(key)) {
-            editor.apply()
-            keysToSaveSet.clear()
+        if (type == PreferenceType.STRING_SET_PREFERENCE) {
+            return getStringSet(key)
         }
 
+        pendingValues[key]?.let { return it }
+
         return when (type) {
             PreferenceType.BOOL_PREFERENCE -> appSharedPreferences.getBoolean(key, false)
             PreferenceType.INT_PREFERENCE -> appSharedPreferences.getInt(key, 0)
             PreferenceType.FLOAT_PREFERENCE -> appSharedPreferences.getFloat(key, 0f)
             PreferenceType.STRING_PREFERENCE -> appSharedPreferences.getString(key, "") as Any
-            PreferenceType.STRING_SET_PREFERENCE -> appSharedPreferences.getStringSet(
-                key,
-                emptySet()
-            ) as Any
             else -> throw UnsupportedOperationException(
                 "AppPreferenceHelper Preference Type $type is not implemented"
             )
         }
     }
+
+    //SharedPreferences return their internal sets, which are never modified
+    @Suppress("UNCHECKED_CAST")
+    private fun getStringSet(key: String): Set<String> {
+        if (preferenceSetStore.get().isStoredKey(key)) {
+            return preferenceSetStore.get().get(key)
+        }
+
+        return pendingValues[key] as? Set<String>
+            ?: appSharedPreferences.getStringSet(key, emptySet())
+            ?: emptySet()
+    }
+
+    override fun addOnPreferenceChangedListener(
+        key: String,
+        listener: OnPreferenceChangedListener
+    ) {
+        listeners.getOrPut(key) { CopyOnWriteArraySet() }.add(listener)
+    }
+
+    override fun removeOnPreferenceChangedListener(
+        key: String,
+        listener: OnPreferenceChangedListener
+    ) {
+        listeners[key]?.remove(listener)
+    }
+
+    private fun notifyPreferenceChanged(key: String) {
+        listeners[key]?.forEach {
+            try {
+                it.onPreferenceChanged(key)
+            } catch (e: Exception) {
+                Log.e(LOG_TAG, "AppPreferenceHelper listener exception ${e.message} ${e.cause}")
+            }
+        }
+    }
 }
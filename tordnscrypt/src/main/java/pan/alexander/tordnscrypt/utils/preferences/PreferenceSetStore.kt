@@ -0,0 +1,372 @@
+package pan.alexander.tordnscrypt.utils.preferences
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import android.content.Context
+import android.content.SharedPreferences
+import android.util.Log
+import pan.alexander.tordnscrypt.di.SharedPreferencesModule.Companion.APP_PREFERENCES_NAME
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler
+import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.util.Collections
+import java.util.concurrent.TimeUnit
+import javax.inject.Inject
+import javax.inject.Named
+import javax.inject.Singleton
+
+private const val SETS_DIR_NAME = "preference_sets"
+private const val SNAPSHOT_EXTENSION = ".set"
+private const val JOURNAL_EXTENSION = ".log"
+private const val SNAPSHOT_MAGIC = 0x49505353
+private const val OPERATION_ADD = 1
+private const val OPERATION_REMOVE = 2
+private const val MIN_JOURNAL_SIZE_TO_COMPACT = 64
+private const val FLUSH_RETRY_DELAY_SEC = 30L
+
+/**
+ * Keeps large string sets outside of SharedPreferences XML,
+ * which is entirely rewritten on every change of any preference.
+ * Every set has a snapshot file and a journal of added and removed elements,
+ * so a single element edit appends one record.
+ * The journal is merged into the snapshot when it grows comparable to the set.
+ * Sets are migrated from SharedPreferences on the first access.
+ * Readers get immutable sets that are replaced on every change.
+ */
+@Singleton
+class PreferenceSetStore @Inject constructor(
+    context: Context,
+    @Named(APP_PREFERENCES_NAME)
+    private val appSharedPreferences: SharedPreferences,
+    private val taskScheduler: TaskScheduler
+) {
+
+    private class PendingChanges {
+        var rewrite = false
+        var migrated = false
+        val operations = arrayListOf<Pair<Int, String>>()
+    }
+
+    private val setsDir = File(context.filesDir, SETS_DIR_NAME)
+    private val executor = taskScheduler.newSerialExecutor(TaskScheduler.Pool.IO, "PreferenceSetStore")
+    private val sets = hashMapOf<String, Set<String>>()
+    private val journalSizes = hashMapOf<String, Int>()
+    private val pendingChanges = hashMapOf<String, PendingChanges>()
+
+    fun isStoredKey(key: String): Boolean = storedKeys.contains(key)
+
+    @Synchronized
+    fun get(key: String): Set<String> = sets[key] ?: load(key)
+
+    @Synchronized
+    fun set(key: String, value: Set<String>): Boolean {
+        val current = get(key)
+
+        val added = value.filterNot { current.contains(it) }
+        val removed = current.filterNot { value.contains(it) }
+        if (added.isEmpty() && removed.isEmpty()) {
+            return false
+        }
+
+        sets[key] = Collections.unmodifiableSet(HashSet(value))
+
+        val changes = getPendingChanges(key)
+        if (added.size + removed.size > value.size / 2) {
+            changes.rewrite = true
+            changes.operations.clear()
+        } else if (!changes.rewrite) {
+            added.forEach { changes.operations.add(OPERATION_ADD to it) }
+            removed.forEach { changes.operations.add(OPERATION_REMOVE to it) }
+        }
+
+        return true
+    }
+
+    @Synchronized
+    fun add(key: String, value: String): Boolean {
+        val current = get(key)
+        if (current.contains(value)) {
+            return false
+        }
+
+        sets[key] = Collections.unmodifiableSet(HashSet(current).apply { add(value) })
+
+        val changes = getPendingChanges(key)
+        if (!changes.rewrite) {
+            changes.operations.add(OPERATION_ADD to value)
+        }
+
+        return true
+    }
+
+    @Synchronized
+    fun remove(key: String, value: String): Boolean {
+        val current = get(key)
+        if (!current.contains(value)) {
+            return false
+        }
+
+        sets[key] = Collections.unmodifiableSet(HashSet(current).apply { remove(value) })
+
+        val changes = getPendingChanges(key)
+        if (!changes.rewrite) {
+            changes.operations.add(OPERATION_REMOVE to value)
+        }
+
+        return true
+    }
+
+    /**
+     * Used by backup.
+     */
+    @Synchronized
+    fun getAll(): Map<String, HashSet<String>> =
+        storedKeys.associateWith { HashSet(get(it)) }.filterValues { it.isNotEmpty() }
+
+    /**
+     * Replaces stored sets by the SharedPreferences values, after restore or reset of settings.
+     */
+    @Synchronized
+    fun importFromPreferences() {
+        storedKeys.forEach { key ->
+            sets[key] = Collections.unmodifiableSet(
+                HashSet(appSharedPreferences.getStringSet(key, emptySet()) ?: emptySet())
+            )
+            getPendingChanges(key).apply {
+                rewrite = true
+                migrated = true
+                operations.clear()
+            }
+        }
+    }
+
+    private fun getPendingChanges(key: String): PendingChanges {
+        pendingChanges[key]?.let { return it }
+
+        val changes = PendingChanges()
+        pendingChanges[key] = changes
+        //Changes made before the flush are written together
+        executor.execute { flush() }
+        return changes
+    }
+
+    private fun load(key: String): Set<String> {
+        val snapshotFile = File(setsDir, key + SNAPSHOT_EXTENSION)
+
+        val set = if (snapshotFile.isFile) {
+            readSnapshot(key)
+        } else {
+            val migrated = appSharedPreferences.getStringSet(key, emptySet()) ?: emptySet()
+            getPendingChanges(key).apply {
+                rewrite = true
+                this.migrated = true
+            }
+            HashSet(migrated)
+        }
+
+        val result: Set<String> = Collections.unmodifiableSet(set)
+        sets[key] = result
+        return result
+    }
+
+    private fun readSnapshot(key: String): HashSet<String> {
+        val set = hashSetOf<String>()
+
+        try {
+            DataInputStream(FileInputStream(File(setsDir, key + SNAPSHOT_EXTENSION)).buffered()).use { input ->
+                if (input.readInt() == SNAPSHOT_MAGIC) {
+                    repeat(input.readInt()) {
+                        set.add(input.readUTF())
+                    }
+                }
+            }
+        } catch (e: Exception) {
+            Log.e(LOG_TAG, "PreferenceSetStore readSnapshot $key exception ${e.message} ${e.cause}")
+        }
+
+        var journalSize = 0
+        val journalFile = File(setsDir, key + JOURNAL_EXTENSION)
+        if (journalFile.isFile) {
+            try {
+                DataInputStream(FileInputStream(journalFile).buffered()).use { input ->
+                    while (true) {
+                        val operation = input.read()
+                        if (operation < 0) {
+                            break
+                        }
+                        val value = input.readUTF()
+                        when (operation) {
+                            OPERATION_ADD -> set.add(value)
+                            OPERATION_REMOVE -> set.remove(value)
+                        }
+                        journalSize++
+                    }
+                }
+            } catch (e: EOFException) {
+                Log.w(LOG_TAG, "PreferenceSetStore journal $key is truncated")
+            } catch (e: Exception) {
+                Log.e(LOG_TAG, "PreferenceSetStore readJournal $key exception ${e.message} ${e.cause}")
+            }
+        }
+        journalSizes[key] = journalSize
+
+        return set
+    }
+
+    private fun flush() {
+        val changes: Map<String, PendingChanges>
+        val snapshots: Map<String, Set<String>>
+        synchronized(this) {
+            changes = HashMap(pendingChanges)
+            pendingChanges.clear()
+            snapshots = changes.keys.associateWith { sets[it] ?: emptySet() }
+        }
+
+        if (changes.isEmpty()) {
+            return
+        }
+
+        if (!setsDir.isDirectory && !setsDir.mkdirs()) {
+            Log.e(LOG_TAG, "PreferenceSetStore cannot create ${setsDir.path}")
+            requeue(changes)
+            return
+        }
+
+        val migratedKeys = arrayListOf<String>()
+        val failedChanges = hashMapOf<String, PendingChanges>()
+
+        changes.forEach { (key, change) ->
+            val set = snapshots[key] ?: emptySet()
+            val journalSize = synchronized(this) { journalSizes[key] ?: 0 }
+
+            val written = if (change.rewrite
+                || journalSize + change.operations.size > maxOf(MIN_JOURNAL_SIZE_TO_COMPACT, set.size)
+            ) {
+                writeSnapshot(key, set)
+            } else {
+                appendJournal(key, change.operations)
+            }
+
+            if (!written) {
+                failedChanges[key] = change
+            } else if (change.migrated) {
+                migratedKeys.add(key)
+            }
+        }
+
+        if (failedChanges.isNotEmpty()) {
+            requeue(failedChanges)
+        }
+
+        if (migratedKeys.isNotEmpty()) {
+            appSharedPreferences.edit().apply {
+                migratedKeys.forEach { remove(it) }
+            }.apply()
+        }
+    }
+
+    //A failed journal append can leave a partial record, so failed keys are rewritten entirely
+    private fun requeue(failedChanges: Map<String, PendingChanges>) {
+        synchronized(this) {
+            failedChanges.forEach { (key, failed) ->
+                val changes = pendingChanges.getOrPut(key) { PendingChanges() }
+                changes.rewrite = true
+                changes.migrated = changes.migrated || failed.migrated
+                changes.operations.clear()
+            }
+        }
+
+        Log.w(LOG_TAG, "PreferenceSetStore retry ${failedChanges.keys} in $FLUSH_RETRY_DELAY_SEC sec")
+
+        taskScheduler.schedule(
+            { executor.execute { flush() } },
+            FLUSH_RETRY_DELAY_SEC,
+            TimeUnit.SECONDS
+        )
+    }
+
+    private fun writeSnapshot(key: String, set: Set<String>): Boolean {
+        val snapshotFile = File(setsDir, key + SNAPSHOT_EXTENSION)
+        val tempFile = File(setsDir, "$key$SNAPSHOT_EXTENSION.tmp")
+
+        return try {
+            DataOutputStream(FileOutputStream(tempFile).buffered()).use { output ->
+                output.writeInt(SNAPSHOT_MAGIC)
+                output.writeInt(set.size)
+                set.forEach { output.writeUTF(it) }
+            }
+
+            if (!tempFile.renameTo(snapshotFile)) {
+                tempFile.delete()
+                Log.e(LOG_TAG, "PreferenceSetStore cannot rename $key snapshot")
+                return false
+            }
+
+            File(setsDir, key + JOURNAL_EXTENSION).delete()
+            synchronized(this) { journalSizes[key] = 0 }
+            true
+        } catch (e: Exception) {
+            tempFile.delete()
+            Log.e(LOG_TAG, "PreferenceSetStore writeSnapshot $key exception ${e.message} ${e.cause}")
+            false
+        }
+    }
+
+    private fun appendJournal(key: String, operations: List<Pair<Int, String>>): Boolean =
+        try {
+            DataOutputStream(
+                FileOutputStream(File(setsDir, key + JOURNAL_EXTENSION), true).buffered()
+            ).use { output ->
+                operations.forEach { (operation, value) ->
+                    output.write(operation)
+                    output.writeUTF(value)
+                }
+            }
+            synchronized(this) {
+                journalSizes[key] = (journalSizes[key] ?: 0) + operations.size
+            }
+            true
+        } catch (e: Exception) {
+            Log.e(LOG_TAG, "PreferenceSetStore appendJournal $key exception ${e.message} ${e.cause}")
+            false
+        }
+
+    companion object {
+        //Domains and IPs lists that users fill by hand or import, they can contain thousands of entries
+        private val storedKeys = setOf(
+            "unlockHosts",
+            "unlockIPs",
+            "clearnetHosts",
+            "clearnetIPs",
+            "unlockHostsTether",
+            "unlockIPsTether",
+            "clearnetHostsTether",
+            "clearnetIPsTether",
+            PreferenceKeys.IPS_TO_UNLOCK,
+            PreferenceKeys.IPS_FOR_CLEARNET,
+            PreferenceKeys.IPS_TO_UNLOCK_TETHER,
+            PreferenceKeys.IPS_FOR_CLEARNET_TETHER
+        )
+    }
+}
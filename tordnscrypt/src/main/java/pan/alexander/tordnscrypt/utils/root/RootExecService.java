@@ -43,12 +43,12 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import eu.chainfire.libsuperuser.Shell;
 import pan.alexander.tordnscrypt.App;
 import pan.alexander.tordnscrypt.R;
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceRepository;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 
 public class RootExecService extends Service {
     public RootExecService() {
@@ -87,7 +87,8 @@ public class RootExecService extends Service {
             serviceNotificationManager.createNotificationChannel();
         }
 
-        executorService = Executors.newSingleThreadExecutor();
+        executorService = App.getInstance().getDaggerComponent().getTaskScheduler()
+                .newSerialExecutor(TaskScheduler.Pool.BLOCKING, "RootExecService");
     }
 
     @Override
@@ -0,0 +1,205 @@
+package pan.alexander.tordnscrypt.utils.root
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import android.content.Context
+import android.content.pm.PackageManager
+import android.os.Build
+import android.util.Log
+import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
+import java.io.File
+import javax.inject.Inject
+import javax.inject.Singleton
+
+private const val PROBES_PREFERENCES_NAME = "StartupProbes"
+private const val SU_KEY = "SuKey"
+private const val SU_AVAILABLE = "SuAvailable"
+private const val SU_VERSION = "SuVersion"
+private const val SU_ID = "SuId"
+private const val SU_BUSYBOX = "SuBusybox"
+private const val SIGN_KEY = "SignKey"
+private const val SIGN_ZIP = "SignZip"
+private const val SIGN_ALT = "SignAlt"
+private const val BINARY_KEY_PREFIX = "BinaryKey_"
+private const val BINARY_VERSION_PREFIX = "BinaryVersion_"
+
+private val suPaths = listOf(
+    "/system/bin/su",
+    "/system/xbin/su",
+    "/system/sbin/su",
+    "/sbin/su",
+    "/su/bin/su",
+    "/vendor/bin/su",
+    "/debug_ramdisk/su"
+)
+
+private val rootManagerPackages = listOf(
+    "com.topjohnwu.magisk",
+    "eu.chainfire.supersu",
+    "me.weishu.kernelsu",
+    "com.koushikdutta.superuser",
+    "com.noshufou.android.su",
+    "me.phh.superuser"
+)
+
+/**
+ * Results of the cold start probes, so the app does not wait for su, APK signature
+ * and modules --version on every launch.
+ * Each result is stored with an invalidation key and is returned only while the key matches:
+ * su results depend on the app update time, su binaries and root manager packages,
+ * APK signatures on the APK file, modules versions on the binary file.
+ */
+@Singleton
+class StartupProbesCache @Inject constructor(
+    private val context: Context
+) {
+
+    class SuProbe(
+        val available: Boolean,
+        val version: String,
+        val id: List<String>,
+        val busybox: List<String>
+    )
+
+    class ApkSignatures(val signZip: String, val signAlt: String)
+
+    private val preferences by lazy {
+        context.getSharedPreferences(PROBES_PREFERENCES_NAME, Context.MODE_PRIVATE)
+    }
+
+    fun getSuProbe(): SuProbe? {
+        val key = preferences.getString(SU_KEY, null) ?: return null
+        if (key != getSuKey()) {
+            return null
+        }
+
+        return SuProbe(
+            preferences.getBoolean(SU_AVAILABLE, false),
+            preferences.getString(SU_VERSION, null) ?: "",
+            splitLines(preferences.getString(SU_ID, null)),
+            splitLines(preferences.getString(SU_BUSYBOX, null))
+        )
+    }
+
+    fun saveSuProbe(probe: SuProbe) {
+        preferences.edit()
+            .putString(SU_KEY, getSuKey())
+            .putBoolean(SU_AVAILABLE, probe.available)
+            .putString(SU_VERSION, probe.version)
+            .putString(SU_ID, probe.id.joinToString("\n"))
+            .putString(SU_BUSYBOX, probe.busybox.joinToString("\n"))
+            .apply()
+    }
+
+    fun clearSuProbe() {
+        preferences.edit().remove(SU_KEY).apply()
+    }
+
+    fun getApkSignatures(): ApkSignatures? {
+        val key = preferences.getString(SIGN_KEY, null) ?: return null
+        if (key != getApkKey()) {
+            return null
+        }
+
+        val signZip = preferences.getString(SIGN_ZIP, null)
+        val signAlt = preferences.getString(SIGN_ALT, null)
+
+        return if (signZip != null && signAlt != null) {
+            ApkSignatures(signZip, signAlt)
+        } else {
+            null
+        }
+    }
+
+    fun saveApkSignatures(signatures: ApkSignatures) {
+        preferences.edit()
+            .putString(SIGN_KEY, getApkKey())
+            .putString(SIGN_ZIP, signatures.signZip)
+            .putString(SIGN_ALT, signatures.signAlt)
+            .apply()
+    }
+
+    fun getBinaryVersion(path: String): String? {
+        val key = preferences.getString(BINARY_KEY_PREFIX + path, null) ?: return null
+        if (key != getFileKey(File(path))) {
+            return null
+        }
+        return preferences.getString(BINARY_VERSION_PREFIX + path, null)
+    }
+
+    fun saveBinaryVersion(path: String, version: String) {
+        preferences.edit()
+            .putString(BINARY_KEY_PREFIX + path, getFileKey(File(path)))
+            .putString(BINARY_VERSION_PREFIX + path, version)
+            .apply()
+    }
+
+    private fun getSuKey(): String {
+        val key = StringBuilder()
+
+        key.append(Build.FINGERPRINT).append('|')
+        key.append(getOwnPackageKey())
+
+        suPaths.forEach {
+            key.append('|').append(getFileKey(File(it)))
+        }
+
+        val packageManager = context.packageManager
+        rootManagerPackages.forEach {
+            key.append('|').append(getPackageKey(packageManager, it))
+        }
+
+        return key.toString()
+    }
+
+    private fun getApkKey(): String {
+        val apkFile = File(context.applicationInfo.sourceDir)
+        return "${getOwnPackageKey()}|${getFileKey(apkFile)}"
+    }
+
+    private fun getOwnPackageKey(): String =
+        getPackageKey(context.packageManager, context.packageName)
+
+    @Suppress("DEPRECATION")
+    private fun getPackageKey(packageManager: PackageManager, packageName: String): String =
+        try {
+            val packageInfo = packageManager.getPackageInfo(packageName, 0)
+            "${packageInfo.versionCode}:${packageInfo.lastUpdateTime}"
+        } catch (e: PackageManager.NameNotFoundException) {
+            ""
+        } catch (e: Exception) {
+            Log.w(LOG_TAG, "StartupProbesCache getPackageKey exception ${e.message} ${e.cause}")
+            ""
+        }
+
+    private fun getFileKey(file: File): String =
+        if (file.exists()) {
+            "${file.lastModified()}:${file.length()}"
+        } else {
+            ""
+        }
+
+    private fun splitLines(lines: String?): List<String> =
+        if (lines.isNullOrEmpty()) {
+            emptyList()
+        } else {
+            lines.split("\n")
+        }
+}
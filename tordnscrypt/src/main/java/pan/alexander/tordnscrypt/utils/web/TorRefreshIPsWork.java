@@ -41,6 +41,7 @@ import pan.alexander.tordnscrypt.domain.dns_resolver.DnsInteractor;
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceRepository;
 import pan.alexander.tordnscrypt.modules.ModulesStatus;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 
 import static pan.alexander.tordnscrypt.utils.Constants.IPv4_REGEX;
 import static pan.alexander.tordnscrypt.utils.preferences.PreferenceKeys.IPS_FOR_CLEARNET;
@@ -78,7 +79,7 @@ public class TorRefreshIPsWork {
     }
 
     public void refreshIPs() {
-        cachedExecutor.submit(() -> {
+        cachedExecutor.submit(TaskScheduler.Pool.NETWORK, () -> {
 
             Log.i(LOG_TAG, "TorRefreshIPsWork refreshIPs");
 
@@ -129,11 +130,11 @@ public class TorRefreshIPsWork {
         Set<String> setUnlockHostsDevice;
         Set<String> setUnlockIPsDevice;
         if (!routeAllThroughTorDevice) {
-            setUnlockHostsDevice = preferences.getStringSetPreference("unlockHosts");
-            setUnlockIPsDevice = preferences.getStringSetPreference("unlockIPs");
+            setUnlockHostsDevice = preferences.getStringSetPreferenceView("unlockHosts");
+            setUnlockIPsDevice = preferences.getStringSetPreferenceView("unlockIPs");
         } else {
-            setUnlockHostsDevice = preferences.getStringSetPreference("clearnetHosts");
-            setUnlockIPsDevice = preferences.getStringSetPreference("clearnetIPs");
+            setUnlockHostsDevice = preferences.getStringSetPreferenceView("clearnetHosts");
+            setUnlockIPsDevice = preferences.getStringSetPreferenceView("clearnetIPs");
         }
 
         if (setUnlockHostsDevice.isEmpty() && setUnlockIPsDevice.isEmpty()) {
@@ -162,11 +163,11 @@ public class TorRefreshIPsWork {
         Set<String> setUnlockHostsTether;
         Set<String> setUnlockIPsTether;
         if (!routeAllThroughTorTether) {
-            setUnlockHostsTether = preferences.getStringSetPreference("unlockHostsTether");
-            setUnlockIPsTether = preferences.getStringSetPreference("unlockIPsTether");
+            setUnlockHostsTether = preferences.getStringSetPreferenceView("unlockHostsTether");
+            setUnlockIPsTether = preferences.getStringSetPreferenceView("unlockIPsTether");
         } else {
-            setUnlockHostsTether = preferences.getStringSetPreference("clearnetHostsTether");
-            setUnlockIPsTether = preferences.getStringSetPreference("clearnetIPsTether");
+            setUnlockHostsTether = preferences.getStringSetPreferenceView("clearnetHostsTether");
+            setUnlockIPsTether = preferences.getStringSetPreferenceView("clearnetIPsTether");
         }
 
         if (setUnlockHostsTether.isEmpty() && setUnlockIPsTether.isEmpty()) {
@@ -243,7 +244,7 @@ public class TorRefreshIPsWork {
     }
 
     private boolean saveSettings(Set<String> ipsToUnlock, String settingsKey) {
-        Set<String> ips = preferenceRepository.get().getStringSetPreference(settingsKey);
+        Set<String> ips = preferenceRepository.get().getStringSetPreferenceView(settingsKey);
         if (ips.size() == ipsToUnlock.size() && ips.containsAll(ipsToUnlock)) {
             return false;
         } else {
@@ -0,0 +1,409 @@
+package pan.alexander.tordnscrypt.utils.zipUtil
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import android.content.Context
+import android.util.Log
+import pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG
+import java.io.*
+import java.security.MessageDigest
+import java.util.Calendar
+import java.util.Collections
+import java.util.concurrent.*
+import java.util.zip.CRC32
+import java.util.zip.Deflater
+
+private const val CHUNK_SIZE = 1024 * 1024
+private const val OUTPUT_BUFFER_SIZE = 64 * 1024
+private const val MAX_ZIP_VALUE = 0xFFFFFFFFL
+private const val MAX_ZIP_ENTRIES = 0xFFFF
+
+private const val LOCAL_HEADER_SIGNATURE = 0x04034b50
+private const val DATA_DESCRIPTOR_SIGNATURE = 0x08074b50
+private const val CENTRAL_HEADER_SIGNATURE = 0x02014b50
+private const val END_OF_CENTRAL_DIR_SIGNATURE = 0x06054b50
+private const val ZIP_VERSION = 20
+private const val FLAG_DATA_DESCRIPTOR = 0x0008
+private const val FLAG_UTF8 = 0x0800
+private const val METHOD_DEFLATED = 8
+
+/**
+ * Writes a zip archive of files and dirs straight into the output stream.
+ * Files are split into chunks, every chunk is compressed on the executor as an independent
+ * flushed deflate segment, so a single large file is compressed in parallel too,
+ * while the output is written in order by the calling thread.
+ * Compressed chunks of large files are kept in the chunks dir under the hash of their content,
+ * so the next backup of unchanged rule lists only hashes them.
+ * The archive is a regular zip, entries names are relative to the parents of input sources.
+ */
+class ParallelZipWriter(
+    private val context: Context,
+    private val executor: ExecutorService,
+    private val chunksDir: File?
+) {
+
+    private class Entry(val name: ByteArray, val dosTime: Long) {
+        var offset = 0L
+        var crc = 0L
+        var size = 0L
+        var compressedSize = 0L
+    }
+
+    private class ChunkTask(
+        val entry: Entry,
+        val first: Boolean,
+        val last: Boolean,
+        val data: Future<ByteArray>
+    )
+
+    private val window = maxOf(2, Runtime.getRuntime().availableProcessors() * 2)
+    private val usedChunks: MutableSet<String> =
+        Collections.newSetFromMap(ConcurrentHashMap<String, Boolean>())
+
+    private lateinit var output: CountingOutputStream
+    private val entries = arrayListOf<Entry>()
+    private val pending = ArrayDeque<ChunkTask>()
+
+    @Throws(Exception::class)
+    fun write(outputStream: OutputStream, vararg inputSources: String) {
+        val time = System.currentTimeMillis()
+
+        output = CountingOutputStream(BufferedOutputStream(outputStream, OUTPUT_BUFFER_SIZE))
+
+        try {
+            for (source in inputSources) {
+                val file = File(source)
+                val parent = file.parent ?: throw IllegalStateException("Wrong input source $source")
+                addSource(removeEndSlash(parent), file.name)
+            }
+
+            while (pending.isNotEmpty()) {
+                writeNextChunk()
+            }
+
+            writeCentralDirectory()
+            output.flush()
+        } catch (e: Exception) {
+            pending.forEach { it.data.cancel(true) }
+            pending.clear()
+            throw e
+        }
+
+        removeUnusedChunks()
+
+        Log.i(
+            LOG_TAG, "ParallelZipWriter wrote ${entries.size} entries ${output.count} bytes " +
+                    "in ${System.currentTimeMillis() - time} ms, ${usedChunks.size} cached chunks"
+        )
+    }
+
+    private fun addSource(inputPath: String, fileName: String) {
+        val fullPath = "$inputPath/$fileName"
+
+        ZipFileManager().checkAndRestoreAccess(context, fullPath)
+
+        val inputFile = File(fullPath)
+        when {
+            inputFile.isDirectory -> inputFile.listFiles()?.sortedBy { it.name }?.forEach {
+                addSource(inputPath, "$fileName/${it.name}")
+            }
+            inputFile.isFile -> addFile(inputFile, fileName)
+            else -> throw IllegalStateException("createZip input fault: input no file and no dir $fullPath")
+        }
+    }
+
+    private fun addFile(file: File, name: String) {
+        check(entries.size + 1 < MAX_ZIP_ENTRIES) { "ParallelZipWriter too many entries" }
+
+        val entry = Entry(name.toByteArray(Charsets.UTF_8), toDosTime(file.lastModified()))
+        val cacheable = chunksDir != null && file.length() >= CHUNK_SIZE
+        val crc = CRC32()
+
+        FileInputStream(file).use { input ->
+            var current = readChunk(input)
+            var first = true
+
+            while (true) {
+                val next = if (current.size == CHUNK_SIZE) readChunk(input) else ByteArray(0)
+                val last = next.isEmpty()
+
+                crc.update(current)
+                entry.size += current.size
+                if (last) {
+                    entry.crc = crc.value
+                    check(entry.size <= MAX_ZIP_VALUE) { "ParallelZipWriter file is too large $name" }
+                }
+
+                while (pending.size >= window) {
+                    writeNextChunk()
+                }
+
+                val data = current
+                pending.addLast(
+                    ChunkTask(entry, first, last, executor.submit(Callable {
+                        compressChunk(data, last, cacheable)
+                    }))
+                )
+
+                if (last) {
+                    break
+                }
+
+                first = false
+                current = next
+            }
+        }
+    }
+
+    private fun readChunk(input: InputStream): ByteArray {
+        val buffer = ByteArray(CHUNK_SIZE)
+        var length = 0
+        while (length < CHUNK_SIZE) {
+            val count = input.read(buffer, length, CHUNK_SIZE - length)
+            if (count < 0) {
+                break
+            }
+            length += count
+        }
+        return if (length == CHUNK_SIZE) buffer else buffer.copyOf(length)
+    }
+
+    private fun compressChunk(data: ByteArray, last: Boolean, cacheable: Boolean): ByteArray {
+        val key = if (cacheable) getChunkKey(data, last) else null
+
+        if (key != null) {
+            val cached = readCachedChunk(key)
+            if (cached != null) {
+                usedChunks.add(key)
+                return cached
+            }
+        }
+
+        val deflater = Deflater(Deflater.DEFAULT_COMPRESSION, true)
+        val compressed = try {
+            deflater.setInput(data)
+
+            val outputStream = ByteArrayOutputStream(data.size / 3 + 64)
+            val buffer = ByteArray(OUTPUT_BUFFER_SIZE)
+
+            if (last) {
+                deflater.finish()
+                while (!deflater.finished()) {
+                    val count = deflater.deflate(buffer)
+                    outputStream.write(buffer, 0, count)
+                }
+            } else {
+                //Sync flush ends the segment on a byte boundary, so segments can be concatenated
+                do {
+                    val count = deflater.deflate(buffer, 0, buffer.size, Deflater.SYNC_FLUSH)
+                    outputStream.write(buffer, 0, count)
+                } while (count == buffer.size)
+            }
+
+            outputStream.toByteArray()
+        } finally {
+            deflater.end()
+        }
+
+        if (key != null) {
+            saveCachedChunk(key, compressed)
+            usedChunks.add(key)
+        }
+
+        return compressed
+    }
+
+    private fun writeNextChunk() {
+        val task = pending.removeFirst()
+        val entry = task.entry
+
+        if (task.first) {
+            entry.offset = output.count
+            entries.add(entry)
+            writeLocalHeader(entry)
+        }
+
+        val data = try {
+            task.data.get()
+        } catch (e: ExecutionException) {
+            throw e.cause as? Exception ?: e
+        }
+
+        output.write(data)
+        entry.compressedSize += data.size
+
+        if (task.last) {
+            check(entry.compressedSize <= MAX_ZIP_VALUE && output.count <= MAX_ZIP_VALUE) {
+                "ParallelZipWriter archive is too large"
+            }
+            writeDataDescriptor(entry)
+        }
+    }
+
+    private fun writeLocalHeader(entry: Entry) {
+        writeInt(LOCAL_HEADER_SIGNATURE.toLong())
+        writeShort(ZIP_VERSION)
+        writeShort(FLAG_DATA_DESCRIPTOR or FLAG_UTF8)
+        writeShort(METHOD_DEFLATED)
+        writeInt(entry.dosTime)
+        writeInt(0)
+        writeInt(0)
+        writeInt(0)
+        writeShort(entry.name.size)
+        writeShort(0)
+        output.write(entry.name)
+    }
+
+    private fun writeDataDescriptor(entry: Entry) {
+        writeInt(DATA_DESCRIPTOR_SIGNATURE.toLong())
+        writeInt(entry.crc)
+        writeInt(entry.compressedSize)
+        writeInt(entry.size)
+    }
+
+    private fun writeCentralDirectory() {
+        val offset = output.count
+
+        entries.forEach { entry ->
+            writeInt(CENTRAL_HEADER_SIGNATURE.toLong())
+            writeShort(ZIP_VERSION)
+            writeShort(ZIP_VERSION)
+            writeShort(FLAG_DATA_DESCRIPTOR or FLAG_UTF8)
+            writeShort(METHOD_DEFLATED)
+            writeInt(entry.dosTime)
+            writeInt(entry.crc)
+            writeInt(entry.compressedSize)
+            writeInt(entry.size)
+            writeShort(entry.name.size)
+            writeShort(0)
+            writeShort(0)
+            writeShort(0)
+            writeShort(0)
+            writeInt(0)
+            writeInt(entry.offset)
+            output.write(entry.name)
+        }
+
+        val size = output.count - offset
+        check(output.count <= MAX_ZIP_VALUE) { "ParallelZipWriter archive is too large" }
+
+        writeInt(END_OF_CENTRAL_DIR_SIGNATURE.toLong())
+        writeShort(0)
+        writeShort(0)
+        writeShort(entries.size)
+        writeShort(entries.size)
+        writeInt(size)
+        writeInt(offset)
+        writeShort(0)
+    }
+
+    private fun writeShort(value: Int) {
+        output.write(value and 0xff)
+        output.write(value ushr 8 and 0xff)
+    }
+
+    private fun writeInt(value: Long) {
+        output.write((value and 0xff).toInt())
+        output.write((value ushr 8 and 0xff).toInt())
+        output.write((value ushr 16 and 0xff).toInt())
+        output.write((value ushr 24 and 0xff).toInt())
+    }
+
+    //Date and time packed into the MS-DOS format, in the local time zone
+    private fun toDosTime(time: Long): Long {
+        val calendar = Calendar.getInstance()
+        calendar.timeInMillis = time
+        val year = calendar.get(Calendar.YEAR)
+        if (year < 1980) {
+            return ((1 shl 21) or (1 shl 16)).toLong()
+        }
+        return ((year - 1980) shl 25
+                or ((calendar.get(Calendar.MONTH) + 1) shl 21)
+                or (calendar.get(Calendar.DAY_OF_MONTH) shl 16)
+                or (calendar.get(Calendar.HOUR_OF_DAY) shl 11)
+                or (calendar.get(Calendar.MINUTE) shl 5)
+                or (calendar.get(Calendar.SECOND) shr 1)).toLong() and MAX_ZIP_VALUE
+    }
+
+    private fun getChunkKey(data: ByteArray, last: Boolean): String {
+        val digest = MessageDigest.getInstance("SHA-256").digest(data)
+        val key = StringBuilder(digest.size * 2 + 2)
+        digest.forEach { key.append(String.format("%02x", it)) }
+        key.append(if (last) "_f" else "_n")
+        return key.toString()
+    }
+
+    private fun readCachedChunk(key: String): ByteArray? {
+        val file = File(chunksDir, key)
+        return try {
+            if (file.isFile) file.readBytes() else null
+        } catch (e: Exception) {
+            Log.w(LOG_TAG, "ParallelZipWriter readCachedChunk exception ${e.message} ${e.cause}")
+            null
+        }
+    }
+
+    private fun saveCachedChunk(key: String, data: ByteArray) {
+        val dir = chunksDir ?: return
+        val file = File(dir, key)
+        val tempFile = File(dir, "$key.${Thread.currentThread().id}.tmp")
+
+        try {
+            if (!dir.isDirectory && !dir.mkdirs()) {
+                return
+            }
+
+            tempFile.writeBytes(data)
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete()
+            }
+        } catch (e: Exception) {
+            tempFile.delete()
+            Log.w(LOG_TAG, "ParallelZipWriter saveCachedChunk exception ${e.message} ${e.cause}")
+        }
+    }
+
+    //The store keeps only chunks of the last backup, so it does not grow over time
+    private fun removeUnusedChunks() {
+        chunksDir?.listFiles()?.forEach {
+            if (!usedChunks.contains(it.name)) {
+                it.delete()
+            }
+        }
+    }
+
+    private fun removeEndSlash(path: String): String =
+        if (path.trim().endsWith("/")) path.substring(0, path.lastIndexOf("/")) else path
+
+    private class CountingOutputStream(outputStream: OutputStream) : FilterOutputStream(outputStream) {
+        var count = 0L
+            private set
+
+        override fun write(b: Int) {
+            out.write(b)
+            count++
+        }
+
+        override fun write(b: ByteArray, off: Int, len: Int) {
+            out.write(b, off, len)
+            count += len
+        }
+    }
+}
@@ -175,7 +175,7 @@ public class ZipFileManager {
     }
 
     @SuppressLint("SetWorldReadable")
-    private void checkAndRestoreAccess(Context context, String path) {
+    void checkAndRestoreAccess(Context context, String path) {
         File f = null;
 
         try {
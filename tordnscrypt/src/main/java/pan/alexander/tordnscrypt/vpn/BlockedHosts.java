@@ -0,0 +1,80 @@
+package pan.alexander.tordnscrypt.vpn;
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import android.os.SystemClock;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Hosts whose DNS answers are dropped by the VPN.
+ * Entries expire after the given time and the oldest ones are removed when the set is full,
+ * so the set does not grow while the VPN is running.
+ */
+public class BlockedHosts {
+
+    private final int maxSize;
+    private final long expirationTimeMs;
+
+    //Insertion order, so the eldest entry is the first to expire
+    private final LinkedHashMap<String, Long> hosts;
+
+    public BlockedHosts(int maxSize, long expirationTimeMs) {
+        this.maxSize = maxSize;
+        this.expirationTimeMs = expirationTimeMs;
+        this.hosts = new LinkedHashMap<String, Long>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > BlockedHosts.this.maxSize;
+            }
+        };
+    }
+
+    public synchronized void add(String host) {
+        long time = SystemClock.elapsedRealtime();
+        removeExpired(time);
+        //Re-insert to move the host to the end of the queue
+        hosts.remove(host);
+        hosts.put(host, time + expirationTimeMs);
+    }
+
+    public synchronized boolean contains(String host) {
+        Long expirationTime = hosts.get(host);
+        if (expirationTime == null) {
+            return false;
+        } else if (expirationTime <= SystemClock.elapsedRealtime()) {
+            hosts.remove(host);
+            return false;
+        }
+        return true;
+    }
+
+    public synchronized void clear() {
+        hosts.clear();
+    }
+
+    private void removeExpired(long time) {
+        Iterator<Long> iterator = hosts.values().iterator();
+        while (iterator.hasNext() && iterator.next() <= time) {
+            iterator.remove();
+        }
+    }
+}
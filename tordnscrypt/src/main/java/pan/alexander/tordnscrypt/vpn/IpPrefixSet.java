@@ -0,0 +1,291 @@
+package pan.alexander.tordnscrypt.vpn;
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of IPv4 prefixes to check addresses of DNS answers.
+ * Prefixes covered by shorter ones are dropped and sibling prefixes are merged into parents,
+ * the rest is kept in one hash table per prefix length,
+ * so a check takes at most 33 lookups whatever the size of the set.
+ */
+public class IpPrefixSet {
+
+    public static final IpPrefixSet EMPTY = new Builder().build();
+
+    private static final int MAX_PREFIX_LENGTH = 32;
+
+    private final int[] lengths;
+    private final IntHashSet[] tables;
+    private final int size;
+
+    private IpPrefixSet(int[] lengths, IntHashSet[] tables, int size) {
+        this.lengths = lengths;
+        this.tables = tables;
+        this.size = size;
+    }
+
+    public boolean contains(String address) {
+        if (size == 0 || address == null) {
+            return false;
+        }
+
+        long ip = parseAddress(address);
+        return ip >= 0 && contains((int) ip);
+    }
+
+    public boolean contains(int address) {
+        for (int length : lengths) {
+            if (tables[length].contains(address & mask(length))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private static int mask(int length) {
+        return length == 0 ? 0 : -1 << (MAX_PREFIX_LENGTH - length);
+    }
+
+    //Returns an unsigned address, or -1 if it is not a dotted IPv4 address
+    private static long parseAddress(String address) {
+        long result = 0;
+        int octet = -1;
+        int octets = 0;
+
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) {
+                    return -1;
+                }
+            } else if (c == '.' && octet >= 0 && octets < 3) {
+                result = result << 8 | octet;
+                octet = -1;
+                octets++;
+            } else {
+                return -1;
+            }
+        }
+
+        if (octet < 0 || octets != 3) {
+            return -1;
+        }
+
+        return result << 8 | octet;
+    }
+
+    public static class Builder {
+        //Unsigned network in the upper bits and the prefix length in the lower six bits
+        private long[] prefixes = new long[16];
+        private int count;
+
+        /**
+         * Adds a dnscrypt-proxy IP rule, such as 1.2.3.4, 1.2.3.* or 1.2.3.0/24.
+         *
+         * @return false if the rule is not an IPv4 rule and was skipped
+         */
+        public boolean add(String rule) {
+            if (rule == null) {
+                return false;
+            }
+
+            String address = rule.trim();
+            int explicitLength = -1;
+
+            int slash = address.indexOf('/');
+            if (slash >= 0) {
+                try {
+                    explicitLength = Integer.parseInt(address.substring(slash + 1));
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                if (explicitLength < 0 || explicitLength > MAX_PREFIX_LENGTH) {
+                    return false;
+                }
+                address = address.substring(0, slash);
+            }
+
+            String[] parts = address.split("\\.", -1);
+            if (parts.length < 1 || parts.length > 4) {
+                return false;
+            }
+
+            long network = 0;
+            int length = parts.length * 8;
+            for (int i = 0; i < 4; i++) {
+                int octet = 0;
+                if (i < parts.length && parts[i].equals("*")) {
+                    if (length > i * 8) {
+                        length = i * 8;
+                    }
+                } else if (i < parts.length) {
+                    if (length <= i * 8 || !parts[i].matches("\\d{1,3}")) {
+                        return false;
+                    }
+                    octet = Integer.parseInt(parts[i]);
+                    if (octet > 255) {
+                        return false;
+                    }
+                }
+                network = network << 8 | octet;
+            }
+
+            if (explicitLength >= 0 && explicitLength < length) {
+                length = explicitLength;
+            } else if (explicitLength < 0 && parts.length < 4 && length == parts.length * 8) {
+                //Shortened addresses without a wildcard or a prefix are not dnscrypt-proxy rules
+                return false;
+            }
+
+            add((int) network, length);
+            return true;
+        }
+
+        public void add(int network, int length) {
+            if (count == prefixes.length) {
+                prefixes = Arrays.copyOf(prefixes, count * 2);
+            }
+            long maskedNetwork = (network & mask(length)) & 0xFFFFFFFFL;
+            prefixes[count++] = maskedNetwork << 6 | length;
+        }
+
+        public IpPrefixSet build() {
+            long[] sorted = Arrays.copyOf(prefixes, count);
+            //By network, shorter prefixes first, so every prefix follows the prefixes covering it
+            Arrays.sort(sorted);
+
+            long[] merged = new long[count];
+            int mergedCount = 0;
+            long coveredEnd = 0;
+
+            for (long prefix : sorted) {
+                long network = prefix >>> 6;
+                int length = (int) (prefix & 0x3F);
+                if (network < coveredEnd) {
+                    continue;
+                }
+                coveredEnd = network + (1L << (MAX_PREFIX_LENGTH - length));
+
+                //Kept prefixes are disjoint and ascending, so siblings are always neighbours
+                while (mergedCount > 0 && length > 0) {
+                    long previous = merged[mergedCount - 1];
+                    long previousNetwork = previous >>> 6;
+                    int previousLength = (int) (previous & 0x3F);
+                    long blockSize = 1L << (MAX_PREFIX_LENGTH - length);
+                    if (previousLength != length || previousNetwork + blockSize != network
+                            || (previousNetwork & (blockSize * 2 - 1)) != 0) {
+                        break;
+                    }
+                    mergedCount--;
+                    network = previousNetwork;
+                    length--;
+                }
+                merged[mergedCount++] = network << 6 | length;
+            }
+
+            int[] lengthCounts = new int[MAX_PREFIX_LENGTH + 1];
+            for (int i = 0; i < mergedCount; i++) {
+                lengthCounts[(int) (merged[i] & 0x3F)]++;
+            }
+
+            IntHashSet[] tables = new IntHashSet[MAX_PREFIX_LENGTH + 1];
+            int usedLengths = 0;
+            for (int length = 0; length <= MAX_PREFIX_LENGTH; length++) {
+                if (lengthCounts[length] > 0) {
+                    tables[length] = new IntHashSet(lengthCounts[length]);
+                    usedLengths++;
+                }
+            }
+
+            //Shorter prefixes first, they are few but cover most of the addresses
+            int[] lengths = new int[usedLengths];
+            for (int length = 0, i = 0; length <= MAX_PREFIX_LENGTH; length++) {
+                if (tables[length] != null) {
+                    lengths[i++] = length;
+                }
+            }
+
+            for (int i = 0; i < mergedCount; i++) {
+                tables[(int) (merged[i] & 0x3F)].add((int) (merged[i] >>> 6));
+            }
+
+            return new IpPrefixSet(lengths, tables, mergedCount);
+        }
+    }
+
+    //Open addressing table of ints, zero is kept aside as the empty slot marker
+    private static class IntHashSet {
+        private final int[] slots;
+        private final int shift;
+        private boolean containsZero;
+
+        IntHashSet(int expectedSize) {
+            int capacity = Integer.highestOneBit(Math.max(expectedSize, 2) * 2 - 1) << 1;
+            slots = new int[capacity];
+            shift = Integer.numberOfLeadingZeros(capacity - 1);
+        }
+
+        void add(int value) {
+            if (value == 0) {
+                containsZero = true;
+                return;
+            }
+
+            int index = index(value);
+            while (slots[index] != 0) {
+                if (slots[index] == value) {
+                    return;
+                }
+                index = (index + 1) & (slots.length - 1);
+            }
+            slots[index] = value;
+        }
+
+        boolean contains(int value) {
+            if (value == 0) {
+                return containsZero;
+            }
+
+            int index = index(value);
+            int slot;
+            while ((slot = slots[index]) != 0) {
+                if (slot == value) {
+                    return true;
+                }
+                index = (index + 1) & (slots.length - 1);
+            }
+            return false;
+        }
+
+        private int index(int value) {
+            return (value * 0x9E3779B9) >>> shift;
+        }
+    }
+}
@@ -42,6 +42,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import pan.alexander.tordnscrypt.App;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.vpn.service.ServiceVPN;
 
 import static pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG;
@@ -279,7 +280,7 @@ public class NetworkUtils {
 
     public static void canFilterAsynchronous(ServiceVPN serviceVPN) {
 
-        App.getInstance().getDaggerComponent().getCachedExecutor().submit(() -> {
+        App.getInstance().getDaggerComponent().getCachedExecutor().submit(TaskScheduler.Pool.IO, () -> {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && serviceVPN != null) {
                 serviceVPN.canFilter = true;
                 return;
@@ -24,15 +24,14 @@ import android.content.pm.PackageInfo;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import pan.alexander.tordnscrypt.App;
 import pan.alexander.tordnscrypt.domain.preferences.PreferenceRepository;
-import pan.alexander.tordnscrypt.settings.tor_apps.ApplicationData;
-import pan.alexander.tordnscrypt.utils.apps.InstalledApplicationsManager;
+import pan.alexander.tordnscrypt.utils.apps.InstalledAppsUidIndex;
 
 import static pan.alexander.tordnscrypt.proxy.ProxyFragmentKt.CLEARNET_APPS_FOR_PROXY;
 import static pan.alexander.tordnscrypt.settings.tor_apps.UnlockTorAppsFragment.CLEARNET_APPS;
@@ -42,7 +41,7 @@ import static pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG;
 public class Rule {
     public int uid;
     public String packageName;
-    public String appName;
+    private String appName;
     public boolean apply = true;
 
     private static boolean isSystem(String packageName, Context context) {
@@ -57,56 +56,57 @@ public class Rule {
         return NetworkUtils.isEnabled(info, context);
     }
 
-    private Rule(ApplicationData info) {
-        this.uid = info.getUid();
-        this.packageName = info.getPack();
-        this.appName = info.toString();
+    private Rule(InstalledAppsUidIndex.AppUid app) {
+        this.uid = app.getUid();
+        this.packageName = app.getPackageName();
     }
 
-    public static List<Rule> getRules(Context context) {
-        synchronized (context.getApplicationContext()) {
-
-            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-            boolean routeAllThroughIniZible = prefs.getBoolean("pref_fast_all_through_tor", true);
-
-            String unlockAppsStr;
-            if (!routeAllThroughIniZible) {
-                unlockAppsStr = UNLOCK_APPS;
-            } else {
-                unlockAppsStr = CLEARNET_APPS;
-            }
+    //Label is only needed for the connection log, so load it on demand
+    public String getAppName() {
+        if (appName == null) {
+            appName = App.getInstance().getDaggerComponent().getInstalledAppsUidIndex().get().getLabel(uid);
+        }
+        return appName;
+    }
 
-            final PreferenceRepository preferences = App.getInstance().getDaggerComponent().getPreferenceRepository().get();
+    public static List<Rule> getRules(Context context, InstalledAppsUidIndex appsUidIndex) {
 
-            Set<String> setUnlockApps = preferences.getStringSetPreference(unlockAppsStr);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        boolean routeAllThroughIniZible = prefs.getBoolean("pref_fast_all_through_tor", true);
 
-            Set<String> setBypassProxy = preferences.getStringSetPreference(CLEARNET_APPS_FOR_PROXY);
+        String unlockAppsStr;
+        if (!routeAllThroughIniZible) {
+            unlockAppsStr = UNLOCK_APPS;
+        } else {
+            unlockAppsStr = CLEARNET_APPS;
+        }
 
-            // Build rule list
-            List<Rule> listRules = new CopyOnWriteArrayList<>();
+        final PreferenceRepository preferences = App.getInstance().getDaggerComponent().getPreferenceRepository().get();
 
-            InstalledApplicationsManager installedApplicationsManager = new InstalledApplicationsManager(context, Collections.emptySet());
-            List<ApplicationData> installedApps = installedApplicationsManager.getInstalledApps(false);
+        Set<String> setUnlockApps = preferences.getStringSetPreferenceView(unlockAppsStr);
 
+        Set<String> setBypassProxy = preferences.getStringSetPreferenceView(CLEARNET_APPS_FOR_PROXY);
 
-            for (ApplicationData info : installedApps)
-                try {
+        // Build rule list
+        List<Rule> listRules = new ArrayList<>();
 
-                    Rule rule = new Rule(info);
+        for (InstalledAppsUidIndex.AppUid app : appsUidIndex.getApps())
+            try {
 
-                    String UID = String.valueOf(info.getUid());
-                    if (routeAllThroughIniZible) {
-                        rule.apply = !setUnlockApps.contains(UID) && !setBypassProxy.contains(UID);
-                    } else {
-                        rule.apply = setUnlockApps.contains(UID) && !setBypassProxy.contains(UID);
-                    }
+                Rule rule = new Rule(app);
 
-                    listRules.add(rule);
-                } catch (Throwable ex) {
-                    Log.e(LOG_TAG, ex.toString() + "\n" + Log.getStackTraceString(ex));
+                String UID = String.valueOf(app.getUid());
+                if (routeAllThroughIniZible) {
+                    rule.apply = !setUnlockApps.contains(UID) && !setBypassProxy.contains(UID);
+                } else {
+                    rule.apply = setUnlockApps.contains(UID) && !setBypassProxy.contains(UID);
                 }
 
-            return listRules;
-        }
+                listRules.add(rule);
+            } catch (Throwable ex) {
+                Log.e(LOG_TAG, ex.toString() + "\n" + Log.getStackTraceString(ex));
+            }
+
+        return new CopyOnWriteArrayList<>(listRules);
     }
 }
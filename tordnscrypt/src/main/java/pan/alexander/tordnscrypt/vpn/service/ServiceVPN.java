@@ -50,6 +50,9 @@ import android.widget.Toast;
 import androidx.annotation.Keep;
 import androidx.annotation.NonNull;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -84,11 +87,13 @@ import pan.alexander.tordnscrypt.modules.ModulesStatus;
 import pan.alexander.tordnscrypt.modules.ModulesServiceNotificationManager;
 import pan.alexander.tordnscrypt.modules.UsageStatisticKt;
 import pan.alexander.tordnscrypt.settings.PathVars;
-import pan.alexander.tordnscrypt.settings.firewall.FirewallFragmentKt;
+import pan.alexander.tordnscrypt.settings.firewall.FirewallPolicyStore;
 import pan.alexander.tordnscrypt.settings.firewall.FirewallNotification;
 import pan.alexander.tordnscrypt.settings.tor_apps.ApplicationData;
+import pan.alexander.tordnscrypt.utils.apps.InstalledAppsUidIndex;
 import pan.alexander.tordnscrypt.utils.executors.CachedExecutor;
 import pan.alexander.tordnscrypt.utils.Constants;
+import pan.alexander.tordnscrypt.utils.executors.TaskScheduler;
 import pan.alexander.tordnscrypt.utils.preferences.PreferenceKeys;
 import pan.alexander.tordnscrypt.utils.Utils;
 import pan.alexander.tordnscrypt.utils.enums.ModuleState;
@@ -96,7 +101,9 @@ import pan.alexander.tordnscrypt.utils.enums.VPNCommand;
 import pan.alexander.tordnscrypt.utils.privatedns.PrivateDnsProxyManager;
 import pan.alexander.tordnscrypt.vpn.Allowed;
 import pan.alexander.tordnscrypt.vpn.Forward;
+import pan.alexander.tordnscrypt.vpn.BlockedHosts;
 import pan.alexander.tordnscrypt.vpn.IPUtil;
+import pan.alexander.tordnscrypt.vpn.IpPrefixSet;
 import pan.alexander.tordnscrypt.vpn.Packet;
 import pan.alexander.tordnscrypt.vpn.ResourceRecord;
 import pan.alexander.tordnscrypt.vpn.Rule;
@@ -108,6 +115,7 @@ import static java.net.IDN.toUnicode;
 import static pan.alexander.tordnscrypt.di.SharedPreferencesModule.DEFAULT_PREFERENCES_NAME;
 import static pan.alexander.tordnscrypt.modules.ModulesService.DEFAULT_NOTIFICATION_ID;
 import static pan.alexander.tordnscrypt.modules.ModulesServiceActions.actionStopServiceForeground;
+import static pan.alexander.tordnscrypt.settings.firewall.FirewallPolicyStoreKt.FIREWALL_ALLOW_LAN;
 import static pan.alexander.tordnscrypt.proxy.ProxyFragmentKt.CLEARNET_APPS_FOR_PROXY;
 import static pan.alexander.tordnscrypt.utils.Constants.DNS_OVER_TLS_PORT;
 import static pan.alexander.tordnscrypt.utils.Constants.G_DNG_41;
@@ -149,6 +157,8 @@ public class ServiceVPN extends VpnService implements OnInternetConnectionChecke
     private boolean ignoreSystemDNS = false;
 
     final static int LINES_IN_DNS_QUERY_RAW_RECORDS = 500;
+    private final static int BLOCKED_HOSTS_MAX_SIZE = 1000;
+    private final static long BLOCKED_HOSTS_EXPIRATION_MS = 60 * 60 * 1000;
 
     static final String EXTRA_COMMAND = "Command";
     static final String EXTRA_REASON = "Reason";
@@ -167,6 +177,10 @@ public class ServiceVPN extends VpnService implements OnInternetConnectionChecke
     public Lazy<Handler> handler;
     @Inject
     public Lazy<CachedExecutor> cachedExecutor;
+    @Inject
+    public Lazy<InstalledAppsUidIndex> installedAppsUidIndex;
+    @Inject
+    public Lazy<FirewallPolicyStore> firewallPolicyStore;
 
     NotificationManager notificationManager;
     private static final Object jni_lock = new Object();
@@ -192,6 +206,7 @@ public class ServiceVPN extends VpnService implements OnInternetConnectionChecke
     private volatile ServiceVPNHandler commandHandler;
 
     private Thread tunnelThread = null;
+    private String tunnelSettings = "";
 
     private ModulesStatus modulesStatus;
 
@@ -208,12 +223,22 @@ public class ServiceVPN extends VpnService implements OnInternetConnectionChecke
     private boolean arpSpoofingDetection;
     private boolean blockInternetWhenArpAttackDetected;
     private boolean dnsRebindProtection;
-    private final Set<String> dnsRebindHosts = new HashSet<>();
+    private static final IpPrefixSet dnsRebindRanges = buildIpPrefixSet(NetworkUtils.dnsRebindList);
+    private volatile IpPrefixSet ipBlacklist = IpPrefixSet.EMPTY;
+    private long ipBlacklistLastModified;
+    private long ipBlacklistLength;
+    private final Object ipBlacklistLock = new Object();
+    private final BlockedHosts blockedHosts = new BlockedHosts(BLOCKED_HOSTS_MAX_SIZE, BLOCKED_HOSTS_EXPIRATION_MS);
     private boolean lan = false;
     private boolean firewallEnabled;
     public static volatile ConcurrentSkipListSet<String> vpnDnsSet;
 
+    //Firewall policy flag of the current network used for mapUidAllowed, 0 if all rules are allowed
+    volatile int firewallNetworkFlag = 0;
+
     private boolean useProxy = false;
+    private String proxyAddress = "";
+    private int proxyPort = 0;
     private Set<String> setBypassProxy;
     private boolean fixTTL;
     private FirewallNotification firewallNotificationReceiver;
@@ -246,6 +271,9 @@ public class ServiceVPN extends VpnService implements OnInternetConnectionChecke
     @Keep
     private native void jni_clear(long context);
 
+    @Keep
+    private native void jni_reload(long context);
+
     @Keep
     private native int jni_get_mtu();
 
@@ -533,82 +561,36 @@ public class ServiceVPN extends VpnService implements OnInternetConnectionChecke
 
     void startNative(final ParcelFileDescriptor vpn, List<String> listAllowed, List<Rule> listRule) {
 
-        torVirtualAddressNetwork = pathVars.get().getTorVirtAdrNet();
-
         SharedPreferences prefs = defaultPreferences.get();
 
-        blockHttp = prefs.getBoolean("pref_fast_block_http", false);
-        routeAllThroughTor = prefs.getBoolean("pref_fast_all_through_tor", true);
-        torTethering = prefs.getBoolean("pref_common_tor_tethering", false);
-        blockIPv6 = prefs.getBoolean("block_ipv6", true);
-        arpSpoofingDetection = prefs.getBoolean("pref_common_arp_spoofing_detection", false);
-        dnsRebindProtection = prefs.getBoolean("pref_common_dns_rebind_protection", false);
-        blockInternetWhenArpAttackDetected = prefs.getBoolean("pref_common_arp_block_internet", false);
-        firewallEnabled = preferenceRepository.get().getBoolPreference("FirewallEnabled");
-        ignoreSystemDNS = prefs.getBoolean(IGNORE_SYSTEM_DNS, false);
-
-        if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.LOLLIPOP) {
-            compatibilityMode = true;
-        } else {
-            compatibilityMode = prefs.getBoolean("swCompatibilityMode", false);
-        }
-
-        useProxy = prefs.getBoolean("swUseProxy", false);
-        String proxyAddress = prefs.getString("ProxyServer", "");
-        if (proxyAddress == null) {
-            proxyAddress = "";
-        }
-        String proxyPortStr = prefs.getString("ProxyPort", "");
-        int proxyPort = 0;
-        if (proxyPortStr != null && proxyPortStr.matches("\\d+")) {
-            proxyPort = Integer.parseInt(proxyPortStr);
-        }
-        setBypassProxy = preferenceRepository.get().getStringSetPreference(CLEARNET_APPS_FOR_PROXY);
-
         // Prepare rules
-        prepareUidAllowed(listAllowed, listRule);
-        prepareForwarding();
-
-        int prio = 5;
-        String prioStr = prefs.getString("loglevel", Integer.toString(Log.ERROR));
-        if (prioStr != null) {
-            prio = Integer.parseInt(prioStr);
-        }
-
-        int rcode = 3;
-        String rcodeStr = prefs.getString("rcode", "3");
-        if (rcodeStr != null) {
-            rcode = Integer.parseInt(rcodeStr);
-        }
-        int finalRcode = rcode;
-
-        int torSOCKSPort = 9050;
-
+        lock.writeLock().lock();
         try {
-            torSOCKSPort = Integer.parseInt(pathVars.get().getTorSOCKSPort());
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "VPN SOCKS Parse Exception " + e.getMessage() + " " + e.getCause());
+            readRulesPreferences(prefs);
+            prepareUidAllowed(listAllowed, listRule);
+            prepareForwarding();
+        } finally {
+            lock.writeLock().unlock();
         }
 
-        fixTTL = modulesStatus.isFixTTL() && (modulesStatus.getMode() == ROOT_MODE)
-                && !modulesStatus.isUseModulesWithRoot();
+        int prio = getNativeLogLevel(prefs);
+        int finalRcode = getDnsResponseCode(prefs);
 
-        if ((modulesStatus.getTorState() == RUNNING
-                || modulesStatus.getTorState() == STARTING
-                || modulesStatus.getTorState() == RESTARTING)
-                && !fixTTL) {
+        int torSOCKSPort = getTorSocksPort();
+        if (torSOCKSPort > 0) {
             jni_socks5_for_tor(LOOPBACK_ADDRESS, torSOCKSPort, "", "");
         } else {
             jni_socks5_for_tor("", 0, "", "");
         }
 
-        if (useProxy && !proxyAddress.isEmpty() && proxyPort != 0) {
+        if (useProxy) {
             jni_socks5_for_proxy(proxyAddress, proxyPort, "", "");
         } else {
             jni_socks5_for_proxy("", 0, "", "");
-            useProxy = false;
         }
 
+        tunnelSettings = getTunnelSettings(prefs);
+
         if (tunnelThread == null) {
             Log.i(LOG_TAG, "VPN Starting tunnel thread context=" + jni_context);
             jni_start(jni_context, prio);
@@ -637,6 +619,209 @@ public class ServiceVPN extends VpnService implements OnInternetConnectionChecke
         }
     }
 
+    /**
+     * Publishes new rules to the running tunnel without stopping it.
+     * Sessions that are still allowed survive, the rest are terminated by the native check_allowed.
+     * @return false if the tunnel is not running or settings passed to jni_run were changed,
+     * in which case the tunnel must be restarted
+     */
+    boolean updateNative(List<String> listAllowed, List<Rule> listRule) {
+        if (tunnelThread == null) {
+            return false;
+        }
+
+        SharedPreferences prefs = defaultPreferences.get();
+
+        if (!getTunnelSettings(prefs).equals(tunnelSettings)) {
+            Log.i(LOG_TAG, "VPN Tunnel settings changed, restart is required");
+            return false;
+        }
+
+        lock.writeLock().lock();
+        try {
+            readRulesPreferences(prefs);
+            prepareUidAllowed(listAllowed, listRule);
+            prepareForwarding();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        Log.i(LOG_TAG, "VPN Update rules context=" + jni_context);
+        jni_reload(jni_context);
+
+        return true;
+    }
+
+    private void readRulesPreferences(SharedPreferences prefs) {
+        torVirtualAddressNetwork = pathVars.get().getTorVirtAdrNet();
+
+        blockHttp = prefs.getBoolean("pref_fast_block_http", false);
+        routeAllThroughTor = prefs.getBoolean("pref_fast_all_through_tor", true);
+        torTethering = prefs.getBoolean("pref_common_tor_tethering", false);
+        blockIPv6 = prefs.getBoolean("block_ipv6", true);
+        arpSpoofingDetection = prefs.getBoolean("pref_common_arp_spoofing_detection", false);
+        dnsRebindProtection = prefs.getBoolean("pref_common_dns_rebind_protection", false);
+        blockInternetWhenArpAttackDetected = prefs.getBoolean("pref_common_arp_block_internet", false);
+        firewallEnabled = preferenceRepository.get().getBoolPreference("FirewallEnabled");
+        ignoreSystemDNS = prefs.getBoolean(IGNORE_SYSTEM_DNS, false);
+
+        compatibilityMode = isCompatibilityMode(prefs);
+
+        proxyAddress = prefs.getString("ProxyServer", "");
+        if (proxyAddress == null) {
+            proxyAddress = "";
+        }
+        String proxyPortStr = prefs.getString("ProxyPort", "");
+        proxyPort = 0;
+        if (proxyPortStr != null && proxyPortStr.matches("\\d+")) {
+            proxyPort = Integer.parseInt(proxyPortStr);
+        }
+        useProxy = prefs.getBoolean("swUseProxy", false)
+                && !proxyAddress.isEmpty() && proxyPort != 0;
+        setBypassProxy = preferenceRepository.get().getStringSetPreferenceView(CLEARNET_APPS_FOR_PROXY);
+
+        fixTTL = modulesStatus.isFixTTL() && (modulesStatus.getMode() == ROOT_MODE)
+                && !modulesStatus.isUseModulesWithRoot();
+
+        updateIpBlacklist();
+
+        //Hosts are detected again from the next answers with the current rules
+        blockedHosts.clear();
+    }
+
+    //DNSCrypt applies the IP blacklist itself, here it is applied to the answers when DNS goes through Tor or system DNS.
+    //The file is parsed in background only when it changes, the previous list is used until the new one is ready.
+    private void updateIpBlacklist() {
+        File file = new File(pathVars.get().getDNSCryptIPBlackListPath());
+
+        if (modulesStatus.getDnsCryptState() == RUNNING || !file.isFile()) {
+            synchronized (ipBlacklistLock) {
+                ipBlacklist = IpPrefixSet.EMPTY;
+                ipBlacklistLastModified = 0;
+                ipBlacklistLength = 0;
+            }
+            return;
+        }
+
+        long lastModified = file.lastModified();
+        long length = file.length();
+        synchronized (ipBlacklistLock) {
+            if (lastModified == ipBlacklistLastModified && length == ipBlacklistLength) {
+                return;
+            }
+            ipBlacklistLastModified = lastModified;
+            ipBlacklistLength = length;
+        }
+
+        cachedExecutor.get().submit(TaskScheduler.Pool.IO, () -> loadIpBlacklist(file, lastModified, length));
+    }
+
+    private void loadIpBlacklist(File file, long lastModified, long length) {
+        long time = System.currentTimeMillis();
+
+        IpPrefixSet.Builder builder = new IpPrefixSet.Builder();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    builder.add(line.split("[ \\t#]", 2)[0]);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "ServiceVPN loadIpBlacklist exception " + e.getMessage() + " " + e.getCause());
+            synchronized (ipBlacklistLock) {
+                if (lastModified == ipBlacklistLastModified && length == ipBlacklistLength) {
+                    ipBlacklistLastModified = 0;
+                    ipBlacklistLength = 0;
+                }
+            }
+            return;
+        }
+
+        IpPrefixSet blacklist = builder.build();
+        synchronized (ipBlacklistLock) {
+            //The list was reset or changed again while it was parsed
+            if (lastModified != ipBlacklistLastModified || length != ipBlacklistLength) {
+                return;
+            }
+            ipBlacklist = blacklist;
+        }
+
+        Log.i(LOG_TAG, "ServiceVPN IP blacklist loaded " + blacklist.size() + " prefixes in "
+                + (System.currentTimeMillis() - time) + " ms");
+    }
+
+    private static IpPrefixSet buildIpPrefixSet(List<String> rules) {
+        IpPrefixSet.Builder builder = new IpPrefixSet.Builder();
+        for (String rule : rules) {
+            builder.add(rule);
+        }
+        return builder.build();
+    }
+
+    //Everything that is passed to the native code only when the tunnel starts
+    private String getTunnelSettings(SharedPreferences prefs) {
+        String proxy = "";
+        if (prefs.getBoolean("swUseProxy", false)) {
+            proxy = prefs.getString("ProxyServer", "") + ":" + prefs.getString("ProxyPort", "");
+        }
+
+        return getTorSocksPort() + " " + proxy
+                + " " + getNativeLogLevel(prefs)
+                + " " + getDnsResponseCode(prefs)
+                + " " + isCompatibilityMode(prefs);
+    }
+
+    private boolean isCompatibilityMode(SharedPreferences prefs) {
+        if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.LOLLIPOP) {
+            return true;
+        } else {
+            return prefs.getBoolean("swCompatibilityMode", false);
+        }
+    }
+
+    private int getNativeLogLevel(SharedPreferences prefs) {
+        int prio = 5;
+        String prioStr = prefs.getString("loglevel", Integer.toString(Log.ERROR));
+        if (prioStr != null) {
+            prio = Integer.parseInt(prioStr);
+        }
+        return prio;
+    }
+
+    private int getDnsResponseCode(SharedPreferences prefs) {
+        int rcode = 3;
+        String rcodeStr = prefs.getString("rcode", "3");
+        if (rcodeStr != null) {
+            rcode = Integer.parseInt(rcodeStr);
+        }
+        return rcode;
+    }
+
+    //Returns 0 if Tor SOCKS should not be used by the tunnel
+    private int getTorSocksPort() {
+        boolean fixTTLEnabled = modulesStatus.isFixTTL() && (modulesStatus.getMode() == ROOT_MODE)
+                && !modulesStatus.isUseModulesWithRoot();
+
+        if ((modulesStatus.getTorState() != RUNNING
+                && modulesStatus.getTorState() != STARTING
+                && modulesStatus.getTorState() != RESTARTING)
+                || fixTTLEnabled) {
+            return 0;
+        }
+
+        int torSOCKSPort = 9050;
+
+        try {
+            torSOCKSPort = Integer.parseInt(pathVars.get().getTorSOCKSPort());
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "VPN SOCKS Parse Exception " + e.getMessage() + " " + e.getCause());
+        }
+
+        return torSOCKSPort;
+    }
+
     void stopNative() {
         Log.i(LOG_TAG, "VPN Stop native");
 
@@ -698,17 +883,17 @@ public class ServiceVPN extends VpnService implements OnInternetConnectionChecke
         }
 
         uidLanAllowed.clear();
-        for (String uid : preferences.getStringSetPreference(FirewallFragmentKt.APPS_ALLOW_LAN_PREF)) {
-            if (uid != null && uid.matches("\\d+")) {
-                uidLanAllowed.add(Integer.valueOf(uid));
+        for (int uid : firewallPolicyStore.get().getPolicy().getUids(FIREWALL_ALLOW_LAN)) {
+            if (uid >= 0) {
+                uidLanAllowed.add(uid);
             }
         }
 
         ipsForTor.clear();
         if (routeAllThroughTor) {
-            ipsForTor.addAll(preferences.getStringSetPreference(IPS_FOR_CLEARNET));
+            ipsForTor.addAll(preferences.getStringSetPreferenceView(IPS_FOR_CLEARNET));
         } else {
-            ipsForTor.addAll(preferences.getStringSetPreference(IPS_TO_UNLOCK));
+            ipsForTor.addAll(preferences.getStringSetPreferenceView(IPS_TO_UNLOCK));
         }
 
         lock.writeLock().unlock();
@@ -834,22 +1019,27 @@ public class ServiceVPN extends VpnService implements OnInternetConnectionChecke
             String qname = rr.QName;
             String destAddress = rr.Resource;
 
-            if (dnsRebindProtection && qname != null && destAddress != null) {
+            //Names added here are blocked by isDomainBlocked, which native code calls after all answers
+            if (qname != null && destAddress != null) {
                 qname = qname.trim();
                 destAddress = destAddress.trim();
 
                 if (!qname.isEmpty() && !destAddress.isEmpty()
                         && !qname.endsWith(".onion")
                         && !qname.endsWith(".i2p")
-                        && !dnsRebindHosts.contains(qname)) {
-                    if (isIpInDNSRebindRange(destAddress)) {
-                        dnsRebindHosts.add(qname);
+                        && !blockedHosts.contains(qname)) {
+                    if (ipBlacklist.contains(destAddress)) {
+                        blockedHosts.add(qname);
+                        Log.i(LOG_TAG, "ServiseVPN DNS answer is in the IP blacklist " + rr.toString());
+                    } else if (dnsRebindProtection && dnsRebindRanges.contains(destAddress)) {
+                        blockedHosts.add(qname);
                         DNSRebindProtection.INSTANCE.sendNotification(this, qname);
                         Log.w(LOG_TAG, "ServiseVPN DNS rebind attack detected " + rr.toString());
-                    } else if ((destAddress.equals(META_ADDRESS) || destAddress.equals(LOOPBACK_ADDRESS))
+                    } else if (dnsRebindProtection
+                            && (destAddress.equals(META_ADDRESS) || destAddress.equals(LOOPBACK_ADDRESS))
                             && rr.Rcode == 0 && !rr.HInfo.contains("dnscrypt")) {
                         Log.w(LOG_TAG, "ServiseVPN DNS rebind attack detected " + rr.toString());
-                        dnsRebindHosts.add(qname);
+                        blockedHosts.add(qname);
                     }
                 }
             }
@@ -874,7 +1064,7 @@ public class ServiceVPN extends VpnService implements OnInternetConnectionChecke
         }
 
         try {
-            if (dnsRebindProtection && dnsRebindHosts.contains(name)) {
+            if (blockedHosts.contains(name)) {
                 return true;
             }
         } catch (Exception e) {
@@ -970,15 +1160,6 @@ public class ServiceVPN extends VpnService implements OnInternetConnectionChecke
         return false;
     }
 
-    private boolean isIpInDNSRebindRange(String destAddress) {
-        for (String address : NetworkUtils.dnsRebindList) {
-            if (NetworkUtils.isIpInSubnet(destAddress, address)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     private boolean isDestinationInSpecialRange(int uid, int destPort) {
         return uid == 0 && destPort == PLAINTEXT_DNS_PORT
                 || uid == ApplicationData.SPECIAL_UID_KERNEL
@@ -1235,15 +1416,55 @@ public class ServiceVPN extends VpnService implements OnInternetConnectionChecke
         }
     };
 
+    //Apply changed firewall permissions at once, the following reload rebuilds everything anyway
+    private final FirewallPolicyStore.OnPolicyChangedListener firewallPolicyListener = (policy, delta) -> {
+        lock.writeLock().lock();
+        try {
+            int networkFlag = firewallNetworkFlag;
+            for (Map.Entry<Integer, Integer> change : delta.getChanges().entrySet()) {
+                int uid = change.getKey();
+                int mask = change.getValue();
+
+                if (uid >= 0 && (mask & FIREWALL_ALLOW_LAN) != 0) {
+                    uidLanAllowed.add(uid);
+                } else {
+                    uidLanAllowed.remove(uid);
+                }
+
+                if (networkFlag == 0) {
+                    continue;
+                }
+
+                boolean allowed = (mask & networkFlag) != 0;
+                if (uid >= 0) {
+                    if (allowed) {
+                        mapUidAllowed.put(uid, true);
+                    } else {
+                        mapUidAllowed.remove(uid);
+                    }
+                } else if (allowed) {
+                    uidSpecialAllowed.add(uid);
+                } else {
+                    uidSpecialAllowed.remove(uid);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    };
+
     private final BroadcastReceiver packageChangedReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
             Log.i(LOG_TAG, "VPN Received " + intent);
 
             try {
+                int uid = intent.getIntExtra(Intent.EXTRA_UID, -1);
                 if (Intent.ACTION_PACKAGE_ADDED.equals(intent.getAction())) {
+                    installedAppsUidIndex.get().packageAdded(uid);
                     reload("VPN Package added", context);
                 } else if (Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction())) {
+                    installedAppsUidIndex.get().packageRemoved(uid);
                     reload("VPN Package deleted", context);
                 }
             } catch (Throwable ex) {
@@ -1439,6 +1660,8 @@ public class ServiceVPN extends VpnService implements OnInternetConnectionChecke
 
         firewallNotificationReceiver = FirewallNotification.Companion.registerFirewallReceiver(this);
 
+        firewallPolicyStore.get().addOnPolicyChangedListener(firewallPolicyListener);
+
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             try {
                 listenNetworkChanges();
@@ -1582,6 +1805,8 @@ public class ServiceVPN extends VpnService implements OnInternetConnectionChecke
             FirewallNotification.Companion.unregisterFirewallReceiver(this, firewallNotificationReceiver);
         }
 
+        firewallPolicyStore.get().removeOnPolicyChangedListener(firewallPolicyListener);
+
         if (networkCallback != null) {
             unlistenNetworkChanges();
             networkCallback = null;
@@ -1690,7 +1915,7 @@ public class ServiceVPN extends VpnService implements OnInternetConnectionChecke
     }
 
     public void clearDnsQueryRawRecords() {
-        cachedExecutor.get().submit(() -> {
+        cachedExecutor.get().submit(TaskScheduler.Pool.IO, () -> {
             try {
                 rrLock.writeLock().lockInterruptibly();
 
@@ -49,14 +49,18 @@ import pan.alexander.tordnscrypt.iptables.ModulesIptablesRules;
 import pan.alexander.tordnscrypt.modules.ModulesAux;
 import pan.alexander.tordnscrypt.modules.ModulesStatus;
 import pan.alexander.tordnscrypt.settings.PathVars;
-import pan.alexander.tordnscrypt.settings.firewall.FirewallFragmentKt;
+import pan.alexander.tordnscrypt.settings.firewall.FirewallPolicyStore;
 import pan.alexander.tordnscrypt.utils.enums.ModuleState;
 import pan.alexander.tordnscrypt.utils.enums.VPNCommand;
+import pan.alexander.tordnscrypt.utils.apps.InstalledAppsUidIndex;
 import pan.alexander.tordnscrypt.vpn.Rule;
 import pan.alexander.tordnscrypt.vpn.NetworkUtils;
 
 import static android.content.Context.CONNECTIVITY_SERVICE;
 import static pan.alexander.tordnscrypt.modules.ModulesService.DEFAULT_NOTIFICATION_ID;
+import static pan.alexander.tordnscrypt.settings.firewall.FirewallPolicyStoreKt.FIREWALL_ALLOW_GSM;
+import static pan.alexander.tordnscrypt.settings.firewall.FirewallPolicyStoreKt.FIREWALL_ALLOW_ROAMING;
+import static pan.alexander.tordnscrypt.settings.firewall.FirewallPolicyStoreKt.FIREWALL_ALLOW_WIFI;
 import static pan.alexander.tordnscrypt.utils.preferences.PreferenceKeys.VPN_SERVICE_ENABLED;
 import static pan.alexander.tordnscrypt.utils.root.RootExecService.LOG_TAG;
 import static pan.alexander.tordnscrypt.utils.enums.ModuleState.STOPPED;
@@ -73,6 +77,10 @@ public class ServiceVPNHandler extends Handler {
     public Lazy<PreferenceRepository> preferenceRepositoryLazy;
     @Inject
     public Lazy<PathVars> pathVars;
+    @Inject
+    public Lazy<InstalledAppsUidIndex> installedAppsUidIndex;
+    @Inject
+    public Lazy<FirewallPolicyStore> firewallPolicyStore;
 
     private static ServiceVPNHandler serviceVPNHandler;
     private static List<Rule> listRule;
@@ -152,9 +160,6 @@ public class ServiceVPNHandler extends Handler {
                     !serviceVPNHandler.hasMessages(VPNCommand.RELOAD.ordinal()) &&
                     !prefs.getBoolean(VPN_SERVICE_ENABLED, false))
                 stopServiceVPN();
-
-            // Request garbage collection
-            System.gc();
         } catch (Throwable ex) {
             Log.e(LOG_TAG, ex.toString() + "\n" + Log.getStackTraceString(ex));
 
@@ -189,7 +194,10 @@ public class ServiceVPNHandler extends Handler {
 
         if (serviceVPN.vpn == null) {
 
-            listRule = Rule.getRules(serviceVPN);
+            //Packages could be changed while VPN was not running
+            installedAppsUidIndex.get().invalidate();
+
+            listRule = Rule.getRules(serviceVPN, installedAppsUidIndex.get());
             List<String> listAllowed = getAllowedRules(listRule);
 
             last_builder = serviceVPN.getBuilder(listAllowed, listRule);
@@ -209,8 +217,6 @@ public class ServiceVPNHandler extends Handler {
             return;
         }
 
-        serviceVPN.reloading = true;
-
         ModulesStatus modulesStatus = ModulesStatus.getInstance();
         boolean fixTTL = modulesStatus.isFixTTL() && (modulesStatus.getMode() == ROOT_MODE)
                 && !modulesStatus.isUseModulesWithRoot();
@@ -220,12 +226,15 @@ public class ServiceVPNHandler extends Handler {
             oldVpnInterfaceName = ModulesIptablesRules.blockTethering(serviceVPN, pathVars.get());
         }
 
-        listRule = Rule.getRules(serviceVPN);
+        listRule = Rule.getRules(serviceVPN, installedAppsUidIndex.get());
         List<String> listAllowed = getAllowedRules(listRule);
 
         ServiceVPN.Builder builder = serviceVPN.getBuilder(listAllowed, listRule);
 
+        boolean rulesUpdated = false;
+
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP_MR1) {
+            serviceVPN.reloading = true;
             last_builder = builder;
             Log.i(LOG_TAG, "VPN Handler Legacy restart");
 
@@ -242,10 +251,17 @@ public class ServiceVPNHandler extends Handler {
 
         } else {
             if (serviceVPN.vpn != null && builder.equals(last_builder)) {
-                Log.i(LOG_TAG, "VPN Handler Native restart");
-                serviceVPN.stopNative();
+                if (serviceVPN.updateNative(listAllowed, listRule)) {
+                    Log.i(LOG_TAG, "VPN Handler Rules updated");
+                    rulesUpdated = true;
+                } else {
+                    Log.i(LOG_TAG, "VPN Handler Native restart");
+                    serviceVPN.reloading = true;
+                    serviceVPN.stopNative();
+                }
 
             } else {
+                serviceVPN.reloading = true;
                 last_builder = builder;
 
                 SharedPreferences prefs = serviceVPN.defaultPreferences.get();
@@ -289,7 +305,9 @@ public class ServiceVPNHandler extends Handler {
         if (serviceVPN.vpn == null)
             throw new StartFailedException("VPN Handler Start VPN Service Failed");
 
-        serviceVPN.startNative(serviceVPN.vpn, listAllowed, listRule);
+        if (!rulesUpdated) {
+            serviceVPN.startNative(serviceVPN.vpn, listAllowed, listRule);
+        }
 
         if (fixTTL) {
             String finalOldVpnInterfaceName = oldVpnInterfaceName;
@@ -338,17 +356,25 @@ public class ServiceVPNHandler extends Handler {
 
             PreferenceRepository preferences = preferenceRepositoryLazy.get();
 
+            int networkFlag = 0;
             if (!preferences.getBoolPreference("FirewallEnabled")) {
                 for (Rule rule : listRule) {
                     listAllowed.add(String.valueOf(rule.uid));
                 }
             } else if (NetworkUtils.isWifiActive(serviceVPN) || NetworkUtils.isEthernetActive(serviceVPN)) {
-                listAllowed.addAll(preferences.getStringSetPreference(FirewallFragmentKt.APPS_ALLOW_WIFI_PREF));
+                networkFlag = FIREWALL_ALLOW_WIFI;
             } else if (NetworkUtils.isCellularActive(serviceVPN)) {
-                listAllowed.addAll(preferences.getStringSetPreference(FirewallFragmentKt.APPS_ALLOW_GSM_PREF));
+                networkFlag = FIREWALL_ALLOW_GSM;
             } else if (NetworkUtils.isRoaming(serviceVPN)) {
-                listAllowed.addAll(preferences.getStringSetPreference(FirewallFragmentKt.APPS_ALLOW_ROAMING));
+                networkFlag = FIREWALL_ALLOW_ROAMING;
+            }
+
+            if (networkFlag != 0) {
+                for (int uid : firewallPolicyStore.get().getPolicy().getUids(networkFlag)) {
+                    listAllowed.add(String.valueOf(uid));
+                }
             }
+            serviceVPN.firewallNetworkFlag = networkFlag;
         //}
 
         Log.i(LOG_TAG, "VPN Handler Allowed " + listAllowed.size() + " of " + listRule.size());
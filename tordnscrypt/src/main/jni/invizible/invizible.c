@@ -159,6 +159,7 @@ Java_pan_alexander_tordnscrypt_vpn_service_ServiceVPN_jni_1start(
     loglevel = loglevel_;
     max_tun_msg = 0;
     ctx->stopping = 0;
+    atomic_store(&ctx->reload, 0);
 
     log_android(ANDROID_LOG_WARN, "Starting level %d", loglevel);
 
@@ -203,6 +204,17 @@ Java_pan_alexander_tordnscrypt_vpn_service_ServiceVPN_jni_1stop(
         log_android(ANDROID_LOG_WARN, "Write pipe error %d: %s", errno, strerror(errno));
 }
 
+JNIEXPORT void JNICALL
+Java_pan_alexander_tordnscrypt_vpn_service_ServiceVPN_jni_1reload(
+        JNIEnv *env, jobject instance, jlong context) {
+    struct context *ctx = (struct context *) context;
+    atomic_store(&ctx->reload, 1);
+
+    log_android(ANDROID_LOG_WARN, "Write pipe reload");
+    if (write(ctx->pipefds[1], "r", 1) < 0)
+        log_android(ANDROID_LOG_WARN, "Write pipe error %d: %s", errno, strerror(errno));
+}
+
 JNIEXPORT void JNICALL
 Java_pan_alexander_tordnscrypt_vpn_service_ServiceVPN_jni_1clear(
         JNIEnv *env, jobject instance, jlong context) {
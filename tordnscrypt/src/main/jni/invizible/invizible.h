@@ -24,6 +24,7 @@
 #include <time.h>
 #include <unistd.h>
 #include <pthread.h>
+#include <stdatomic.h>
 #include <setjmp.h>
 #include <errno.h>
 #include <fcntl.h>
@@ -93,10 +94,15 @@
 #define SOCKS5_CONNECT 4
 #define SOCKS5_CONNECTED 5
 
+#define ROUTE_DIRECT 0
+#define ROUTE_TOR 1
+#define ROUTE_PROXY 2
+
 struct context {
     pthread_mutex_t lock;
     int pipefds[2];
     int stopping;
+    atomic_int reload;
     int sdk;
     struct ng_session *ng_session;
 };
@@ -171,6 +177,7 @@ struct udp_session {
     __be16 dest; // network notation
 
     uint8_t state;
+    struct allowed redirect; // empty raddr if not redirected
 };
 
 struct tcp_session {
@@ -209,6 +216,8 @@ struct tcp_session {
 
     uint8_t state;
     uint8_t socks5;
+    uint8_t route; // ROUTE_DIRECT if redirected
+    struct allowed redirect; // empty raddr if not redirected
     struct segment *forward;
 };
 
@@ -347,6 +356,10 @@ void report_error(const struct arguments *args, jint error, const char *fmt, ...
 
 void check_allowed(const struct arguments *args);
 
+void copy_redirect(struct allowed *dst, const struct allowed *redirect);
+
+int is_same_redirect(const struct allowed *current, const struct allowed *redirect);
+
 void clear(struct context *ctx);
 
 int check_icmp_session(const struct arguments *args,
@@ -449,6 +462,8 @@ int open_udp_socket(const struct arguments *args,
 int open_tcp_socket(const struct arguments *args,
                     const struct tcp_session *cur, const struct allowed *redirect);
 
+uint8_t get_tcp_route(const struct arguments *args, const struct tcp_session *cur);
+
 int32_t get_local_port(const int sock);
 
 int write_syn_ack(const struct arguments *args, struct tcp_session *cur);
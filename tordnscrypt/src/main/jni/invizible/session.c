@@ -91,6 +91,11 @@ void *handle_events(void *a) {
     while (!args->ctx->stopping) {
         log_android(ANDROID_LOG_DEBUG, "Loop");
 
+        // Terminate sessions not allowed anymore after rules update
+        if (atomic_exchange(&args->ctx->reload, 0)) {
+            check_allowed(args);
+        }
+
         int recheck = 0;
         int timeout = EPOLL_TIMEOUT;
 
@@ -284,6 +289,23 @@ void *handle_events(void *a) {
     return NULL;
 }
 
+void copy_redirect(struct allowed *dst, const struct allowed *redirect) {
+    if (redirect == NULL || *redirect->raddr == 0 || redirect->rport == 0) {
+        *dst->raddr = 0;
+        dst->rport = 0;
+    } else {
+        strcpy(dst->raddr, redirect->raddr);
+        dst->rport = redirect->rport;
+    }
+}
+
+int is_same_redirect(const struct allowed *current, const struct allowed *redirect) {
+    if (redirect == NULL || *redirect->raddr == 0 || redirect->rport == 0)
+        return *current->raddr == 0;
+    return current->rport == redirect->rport && strcmp(current->raddr, redirect->raddr) == 0;
+}
+
+// Terminates sessions that are not allowed anymore or whose route was changed by updated rules
 void check_allowed(const struct arguments *args) {
     char source[INET6_ADDRSTRLEN + 1];
     char dest[INET6_ADDRSTRLEN + 1];
@@ -324,10 +346,15 @@ void check_allowed(const struct arguments *args) {
                 jobject objPacket = create_packet(
                         args, s->udp.version, IPPROTO_UDP, "",
                         source, ntohs(s->udp.source), dest, ntohs(s->udp.dest), "", s->udp.uid, 0);
-                if (is_address_allowed(args, objPacket) == NULL) {
+                struct allowed *redirect = is_address_allowed(args, objPacket);
+                if (redirect == NULL) {
                     s->udp.state = UDP_FINISHING;
                     log_android(ANDROID_LOG_WARN, "UDP terminate session socket %d uid %d",
                                 s->socket, s->udp.uid);
+                } else if (!is_same_redirect(&s->udp.redirect, redirect)) {
+                    s->udp.state = UDP_FINISHING;
+                    log_android(ANDROID_LOG_WARN, "UDP terminate rerouted session socket %d uid %d",
+                                s->socket, s->udp.uid);
                 }
             } else if (s->udp.state == UDP_BLOCKED) {
                 log_android(ANDROID_LOG_WARN, "UDP remove blocked session uid %d", s->udp.uid);
@@ -356,10 +383,17 @@ void check_allowed(const struct arguments *args) {
                 jobject objPacket = create_packet(
                         args, s->tcp.version, IPPROTO_TCP, "",
                         source, ntohs(s->tcp.source), dest, ntohs(s->tcp.dest), "", s->tcp.uid, 0);
-                if (is_address_allowed(args, objPacket) == NULL) {
+                struct allowed *redirect = is_address_allowed(args, objPacket);
+                if (redirect == NULL) {
                     write_rst(args, &s->tcp);
                     log_android(ANDROID_LOG_WARN, "TCP terminate socket %d uid %d",
                                 s->socket, s->tcp.uid);
+                } else if (!is_same_redirect(&s->tcp.redirect, redirect)
+                           || (*s->tcp.redirect.raddr == 0
+                               && get_tcp_route(args, &s->tcp) != s->tcp.route)) {
+                    write_rst(args, &s->tcp);
+                    log_android(ANDROID_LOG_WARN, "TCP terminate rerouted socket %d uid %d",
+                                s->socket, s->tcp.uid);
                 }
             }
 
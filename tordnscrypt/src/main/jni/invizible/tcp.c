@@ -808,6 +808,10 @@ jboolean handle_tcp(const struct arguments *args,
                 s->tcp.forward->next = NULL;
             }
 
+            // Remember the route to terminate the session if updated rules change it
+            copy_redirect(&s->tcp.redirect, redirect);
+            s->tcp.route = (redirect == NULL ? get_tcp_route(args, &s->tcp) : ROUTE_DIRECT);
+
             // Open socket
             s->socket = open_tcp_socket(args, &s->tcp, redirect);
             if (s->socket < 0) {
@@ -1073,6 +1077,27 @@ void queue_tcp(const struct arguments *args,
     }
 }
 
+uint8_t get_tcp_route(const struct arguments *args, const struct tcp_session *cur) {
+    char dest[INET6_ADDRSTRLEN + 1];
+    if (cur->version == 4) {
+        inet_ntop(AF_INET, &cur->daddr.ip4, dest, sizeof(dest));
+    } else {
+        inet_ntop(AF_INET6, &cur->daddr.ip6, dest, sizeof(dest));
+    }
+
+    if (*tor_socks5_addr && tor_socks5_port
+        && is_redirect_to_tor(args, cur->uid, dest, cur->dest)) {
+        return ROUTE_TOR;
+    }
+
+    if (*proxy_socks5_addr && proxy_socks5_port
+        && is_redirect_to_proxy(args, cur->uid, dest, cur->dest)) {
+        return ROUTE_PROXY;
+    }
+
+    return ROUTE_DIRECT;
+}
+
 int open_tcp_socket(const struct arguments *args,
                     const struct tcp_session *cur, const struct allowed *redirect) {
     int sock;
@@ -1110,29 +1135,12 @@ int open_tcp_socket(const struct arguments *args,
         return -1;
     }
 
-    char dest[INET6_ADDRSTRLEN + 1];
-    if (version == 4) {
-        inet_ntop(AF_INET, &cur->daddr.ip4, dest, sizeof(dest));
-    } else {
-        inet_ntop(AF_INET6, &cur->daddr.ip6, dest, sizeof(dest));
-    }
-
     // Build target address
     struct sockaddr_in addr4;
     struct sockaddr_in6 addr6;
     if (redirect == NULL) {
 
-        bool redirect_to_tor = false;
-        if (*tor_socks5_addr && tor_socks5_port) {
-            redirect_to_tor = is_redirect_to_tor(args, cur->uid, dest, cur->dest);
-        }
-
-        bool redirect_to_proxy = false;
-        if (*proxy_socks5_addr && proxy_socks5_port) {
-            redirect_to_proxy = is_redirect_to_proxy(args,  cur->uid, dest, cur->dest);
-        }
-
-        if (redirect_to_tor) {
+        if (cur->route == ROUTE_TOR) {
             log_android(ANDROID_LOG_INFO, "TCP%d SOCKS5 to %s/%u",
                         version, tor_socks5_addr, tor_socks5_port);
 
@@ -1145,7 +1153,7 @@ int open_tcp_socket(const struct arguments *args,
                 inet_pton(AF_INET6, tor_socks5_addr, &addr6.sin6_addr);
                 addr6.sin6_port = htons(tor_socks5_port);
             }
-        } else if (redirect_to_proxy) {
+        } else if (cur->route == ROUTE_PROXY) {
             log_android(ANDROID_LOG_INFO, "TCP%d SOCKS5 to %s/%u",
                         version, proxy_socks5_addr, proxy_socks5_port);
 
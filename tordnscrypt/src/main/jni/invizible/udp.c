@@ -309,6 +309,9 @@ jboolean handle_udp(const struct arguments *args,
         s->udp.state = UDP_ACTIVE;
         s->next = NULL;
 
+        // Remember the redirect to terminate the session if updated rules change it
+        copy_redirect(&s->udp.redirect, redirect);
+
         // Open UDP socket
         s->socket = open_udp_socket(args, &s->udp, redirect);
         if (s->socket < 0) {
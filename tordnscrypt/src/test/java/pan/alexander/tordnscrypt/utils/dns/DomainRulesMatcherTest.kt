@@ -0,0 +1,273 @@
+package pan.alexander.tordnscrypt.utils.dns
+
+/*
+    This file is part of InviZible Pro.
+
+    InviZible Pro is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    InviZible Pro is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with InviZible Pro.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2019-2021 by Garmatin Oleksandr invizible.soft@gmail.com
+*/
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+//Expected results follow the dnscrypt-proxy pattern matcher and the Go path.Match it uses for globs
+class DomainRulesMatcherTest {
+
+    @Test
+    fun suffixRuleMatchesDomainAndSubdomains() {
+        val matcher = matcherOf("example.com")
+
+        assertTrue(matcher.matches("example.com"))
+        assertTrue(matcher.matches("www.example.com"))
+        assertTrue(matcher.matches("a.b.example.com"))
+        assertFalse(matcher.matches("badexample.com"))
+        assertFalse(matcher.matches("example.com.evil.net"))
+        assertFalse(matcher.matches("example.co"))
+        assertFalse(matcher.matches("com"))
+    }
+
+    @Test
+    fun leadingStarIsSuffixRule() {
+        val matcher = matcherOf("*.example.com", "*example.net")
+
+        assertTrue(matcher.matches("example.com"))
+        assertTrue(matcher.matches("www.example.com"))
+        assertTrue(matcher.matches("example.net"))
+        assertTrue(matcher.matches("www.example.net"))
+        assertFalse(matcher.matches("badexample.com"))
+        assertFalse(matcher.matches("badexample.net"))
+    }
+
+    @Test
+    fun exactRuleMatchesDomainOnly() {
+        val matcher = matcherOf("=example.com")
+
+        assertTrue(matcher.matches("example.com"))
+        assertFalse(matcher.matches("www.example.com"))
+        assertFalse(matcher.matches("example.com.net"))
+    }
+
+    @Test
+    fun prefixRule() {
+        val matcher = matcherOf("ads.*")
+
+        assertTrue(matcher.matches("ads.example.com"))
+        assertTrue(matcher.matches("ads.net"))
+        assertFalse(matcher.matches("bads.example.com"))
+        assertFalse(matcher.matches("adserver.com"))
+    }
+
+    @Test
+    fun substringRule() {
+        val matcher = matcherOf("*tracker*")
+
+        assertTrue(matcher.matches("tracker.com"))
+        assertTrue(matcher.matches("mytracker.net"))
+        assertTrue(matcher.matches("www.trackers.org"))
+        assertFalse(matcher.matches("track.er.com"))
+    }
+
+    @Test
+    fun overlappingSubstrings() {
+        val matcher = DomainRulesMatcher.Builder().apply {
+            add("*he*", "he")
+            add("*she*", "she")
+            add("*hers*", "hers")
+        }.build()
+
+        assertEquals("she", matcher.match("ushe.com"))
+        assertEquals("he", matcher.match("hex.com"))
+        assertTrue(matcher.matches("ushers.com"))
+        assertFalse(matcher.matches("example.com"))
+    }
+
+    @Test
+    fun globWithQuestionMark() {
+        val matcher = matcherOf("a?c.example.com")
+
+        assertTrue(matcher.matches("abc.example.com"))
+        assertTrue(matcher.matches("a.c.example.com"))
+        assertFalse(matcher.matches("ac.example.com"))
+        assertFalse(matcher.matches("abbc.example.com"))
+        assertFalse(matcher.matches("www.abc.example.com"))
+    }
+
+    @Test
+    fun innerStarIsGlobAndMatchesDots() {
+        val matcher = matcherOf("ad*.example.com")
+
+        assertTrue(matcher.matches("ad.example.com"))
+        assertTrue(matcher.matches("adserver.example.com"))
+        assertTrue(matcher.matches("ad.cdn.example.com"))
+        assertFalse(matcher.matches("www.ad.example.com"))
+        assertFalse(matcher.matches("ad.example.net"))
+    }
+
+    @Test
+    fun globWithRanges() {
+        val matcher = matcherOf("ads[0-9].example.com", "[a-c][x-z].net")
+
+        assertTrue(matcher.matches("ads0.example.com"))
+        assertTrue(matcher.matches("ads9.example.com"))
+        assertFalse(matcher.matches("adsa.example.com"))
+        assertFalse(matcher.matches("ads10.example.com"))
+        assertTrue(matcher.matches("by.net"))
+        assertFalse(matcher.matches("dy.net"))
+        assertFalse(matcher.matches("bw.net"))
+    }
+
+    @Test
+    fun globWithSeveralRangesInClass() {
+        val matcher = matcherOf("x[a-c0-2_].com")
+
+        assertTrue(matcher.matches("xb.com"))
+        assertTrue(matcher.matches("x1.com"))
+        assertTrue(matcher.matches("x_.com"))
+        assertFalse(matcher.matches("x3.com"))
+        assertFalse(matcher.matches("xd.com"))
+    }
+
+    @Test
+    fun globWithNegatedClass() {
+        val matcher = matcherOf("[^a-c]x.com", "y[^0-9].net")
+
+        assertTrue(matcher.matches("dx.com"))
+        assertTrue(matcher.matches("-x.com"))
+        assertFalse(matcher.matches("ax.com"))
+        assertFalse(matcher.matches("cx.com"))
+        assertTrue(matcher.matches("ya.net"))
+        assertFalse(matcher.matches("y5.net"))
+    }
+
+    @Test
+    fun globWithEscapes() {
+        val matcher = matcherOf("a\\*b.co?", "x\\[y]?.org", "[\\]\\-]z.net")
+
+        assertTrue(matcher.matches("a*b.com"))
+        assertFalse(matcher.matches("axb.com"))
+        assertFalse(matcher.matches("aaab.com"))
+        assertTrue(matcher.matches("x[y]1.org"))
+        assertFalse(matcher.matches("xy1.org"))
+        assertTrue(matcher.matches("]z.net"))
+        assertTrue(matcher.matches("-z.net"))
+        assertFalse(matcher.matches("az.net"))
+    }
+
+    @Test
+    fun globWithEscapedRangeBounds() {
+        val matcher = matcherOf("[\\a-\\c]?.com")
+
+        assertTrue(matcher.matches("b1.com"))
+        assertFalse(matcher.matches("d1.com"))
+    }
+
+    @Test
+    fun globBacktracking() {
+        val matcher = matcherOf("*a*b*c*", "x*y*z.com")
+
+        assertTrue(matcher.matches("xaybzc.net"))
+        assertTrue(matcher.matches("abc.net"))
+        assertFalse(matcher.matches("cba.net"))
+        assertTrue(matcher.matches("xyyyzz.com"))
+        assertTrue(matcher.matches("xzyz.com"))
+        assertFalse(matcher.matches("xzy.com"))
+    }
+
+    @Test(timeout = 1000)
+    fun globBacktrackingIsNotExponential() {
+        val matcher = matcherOf("a*a*a*a*a*a*a*a*b.com")
+
+        assertFalse(matcher.matches("a".repeat(5000) + ".com"))
+        assertTrue(matcher.matches("a".repeat(5000) + "b.com"))
+    }
+
+    @Test
+    fun globWithoutLiteralPart() {
+        val matcher = matcherOf("[a-z]?")
+
+        assertTrue(matcher.matches("ab"))
+        assertFalse(matcher.matches("abc"))
+        assertFalse(matcher.matches("1b"))
+    }
+
+    @Test
+    fun malformedGlobsAreRejected() {
+        val builder = DomainRulesMatcher.Builder()
+
+        assertFalse(builder.add("[a.com"))
+        assertFalse(builder.add("[].com"))
+        assertFalse(builder.add("[]a].com"))
+        assertFalse(builder.add("[^].com"))
+        assertFalse(builder.add("[-a].com"))
+        assertFalse(builder.add("[a-].com"))
+        assertFalse(builder.add("[a-\\"))
+        assertFalse(builder.add("a?b\\"))
+
+        assertEquals(0, builder.build().size)
+    }
+
+    @Test
+    fun invalidRulesAreSkipped() {
+        val builder = DomainRulesMatcher.Builder()
+
+        assertFalse(builder.add(""))
+        assertFalse(builder.add("   "))
+        assertFalse(builder.add("# example.com"))
+        assertFalse(builder.add("*"))
+        assertFalse(builder.add("**"))
+        assertFalse(builder.add("="))
+        assertTrue(builder.add("example.com"))
+
+        assertEquals(1, builder.build().size)
+    }
+
+    @Test
+    fun mostSpecificRuleWins() {
+        val matcher = DomainRulesMatcher.Builder().apply {
+            add("example.com", "suffix")
+            add("ads.example.com", "deeper suffix")
+            add("=www.example.com", "exact")
+        }.build()
+
+        assertEquals("suffix", matcher.match("cdn.example.com"))
+        assertEquals("deeper suffix", matcher.match("x.ads.example.com"))
+        assertEquals("exact", matcher.match("www.example.com"))
+        assertEquals("suffix", matcher.match("a.www.example.com"))
+    }
+
+    @Test
+    fun rulesAndDomainsAreNormalized() {
+        val matcher = matcherOf("  Example.COM  ", "=Exact.Net")
+
+        assertTrue(matcher.matches("WWW.example.com."))
+        assertTrue(matcher.matches("exact.net."))
+    }
+
+    @Test
+    fun emptyMatcher() {
+        val matcher = DomainRulesMatcher.Builder().build()
+
+        assertEquals(0, matcher.size)
+        assertNull(matcher.match("example.com"))
+    }
+
+    private fun matcherOf(vararg rules: String): DomainRulesMatcher =
+        DomainRulesMatcher.Builder().apply {
+            rules.forEach { assertTrue(it, add(it)) }
+        }.build()
+}